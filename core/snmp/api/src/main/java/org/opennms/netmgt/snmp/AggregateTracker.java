@@ -141,7 +141,7 @@ public class AggregateTracker extends CollectionTracker {
         }
     }
 
-    private class ChildTrackerResponseProcessor implements ResponseProcessor {
+    private class ChildTrackerResponseProcessor implements NumericResponseProcessor {
         private final int m_repeaters;
     
         private final PduBuilder m_pduBuilder;
@@ -164,6 +164,16 @@ public class AggregateTracker extends CollectionTracker {
             ChildTrackerPduBuilder childBuilder = getChildBuilder(m_currResponseIndex++);
             childBuilder.getResponseProcessor().processResponse(snmpObjId, val);
         }
+
+        @Override
+        public boolean processNumericResponse(int[] ids, int length, long value) {
+            ResponseProcessor rp = getChildBuilder(m_currResponseIndex).getResponseProcessor();
+            if (rp instanceof NumericResponseProcessor && ((NumericResponseProcessor)rp).processNumericResponse(ids, length, value)) {
+                m_currResponseIndex++;
+                return true;
+            }
+            return false;
+        }
     
         public boolean processChildError(int errorStatus, int errorIndex) {
             int canonicalIndex = getCanonicalIndex(errorIndex-1);
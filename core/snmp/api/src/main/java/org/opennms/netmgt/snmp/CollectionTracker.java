@@ -78,6 +78,22 @@ public abstract class CollectionTracker implements Collectable {
         }
     }
     
+    /**
+     * Returns true if numeric column values can be passed to
+     * {@link #storeNumericResult(SnmpObjId, int, long)} rather than
+     * {@link #storeResult(SnmpResult)}.  By default this is decided by the
+     * parent tracker.
+     */
+    protected boolean acceptsNumericResults() {
+        return m_parent != null && m_parent.acceptsNumericResults();
+    }
+
+    protected void storeNumericResult(SnmpObjId base, int instance, long value) {
+        if (m_parent != null) {
+            m_parent.storeNumericResult(base, instance, value);
+        }
+    }
+
     public boolean isFinished() {
         return m_finished;
     }
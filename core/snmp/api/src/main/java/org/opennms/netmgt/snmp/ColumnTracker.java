@@ -36,7 +36,9 @@ public class ColumnTracker extends CollectionTracker {
 	private static final transient Logger LOG = LoggerFactory.getLogger(ColumnTracker.class);
     
     private SnmpObjId m_base;
+    /** null when the last response was handled as a numeric value for m_lastInstance */
     private SnmpObjId m_last;
+    private int m_lastInstance;
     private int m_maxRepetitions;
 
     public ColumnTracker(SnmpObjId base) {
@@ -66,7 +68,7 @@ public class ColumnTracker extends CollectionTracker {
     public String toString() {
         return new ToStringBuilder(this)
             .append("base", m_base)
-            .append("last oid", m_last)
+            .append("last oid", getLast())
             .append("max repetitions", m_maxRepetitions)
             .append("finished?", isFinished())
             .toString();
@@ -77,12 +79,34 @@ public class ColumnTracker extends CollectionTracker {
             throw new IllegalArgumentException("maxVarsPerPdu < 1");
         }
 
-        LOG.debug("Requesting oid following: {}", m_last);
-        pduBuilder.addOid(m_last);
+        final SnmpObjId last = getLast();
+        LOG.debug("Requesting oid following: {}", last);
+        pduBuilder.addOid(last);
         pduBuilder.setNonRepeaters(0);
         pduBuilder.setMaxRepetitions(getMaxRepetitions());
-        
-        ResponseProcessor rp = new ResponseProcessor() {
+
+        final boolean acceptsNumericResults = acceptsNumericResults();
+
+        ResponseProcessor rp = new NumericResponseProcessor() {
+
+            @Override
+            public boolean processNumericResponse(int[] ids, int length, long value) {
+                // only instances made of a single sub-id below this column are
+                // handled here, everything else takes the SnmpValue path
+                if (!acceptsNumericResults || length != m_base.length() + 1 || !m_base.isPrefixOf(ids, length)) {
+                    return false;
+                }
+
+                final int instance = ids[length - 1];
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Processing numeric varBind: {}.{} = {}", m_base, instance, value);
+                }
+
+                m_last = null;
+                m_lastInstance = instance;
+                storeNumericResult(m_base, instance, value);
+                return true;
+            }
 
             @Override
             public void processResponse(SnmpObjId responseObjId, SnmpValue val) {
@@ -112,17 +136,17 @@ public class ColumnTracker extends CollectionTracker {
                 if (errorStatus == NO_ERR) {
                     return false;
                 } else if (errorStatus == TOO_BIG_ERR) {
-                    throw new IllegalArgumentException("Unable to handle tooBigError for next oid request after "+m_last);
+                    throw new IllegalArgumentException("Unable to handle tooBigError for next oid request after "+getLast());
                 } else if (errorStatus == GEN_ERR) {
-                    reportGenErr("Received genErr requesting next oid after "+m_last+". Marking column is finished.");
+                    reportGenErr("Received genErr requesting next oid after "+getLast()+". Marking column is finished.");
                     errorOccurred();
                     return true;
                 } else if (errorStatus == NO_SUCH_NAME_ERR) {
-                    reportNoSuchNameErr("Received noSuchName requesting next oid after "+m_last+". Marking column is finished.");
+                    reportNoSuchNameErr("Received noSuchName requesting next oid after "+getLast()+". Marking column is finished.");
                     errorOccurred();
                     return true;
                 } else {
-                    throw new IllegalArgumentException("Unexpected error processing next oid after "+m_last+". Aborting!");
+                    throw new IllegalArgumentException("Unexpected error processing next oid after "+getLast()+". Aborting!");
                 }
             }
         };
@@ -148,11 +172,20 @@ public class ColumnTracker extends CollectionTracker {
     }
 
     public SnmpInstId getLastInstance() {
-        if (m_base.isPrefixOf(m_last) && !m_base.equals(m_last)) {
+        if (m_last == null) {
+            return new SnmpInstId(m_lastInstance);
+        } else if (m_base.isPrefixOf(m_last) && !m_base.equals(m_last)) {
             return m_last.getInstance(m_base);
         } else {
             return null;
         }
     }
+
+    private SnmpObjId getLast() {
+        if (m_last == null) {
+            m_last = m_base.append(new int[] { m_lastInstance });
+        }
+        return m_last;
+    }
     
 }
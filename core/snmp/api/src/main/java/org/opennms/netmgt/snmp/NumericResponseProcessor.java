@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+/**
+ * A {@link ResponseProcessor} that can also accept numeric varbinds as
+ * primitives, so the SNMP strategy does not have to wrap each of them in
+ * {@link SnmpObjId} and {@link SnmpValue} objects.
+ */
+public interface NumericResponseProcessor extends ResponseProcessor {
+
+    /**
+     * Processes a counter, gauge, integer or timeticks varbind.
+     *
+     * @param ids the sub-identifiers of the response OID; only the first
+     *            <code>length</code> entries are valid and the array belongs
+     *            to the caller, so it must not be kept
+     * @param length the number of sub-identifiers in the OID
+     * @param value the value of the varbind
+     * @return true if the varbind was handled, false if the caller must pass
+     *         it to {@link #processResponse(SnmpObjId, SnmpValue)} instead
+     */
+    boolean processNumericResponse(int[] ids, int length, long value);
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+/**
+ * A {@link TableTracker} that hands counter, gauge, integer and timeticks
+ * values to a {@link NumericResultCallback} as primitives, keyed by the
+ * position of the column and the instance sub-id.
+ *
+ * When the SNMP strategy supports it (see {@link NumericResponseProcessor})
+ * no {@link SnmpObjId}, {@link SnmpValue} or {@link SnmpResult} objects are
+ * created for these values.  Everything else (strings, addresses, instances
+ * made of more than one sub-id, or strategies without primitive support)
+ * goes through the usual {@link RowCallback} path, so a row may be split
+ * between the two callbacks.
+ */
+public class NumericTableTracker extends TableTracker {
+
+    private final NumericResultCallback m_numericCallback;
+
+    private final SnmpObjId[] m_columns;
+
+    public NumericTableTracker(NumericResultCallback numericCallback, SnmpObjId... columns) {
+        this(numericCallback, null, 2, columns);
+    }
+
+    public NumericTableTracker(NumericResultCallback numericCallback, RowCallback rc, int maxRepetitions, SnmpObjId... columns) {
+        super(rc, maxRepetitions, columns);
+        m_numericCallback = numericCallback;
+        m_columns = columns.clone();
+    }
+
+    @Override
+    protected boolean acceptsNumericResults() {
+        return true;
+    }
+
+    @Override
+    protected void storeNumericResult(SnmpObjId base, int instance, long value) {
+        m_numericCallback.numericResult(getColumnIndex(base), instance, value);
+    }
+
+    private int getColumnIndex(SnmpObjId base) {
+        // the column trackers hand back the same objects we were created with
+        for (int i = 0; i < m_columns.length; i++) {
+            if (m_columns[i] == base) {
+                return i;
+            }
+        }
+        for (int i = 0; i < m_columns.length; i++) {
+            if (m_columns[i].equals(base)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected column " + base);
+    }
+
+}
@@ -245,6 +245,22 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
         return true;
     }
 
+    /**
+     * Same as {@link #isPrefixOf(SnmpObjId)} for the first <code>length</code>
+     * sub-identifiers of <code>ids</code>, without creating an SnmpObjId.
+     */
+    public boolean isPrefixOf(final int[] ids, final int length) {
+        if (ids == null || length() > length)
+            return false;
+
+        for(int i = 0; i < m_ids.length; i++) {
+            if (m_ids[i] != ids[i])
+                return false;
+        }
+
+        return true;
+    }
+
     public SnmpInstId getInstance(SnmpObjId base) {
         if (!base.isPrefixOf(this)) return null;
         
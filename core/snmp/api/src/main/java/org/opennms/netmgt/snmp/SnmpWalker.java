@@ -202,6 +202,16 @@ public abstract class SnmpWalker implements Closeable {
         m_responseProcessor.processResponse(receivedOid, val);
     }
 
+    /**
+     * Offers a numeric varbind to the current tracker without creating value
+     * objects.  If this returns false the varbind must be passed to
+     * {@link #processResponse(SnmpObjId, SnmpValue)} instead.
+     */
+    protected boolean processNumericResponse(int[] ids, int length, long value) {
+        return m_responseProcessor instanceof NumericResponseProcessor
+            && ((NumericResponseProcessor)m_responseProcessor).processNumericResponse(ids, length, value);
+    }
+
     protected final InetAddress getAddress() {
         return m_address;
     }
@@ -150,7 +150,7 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
         return trackers;
     }
 
-    static private class CombinedColumnResponseProcessor implements ResponseProcessor {
+    static private class CombinedColumnResponseProcessor implements NumericResponseProcessor {
         private final List<ResponseProcessor> m_processors;
         private int m_currentIndex = 0;
 
@@ -174,6 +174,25 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
 
         }
 
+        @Override
+        public boolean processNumericResponse(int[] ids, int length, long value) {
+            ResponseProcessor rp = m_processors.get(m_currentIndex);
+            try {
+                // leave the index alone if the varbind is going to come back
+                // through processResponse
+                if (!(rp instanceof NumericResponseProcessor) || !((NumericResponseProcessor)rp).processNumericResponse(ids, length, value)) {
+                    return false;
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to process response", e);
+            }
+
+            if (++m_currentIndex == m_processors.size()) {
+                m_currentIndex = 0;
+            }
+            return true;
+        }
+
         @Override
         public boolean processErrors(int errorStatus, int errorIndex) {
             
@@ -182,7 +201,12 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
              * 
              * 
              */
-            
+
+            if (errorStatus == NO_ERR) {
+                // errorIndex is 0 here so there is no column to hand this to
+                return false;
+            }
+
             int columnIndex = (errorIndex - 1) % m_processors.size();
             
             ResponseProcessor rp = m_processors.get(columnIndex);
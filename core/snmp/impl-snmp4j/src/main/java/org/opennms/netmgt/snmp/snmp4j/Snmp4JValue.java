@@ -165,7 +165,11 @@ class Snmp4JValue extends AbstractSnmpValue {
     
     @Override
     public boolean isNumeric() {
-        switch (m_value.getSyntax()) {
+        return isNumeric(m_value);
+    }
+
+    static boolean isNumeric(final Variable value) {
+        switch (value.getSyntax()) {
         case SMIConstants.SYNTAX_INTEGER:
         case SMIConstants.SYNTAX_COUNTER32:
         case SMIConstants.SYNTAX_COUNTER64:
@@ -197,13 +201,11 @@ class Snmp4JValue extends AbstractSnmpValue {
     public long toLong() {
         switch (m_value.getSyntax()) {
         case SMIConstants.SYNTAX_COUNTER64:
-            return ((Counter64)m_value).getValue();
         case SMIConstants.SYNTAX_INTEGER:
-            return ((Integer32)m_value).getValue();
         case SMIConstants.SYNTAX_COUNTER32:
         case SMIConstants.SYNTAX_TIMETICKS:
         case SMIConstants.SYNTAX_UNSIGNED_INTEGER32:
-            return ((UnsignedInteger32)m_value).getValue();
+            return toLong(m_value);
         case SMIConstants.SYNTAX_OCTET_STRING:
             return (convertStringToLong());
         default:
@@ -211,6 +213,25 @@ class Snmp4JValue extends AbstractSnmpValue {
         }
     }
 
+    /**
+     * Converts a variable for which {@link #isNumeric(Variable)} is true
+     * without wrapping it in a Snmp4JValue.
+     */
+    static long toLong(final Variable value) {
+        switch (value.getSyntax()) {
+        case SMIConstants.SYNTAX_COUNTER64:
+            return ((Counter64)value).getValue();
+        case SMIConstants.SYNTAX_INTEGER:
+            return ((Integer32)value).getValue();
+        case SMIConstants.SYNTAX_COUNTER32:
+        case SMIConstants.SYNTAX_TIMETICKS:
+        case SMIConstants.SYNTAX_UNSIGNED_INTEGER32:
+            return ((UnsignedInteger32)value).getValue();
+        default:
+            throw new IllegalArgumentException("cannot convert "+value+" to a long");
+        }
+    }
+
     private long convertStringToLong() {
         return Double.valueOf(m_value.toString()).longValue();
     }
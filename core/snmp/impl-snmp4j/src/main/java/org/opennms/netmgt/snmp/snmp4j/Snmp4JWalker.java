@@ -43,6 +43,7 @@ import org.snmp4j.event.ResponseEvent;
 import org.snmp4j.event.ResponseListener;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
 import org.snmp4j.smi.VariableBinding;
 
 public class Snmp4JWalker extends SnmpWalker {
@@ -134,7 +135,7 @@ public class Snmp4JWalker extends SnmpWalker {
      */
     public class Snmp4JResponseListener implements ResponseListener {
 
-        private void processResponse(final PDU response) {
+        void processResponse(final PDU response) {
             try {
                 LOG.debug("Received a tracker PDU of type {} from {} of size {}, errorStatus = {}, errorStatusText = {}, errorIndex = {}", PDU.getTypeString(response.getType()), getAddress(), response.size(), response.getErrorStatus(), response.getErrorStatusText(), response.getErrorIndex());
                 if (response.getType() == PDU.REPORT) {
@@ -146,6 +147,14 @@ public class Snmp4JWalker extends SnmpWalker {
                         } else {
                             for (int i = 0; i < response.size(); i++) {
                                 final VariableBinding vb = response.get(i);
+                                final Variable var = vb.getVariable();
+                                if (Snmp4JValue.isNumeric(var)) {
+                                    // OID.getValue() hands back the OID's own array, no copy is made
+                                    final OID oid = vb.getOid();
+                                    if (Snmp4JWalker.this.processNumericResponse(oid.getValue(), oid.size(), Snmp4JValue.toLong(var))) {
+                                        continue;
+                                    }
+                                }
                                 final SnmpObjId receivedOid = SnmpObjId.get(vb.getOid().getValue());
                                 final SnmpValue val = new Snmp4JValue(vb.getVariable());
                                 Snmp4JWalker.this.processResponse(receivedOid, val);
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.snmp4j.PDU;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * A {@link Snmp4JWalker} that hands its requests to a {@link Responder}
+ * instead of the network, so trackers can be driven with real SNMP4J PDUs
+ * on the calling thread.
+ */
+public class InMemorySnmp4JWalker extends Snmp4JWalker {
+
+    public interface Responder {
+        PDU respond(PDU request);
+    }
+
+    /**
+     * Answers GETNEXT and GETBULK requests from data in the format used by
+     * the mock SNMP agent (<code>.1.3.6... = Counter32: 42</code>).
+     */
+    public static class MockAgentResponder implements Responder {
+        private final TreeMap<OID, Variable> m_data;
+
+        public MockAgentResponder(SortedMap<OID, Variable> data) {
+            m_data = new TreeMap<OID, Variable>(data);
+        }
+
+        public static SortedMap<OID, Variable> load(URL resource) throws IOException {
+            final Properties props = new Properties();
+            try (InputStream in = resource.openStream()) {
+                props.load(in);
+            }
+            final SortedMap<OID, Variable> data = new TreeMap<OID, Variable>();
+            for (final Entry<Object, Object> e : props.entrySet()) {
+                final String key = (String)e.getKey();
+                if (key.startsWith(".")) {
+                    data.put(new OID(key), parseValue((String)e.getValue()));
+                }
+            }
+            return data;
+        }
+
+        private static Variable parseValue(String valStr) {
+            final int colon = valStr.indexOf(':');
+            if (colon < 0) {
+                return new OctetString(valStr);
+            }
+            final String type = valStr.substring(0, colon);
+            final String value = valStr.substring(colon + 1).trim();
+            switch (type) {
+            case "INTEGER":
+                return new Integer32(Integer.parseInt(value));
+            case "Gauge32":
+                return new Gauge32(Long.parseLong(value));
+            case "Counter32":
+                return new Counter32(Long.parseLong(value));
+            case "Counter64":
+                return new Counter64(Long.parseLong(value));
+            case "Timeticks":
+                return new TimeTicks(Long.parseLong(value.substring(value.indexOf('(') + 1, value.indexOf(')'))));
+            case "OID":
+                return new OID(value);
+            case "IpAddress":
+                return new IpAddress(value);
+            case "Hex-STRING":
+                return OctetString.fromHexString(value.replace(' ', ':'));
+            case "STRING":
+                return new OctetString(value.startsWith("\"") && value.endsWith("\"") && value.length() > 1 ? value.substring(1, value.length() - 1) : value);
+            default:
+                return new OctetString(value);
+            }
+        }
+
+        @Override
+        public PDU respond(PDU request) {
+            final PDU response = new PDU();
+            response.setType(PDU.RESPONSE);
+            response.setRequestID(request.getRequestID());
+
+            final int nonRepeaters = request.getType() == PDU.GETBULK ? Math.min(request.getNonRepeaters(), request.size()) : request.size();
+            for (int i = 0; i < nonRepeaters; i++) {
+                response.add(next(request.get(i).getOid()));
+            }
+
+            if (request.getType() == PDU.GETBULK) {
+                final OID[] current = new OID[request.size() - nonRepeaters];
+                for (int i = 0; i < current.length; i++) {
+                    current[i] = request.get(nonRepeaters + i).getOid();
+                }
+                for (int r = 0; r < request.getMaxRepetitions(); r++) {
+                    for (int i = 0; i < current.length; i++) {
+                        final VariableBinding vb = next(current[i]);
+                        current[i] = vb.getOid();
+                        response.add(vb);
+                    }
+                }
+            }
+            return response;
+        }
+
+        private VariableBinding next(OID oid) {
+            final Map.Entry<OID, Variable> next = m_data.higherEntry(oid);
+            return next == null ? new VariableBinding(oid, Null.endOfMibView) : new VariableBinding(next.getKey(), next.getValue());
+        }
+    }
+
+    private final Responder m_responder;
+    private final Snmp4JResponseListener m_responseListener = new Snmp4JResponseListener();
+    private PDU m_request;
+
+    public InMemorySnmp4JWalker(Responder responder, int maxVarsPerPdu, int maxRepetitions, CollectionTracker tracker) {
+        super(createAgentConfig(maxVarsPerPdu, maxRepetitions), "InMemorySnmp4JWalker", tracker);
+        m_responder = responder;
+    }
+
+    private static Snmp4JAgentConfig createAgentConfig(int maxVarsPerPdu, int maxRepetitions) {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setMaxVarsPerPdu(maxVarsPerPdu);
+        config.setMaxRepetitions(maxRepetitions);
+        return new Snmp4JAgentConfig(config);
+    }
+
+    /**
+     * Runs the whole walk on the calling thread.
+     */
+    public void walk() {
+        start();
+        while (m_request != null) {
+            final PDU request = m_request;
+            m_request = null;
+            m_responseListener.processResponse(m_responder.respond(request));
+        }
+    }
+
+    @Override
+    protected void sendNextPdu(WalkerPduBuilder pduBuilder) {
+        m_request = ((Snmp4JPduBuilder)pduBuilder).getPdu();
+    }
+
+}
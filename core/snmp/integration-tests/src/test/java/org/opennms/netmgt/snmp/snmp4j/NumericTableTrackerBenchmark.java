@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.NumericResultCallback;
+import org.opennms.netmgt.snmp.NumericTableTracker;
+import org.opennms.netmgt.snmp.RowCallback;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpRowResult;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.opennms.netmgt.snmp.snmp4j.InMemorySnmp4JWalker.MockAgentResponder;
+import org.opennms.netmgt.snmp.snmp4j.InMemorySnmp4JWalker.Responder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.snmp4j.PDU;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Compares walking the interface counters of a switch through the
+ * {@link SnmpRowResult} path of a {@link TableTracker} with the primitive
+ * path of a {@link NumericTableTracker}.
+ *
+ * The ifTable rows of the mock agent data in
+ * <code>snmpTestData1.properties</code> are repeated to build a table with
+ * <code>ports</code> interfaces.  The response PDUs are captured once per
+ * trial and replayed through {@link Snmp4JWalker}, so only the decoding and
+ * tracker work is measured.  Add <code>-prof gc</code> to see the
+ * allocation rate of each path.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.snmp.snmp4j.NumericTableTrackerBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NumericTableTrackerBenchmark {
+
+    private static final String IF_ENTRY = ".1.3.6.1.2.1.2.2.1";
+
+    private static final SnmpObjId[] COLUMNS = {
+        SnmpObjId.get(IF_ENTRY + ".5"),  // ifSpeed
+        SnmpObjId.get(IF_ENTRY + ".10"), // ifInOctets
+        SnmpObjId.get(IF_ENTRY + ".11"), // ifInUcastPkts
+        SnmpObjId.get(IF_ENTRY + ".12"), // ifInNUcastPkts
+        SnmpObjId.get(IF_ENTRY + ".13"), // ifInDiscards
+        SnmpObjId.get(IF_ENTRY + ".14"), // ifInErrors
+        SnmpObjId.get(IF_ENTRY + ".16"), // ifOutOctets
+        SnmpObjId.get(IF_ENTRY + ".17"), // ifOutUcastPkts
+        SnmpObjId.get(IF_ENTRY + ".18"), // ifOutNUcastPkts
+        SnmpObjId.get(IF_ENTRY + ".19"), // ifOutDiscards
+        SnmpObjId.get(IF_ENTRY + ".20")  // ifOutErrors
+    };
+
+    private static final int MAX_VARS_PER_PDU = 10;
+    private static final int MAX_REPETITIONS = 2;
+
+    @Param({"48", "480"})
+    public int ports;
+
+    private List<PDU> m_rowResponses;
+    private List<PDU> m_numericResponses;
+
+    /**
+     * Sums everything it is handed so the work can't be optimized away.
+     */
+    private static class SummingCallback implements RowCallback, NumericResultCallback {
+        long m_sum = 0;
+
+        @Override
+        public void rowCompleted(SnmpRowResult row) {
+            for (SnmpResult result : row.getResults()) {
+                if (result.getValue().isNumeric()) {
+                    m_sum += result.getValue().toLong();
+                }
+            }
+        }
+
+        @Override
+        public void numericResult(int column, int instance, long value) {
+            m_sum += value;
+        }
+    }
+
+    /**
+     * Records the responses of a walk, then plays them back.
+     */
+    private static class ReplayingResponder implements Responder {
+        private final Responder m_delegate;
+        private final List<PDU> m_responses;
+        private int m_next = 0;
+
+        ReplayingResponder(Responder delegate, List<PDU> responses) {
+            m_delegate = delegate;
+            m_responses = responses;
+        }
+
+        @Override
+        public PDU respond(PDU request) {
+            if (m_delegate != null) {
+                final PDU response = m_delegate.respond(request);
+                m_responses.add(response);
+                return response;
+            }
+            return m_responses.get(m_next++);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final SortedMap<OID, Variable> mockData = MockAgentResponder.load(new ClassPathResource("snmpTestData1.properties").getURL());
+
+        // repeat the interfaces of the mock agent to get the requested number of ports
+        final SortedMap<OID, Variable> data = new TreeMap<OID, Variable>();
+        final List<OID> templates = new ArrayList<OID>(mockData.subMap(new OID(IF_ENTRY + ".1"), new OID(IF_ENTRY + ".2")).keySet());
+        for (SnmpObjId column : COLUMNS) {
+            for (int port = 1; port <= ports; port++) {
+                final int templatePort = templates.get((port - 1) % templates.size()).last();
+                final Variable value = mockData.get(new OID(column + "." + templatePort));
+                if (value != null) {
+                    data.put(new OID(column + "." + port), value);
+                }
+            }
+        }
+
+        final MockAgentResponder agent = new MockAgentResponder(data);
+        m_rowResponses = new ArrayList<PDU>();
+        walk(new ReplayingResponder(agent, m_rowResponses), new TableTracker(new SummingCallback(), MAX_REPETITIONS, COLUMNS));
+        m_numericResponses = new ArrayList<PDU>();
+        walk(new ReplayingResponder(agent, m_numericResponses), new NumericTableTracker(new SummingCallback(), null, MAX_REPETITIONS, COLUMNS));
+    }
+
+    @Benchmark
+    public long rowResults() {
+        final SummingCallback callback = new SummingCallback();
+        walk(new ReplayingResponder(null, m_rowResponses), new TableTracker(callback, MAX_REPETITIONS, COLUMNS));
+        return callback.m_sum;
+    }
+
+    @Benchmark
+    public long numericResults() {
+        final SummingCallback callback = new SummingCallback();
+        walk(new ReplayingResponder(null, m_numericResponses), new NumericTableTracker(callback, callback, MAX_REPETITIONS, COLUMNS));
+        return callback.m_sum;
+    }
+
+    private static void walk(Responder responder, CollectionTracker tracker) {
+        final InMemorySnmp4JWalker walker = new InMemorySnmp4JWalker(responder, MAX_VARS_PER_PDU, MAX_REPETITIONS, tracker);
+        walker.walk();
+        if (walker.failed()) {
+            throw new IllegalStateException(walker.getErrorMessage(), walker.getErrorThrowable());
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(NumericTableTrackerBenchmark.class.getSimpleName())
+            .warmupIterations(3)
+            .measurementIterations(5)
+            .forks(1)
+            .build()).run();
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.NumericResultCallback;
+import org.opennms.netmgt.snmp.NumericTableTracker;
+import org.opennms.netmgt.snmp.RowCallback;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpRowResult;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.opennms.netmgt.snmp.snmp4j.InMemorySnmp4JWalker.MockAgentResponder;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+import org.springframework.core.io.ClassPathResource;
+
+public class NumericTableTrackerTest {
+
+    private static final SnmpObjId IF_DESCR = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2");
+    private static final SnmpObjId IF_SPEED = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.5");
+    private static final SnmpObjId IF_LAST_CHANGE = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.9");
+    private static final SnmpObjId IF_IN_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+    private static final SnmpObjId IF_OUT_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16");
+    private static final SnmpObjId IP_AD_ENT_IF_INDEX = SnmpObjId.get(".1.3.6.1.2.1.4.20.1.2");
+
+    private static final SnmpObjId[] IF_COLUMNS = { IF_DESCR, IF_SPEED, IF_LAST_CHANGE, IF_IN_OCTETS, IF_OUT_OCTETS };
+
+    private MockAgentResponder m_agent;
+
+    private static class ResultRecorder implements RowCallback, NumericResultCallback {
+        private final SnmpObjId[] m_columns;
+        private final Map<String, Long> m_numericResults = new TreeMap<String, Long>();
+        private final Map<String, String> m_rowResults = new TreeMap<String, String>();
+        private int m_numericRowResults = 0;
+
+        public ResultRecorder(SnmpObjId... columns) {
+            m_columns = columns;
+        }
+
+        @Override
+        public void numericResult(int column, int instance, long value) {
+            m_numericResults.put(m_columns[column] + "." + instance, value);
+        }
+
+        @Override
+        public void rowCompleted(SnmpRowResult row) {
+            for (SnmpResult result : row.getResults()) {
+                final String key = result.getBase() + "." + result.getInstance();
+                if (result.getValue().isNumeric()) {
+                    m_numericRowResults++;
+                    m_numericResults.put(key, result.getValue().toLong());
+                } else {
+                    m_rowResults.put(key, result.getValue().toDisplayString());
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final SortedMap<OID, Variable> data = MockAgentResponder.load(new ClassPathResource("snmpTestData1.properties").getURL());
+        m_agent = new MockAgentResponder(data);
+    }
+
+    @Test
+    public void numericValuesBypassTheRowCallback() throws Exception {
+        final ResultRecorder expected = new ResultRecorder(IF_COLUMNS);
+        walk(new TableTracker(expected, 2, IF_COLUMNS));
+        assertEquals(24, expected.m_numericRowResults);
+
+        final ResultRecorder actual = new ResultRecorder(IF_COLUMNS);
+        final NumericTableTracker tracker = new NumericTableTracker(actual, actual, 2, IF_COLUMNS);
+        walk(tracker);
+
+        assertTrue(tracker.isFinished());
+        assertEquals(0, actual.m_numericRowResults);
+        assertEquals(expected.m_numericResults, actual.m_numericResults);
+        assertEquals(expected.m_rowResults, actual.m_rowResults);
+        assertEquals(Long.valueOf(6808986), actual.m_numericResults.get(IF_IN_OCTETS + ".1"));
+        assertEquals(Long.valueOf(77571), actual.m_numericResults.get(IF_LAST_CHANGE + ".1"));
+        assertEquals("en0", actual.m_rowResults.get(IF_DESCR + ".4"));
+    }
+
+    @Test
+    public void multipleSubIdInstancesUseTheRowCallback() throws Exception {
+        final ResultRecorder recorder = new ResultRecorder(IP_AD_ENT_IF_INDEX);
+        walk(new NumericTableTracker(recorder, recorder, 2, IP_AD_ENT_IF_INDEX));
+
+        assertEquals(3, recorder.m_numericRowResults);
+        assertEquals(Long.valueOf(5), recorder.m_numericResults.get(IP_AD_ENT_IF_INDEX + ".192.0.2.201"));
+    }
+
+    @Test
+    public void numericValuesPassThroughAggregateTrackers() throws Exception {
+        final ResultRecorder numeric = new ResultRecorder(IF_IN_OCTETS, IF_OUT_OCTETS);
+        final ResultRecorder rows = new ResultRecorder(IF_DESCR);
+        final AggregateTracker tracker = new AggregateTracker(new Collectable[] {
+                new NumericTableTracker(numeric, numeric, 2, IF_IN_OCTETS, IF_OUT_OCTETS),
+                new TableTracker(rows, 2, IF_DESCR)
+        });
+        walk(tracker);
+
+        assertTrue(tracker.isFinished());
+        assertEquals(0, numeric.m_numericRowResults);
+        assertEquals(12, numeric.m_numericResults.size());
+        assertEquals(Long.valueOf(6561336), numeric.m_numericResults.get(IF_IN_OCTETS + ".4"));
+        assertEquals(6, rows.m_rowResults.size());
+        assertEquals("gif0", rows.m_rowResults.get(IF_DESCR + ".2"));
+    }
+
+    private void walk(CollectionTracker tracker) throws Exception {
+        final InMemorySnmp4JWalker walker = new InMemorySnmp4JWalker(m_agent, 10, 2, tracker);
+        walker.walk();
+        assertFalse(walker.getErrorMessage(), walker.failed());
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.tasks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DefaultTaskCoordinator} that does not funnel the task graph
+ * updates through a single scheduler thread.
+ *
+ * Scheduling, adding dependencies and completing tasks are done directly on
+ * the calling thread: when a task's work finishes on an executor thread, that
+ * same thread notifies the dependents and submits the ones that are now
+ * ready.  Task state is kept consistent by taking the lock of the
+ * prerequisite task while a dependency is added or the task completes, so
+ * unrelated parts of the task graph never contend with each other.
+ *
+ * Updates made while a thread is already processing one are queued on that
+ * thread and run once the current one is done, so long chains of tasks that
+ * complete without going through an executor do not grow the stack.
+ */
+public class ConcurrentTaskCoordinator extends DefaultTaskCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentTaskCoordinator.class);
+
+    private static class PendingUpdates {
+        private final ArrayDeque<Runnable> m_queue = new ArrayDeque<Runnable>();
+        private boolean m_running = false;
+    }
+
+    private final ThreadLocal<PendingUpdates> m_pendingUpdates = new ThreadLocal<PendingUpdates>() {
+        @Override
+        protected PendingUpdates initialValue() {
+            return new PendingUpdates();
+        }
+    };
+
+    /**
+     * <p>Constructor for ConcurrentTaskCoordinator.</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     */
+    public ConcurrentTaskCoordinator(String name) {
+        super(name, false);
+    }
+
+    /**
+     * <p>Constructor for ConcurrentTaskCoordinator.</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     * @param defaultExecutor a {@link java.util.concurrent.Executor} object.
+     */
+    public ConcurrentTaskCoordinator(String name, Executor defaultExecutor) {
+        this(name);
+        setDefaultExecutor(SyncTask.DEFAULT_EXECUTOR);
+        addExecutor(SyncTask.DEFAULT_EXECUTOR, defaultExecutor);
+        afterPropertiesSet();
+    }
+
+    @Override
+    void onProcessorThread(final Runnable r) {
+        final PendingUpdates pending = m_pendingUpdates.get();
+        if (pending.m_running) {
+            pending.m_queue.addLast(r);
+            return;
+        }
+
+        pending.m_running = true;
+        try {
+            Runnable next = r;
+            while (next != null) {
+                try {
+                    next.run();
+                } catch (Throwable e) {
+                    LOG.error("an unknown error occurred processing {}", next, e);
+                }
+                next = pending.m_queue.pollFirst();
+            }
+        } finally {
+            pending.m_running = false;
+        }
+    }
+
+    @Override
+    void submitToExecutor(String executorPreference, final Runnable workToBeDone, final Runnable completionProcessor) {
+        final Runnable work = timeExecutorWait(workToBeDone, null);
+        getExecutor(executorPreference).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                } catch (Throwable e) {
+                    LOG.warn("task execution failed: {}", work, e);
+                } finally {
+                    onProcessorThread(completionProcessor);
+                }
+            }
+            @Override
+            public String toString() {
+                return work.toString();
+            }
+        });
+    }
+}
@@ -28,8 +28,9 @@
 
 package org.opennms.core.tasks;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
@@ -40,6 +41,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.slf4j.Logger;
@@ -97,6 +99,7 @@ public class DefaultTaskCoordinator implements InitializingBean {
 
     private final BlockingQueue<Future<Runnable>> m_queue;
     private final ConcurrentHashMap<String, CompletionService<Runnable>> m_taskCompletionServices = new ConcurrentHashMap<String, CompletionService<Runnable>>();
+    private final ConcurrentHashMap<String, Executor> m_executors = new ConcurrentHashMap<String, Executor>();
     
     private String m_defaultExecutor ;
     private CompletionService<Runnable> m_defaultCompletionService;
@@ -104,15 +107,36 @@ public class DefaultTaskCoordinator implements InitializingBean {
     // This is used to adjust timing during testing
     private Long m_loopDelay;
 
+    private final long m_startTime = System.nanoTime();
+    private final AtomicLong m_submittedTasks = new AtomicLong();
+    private final AtomicLong m_completedTasks = new AtomicLong();
+    private final AtomicLong m_executorWaits = new AtomicLong();
+    private final AtomicLong m_executorWaitNanos = new AtomicLong();
+    private final AtomicLong m_schedulerWaits = new AtomicLong();
+    private final AtomicLong m_schedulerWaitNanos = new AtomicLong();
+
     /**
      * <p>Constructor for DefaultTaskCoordinator.</p>
      *
      * @param name a {@link java.lang.String} object.
      */
     public DefaultTaskCoordinator(String name) {
+        this(name, true);
+    }
+
+    /**
+     * Constructor for subclasses that update the task graph on the calling
+     * thread and so do not need the scheduler thread.
+     *
+     * @param name a {@link java.lang.String} object.
+     * @param startScheduler whether to start the scheduler thread
+     */
+    protected DefaultTaskCoordinator(String name, boolean startScheduler) {
         m_queue = new LinkedBlockingQueue<Future<Runnable>>();
-        // Create a new actor and add it to the queue
-        new RunnableActor(name+"-TaskScheduler", m_queue);
+        if (startScheduler) {
+            // Create a new actor and add it to the queue
+            new RunnableActor(name+"-TaskScheduler", m_queue);
+        }
         addExecutor(SyncTask.ADMIN_EXECUTOR, Executors.newSingleThreadExecutor(
             new LogPreservingThreadFactory(SyncTask.ADMIN_EXECUTOR, 1)
         ));
@@ -305,7 +329,8 @@ public class DefaultTaskCoordinator implements InitializingBean {
         onProcessorThread(dependencyAdder(prereq, dependent));
     }
     
-    void onProcessorThread(final Runnable r) {
+    void onProcessorThread(final Runnable task) {
+        final Runnable r = timeSchedulerWait(task, new AtomicLong(System.nanoTime()));
         Future<Runnable> now = new Future<Runnable>() {
             @Override
             public boolean cancel(boolean mayInterruptIfRunning) {
@@ -367,9 +392,16 @@ public class DefaultTaskCoordinator implements InitializingBean {
     
     private void notifyDependents(Task completed) {
         // log().debug(String.format("Task %s completed!", completed));
-        completed.onComplete();
+        final List<Task> dependents;
+        // dependencies on this task are added while holding its lock so none
+        // can be added after we have taken the list
+        synchronized (completed) {
+            completed.onComplete();
+            dependents = new ArrayList<Task>(completed.getDependents());
+            completed.clearDependents();
+        }
+        m_completedTasks.incrementAndGet();
 
-        final Set<Task> dependents = completed.getDependents();
         for(Task dependent : dependents) {
             dependent.doCompletePrerequisite(completed);
             if (dependent.isReady()) {
@@ -378,11 +410,6 @@ public class DefaultTaskCoordinator implements InitializingBean {
             
             dependent.submitIfReady();
         }
-
-        // log().debug(String.format("CLEAN: removing dependents of %s", completed));
-        completed.clearDependents();
-        
-        
     }
 
     /**
@@ -395,8 +422,10 @@ public class DefaultTaskCoordinator implements InitializingBean {
         return new Runnable() {
             @Override
             public void run() {
-                prereq.doAddDependent(dependent);
-                dependent.doAddPrerequisite(prereq);
+                synchronized (prereq) {
+                    prereq.doAddDependent(dependent);
+                    dependent.doAddPrerequisite(prereq);
+                }
                 dependent.decrPendingPrereqCount();
 
                 /**
@@ -430,7 +459,106 @@ public class DefaultTaskCoordinator implements InitializingBean {
     }
     
     void submitToExecutor(String executorPreference, final Runnable workToBeDone, Runnable completionProcessor) {
-        getCompletionService(executorPreference).submit(workToBeDone, completionProcessor);
+        final AtomicLong finishedAt = new AtomicLong();
+        getCompletionService(executorPreference).submit(timeExecutorWait(workToBeDone, finishedAt), timeSchedulerWait(completionProcessor, finishedAt));
+    }
+
+    Executor getExecutor(String name) {
+        Executor executor = m_executors.get(name);
+        return executor != null ? executor : m_executors.get(m_defaultExecutor);
+    }
+
+    /**
+     * Wraps work that is about to be handed to an executor so that the time
+     * it waits for an executor thread is recorded.  If
+     * <code>finishedAt</code> is not null it is set when the work is done.
+     */
+    Runnable timeExecutorWait(final Runnable work, final AtomicLong finishedAt) {
+        m_submittedTasks.incrementAndGet();
+        final long submittedAt = System.nanoTime();
+        return new Runnable() {
+            @Override
+            public void run() {
+                m_executorWaitNanos.addAndGet(System.nanoTime() - submittedAt);
+                m_executorWaits.incrementAndGet();
+                try {
+                    work.run();
+                } finally {
+                    if (finishedAt != null) {
+                        finishedAt.set(System.nanoTime());
+                    }
+                }
+            }
+            @Override
+            public String toString() {
+                return work.toString();
+            }
+        };
+    }
+
+    /**
+     * Wraps work for the scheduler thread so that the time between
+     * <code>queuedAt</code> and the time it runs is recorded.
+     */
+    private Runnable timeSchedulerWait(final Runnable r, final AtomicLong queuedAt) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                m_schedulerWaitNanos.addAndGet(System.nanoTime() - queuedAt.get());
+                m_schedulerWaits.incrementAndGet();
+                r.run();
+            }
+            @Override
+            public String toString() {
+                return r.toString();
+            }
+        };
+    }
+
+    /**
+     * @return the number of pieces of work handed to the executors
+     */
+    public long getSubmittedTaskCount() {
+        return m_submittedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks that have completed, including batches and sequences
+     */
+    public long getCompletedTaskCount() {
+        return m_completedTasks.get();
+    }
+
+    /**
+     * @return the average number of tasks completed per second since this coordinator was created
+     */
+    public double getCompletedTasksPerSecond() {
+        final long elapsed = System.nanoTime() - m_startTime;
+        return elapsed <= 0 ? 0.0 : m_completedTasks.get() / (elapsed / 1e9);
+    }
+
+    /**
+     * @return the average time in milliseconds that submitted work waited for an executor thread
+     */
+    public double getAverageExecutorQueueWait() {
+        final long waits = m_executorWaits.get();
+        return waits == 0 ? 0.0 : m_executorWaitNanos.get() / 1e6 / waits;
+    }
+
+    /**
+     * @return the average time in milliseconds that scheduling, dependency and
+     * completion updates waited for the scheduler thread
+     */
+    public double getAverageSchedulerQueueWait() {
+        final long waits = m_schedulerWaits.get();
+        return waits == 0 ? 0.0 : m_schedulerWaitNanos.get() / 1e6 / waits;
+    }
+
+    /**
+     * @return the number of updates waiting for the scheduler thread
+     */
+    public int getSchedulerQueueSize() {
+        return m_queue.size();
     }
     
     /**
@@ -440,6 +568,7 @@ public class DefaultTaskCoordinator implements InitializingBean {
      * @param executor a {@link java.util.concurrent.Executor} object.
      */
     public void addExecutor(String executorName, Executor executor) {
+        m_executors.put(executorName, executor);
         m_taskCompletionServices.put(executorName, new ExecutorCompletionService<Runnable>(executor, m_queue));
     }
 
@@ -450,6 +579,7 @@ public class DefaultTaskCoordinator implements InitializingBean {
      */
     public void setExecutors(Map<String,Executor> executors) {
         m_taskCompletionServices.clear();
+        m_executors.clear();
         for (Map.Entry<String, Executor> e : executors.entrySet()) {
             addExecutor(e.getKey(), e.getValue());
         }
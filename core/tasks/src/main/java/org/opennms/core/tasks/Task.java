@@ -30,6 +30,7 @@ package org.opennms.core.tasks;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -64,8 +65,10 @@ public abstract class Task {
     private final CountDownLatch m_latch = new CountDownLatch(1);
     
     private final AtomicInteger m_pendingPrereqs = new AtomicInteger(0);
+    // guarded by this task's monitor, see DefaultTaskCoordinator
     private final Set<Task> m_dependents = new HashSet<Task>();
-    private final Set<Task> m_prerequisites = new HashSet<Task>();
+    // prerequisites complete on any thread with ConcurrentTaskCoordinator
+    private final Set<Task> m_prerequisites = ConcurrentHashMap.newKeySet();
     
     private final TaskMonitor m_monitor;
     
@@ -194,13 +197,15 @@ public abstract class Task {
     }
     
     final void submitIfReady() {
-        if (isReady()) {
+        // claim the task before submitting it so that it is submitted exactly once
+        // even if the last prerequisites complete on different threads
+        if (isReady() && m_state.compareAndSet(State.SCHEDULED, State.SUBMITTED)) {
             try {
                 doSubmit();
             } catch (Throwable e) {
                 LOG.error("Unexpected throwable while trying to submit task: " + this, e);
             } finally {
-                submitted();
+                notifySubmitted();
                 completeSubmit();
             }
         }
@@ -215,11 +220,6 @@ public abstract class Task {
     protected void doSubmit() {
     }
 
-    final void submitted() {
-        setState(State.SCHEDULED, State.SUBMITTED);
-        notifySubmitted();
-    }
-
     /**
      * This method exists to allow a task to have no processing
      */
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Runs all of the {@link TaskTest} tests against the
+ * {@link ConcurrentTaskCoordinator}.
+ */
+public class ConcurrentTaskCoordinatorTest extends TaskTest {
+
+    @Override
+    protected DefaultTaskCoordinator createCoordinator(String name, Executor executor) {
+        return new ConcurrentTaskCoordinator(name, executor);
+    }
+
+    @Test
+    public void testManyBatchesCompletingConcurrently() throws Exception {
+        final int batches = 200;
+        final int tasksPerBatch = 50;
+        final AtomicInteger count = new AtomicInteger(0);
+
+        final BatchTask outer = m_coordinator.createBatch().get();
+        for (int i = 0; i < batches; i++) {
+            final SequenceTask sequence = m_coordinator.createSequence(outer).get();
+            final BatchTask inner = m_coordinator.createBatch(sequence).get();
+            for (int j = 0; j < tasksPerBatch; j++) {
+                inner.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        count.incrementAndGet();
+                    }
+                });
+            }
+            sequence.add(inner);
+            sequence.add(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+            outer.add(sequence);
+        }
+
+        outer.schedule();
+
+        assertTrue("outer batch never completed", outer.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(batches * (tasksPerBatch + 1), count.get());
+        assertEquals(batches * (tasksPerBatch + 1), m_coordinator.getSubmittedTaskCount());
+        assertEquals(0, m_coordinator.getSchedulerQueueSize());
+    }
+
+    @Test
+    public void testLongChainOfAsyncTasksThatCompleteImmediately() throws Exception {
+        final int length = 20000;
+        final AtomicInteger count = new AtomicInteger(0);
+
+        final SequenceTask sequence = m_coordinator.createSequence().get();
+        for (int i = 0; i < length; i++) {
+            sequence.add(new Async<Integer>() {
+                @Override
+                public void submit(Callback<Integer> cb) {
+                    cb.complete(count.incrementAndGet());
+                }
+            }, null);
+        }
+
+        sequence.schedule();
+
+        assertTrue("sequence never completed", sequence.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(length, count.get());
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link DefaultTaskCoordinator} with the
+ * {@link ConcurrentTaskCoordinator} on a task tree shaped like the one
+ * built by a Provisiond node scan: a batch of nodes, each a sequence of
+ * node info scan, a batch of interface scans, each of which runs a batch of
+ * detectors, and a final write.  Scans run on a "scan" pool and writes on
+ * a single "write" thread, as in <code>applicationContext-provisiond.xml</code>.
+ *
+ * Each task only burns a few CPU cycles, so the measured time is dominated
+ * by the cost of moving the task graph forward.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.core.tasks.TaskCoordinatorBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskCoordinatorBenchmark {
+
+    private static final int NODES = 100;
+    private static final int INTERFACES = 4;
+    private static final int DETECTORS = 10;
+    private static final long WORK_TOKENS = 100;
+
+    @Param({"default", "concurrent"})
+    public String coordinator;
+
+    private ExecutorService m_scanExecutor;
+    private ExecutorService m_writeExecutor;
+    private DefaultTaskCoordinator m_coordinator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        m_scanExecutor = Executors.newFixedThreadPool(8);
+        m_writeExecutor = Executors.newSingleThreadExecutor();
+
+        final String name = "TaskCoordinatorBenchmark";
+        m_coordinator = "concurrent".equals(coordinator) ? new ConcurrentTaskCoordinator(name) : new DefaultTaskCoordinator(name);
+        m_coordinator.addExecutor("scan", m_scanExecutor);
+        m_coordinator.addExecutor("write", m_writeExecutor);
+        m_coordinator.setDefaultExecutor("scan");
+        m_coordinator.afterPropertiesSet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_scanExecutor.shutdown();
+        m_writeExecutor.shutdown();
+    }
+
+    @Benchmark
+    public long scanNodes() throws InterruptedException, ExecutionException {
+        final Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(WORK_TOKENS);
+            }
+        };
+
+        final BatchTask nodes = m_coordinator.createBatch().get();
+        for (int node = 0; node < NODES; node++) {
+            final SequenceTask nodeScan = m_coordinator.createSequence(nodes).get();
+            nodeScan.add(work);
+
+            final BatchTask interfaceScans = m_coordinator.createBatch(nodeScan).get();
+            for (int iface = 0; iface < INTERFACES; iface++) {
+                final SequenceTask interfaceScan = m_coordinator.createSequence(interfaceScans).get();
+                final BatchTask detectors = m_coordinator.createBatch(interfaceScan).get();
+                for (int detector = 0; detector < DETECTORS; detector++) {
+                    detectors.add(work);
+                }
+                interfaceScan.add(detectors);
+                interfaceScan.add(work, "write");
+                interfaceScans.add(interfaceScan);
+            }
+            nodeScan.add(interfaceScans);
+            nodeScan.add(work, "write");
+            nodes.add(nodeScan);
+        }
+
+        nodes.schedule();
+        nodes.waitFor();
+        return m_coordinator.getCompletedTaskCount();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TaskCoordinatorBenchmark.class.getSimpleName())
+            .warmupIterations(3)
+            .measurementIterations(5)
+            .forks(1)
+            .build()).run();
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -69,7 +70,11 @@ public class TaskTest {
         m_executor = Executors.newFixedThreadPool(50,
             new LogPreservingThreadFactory(getClass().getSimpleName(), 50)
         );
-        m_coordinator = new DefaultTaskCoordinator("TaskTest", m_executor);
+        m_coordinator = createCoordinator("TaskTest", m_executor);
+    }
+
+    protected DefaultTaskCoordinator createCoordinator(String name, Executor executor) {
+        return new DefaultTaskCoordinator(name, executor);
     }
     
     @Test
@@ -49,6 +49,9 @@ import org.opennms.netmgt.collection.api.PersistOperationBuilder;
 import org.opennms.netmgt.collection.api.ResourceIdentifier;
 import org.opennms.netmgt.collection.api.TimeKeeper;
 import org.opennms.netmgt.collection.support.DefaultTimeKeeper;
+import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.opennms.netmgt.rrd.RecentSampleStore;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -73,6 +76,7 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     private final Map<CollectionAttributeType, Number> m_declarations;
     private final Map<String, String> m_metaData = new LinkedHashMap<String, String>();
     private TimeKeeper m_timeKeeper = new DefaultTimeKeeper();
+    private ResourceStorageDao m_resourceStorageDao;
 
     /**
      * RRDTool defined Data Source Types NOTE: "DERIVE" and "ABSOLUTE" not
@@ -211,7 +215,12 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
                 createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList(), m_metaData);
-                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                if (m_resourceStorageDao != null) {
+                    m_resourceStorageDao.metricPersisted(ResourceTypeUtils.getResourcePathWithRepository(getRepository(), m_resource.getPath()), m_rrdName);
+                }
+                final long timestamp = m_timeKeeper.getCurrentTime();
+                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, timestamp, getValues());
+                storeRecentSample(absolutePath, timestamp, dataSources);
             }
         } catch (FileNotFoundException e) {
             LoggerFactory.getLogger(getClass()).warn("Could not get resource directory: " + e.getMessage(), e);
@@ -221,6 +230,68 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
+    /**
+     * Keeps the sample that was just written in memory for consumers of
+     * recent data, see {@link RecentSampleStore}.
+     *
+     * Samples are only kept for files whose finest archive averages a
+     * single step, since that is the archive the samples stand in for.
+     */
+    private void storeRecentSample(String directory, long timestamp, List<RrdDataSource> dataSources) {
+        final RecentSampleStore store = RecentSampleStore.getInstance();
+        if (!store.isEnabled() || !hasSingleStepAverageArchive(getRepository().getRraList())) {
+            return;
+        }
+
+        final List<Number> values = new ArrayList<Number>(m_declarations.size());
+        for (Map.Entry<CollectionAttributeType, Number> entry : m_declarations.entrySet()) {
+            if (RrdPersistOperationBuilder.mapType(entry.getKey().getType()) != null) {
+                values.add(entry.getValue());
+            }
+        }
+
+        final String[] dsNames = new String[dataSources.size()];
+        final boolean[] isCounter = new boolean[dataSources.size()];
+        final double[] mins = new double[dataSources.size()];
+        final double[] maxs = new double[dataSources.size()];
+        final double[] doubles = new double[dataSources.size()];
+        for (int i = 0; i < doubles.length; i++) {
+            final RrdDataSource dataSource = dataSources.get(i);
+            dsNames[i] = dataSource.getName();
+            isCounter[i] = DST_COUNTER.equals(dataSource.getType());
+            mins[i] = toBound(dataSource.getMin());
+            maxs[i] = toBound(dataSource.getMax());
+            doubles[i] = values.get(i) == null ? Double.NaN : values.get(i).doubleValue();
+        }
+
+        // RRD rounds the update time to the nearest second
+        final long time = ((timestamp + 500L) / 1000L) * 1000L;
+        store.update(directory + File.separator + m_rrdName + m_rrdStrategy.getDefaultFileExtension(), getRepository().getStep(),
+                getRepository().getHeartBeat(), dsNames, isCounter, mins, maxs, time, doubles);
+    }
+
+    private static boolean hasSingleStepAverageArchive(List<String> rraList) {
+        if (rraList == null) {
+            return false;
+        }
+        for (final String rra : rraList) {
+            // RRA:AVERAGE:0.5:1:2016
+            final String[] fields = rra.split(":");
+            if (fields.length == 5 && "AVERAGE".equals(fields[1]) && "1".equals(fields[3])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double toBound(String bound) {
+        try {
+            return bound == null || "U".equals(bound) ? Double.NaN : Double.parseDouble(bound);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
     private String getValues() {
         boolean first = true;
         StringBuffer values = new StringBuffer();
@@ -367,4 +438,13 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         m_timeKeeper = timeKeeper;
     }
 
+    /**
+     * Sets the DAO that is notified of the files written by this builder.
+     *
+     * @param resourceStorageDao a {@link org.opennms.netmgt.dao.api.ResourceStorageDao} object.
+     */
+    public void setResourceStorageDao(ResourceStorageDao resourceStorageDao) {
+        m_resourceStorageDao = resourceStorageDao;
+    }
+
 }
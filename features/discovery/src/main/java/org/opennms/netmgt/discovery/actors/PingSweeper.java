@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.discovery.actors;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * <p>Sweeps address ranges with ICMP echo requests, keeping a window of
+ * probes in flight across all of the sweeps that are running.</p>
+ *
+ * <p>A single sender thread takes addresses from the running sweeps in turn
+ * and hands them to the {@link Pinger} as single-shot requests, paced by a
+ * shared {@link RateLimiter}.  The pinger's request tracker times out every
+ * probe, so retries are simply put back at the front of the send queue when
+ * the timeout is reported.  This means that a slow or dead address only
+ * holds one slot of the window instead of stalling the rest of its job, and
+ * the rate at which a large range is swept is bounded by the configured
+ * packets per second and the window size.</p>
+ *
+ * <p>Responses are handed to the {@link SweepListener} of each sweep as they
+ * arrive.</p>
+ */
+public class PingSweeper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PingSweeper.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+    /**
+     * Receives the results of a sweep.
+     */
+    public interface SweepListener {
+        /**
+         * Called for each address that responded.
+         *
+         * @param address the address that responded
+         * @param rtt the round trip time in nanoseconds
+         */
+        void responded(InetAddress address, long rtt);
+
+        /**
+         * Called once every address of the sweep has responded, timed out
+         * or failed.
+         */
+        void finished();
+    }
+
+    /**
+     * A sweep that has been submitted to a {@link PingSweeper}.
+     */
+    public class Sweep {
+        private final Iterator<IPPollAddress> m_addresses;
+        private final SweepListener m_listener;
+        private final CountDownLatch m_finished = new CountDownLatch(1);
+
+        // guarded by this
+        private int m_outstanding = 0;
+        private boolean m_exhausted = false;
+
+        private Sweep(Iterator<IPPollAddress> addresses, SweepListener listener) {
+            m_addresses = addresses;
+            m_listener = listener;
+        }
+
+        /**
+         * Returns the next address to probe or null if there are no more.
+         * Only called by the sender thread.
+         */
+        private Probe nextProbe() {
+            while (m_addresses.hasNext()) {
+                final IPPollAddress address = m_addresses.next();
+                if (address.getAddress() != null) {
+                    synchronized (this) {
+                        m_outstanding++;
+                    }
+                    return new Probe(this, address.getAddress(), address.getTimeout(), address.getRetries());
+                }
+            }
+            synchronized (this) {
+                m_exhausted = true;
+            }
+            checkFinished();
+            return null;
+        }
+
+        private void probeDone() {
+            synchronized (this) {
+                m_outstanding--;
+            }
+            checkFinished();
+        }
+
+        private void checkFinished() {
+            synchronized (this) {
+                if (!m_exhausted || m_outstanding > 0 || m_finished.getCount() == 0) {
+                    return;
+                }
+                m_finished.countDown();
+            }
+            try {
+                m_listener.finished();
+            } catch (Throwable t) {
+                LOG.warn("Unexpected error while completing sweep", t);
+            }
+        }
+
+        public boolean isFinished() {
+            return m_finished.getCount() == 0;
+        }
+
+        public void waitFor() throws InterruptedException {
+            m_finished.await();
+        }
+
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            return m_finished.await(timeout, unit);
+        }
+    }
+
+    private class Probe implements PingResponseCallback {
+        private final Sweep m_sweep;
+        private final InetAddress m_address;
+        private final long m_timeout;
+        private int m_retriesLeft;
+
+        private Probe(Sweep sweep, InetAddress address, long timeout, int retries) {
+            m_sweep = sweep;
+            m_address = address;
+            m_timeout = timeout;
+            m_retriesLeft = retries;
+        }
+
+        private void send() {
+            try {
+                m_pinger.ping(m_address, m_timeout, 0, 1, this);
+            } catch (Throwable e) {
+                handleError(m_address, null, e);
+            }
+        }
+
+        @Override
+        public void handleResponse(InetAddress address, EchoPacket response) {
+            m_window.release();
+            if (response != null) {
+                try {
+                    m_sweep.m_listener.responded(address, response.getReceivedTimeNanos() - response.getSentTimeNanos());
+                } catch (Throwable t) {
+                    LOG.warn("Unexpected error while handling response from {}", address, t);
+                }
+            }
+            m_sweep.probeDone();
+        }
+
+        @Override
+        public void handleTimeout(InetAddress address, EchoPacket request) {
+            m_window.release();
+            if (m_retriesLeft > 0) {
+                m_retriesLeft--;
+                LOG.trace("Request timed out, retrying: {}", address);
+                retry(this);
+            } else {
+                LOG.debug("Request timed out: {}", address);
+                m_sweep.probeDone();
+            }
+        }
+
+        @Override
+        public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+            m_window.release();
+            LOG.debug("Error pinging {}", address, t);
+            m_sweep.probeDone();
+        }
+    }
+
+    private final Pinger m_pinger;
+    private final Semaphore m_window;
+    private final RateLimiter m_rateLimiter;
+
+    // guarded by this
+    private final Deque<Probe> m_retries = new ArrayDeque<>();
+    private final Deque<Sweep> m_sweeps = new ArrayDeque<>();
+    private Thread m_sender;
+
+    public PingSweeper(Pinger pinger) {
+        this(pinger, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public PingSweeper(Pinger pinger, int maxInFlight) {
+        Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        m_pinger = Preconditions.checkNotNull(pinger, "pinger argument");
+        m_window = new Semaphore(maxInFlight);
+        m_rateLimiter = RateLimiter.create(Double.MAX_VALUE);
+    }
+
+    /**
+     * Sets the rate at which probes, including retries, are sent by all of
+     * the sweeps.
+     */
+    public void setPacketsPerSecond(double packetsPerSecond) {
+        Preconditions.checkArgument(packetsPerSecond > 0.0, "packetsPerSecond must be positive");
+        if (m_rateLimiter.getRate() != packetsPerSecond) {
+            m_rateLimiter.setRate(packetsPerSecond);
+        }
+    }
+
+    /**
+     * Starts sweeping the given addresses.  Addresses are only read from the
+     * iterable as the window allows, so large ranges are not unrolled up
+     * front.
+     */
+    public Sweep sweep(Iterable<IPPollAddress> addresses, SweepListener listener) {
+        final Sweep sweep = new Sweep(addresses.iterator(), Preconditions.checkNotNull(listener, "listener argument"));
+        synchronized (this) {
+            m_sweeps.addLast(sweep);
+            if (m_sender == null) {
+                m_sender = new Thread(this::sendProbes, "Discovery-PingSweeper");
+                m_sender.setDaemon(true);
+                m_sender.start();
+            }
+            notifyAll();
+        }
+        return sweep;
+    }
+
+    /**
+     * Stops the sender thread.  Sweeps that are still running will not
+     * finish.
+     */
+    public void stop() {
+        final Thread sender;
+        synchronized (this) {
+            sender = m_sender;
+            m_sender = null;
+            m_sweeps.clear();
+            m_retries.clear();
+        }
+        if (sender != null) {
+            sender.interrupt();
+        }
+    }
+
+    private synchronized void retry(Probe probe) {
+        m_retries.addLast(probe);
+        notifyAll();
+    }
+
+    private synchronized Probe nextProbe() throws InterruptedException {
+        while (Thread.currentThread() == m_sender) {
+            // retries go first so that a sweep can finish before new ones take over the window
+            final Probe retry = m_retries.pollFirst();
+            if (retry != null) {
+                return retry;
+            }
+            // take one address from each sweep in turn
+            final Sweep sweep = m_sweeps.pollFirst();
+            if (sweep == null) {
+                wait();
+                continue;
+            }
+            final Probe probe = sweep.nextProbe();
+            if (probe != null) {
+                m_sweeps.addLast(sweep);
+                return probe;
+            }
+        }
+        throw new InterruptedException();
+    }
+
+    private void sendProbes() {
+        try {
+            while (true) {
+                m_window.acquire();
+                final Probe probe;
+                try {
+                    probe = nextProbe();
+                } catch (InterruptedException e) {
+                    m_window.release();
+                    throw e;
+                }
+                m_rateLimiter.acquire();
+                probe.send();
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Ping sweeper stopped");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.discovery.actors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.discovery.TestPinger;
+import org.opennms.netmgt.discovery.actors.PingSweeper.Sweep;
+import org.opennms.netmgt.discovery.actors.PingSweeper.SweepListener;
+import org.opennms.netmgt.discovery.messages.DiscoveryJob;
+import org.opennms.netmgt.discovery.messages.DiscoveryResults;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.model.discovery.IPPollRange;
+
+public class PingSweeperTest {
+
+    /**
+     * Answers for addresses whose last octet is even and times out the
+     * others, keeping track of how many requests are outstanding.
+     */
+    private static class AsyncPinger extends TestPinger {
+        private final ScheduledExecutorService m_executor = Executors.newScheduledThreadPool(4);
+        private final Map<InetAddress, AtomicInteger> m_requests = new ConcurrentHashMap<>();
+        private final AtomicInteger m_outstanding = new AtomicInteger(0);
+        private final AtomicInteger m_maxOutstanding = new AtomicInteger(0);
+
+        @Override
+        public void ping(InetAddress host, long timeout, int retries, int sequenceId, PingResponseCallback cb) throws Exception {
+            assertEquals("the sweeper does its own retries", 0, retries);
+            m_requests.computeIfAbsent(host, h -> new AtomicInteger(0)).incrementAndGet();
+            final int outstanding = m_outstanding.incrementAndGet();
+            m_maxOutstanding.accumulateAndGet(outstanding, Math::max);
+
+            final boolean up = (host.getAddress()[3] & 1) == 0;
+            m_executor.schedule(() -> {
+                m_outstanding.decrementAndGet();
+                if (up) {
+                    try {
+                        super.ping(host, timeout, retries, sequenceId, cb);
+                    } catch (Exception e) {
+                        cb.handleError(host, null, e);
+                    }
+                } else {
+                    cb.handleTimeout(host, null);
+                }
+            }, up ? 1 : timeout, TimeUnit.MILLISECONDS);
+        }
+
+        public int getRequests(String address) {
+            final AtomicInteger requests = m_requests.get(InetAddressUtils.addr(address));
+            return requests == null ? 0 : requests.get();
+        }
+    }
+
+    private static class CountingListener implements SweepListener {
+        private final Map<InetAddress, Long> m_responses = new ConcurrentHashMap<>();
+        private final AtomicInteger m_finished = new AtomicInteger(0);
+
+        @Override
+        public void responded(InetAddress address, long rtt) {
+            m_responses.put(address, rtt);
+        }
+
+        @Override
+        public void finished() {
+            m_finished.incrementAndGet();
+        }
+    }
+
+    private AsyncPinger m_pinger;
+    private PingSweeper m_sweeper;
+
+    @Before
+    public void setUp() {
+        m_pinger = new AsyncPinger();
+        m_sweeper = new PingSweeper(m_pinger, 16);
+    }
+
+    @After
+    public void tearDown() {
+        m_sweeper.stop();
+        m_pinger.m_executor.shutdownNow();
+    }
+
+    @Test
+    public void testSweepWithRetries() throws Exception {
+        final CountingListener listener = new CountingListener();
+        final Sweep sweep = m_sweeper.sweep(new IPPollRange(null, null, "10.0.0.1", "10.0.0.100", 20, 2), listener);
+
+        assertTrue("sweep never finished", sweep.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(1, listener.m_finished.get());
+        assertEquals(50, listener.m_responses.size());
+        assertTrue(listener.m_responses.containsKey(InetAddressUtils.addr("10.0.0.2")));
+        assertEquals(1, m_pinger.getRequests("10.0.0.2"));
+        assertEquals(3, m_pinger.getRequests("10.0.0.1"));
+        assertTrue("window exceeded: " + m_pinger.m_maxOutstanding.get(), m_pinger.m_maxOutstanding.get() <= 16);
+    }
+
+    @Test
+    public void testConcurrentSweepsShareTheWindow() throws Exception {
+        final CountingListener slow = new CountingListener();
+        final CountingListener fast = new CountingListener();
+        final Sweep slowSweep = m_sweeper.sweep(new IPPollRange(null, null, "10.0.1.1", "10.0.1.255", 50, 1), slow);
+        final Sweep fastSweep = m_sweeper.sweep(new IPPollRange(null, null, "10.0.2.2", "10.0.2.2", 50, 1), fast);
+
+        // the single address sweep must not wait for the whole /24 to finish
+        assertTrue("sweep never finished", fastSweep.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(1, fast.m_responses.size());
+        assertTrue("slow sweep never finished", slowSweep.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(127, slow.m_responses.size());
+        assertTrue("window exceeded: " + m_pinger.m_maxOutstanding.get(), m_pinger.m_maxOutstanding.get() <= 16);
+    }
+
+    @Test
+    public void testEmptySweep() throws Exception {
+        final CountingListener listener = new CountingListener();
+        final Sweep sweep = m_sweeper.sweep(Collections.emptyList(), listener);
+
+        assertTrue("sweep never finished", sweep.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(1, listener.m_finished.get());
+    }
+
+    @Test
+    public void testDiscoverer() throws Exception {
+        final Discoverer discoverer = new Discoverer(m_sweeper);
+        final DiscoveryJob job = new DiscoveryJob(Collections.singletonList(new IPPollRange(null, null, "10.0.3.1", "10.0.3.10", 20, 1)), "Routers", "Default", 1000.0);
+
+        final DiscoveryResults results = discoverer.discover(job);
+        assertEquals(5, results.getResponses().size());
+        assertEquals("Routers", results.getForeignSource());
+    }
+}
@@ -32,9 +32,11 @@ import java.net.InetAddress;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -316,6 +318,11 @@ public abstract class AbstractEventUtil implements EventUtil {
 
 	private static EventUtil m_instance = null; 
 
+	/**
+	 * Lookups made while expanding a single string, see {@link #getCachedLookup(String, Supplier)}.
+	 */
+	private final ThreadLocal<Map<String, Object>> m_lookupCache = new ThreadLocal<Map<String, Object>>();
+
 	public static EventUtil getInstance() {
 		if (m_instance == null) {
 			return BeanUtils.getBean("eventDaemonContext", "eventUtil", EventUtil.class);
@@ -932,75 +939,74 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
 	 */
 	public String expandParms(String inp, Event event, Map<String, Map<String, String>> decode) {
-		int index1 = -1;
-		int index2 = -1;
-
 		if (inp == null) {
 			return null;
 		}
 
-		StringBuffer ret = new StringBuffer();
-
-		String tempInp = inp;
-		int inpLen = inp.length();
-
-		// check input string to see if it has any %xxx% substring
-		while ((tempInp != null) && ((index1 = tempInp.indexOf(PERCENT)) != -1)) {
-		        LOG.debug("checking input {}", tempInp);
-			// copy till first %
-			ret.append(tempInp.substring(0, index1));
-			tempInp = tempInp.substring(index1);
-
-			index2 = tempInp.indexOf(PERCENT, 1);
-			if (index2 != -1) {
-				// Get the value between the %s
-				String parm = tempInp.substring(1, index2);
-				LOG.debug("parm: {} found in value", parm);
-
-				// If there's any whitespace in between the % signs, then do not try to 
-				// expand it with a parameter value
-				if (parm.matches(".*\\s(?s).*")) {
-					ret.append(PERCENT);
-					tempInp = tempInp.substring(1);
-		                        LOG.debug("skipping parm: {} because whitespace found in value", parm);
-					continue;
-				}
+		final ExpandableParameterTemplate template = ExpandableParameterTemplate.getTemplate(inp);
+		if (template.getParmCount() == 0) {
+			// Nothing to expand; the result would be identical to the input
+			return null;
+		}
 
-				String parmVal = getValueOfParm(parm, event);
-				LOG.debug("value of parm: {}", parmVal);
+		final boolean ownsLookupCache = m_lookupCache.get() == null;
+		if (ownsLookupCache) {
+			m_lookupCache.set(new HashMap<String, Object>());
+		}
+		try {
+			final StringBuilder ret = new StringBuilder(template.getLiteralLength() + 16 * template.getParmCount());
+			ret.append(template.getLiteral(0));
+			for (int i = 0; i < template.getParmCount(); i++) {
+				final String parm = template.getParm(i);
+				final String parmVal = getValueOfParm(parm, event);
+				LOG.debug("value of parm {}: {}", parm, parmVal);
 
 				if (parmVal != null) {
-					if (decode != null && decode.containsKey(parm) && decode.get(parm).containsKey(parmVal)) {
-					ret.append(decode.get(parm).get(parmVal));
-					ret.append("(");
-					ret.append(parmVal);
-					ret.append(")");
+					final Map<String, String> decodeMap = decode == null ? null : decode.get(parm);
+					if (decodeMap != null && decodeMap.containsKey(parmVal)) {
+						ret.append(decodeMap.get(parmVal));
+						ret.append("(");
+						ret.append(parmVal);
+						ret.append(")");
 					} else {
-					ret.append(parmVal);
+						ret.append(parmVal);
 					}
 				}
-
-				if (index2 < (inpLen - 1)) {
-					tempInp = tempInp.substring(index2 + 1);
-				} else {
-					tempInp = null;
-				}
+				ret.append(template.getLiteral(i + 1));
 			}
-			else {
-				break;
+
+			final String retStr = ret.toString();
+			return retStr.equals(inp) ? null : retStr;
+		} finally {
+			if (ownsLookupCache) {
+				m_lookupCache.remove();
 			}
 		}
+	}
 
-		if ((index1 == -1 || index2 == -1) && (tempInp != null)) {
-			ret.append(tempInp);
+	/**
+	 * Returns the result of a node, interface or asset lookup, remembering
+	 * it for the rest of the current {@link #expandParms(String, Event, Map)}
+	 * call so that a template referring to several fields of the same node
+	 * only goes to the database once.  Outside of an expansion the lookup is
+	 * always performed.
+	 *
+	 * @param key identifies the lookup, e.g. the entity type and its id
+	 * @param lookup performs the lookup
+	 * @return the (possibly cached) result of the lookup
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T getCachedLookup(final String key, final Supplier<T> lookup) {
+		final Map<String, Object> cache = m_lookupCache.get();
+		if (cache == null) {
+			return lookup.get();
 		}
-
-		String retStr = ret.toString();
-		if (retStr != null && !retStr.equals(inp)) {
-			return retStr;
-		} else {
-			return null;
+		if (cache.containsKey(key)) {
+			return (T)cache.get(key);
 		}
+		final T value = lookup.get();
+		cache.put(key, value);
+		return value;
 	}
 
 	/**
@@ -28,14 +28,20 @@
 
 package org.opennms.netmgt.eventd;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.opennms.netmgt.eventd.processor.BatchingEventWriter;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventProcessor;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Header;
 import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
@@ -62,6 +68,8 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
 
     private boolean m_logEventSummaries;
 
+    private volatile Executor m_executor;
+
     /**
      * <p>Constructor for DefaultEventHandlerImpl.</p>
      */
@@ -103,6 +111,10 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
                 return;
             }
 
+            // Events of one log are handed on in order, even on a pool
+            final Executor executor = m_executor;
+            final Executor continuations = executor == null ? null : new SerialExecutor(executor);
+
             for (final Event event : events.getEventCollection()) {
                 if (getLogEventSummaries() && LOG.isInfoEnabled()) {
                     LOG.info("Received event: UEI={}, src={}, iface={}, svc={}, time={}, parms={}", event.getUei(), event.getSource(), event.getInterface(), event.getService(), event.getTime(), getPrettyParms(event));
@@ -133,20 +145,93 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
                     LOG.debug("}");
                 }
 
-                for (final EventProcessor eventProcessor : m_eventProcessors) {
+                processEvent(m_eventLog.getHeader(), event, 0, continuations);
+            }
+        }
+
+    }
+
+    /**
+     * Runs the event through the processors starting at
+     * <code>firstProcessor</code>. When a {@link BatchingEventWriter} is
+     * reached the remaining processors are handed to it and run once the
+     * event has been committed, so the handler thread does not wait on the
+     * database. They run on <code>continuations</code> if it is set, or on
+     * the writer thread otherwise.
+     */
+    private void processEvent(final Header header, final Event event, final int firstProcessor, final Executor continuations) {
+        for (int i = firstProcessor; i < m_eventProcessors.size(); i++) {
+            final EventProcessor eventProcessor = m_eventProcessors.get(i);
+            try {
+                if (eventProcessor instanceof BatchingEventWriter) {
+                    final int nextProcessor = i + 1;
+                    final Runnable continuation = new Runnable() {
+                        @Override
+                        public void run() {
+                            processEvent(header, event, nextProcessor, continuations);
+                        }
+                    };
+                    ((BatchingEventWriter)eventProcessor).process(header, event, continuations == null ? continuation : new Runnable() {
+                        @Override
+                        public void run() {
+                            continuations.execute(continuation);
+                        }
+                    });
+                    return;
+                }
+                eventProcessor.process(header, event);
+            } catch (EventProcessorException e) {
+                LOG.warn("Unable to process event using processor {}; not processing with any later processors.", eventProcessor, e);
+                break;
+            } catch (Throwable t) {
+                LOG.warn("Unknown exception processing event with processor {}; not processing with any later processors.", eventProcessor, t);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks one after the other on the given executor, in the order
+     * they were handed in. A task that the executor rejects, because its
+     * queue is full or it is shut down, runs on the calling thread instead.
+     */
+    private static final class SerialExecutor implements Executor {
+        private final Queue<Runnable> m_tasks = new ArrayDeque<Runnable>();
+        private final Executor m_executor;
+        private Runnable m_active;
+
+        private SerialExecutor(final Executor executor) {
+            m_executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable task) {
+            m_tasks.add(new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        eventProcessor.process(m_eventLog.getHeader(), event);
-                    } catch (EventProcessorException e) {
-                        LOG.warn("Unable to process event using processor {}; not processing with any later processors.", eventProcessor, e);
-                        break;
-                    } catch (Throwable t) {
-                        LOG.warn("Unknown exception processing event with processor {}; not processing with any later processors.", eventProcessor, t);
-                        break;
+                        task.run();
+                    } finally {
+                        scheduleNext();
                     }
                 }
+            });
+            if (m_active == null) {
+                scheduleNext();
             }
         }
 
+        private synchronized void scheduleNext() {
+            m_active = m_tasks.poll();
+            if (m_active != null) {
+                try {
+                    m_executor.execute(m_active);
+                } catch (final RejectedExecutionException e) {
+                    LOG.debug("Event handler pool rejected the rest of the processing; running it on the current thread.", e);
+                    m_active.run();
+                }
+            }
+        }
     }
 
     private static List<String> getPrettyParms(final Event event) {
@@ -167,6 +252,24 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
         Assert.state(m_eventProcessors != null, "property eventPersisters must be set");
     }
 
+    /**
+     * <p>getExecutor</p>
+     *
+     * @return the pool that runs the processors after a {@link BatchingEventWriter}, or null to run them on the writer thread
+     */
+    public Executor getExecutor() {
+        return m_executor;
+    }
+
+    /**
+     * <p>setExecutor</p>
+     *
+     * @param executor the pool that runs the processors after a {@link BatchingEventWriter}, or null to run them on the writer thread
+     */
+    public void setExecutor(final Executor executor) {
+        m_executor = executor;
+    }
+
     /**
      * <p>getEventProcessors</p>
      *
@@ -32,10 +32,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -71,6 +73,21 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * Each listener gets its own single-threaded {@link ThreadPoolExecutor}.
+     */
+    public static final String DISPATCH_EXECUTOR = "executor";
+
+    /**
+     * Each listener gets its own bounded ring buffer.
+     */
+    public static final String DISPATCH_RING_BUFFER = "ringBuffer";
+
+    /**
+     * Ring buffer size used when no listener queue size or handler queue length is set.
+     */
+    public static final int DEFAULT_LISTENER_RING_BUFFER_SIZE = 16384;
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -107,7 +124,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private Map<String, EventListenerDispatcher> m_listenerThreads = new HashMap<String, EventListenerDispatcher>();
+
+    /**
+     * Lock-free view of the three collections above used to broadcast events
+     */
+    private volatile ListenerIndex m_index = new ListenerIndex(Collections.<EventListener>emptyList(), Collections.<String, List<EventListener>>emptyMap(), Collections.<String, EventListenerDispatcher>emptyMap());
 
     /**
      * The thread pool handling the events
@@ -120,28 +142,29 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    private String m_listenerDispatch = System.getProperty("org.opennms.eventd.listenerDispatch", DISPATCH_EXECUTOR);
+
+    private String m_listenerWaitStrategy = System.getProperty("org.opennms.eventd.listenerWaitStrategy", "blocking");
+
+    private Integer m_listenerQueueSize = Integer.getInteger("org.opennms.eventd.listenerQueueSize");
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
      */
-    private static class EventListenerExecutor {
-        /**
-         * Listener to which this thread is dedicated
-         */
-        private final EventListener m_listener;
-
+    private static class EventListenerExecutor extends EventListenerDispatcher {
         /**
          * The thread that is running this runnable.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor m_delegateThread;
 
         /**
          * Constructor
          */
         EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
-            m_listener = listener;
+            super(listener);
             // You could also do Executors.newSingleThreadExecutor() here
             m_delegateThread = new ThreadPoolExecutor(
                     1,
@@ -157,29 +180,19 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            dropped();
                         }
                     }
             );
         }
 
+        @Override
         public void addEvent(final Event event) {
+            final long queuedAt = System.nanoTime();
             m_delegateThread.execute(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
-                    }
+                    deliver(event, queuedAt);
                 }
             });
         }
@@ -187,9 +200,96 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         /**
          * Stops the execution of this listener.
          */
+        @Override
         public void stop() {
             m_delegateThread.shutdown();
         }
+
+        @Override
+        public long getLag() {
+            return m_delegateThread.getQueue().size();
+        }
+    }
+
+    /**
+     * Immutable snapshot of the listener registrations that
+     * {@link #broadcastNow(Event)} reads without locking. A new snapshot is
+     * published every time the registrations change.
+     */
+    private static final class ListenerIndex {
+        private static final int MAX_RESOLVED_UEIS = 10000;
+
+        private static final EventListenerDispatcher[] NONE = new EventListenerDispatcher[0];
+
+        private final EventListenerDispatcher[] m_matchAll;
+
+        private final Map<String, EventListenerDispatcher[]> m_ueiListeners;
+
+        /**
+         * Dispatchers for each UEI seen so far, including the wild card matches
+         */
+        private final ConcurrentHashMap<String, EventListenerDispatcher[]> m_resolved = new ConcurrentHashMap<String, EventListenerDispatcher[]>();
+
+        private ListenerIndex(final List<EventListener> matchAll, final Map<String, List<EventListener>> ueiListeners, final Map<String, EventListenerDispatcher> dispatchers) {
+            m_matchAll = dispatchersFor(matchAll, dispatchers);
+            m_ueiListeners = new HashMap<String, EventListenerDispatcher[]>();
+            for (final Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    m_ueiListeners.put(entry.getKey(), dispatchersFor(entry.getValue(), dispatchers));
+                }
+            }
+        }
+
+        private static EventListenerDispatcher[] dispatchersFor(final List<EventListener> listeners, final Map<String, EventListenerDispatcher> dispatchers) {
+            final List<EventListenerDispatcher> found = new ArrayList<EventListenerDispatcher>(listeners.size());
+            for (final EventListener listener : listeners) {
+                final EventListenerDispatcher dispatcher = dispatchers.get(listener.getName());
+                if (dispatcher != null) {
+                    found.add(dispatcher);
+                }
+            }
+            return found.toArray(NONE);
+        }
+
+        private EventListenerDispatcher[] getMatchAll() {
+            return m_matchAll;
+        }
+
+        private EventListenerDispatcher[] getUeiListeners(final String eventUei) {
+            EventListenerDispatcher[] resolved = m_resolved.get(eventUei);
+            if (resolved != null) {
+                return resolved;
+            }
+
+            /*
+             * Listeners who are interested in this event UEI.
+             * Loop to attempt partial wild card "directory" matches.
+             */
+            final Set<EventListenerDispatcher> matches = new LinkedHashSet<EventListenerDispatcher>();
+            for (String uei = eventUei; uei.length() > 0; ) {
+                final EventListenerDispatcher[] listeners = m_ueiListeners.get(uei);
+                if (listeners != null) {
+                    Collections.addAll(matches, listeners);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+
+            resolved = matches.toArray(NONE);
+            // Bound the cache in case events arrive with arbitrary UEIs
+            if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                m_resolved.put(eventUei, resolved);
+            }
+            return resolved;
+        }
     }
 
     /**
@@ -262,13 +362,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final ListenerIndex index = m_index;
+        if (index.getMatchAll().length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (EventListenerDispatcher dispatcher : index.getMatchAll()) {
+            dispatcher.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -276,41 +377,16 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        final EventListenerDispatcher[] ueiListeners = index.getUeiListeners(event.getUei());
+        for (EventListenerDispatcher dispatcher : ueiListeners) {
+            dispatcher.addEvent(event);
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (ueiListeners.length == 0) {
             LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
         }
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -329,6 +405,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        publishIndex();
     }
 
     /**
@@ -356,6 +434,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        publishIndex();
     }
 
     /**
@@ -390,6 +470,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        publishIndex();
     }
 
     /**
@@ -409,6 +491,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        publishIndex();
     }
 
     /**
@@ -430,10 +514,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
 
         // stop and remove the listener thread for this listener
-        if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
+        final EventListenerDispatcher listenerThread = m_listenerThreads.remove(listener.getName());
+
+        publishIndex();
 
-            m_listenerThreads.remove(listener.getName());
+        if (listenerThread != null) {
+            listenerThread.stop();
         }
     }
 
@@ -446,10 +532,52 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        final EventListenerDispatcher listenerThread;
+        if (DISPATCH_RING_BUFFER.equalsIgnoreCase(m_listenerDispatch)) {
+            listenerThread = new RingBufferEventListenerDispatcher(listener, getListenerRingBufferSize(), m_listenerWaitStrategy);
+        } else {
+            listenerThread = new EventListenerExecutor(listener, m_listenerQueueSize == null ? m_handlerQueueLength : m_listenerQueueSize);
+        }
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * The ring buffer size is the listener queue size (or, failing that, the
+     * handler queue length) rounded up to a power of two.
+     */
+    private int getListenerRingBufferSize() {
+        final Integer size = m_listenerQueueSize == null ? m_handlerQueueLength : m_listenerQueueSize;
+        if (size == null || size <= 0) {
+            return DEFAULT_LISTENER_RING_BUFFER_SIZE;
+        }
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Publishes a new snapshot of the registrations for
+     * {@link #broadcastNow(Event)}. Must be called with the lock held.
+     */
+    private void publishIndex() {
+        m_index = new ListenerIndex(m_listeners, m_ueiListeners, m_listenerThreads);
+    }
+
+    /**
+     * <p>getListenerMetrics</p>
+     *
+     * @return the lag, drop and latency metrics of each registered listener, keyed by listener name
+     */
+    public Map<String, EventListenerMetrics> getListenerMetrics() {
+        final Map<String, EventListenerMetrics> metrics = new TreeMap<String, EventListenerMetrics>();
+        for (final EventListenerDispatcher dispatcher : getDispatchers()) {
+            metrics.put(dispatcher.getName(), dispatcher.getMetrics());
+        }
+        return metrics;
+    }
+
+    private synchronized List<EventListenerDispatcher> getDispatchers() {
+        return new ArrayList<EventListenerDispatcher>(m_listenerThreads.values());
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -515,6 +643,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     m_handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(m_handlerQueueLength),
                     new LogPreservingThreadFactory(EventIpcManagerDefaultImpl.class.getSimpleName(), m_handlerPoolSize)
                 );
+
+                // Processing that continues after an event was stored in a batch runs on this pool as well
+                if (m_eventHandler instanceof DefaultEventHandlerImpl) {
+                    ((DefaultEventHandlerImpl)m_eventHandler).setExecutor(m_eventHandlerPool);
+                }
             }
             
         });
@@ -576,4 +709,63 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.state(m_eventHandlerPool == null, "handlerQueueLength property cannot be set after afterPropertiesSet() is called");
         m_handlerQueueLength = size;
     }
+
+    /**
+     * <p>getListenerDispatch</p>
+     *
+     * @return either {@link #DISPATCH_EXECUTOR} or {@link #DISPATCH_RING_BUFFER}
+     */
+    public String getListenerDispatch() {
+        return m_listenerDispatch;
+    }
+
+    /**
+     * Selects how events are queued for each listener. Only affects listeners
+     * registered afterwards.
+     *
+     * @param listenerDispatch either {@link #DISPATCH_EXECUTOR} or {@link #DISPATCH_RING_BUFFER}
+     */
+    public void setListenerDispatch(String listenerDispatch) {
+        Assert.isTrue(DISPATCH_EXECUTOR.equalsIgnoreCase(listenerDispatch) || DISPATCH_RING_BUFFER.equalsIgnoreCase(listenerDispatch), "listenerDispatch must be either " + DISPATCH_EXECUTOR + " or " + DISPATCH_RING_BUFFER);
+        m_listenerDispatch = listenerDispatch;
+    }
+
+    /**
+     * <p>getListenerWaitStrategy</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getListenerWaitStrategy() {
+        return m_listenerWaitStrategy;
+    }
+
+    /**
+     * Selects how ring buffer listener threads wait for events: "blocking"
+     * (the default), "liteBlocking", "sleeping", "yielding" or "busySpin".
+     * The later ones have lower latency at the price of more CPU.
+     *
+     * @param listenerWaitStrategy a {@link java.lang.String} object.
+     */
+    public void setListenerWaitStrategy(String listenerWaitStrategy) {
+        RingBufferEventListenerDispatcher.createWaitStrategy(listenerWaitStrategy);
+        m_listenerWaitStrategy = listenerWaitStrategy;
+    }
+
+    /**
+     * <p>getListenerQueueSize</p>
+     *
+     * @return the per-listener queue size, or null to use the handler queue length
+     */
+    public Integer getListenerQueueSize() {
+        return m_listenerQueueSize;
+    }
+
+    /**
+     * <p>setListenerQueueSize</p>
+     *
+     * @param listenerQueueSize the per-listener queue size, or null to use the handler queue length
+     */
+    public void setListenerQueueSize(Integer listenerQueueSize) {
+        m_listenerQueueSize = listenerQueueSize;
+    }
 }
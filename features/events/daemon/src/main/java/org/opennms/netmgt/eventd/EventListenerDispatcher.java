@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers events to a single {@link EventListener} on a thread dedicated to
+ * that listener and keeps the counters behind {@link EventListenerMetrics}.
+ */
+abstract class EventListenerDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerDispatcher.class);
+
+    /**
+     * Listener to which this dispatcher is dedicated
+     */
+    protected final EventListener m_listener;
+
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final AtomicLong m_totalLatency = new AtomicLong();
+
+    private final AtomicLong m_maxLatency = new AtomicLong();
+
+    protected EventListenerDispatcher(final EventListener listener) {
+        m_listener = listener;
+    }
+
+    /**
+     * Queues the event for the listener without blocking the caller. Events
+     * that do not fit in the queue are dropped.
+     */
+    public abstract void addEvent(Event event);
+
+    /**
+     * Stops the delivery of events to this listener.
+     */
+    public abstract void stop();
+
+    /**
+     * @return the number of events queued for the listener
+     */
+    public abstract long getLag();
+
+    /**
+     * Calls the listener from the dispatching thread.
+     *
+     * @param event the event to deliver
+     * @param queuedAt the {@link System#nanoTime()} at which the event was queued
+     */
+    protected void deliver(final Event event, final long queuedAt) {
+        try {
+            LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+
+            // Make sure we restore our log4j logging prefix after onEvent is called
+            Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                m_listener.onEvent(event);
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        } catch (Throwable t) {
+            LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+        }
+
+        final long latency = System.nanoTime() - queuedAt;
+        m_delivered.incrementAndGet();
+        m_totalLatency.addAndGet(latency);
+        long max;
+        while (latency > (max = m_maxLatency.get()) && !m_maxLatency.compareAndSet(max, latency));
+    }
+
+    protected void dropped() {
+        m_dropped.incrementAndGet();
+        LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+    }
+
+    public String getName() {
+        return m_listener.getName();
+    }
+
+    public EventListenerMetrics getMetrics() {
+        return new EventListenerMetrics(getName(), getLag(), m_delivered.get(), m_dropped.get(), m_totalLatency.get(), m_maxLatency.get());
+    }
+}
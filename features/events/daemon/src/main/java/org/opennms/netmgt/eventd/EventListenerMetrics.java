@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time view of how well an event listener is keeping up with the
+ * events broadcast to it.
+ */
+public class EventListenerMetrics {
+    private final String m_name;
+    private final long m_lag;
+    private final long m_delivered;
+    private final long m_dropped;
+    private final long m_totalLatency;
+    private final long m_maxLatency;
+
+    EventListenerMetrics(final String name, final long lag, final long delivered, final long dropped, final long totalLatencyNanos, final long maxLatencyNanos) {
+        m_name = name;
+        m_lag = lag;
+        m_delivered = delivered;
+        m_dropped = dropped;
+        m_totalLatency = totalLatencyNanos;
+        m_maxLatency = maxLatencyNanos;
+    }
+
+    /**
+     * @return the name of the listener
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * @return the number of events waiting to be delivered to the listener
+     */
+    public long getLag() {
+        return m_lag;
+    }
+
+    /**
+     * @return the number of events delivered to the listener
+     */
+    public long getDelivered() {
+        return m_delivered;
+    }
+
+    /**
+     * @return the number of events discarded because the listener's queue was full
+     */
+    public long getDropped() {
+        return m_dropped;
+    }
+
+    /**
+     * @return the mean time in milliseconds from broadcast until the listener returned
+     */
+    public double getMeanLatency() {
+        return m_delivered == 0 ? 0.0 : m_totalLatency / (double)m_delivered / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the longest time in milliseconds from broadcast until the listener returned
+     */
+    public double getMaxLatency() {
+        return m_maxLatency / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: lag=%d, delivered=%d, dropped=%d, meanLatency=%.3fms, maxLatency=%.3fms", m_name, m_lag, m_delivered, m_dropped, getMeanLatency(), getMaxLatency());
+    }
+}
@@ -88,12 +88,13 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
 
     @Override
     protected String getNodeLabel(long nodeId) {
-        return nodeDao.getLabelForId(Integer.valueOf((int)nodeId));
+        OnmsNode node = getNode(nodeId);
+        return node == null ? null : node.getLabel();
     }
 
     @Override
     protected String getForeignSource(long nodeId) {
-        OnmsNode node = nodeDao.get((int)nodeId);
+        OnmsNode node = getNode(nodeId);
         if (node != null)
             return node.getForeignSource();
         return null;
@@ -101,13 +102,13 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
 
     @Override
     protected String getForeignId(long nodeId) {
-        OnmsNode node = nodeDao.get((int)nodeId);
+        OnmsNode node = getNode(nodeId);
         return node == null ? null : node.getForeignId();
     }
 
     @Override
     protected String getIfAlias(long nodeId, String ipaddr) {
-        OnmsIpInterface iface = ipInterfaceDao.findByNodeIdAndIpAddress((int)nodeId, ipaddr);
+        OnmsIpInterface iface = getCachedLookup("ipinterface:" + nodeId + ":" + ipaddr, () -> ipInterfaceDao.findByNodeIdAndIpAddress((int)nodeId, ipaddr));
         if (iface != null && iface.getSnmpInterface() != null) {
             return iface.getSnmpInterface().getIfAlias();
         } else {
@@ -124,7 +125,7 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
         }
         final String assetField = matcher.group(1).toLowerCase();
 
-        OnmsAssetRecord assetRecord = assetRecordDao.findByNodeId((int)nodeId);
+        OnmsAssetRecord assetRecord = getCachedLookup("assetrecord:" + nodeId, () -> assetRecordDao.findByNodeId((int)nodeId));
         if (assetRecord == null) {
             return null;
         }
@@ -220,6 +221,14 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
         return super.expandParms(inp, event, decode);
     }
 
+    /**
+     * Loads the node once per expansion; the label, foreign source and
+     * foreign id tokens all read from the same entity.
+     */
+    private OnmsNode getNode(long nodeId) {
+        return getCachedLookup("node:" + nodeId, () -> nodeDao.get((int)nodeId));
+    }
+
     /**
      * Retrieves the property with the given name on the bean.
      *
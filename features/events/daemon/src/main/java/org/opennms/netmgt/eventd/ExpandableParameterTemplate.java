@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed form of a string containing %parm% tokens, such as an event
+ * logmsg, descr or notification text.  The string is scanned once and
+ * split into the literal text between the tokens and the token names, so
+ * that expanding it for an event only needs to resolve the tokens and
+ * concatenate the pieces.
+ *
+ * Parsing follows the rules {@link AbstractEventUtil#expandParms(String, org.opennms.netmgt.xml.event.Event, java.util.Map)}
+ * has always used: a %...% span containing whitespace is not a token, and
+ * its leading percent sign is kept as literal text.
+ */
+final class ExpandableParameterTemplate {
+
+    private static final char PERCENT = '%';
+
+    private static final Pattern WHITESPACE = Pattern.compile(".*\\s(?s).*");
+
+    /**
+     * Templates mostly come from the event configuration, so the set of
+     * distinct strings is small; the cache is simply dropped if it ever
+     * grows past this size.
+     */
+    private static final int MAX_CACHED_TEMPLATES = 10000;
+
+    private static final ConcurrentMap<String, ExpandableParameterTemplate> s_templates = new ConcurrentHashMap<String, ExpandableParameterTemplate>();
+
+    private final String[] m_literals;
+    private final String[] m_parms;
+    private final int m_literalLength;
+
+    private ExpandableParameterTemplate(final List<String> literals, final List<String> parms) {
+        m_literals = literals.toArray(new String[literals.size()]);
+        m_parms = parms.toArray(new String[parms.size()]);
+        int literalLength = 0;
+        for (final String literal : m_literals) {
+            literalLength += literal.length();
+        }
+        m_literalLength = literalLength;
+    }
+
+    /**
+     * Returns the parsed template for the given string, parsing it only the
+     * first time it is seen.
+     */
+    static ExpandableParameterTemplate getTemplate(final String template) {
+        ExpandableParameterTemplate parsed = s_templates.get(template);
+        if (parsed == null) {
+            parsed = parse(template);
+            if (s_templates.size() >= MAX_CACHED_TEMPLATES) {
+                s_templates.clear();
+            }
+            s_templates.put(template, parsed);
+        }
+        return parsed;
+    }
+
+    static ExpandableParameterTemplate parse(final String template) {
+        final List<String> literals = new ArrayList<String>();
+        final List<String> parms = new ArrayList<String>();
+        final StringBuilder literal = new StringBuilder();
+        final int length = template.length();
+
+        int pos = 0;
+        while (pos < length) {
+            final int begin = template.indexOf(PERCENT, pos);
+            if (begin == -1) {
+                literal.append(template, pos, length);
+                break;
+            }
+            literal.append(template, pos, begin);
+
+            final int end = template.indexOf(PERCENT, begin + 1);
+            if (end == -1) {
+                literal.append(template, begin, length);
+                break;
+            }
+
+            final String parm = template.substring(begin + 1, end);
+            if (WHITESPACE.matcher(parm).matches()) {
+                // Not a token; keep the percent sign and rescan from the next character
+                literal.append(PERCENT);
+                pos = begin + 1;
+                continue;
+            }
+
+            literals.add(literal.toString());
+            literal.setLength(0);
+            parms.add(parm);
+            pos = end + 1;
+        }
+        literals.add(literal.toString());
+
+        return new ExpandableParameterTemplate(literals, parms);
+    }
+
+    /**
+     * The number of %parm% tokens in the template.
+     */
+    int getParmCount() {
+        return m_parms.length;
+    }
+
+    /**
+     * The name of the token at the given index, without the percent signs.
+     */
+    String getParm(final int index) {
+        return m_parms[index];
+    }
+
+    /**
+     * The literal text preceding the token at the given index.  The text
+     * after the last token is at index {@link #getParmCount()}.
+     */
+    String getLiteral(final int index) {
+        return m_literals[index];
+    }
+
+    /**
+     * The length of all literal text, used to size the expansion buffer.
+     */
+    int getLiteralLength() {
+        return m_literalLength;
+    }
+}
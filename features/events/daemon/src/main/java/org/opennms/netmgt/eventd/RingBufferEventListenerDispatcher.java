@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.xml.event.Event;
+
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.LiteBlockingWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+
+/**
+ * Dispatches events to a listener through a bounded, preallocated ring
+ * buffer. Publishing never takes a lock (unless the "blocking" wait strategy
+ * has to wake the listener thread up) and never blocks: when the ring buffer
+ * is full the event is dropped and counted, so a slow listener shows up in
+ * its metrics instead of growing an unbounded queue.
+ */
+class RingBufferEventListenerDispatcher extends EventListenerDispatcher {
+
+    /**
+     * Slot of the ring buffer. An event of <code>null</code> is the stop marker.
+     */
+    private static final class QueuedEvent {
+        private Event m_event;
+        private long m_queuedAt;
+    }
+
+    private static final EventTranslatorTwoArg<QueuedEvent, Event, Long> TRANSLATOR = new EventTranslatorTwoArg<QueuedEvent, Event, Long>() {
+        @Override
+        public void translateTo(final QueuedEvent slot, final long sequence, final Event event, final Long queuedAt) {
+            slot.m_event = event;
+            slot.m_queuedAt = queuedAt;
+        }
+    };
+
+    private final RingBuffer<QueuedEvent> m_ringBuffer;
+
+    private final BatchEventProcessor<QueuedEvent> m_processor;
+
+    private final ExecutorService m_thread;
+
+    private volatile boolean m_stopping = false;
+
+    RingBufferEventListenerDispatcher(final EventListener listener, final int size, final String waitStrategy) {
+        super(listener);
+
+        m_ringBuffer = RingBuffer.createMultiProducer(QueuedEvent::new, size, createWaitStrategy(waitStrategy));
+        m_processor = new BatchEventProcessor<QueuedEvent>(m_ringBuffer, m_ringBuffer.newBarrier(), new EventHandler<QueuedEvent>() {
+            @Override
+            public void onEvent(final QueuedEvent slot, final long sequence, final boolean endOfBatch) {
+                final Event event = slot.m_event;
+                // Don't keep the event reachable until the slot is reused
+                slot.m_event = null;
+                if (event == null) {
+                    m_processor.halt();
+                    return;
+                }
+                deliver(event, slot.m_queuedAt);
+                // The stop marker did not fit: stop once the queue is drained
+                if (m_stopping && sequence == m_ringBuffer.getCursor()) {
+                    m_processor.halt();
+                }
+            }
+        });
+        m_ringBuffer.addGatingSequences(m_processor.getSequence());
+
+        // This ThreadFactory will ensure that the log prefix of the calling thread
+        // is used for all events that this listener handles.
+        m_thread = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory(listener.getName(), 1));
+        m_thread.execute(m_processor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addEvent(final Event event) {
+        if (!m_ringBuffer.tryPublishEvent(TRANSLATOR, event, System.nanoTime())) {
+            dropped();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Events that are already queued are still delivered.
+     */
+    @Override
+    public void stop() {
+        m_stopping = true;
+        if (!m_ringBuffer.tryPublishEvent(TRANSLATOR, null, System.nanoTime()) && getLag() == 0) {
+            m_processor.halt();
+        }
+        m_thread.shutdown();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLag() {
+        return Math.max(0, m_ringBuffer.getCursor() - m_processor.getSequence().get());
+    }
+
+    /**
+     * Maps the names accepted by
+     * {@link EventIpcManagerDefaultImpl#setListenerWaitStrategy(String)} to
+     * wait strategies.
+     */
+    static WaitStrategy createWaitStrategy(final String name) {
+        if (name == null || "blocking".equalsIgnoreCase(name)) {
+            return new BlockingWaitStrategy();
+        } else if ("liteBlocking".equalsIgnoreCase(name)) {
+            return new LiteBlockingWaitStrategy();
+        } else if ("sleeping".equalsIgnoreCase(name)) {
+            return new SleepingWaitStrategy();
+        } else if ("yielding".equalsIgnoreCase(name)) {
+            return new YieldingWaitStrategy();
+        } else if ("busySpin".equalsIgnoreCase(name)) {
+            return new BusySpinWaitStrategy();
+        }
+        throw new IllegalArgumentException("Unknown wait strategy: " + name);
+    }
+}
@@ -28,7 +28,14 @@
 
 package org.opennms.netmgt.eventd.jmx;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.eventd.EventIpcManagerDefaultImpl;
+import org.opennms.netmgt.eventd.EventListenerMetrics;
 
 /**
  * <p>Eventd class.</p>
@@ -48,4 +55,41 @@ public class Eventd extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
     protected String getSpringContext() {
         return "eventDaemonContext";       
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getListenerStatistics() {
+        final List<String> statistics = new ArrayList<>();
+        for (final EventListenerMetrics metrics : getListenerMetrics()) {
+            statistics.add(metrics.toString());
+        }
+        return statistics.toArray(new String[statistics.size()]);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getListenerEventsDropped() {
+        long dropped = 0;
+        for (final EventListenerMetrics metrics : getListenerMetrics()) {
+            dropped += metrics.getDropped();
+        }
+        return dropped;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getListenerMaxLag() {
+        long lag = 0;
+        for (final EventListenerMetrics metrics : getListenerMetrics()) {
+            lag = Math.max(lag, metrics.getLag());
+        }
+        return lag;
+    }
+
+    private Collection<EventListenerMetrics> getListenerMetrics() {
+        if (getContext() == null) {
+            return Collections.emptyList();
+        }
+        return getContext().getBean("eventIpcManagerImpl", EventIpcManagerDefaultImpl.class).getListenerMetrics().values();
+    }
 }
@@ -37,4 +37,19 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface EventdMBean extends BaseOnmsMBean {
+
+    /**
+     * @return the lag, drop count and latency of each event listener, one line per listener
+     */
+    String[] getListenerStatistics();
+
+    /**
+     * @return the number of events discarded because a listener's queue was full
+     */
+    long getListenerEventsDropped();
+
+    /**
+     * @return the largest number of events waiting for any single listener
+     */
+    long getListenerMaxLag();
 }
@@ -0,0 +1,653 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * Event writer that groups events into multi-row JDBC batches.
+ *
+ * Events are queued by the event handler threads and written by a single
+ * writer thread. A batch is flushed as soon as it holds
+ * {@link #getBatchSize()} events or when the oldest event in it has waited
+ * {@link #getBatchDelay()} milliseconds, whichever comes first. Every batch is
+ * written in a single transaction, so the per-event commit of
+ * {@link HibernateEventWriter} is amortized across the whole batch. Event IDs
+ * come from {@link #getGetNextIdString()}, one query per event, unless
+ * {@link #getGetNextIdBlockString()} is set, in which case they are fetched in
+ * blocks of {@link #getIdBlockSize()}. The <code>systemId</code> is resolved
+ * against the distributed pollers like {@link HibernateEventWriter} does.
+ *
+ * Callers of {@link #process(Header, Event)} block until the transaction
+ * holding their event has been committed, exactly like they would with the
+ * other writers. {@link org.opennms.netmgt.eventd.DefaultEventHandlerImpl}
+ * uses {@link #process(Header, Event, Runnable)} instead, which hands the
+ * rest of the processor chain to the writer so that the handler thread is
+ * released immediately: the continuation is only run after the commit and
+ * continuations are run in the order the events were queued, so listeners
+ * still only ever see events that are in the database, in order.
+ *
+ * If a batch fails, the events in it are retried one per transaction so that
+ * a single bad row (a foreign key violation, for instance) only fails its
+ * own event.
+ *
+ * This writer is not used by default; see
+ * <code>applicationContext-eventDaemon.xml</code> for how to enable it.
+ */
+public class BatchingEventWriter extends AbstractJdbcPersister implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingEventWriter.class);
+
+    /** Constant <code>DEFAULT_BATCH_SIZE=500</code> */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Constant <code>DEFAULT_BATCH_DELAY=50</code> (milliseconds) */
+    public static final long DEFAULT_BATCH_DELAY = 50;
+
+    /** Constant <code>DEFAULT_QUEUE_SIZE=50000</code> */
+    public static final int DEFAULT_QUEUE_SIZE = 50000;
+
+    /** Constant <code>DEFAULT_ID_BLOCK_SIZE=1000</code> */
+    public static final int DEFAULT_ID_BLOCK_SIZE = 1000;
+
+    /** Constant <code>GET_NEXT_ID_BLOCK_STRING="SELECT nextval('eventsNxtId') FROM generate_series(1, ?)"</code> */
+    public static final String GET_NEXT_ID_BLOCK_STRING = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private int m_batchSize = DEFAULT_BATCH_SIZE;
+
+    private long m_batchDelay = DEFAULT_BATCH_DELAY;
+
+    private int m_queueSize = DEFAULT_QUEUE_SIZE;
+
+    private int m_idBlockSize = DEFAULT_ID_BLOCK_SIZE;
+
+    private String m_getNextIdBlockString = null;
+
+    private DistPollerDao m_distPollerDao;
+
+    private BlockingQueue<PendingEvent> m_queue;
+
+    private ExecutorService m_writerThread;
+
+    private volatile boolean m_running = false;
+
+    /**
+     * Preallocated event IDs; only touched by the writer thread.
+     */
+    private int[] m_ids = new int[0];
+
+    private int m_nextIdIndex = 0;
+
+    /**
+     * IDs of the distributed pollers found so far; only touched by the
+     * writer thread.
+     */
+    private final Set<String> m_distPollerIds = new HashSet<String>();
+
+    private String m_localSystemId;
+
+    /**
+     * Host names resolved for the batch being written, by node ID and
+     * address; only touched by the writer thread.
+     */
+    private final Map<String, String> m_hostNames = new HashMap<String, String>();
+
+    private final AtomicLong m_eventsWritten = new AtomicLong();
+
+    private final AtomicLong m_eventsFailed = new AtomicLong();
+
+    private final AtomicLong m_batchesWritten = new AtomicLong();
+
+    /**
+     * An event waiting to be written.
+     */
+    private static final class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final Runnable m_onCommit;
+        private final boolean m_persist;
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private int m_eventId = 0;
+        private volatile Throwable m_failure;
+
+        private PendingEvent(final Header header, final Event event, final Runnable onCommit, final boolean persist) {
+            m_header = header;
+            m_event = event;
+            m_onCommit = onCommit;
+            m_persist = persist;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+        Assert.state(m_distPollerDao != null, "property distPollerDao must be set");
+        Assert.state(m_batchSize > 0, "property batchSize must be greater than zero");
+        Assert.state(m_batchDelay >= 0, "property batchDelay must not be negative");
+        Assert.state(m_queueSize > 0, "property queueSize must be greater than zero");
+        Assert.state(m_idBlockSize > 0, "property idBlockSize must be greater than zero");
+
+        m_queue = new LinkedBlockingQueue<PendingEvent>(m_queueSize);
+        m_running = true;
+        m_writerThread = Executors.newSingleThreadExecutor(new LogPreservingThreadFactory(BatchingEventWriter.class.getSimpleName(), 1));
+        m_writerThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        });
+    }
+
+    /**
+     * Stops accepting events, writes the ones that are still queued and
+     * stops the writer thread.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        m_running = false;
+        if (m_writerThread != null) {
+            m_writerThread.shutdown();
+            if (!m_writerThread.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting for {} queued events to be written.", m_queue.size());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the event and waits until the batch containing it has been
+     * committed.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event) throws EventProcessorException {
+        if (!checkEventSanityAndDoWeProcess(event, "BatchingEventWriter")) {
+            return;
+        }
+
+        final PendingEvent pending = enqueue(eventHeader, event, null, true);
+        try {
+            pending.m_done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while waiting for event to be stored: " + event.toString(), e);
+        }
+
+        if (pending.m_failure != null) {
+            throw new EventProcessorException("Unexpected exception while storing event: " + event.toString(), pending.m_failure);
+        }
+    }
+
+    /**
+     * Queues the event and returns without waiting for it to be written.
+     * <code>onCommit</code> is run on the writer thread once the event has
+     * been committed and is not run at all if the event could not be stored.
+     * Events that are not meant to be persisted are queued as well and run
+     * <code>onCommit</code> once the events queued before them have been
+     * committed, so that they are never handed on ahead of those.
+     *
+     * @param eventHeader a {@link org.opennms.netmgt.xml.event.Header} object.
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param onCommit a {@link java.lang.Runnable} object.
+     * @throws org.opennms.netmgt.events.api.EventProcessorException if any.
+     */
+    public void process(final Header eventHeader, final Event event, final Runnable onCommit) throws EventProcessorException {
+        Assert.notNull(onCommit, "onCommit argument must not be null");
+        enqueue(eventHeader, event, onCommit, checkEventSanityAndDoWeProcess(event, "BatchingEventWriter"));
+    }
+
+    private PendingEvent enqueue(final Header eventHeader, final Event event, final Runnable onCommit, final boolean persist) throws EventProcessorException {
+        if (!m_running) {
+            throw new EventProcessorException("BatchingEventWriter is not running; unable to store event: " + event.toString());
+        }
+
+        LOG.debug("BatchingEventWriter: queueing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+
+        final PendingEvent pending = new PendingEvent(eventHeader, event, onCommit, persist);
+        try {
+            // Blocks the event handler threads when the database falls behind
+            m_queue.put(pending);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while queueing event: " + event.toString(), e);
+        }
+        return pending;
+    }
+
+    private void writeLoop() {
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+        while (m_running || !m_queue.isEmpty()) {
+            try {
+                final PendingEvent first = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchDelay);
+                while (batch.size() < m_batchSize) {
+                    if (m_queue.drainTo(batch, m_batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    final PendingEvent next = m_queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeBatch(batch);
+            } catch (final InterruptedException e) {
+                LOG.warn("BatchingEventWriter interrupted; {} events left unwritten in the queue.", m_queue.size());
+                m_running = false;
+                m_queue.drainTo(batch);
+                for (final PendingEvent pending : batch) {
+                    pending.m_failure = e;
+                    pending.m_done.countDown();
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Throwable t) {
+                LOG.error("Unexpected exception writing event batch.", t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch in a single transaction, falling back to one
+     * transaction per event if that fails, and then hands on every event
+     * that was stored or did not need storing, in queue order.
+     */
+    private void writeBatch(final List<PendingEvent> batch) {
+        // Pick up host name changes from one batch to the next
+        m_hostNames.clear();
+
+        final List<PendingEvent> toStore = new ArrayList<PendingEvent>(batch.size());
+        for (final PendingEvent pending : batch) {
+            if (pending.m_persist) {
+                toStore.add(pending);
+            }
+        }
+
+        if (!toStore.isEmpty()) {
+            try {
+                insertEvents(toStore);
+            } catch (final Throwable t) {
+                if (toStore.size() == 1) {
+                    fail(toStore.get(0), t);
+                } else {
+                    LOG.warn("Error inserting a batch of {} events into the datastore; retrying them one at a time.", toStore.size(), t);
+                    for (final PendingEvent pending : toStore) {
+                        try {
+                            insertEvents(Collections.singletonList(pending));
+                        } catch (final Throwable t2) {
+                            fail(pending, t2);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (final PendingEvent pending : batch) {
+            if (pending.m_failure == null) {
+                succeed(pending);
+            }
+        }
+    }
+
+    private void insertEvents(final List<PendingEvent> batch) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = getDataSource().getConnection();
+            d.watch(connection);
+            connection.setAutoCommit(false);
+
+            try {
+                final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+                d.watch(insStmt);
+
+                for (final PendingEvent pending : batch) {
+                    if (pending.m_eventId == 0) {
+                        // IDs survive a rollback so that retried events keep theirs
+                        pending.m_eventId = nextEventId(connection, d);
+                        synchronized (pending.m_event) {
+                            pending.m_event.setDbid(pending.m_eventId);
+                        }
+                    }
+                    populateInsertStatement(insStmt, pending.m_eventId, pending.m_header, pending.m_event);
+                    insStmt.addBatch();
+                }
+
+                insStmt.executeBatch();
+                connection.commit();
+            } catch (final SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (final Throwable e2) {
+                    LOG.warn("Rollback of transaction failed.", e2);
+                }
+                throw e;
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        m_batchesWritten.incrementAndGet();
+        LOG.debug("SUCCESSFULLY added {} events to the EVENTS table.", batch.size());
+    }
+
+    private int nextEventId(final Connection connection, final DBUtils d) throws SQLException {
+        if (m_getNextIdBlockString == null) {
+            final PreparedStatement stmt = connection.prepareStatement(getGetNextIdString());
+            d.watch(stmt);
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            if (!rs.next()) {
+                throw new SQLException("No event ID returned by: " + getGetNextIdString());
+            }
+            return rs.getInt(1);
+        }
+
+        if (m_nextIdIndex >= m_ids.length) {
+            final int[] ids = new int[m_idBlockSize];
+            final PreparedStatement stmt = connection.prepareStatement(getGetNextIdBlockString());
+            d.watch(stmt);
+            stmt.setInt(1, m_idBlockSize);
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            int count = 0;
+            while (count < ids.length && rs.next()) {
+                ids[count++] = rs.getInt(1);
+            }
+            if (count == 0) {
+                throw new SQLException("No event IDs returned by: " + getGetNextIdBlockString());
+            }
+            m_ids = count == ids.length ? ids : Arrays.copyOf(ids, count);
+            m_nextIdIndex = 0;
+        }
+        return m_ids[m_nextIdIndex++];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Like {@link HibernateEventWriter}, only known distributed pollers are
+     * used and the local system is used when neither the header nor the
+     * event names one.
+     */
+    @Override
+    protected String getSystemId(final Header eventHeader, final Event event) {
+        if (eventHeader != null && isDistPoller(eventHeader.getDpName())) {
+            return eventHeader.getDpName();
+        } else if (isDistPoller(event.getDistPoller())) {
+            return event.getDistPoller();
+        }
+        if (m_localSystemId == null) {
+            m_localSystemId = m_distPollerDao.whoami().getId();
+        }
+        return m_localSystemId;
+    }
+
+    private boolean isDistPoller(final String id) {
+        if (id == null || "".equals(id.trim())) {
+            return false;
+        } else if (m_distPollerIds.contains(id)) {
+            return true;
+        } else if (m_distPollerDao.get(id) == null) {
+            return false;
+        }
+        m_distPollerIds.add(id);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Each node and address is only looked up once per batch.
+     */
+    @Override
+    protected String getEventHost(final Event event) {
+        if (event.getHost() == null || !event.hasNodeid()) {
+            return super.getEventHost(event);
+        }
+        final String key = event.getNodeid() + "/" + event.getHost();
+        String hostname = m_hostNames.get(key);
+        if (hostname == null) {
+            hostname = super.getEventHost(event);
+            m_hostNames.put(key, hostname);
+        }
+        return hostname;
+    }
+
+    private void succeed(final PendingEvent pending) {
+        if (pending.m_persist) {
+            m_eventsWritten.incrementAndGet();
+        }
+        pending.m_done.countDown();
+        if (pending.m_onCommit != null) {
+            try {
+                pending.m_onCommit.run();
+            } catch (final Throwable t) {
+                LOG.warn("Unexpected exception processing event {} after it was stored.", pending.m_event.getUei(), t);
+            }
+        }
+    }
+
+    private void fail(final PendingEvent pending, final Throwable t) {
+        m_eventsFailed.incrementAndGet();
+        pending.m_failure = t;
+        pending.m_done.countDown();
+        if (pending.m_onCommit != null) {
+            LOG.warn("Unable to store event {}; not processing with any later processors.", pending.m_event, t);
+        }
+    }
+
+    /**
+     * <p>getBatchSize</p>
+     *
+     * @return the maximum number of events written in one transaction
+     */
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * <p>setBatchSize</p>
+     *
+     * @param batchSize the maximum number of events written in one transaction
+     */
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    /**
+     * <p>getBatchDelay</p>
+     *
+     * @return the maximum time in milliseconds an event waits for its batch to fill
+     */
+    public long getBatchDelay() {
+        return m_batchDelay;
+    }
+
+    /**
+     * <p>setBatchDelay</p>
+     *
+     * @param batchDelay the maximum time in milliseconds an event waits for its batch to fill
+     */
+    public void setBatchDelay(final long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    /**
+     * <p>getQueueSize</p>
+     *
+     * @return the number of events that may be waiting to be written before callers block
+     */
+    public int getQueueSize() {
+        return m_queueSize;
+    }
+
+    /**
+     * <p>setQueueSize</p>
+     *
+     * @param queueSize the number of events that may be waiting to be written before callers block
+     */
+    public void setQueueSize(final int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    /**
+     * <p>getIdBlockSize</p>
+     *
+     * @return the number of event IDs fetched from the sequence at once
+     */
+    public int getIdBlockSize() {
+        return m_idBlockSize;
+    }
+
+    /**
+     * <p>setIdBlockSize</p>
+     *
+     * @param idBlockSize the number of event IDs fetched from the sequence at once
+     */
+    public void setIdBlockSize(final int idBlockSize) {
+        m_idBlockSize = idBlockSize;
+    }
+
+    /**
+     * <p>getGetNextIdBlockString</p>
+     *
+     * @return a query returning one new event ID per row, taking the number of rows as its only parameter, or null to use {@link #getGetNextIdString()} for every event
+     */
+    public String getGetNextIdBlockString() {
+        return m_getNextIdBlockString;
+    }
+
+    /**
+     * <p>setGetNextIdBlockString</p>
+     *
+     * @param getNextIdBlockString a query returning one new event ID per row, taking the number of rows as its only parameter, such as {@link #GET_NEXT_ID_BLOCK_STRING}
+     */
+    public void setGetNextIdBlockString(final String getNextIdBlockString) {
+        m_getNextIdBlockString = getNextIdBlockString;
+    }
+
+    /**
+     * <p>getDistPollerDao</p>
+     *
+     * @return a {@link org.opennms.netmgt.dao.api.DistPollerDao} object.
+     */
+    public DistPollerDao getDistPollerDao() {
+        return m_distPollerDao;
+    }
+
+    /**
+     * <p>setDistPollerDao</p>
+     *
+     * @param distPollerDao a {@link org.opennms.netmgt.dao.api.DistPollerDao} object.
+     */
+    public void setDistPollerDao(final DistPollerDao distPollerDao) {
+        m_distPollerDao = distPollerDao;
+    }
+
+    /**
+     * <p>getQueuedEvents</p>
+     *
+     * @return the number of events waiting to be written
+     */
+    public int getQueuedEvents() {
+        return m_queue == null ? 0 : m_queue.size();
+    }
+
+    /**
+     * <p>getEventsWritten</p>
+     *
+     * @return the number of events stored since startup
+     */
+    public long getEventsWritten() {
+        return m_eventsWritten.get();
+    }
+
+    /**
+     * <p>getEventsFailed</p>
+     *
+     * @return the number of events that could not be stored since startup
+     */
+    public long getEventsFailed() {
+        return m_eventsFailed.get();
+    }
+
+    /**
+     * <p>getBatchesWritten</p>
+     *
+     * @return the number of transactions committed since startup
+     */
+    public long getBatchesWritten() {
+        return m_batchesWritten.get();
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.eventd.processor.BatchingEventWriter;
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+
+public class DefaultEventHandlerImplTest {
+
+    private final List<Runnable> m_onCommits = new ArrayList<Runnable>();
+
+    private final List<String> m_processed = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<String> m_threads = Collections.synchronizedList(new ArrayList<String>());
+
+    private CountDownLatch m_done;
+
+    private DefaultEventHandlerImpl m_handler;
+
+    private ExecutorService m_pool;
+
+    @Before
+    public void setUp() {
+        m_pool = Executors.newFixedThreadPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, "handler-pool");
+            }
+        });
+
+        // Collects the continuations instead of writing the events
+        final BatchingEventWriter writer = new BatchingEventWriter() {
+            @Override
+            public void process(final Header eventHeader, final Event event, final Runnable onCommit) {
+                m_onCommits.add(onCommit);
+            }
+        };
+        final EventProcessor broadcaster = new EventProcessor() {
+            @Override
+            public void process(final Header eventHeader, final Event event) {
+                m_processed.add(event.getUei());
+                m_threads.add(Thread.currentThread().getName());
+                m_done.countDown();
+            }
+        };
+
+        m_handler = new DefaultEventHandlerImpl();
+        m_handler.setEventProcessors(Arrays.<EventProcessor>asList(writer, broadcaster));
+        m_handler.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        m_pool.shutdownNow();
+    }
+
+    @Test(timeout=10000)
+    public void testStoredEventsAreHandedBackToThePoolInOrder() throws Exception {
+        m_handler.setExecutor(m_pool);
+
+        final List<String> ueis = processLog(20);
+        m_done.await();
+
+        assertEquals(ueis, m_processed);
+        for (final String thread : m_threads) {
+            assertEquals("handler-pool", thread);
+        }
+    }
+
+    @Test
+    public void testWithoutExecutorEventsAreHandedOnByTheWriter() throws Exception {
+        final List<String> ueis = processLog(3);
+
+        assertTrue(m_done.await(0, TimeUnit.SECONDS));
+        assertEquals(ueis, m_processed);
+        assertEquals(Collections.nCopies(3, Thread.currentThread().getName()), m_threads);
+    }
+
+    @Test
+    public void testRejectedEventsAreHandedOnByTheWriter() throws Exception {
+        m_handler.setExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException("queue is full");
+            }
+        });
+
+        final List<String> ueis = processLog(3);
+
+        assertTrue(m_done.await(0, TimeUnit.SECONDS));
+        assertEquals(ueis, m_processed);
+        assertEquals(Collections.nCopies(3, Thread.currentThread().getName()), m_threads);
+    }
+
+    /**
+     * Runs a log of <code>count</code> events through the handler and then
+     * commits them from the current thread, like the writer thread would.
+     */
+    private List<String> processLog(final int count) {
+        m_done = new CountDownLatch(count);
+
+        final List<String> ueis = new ArrayList<String>();
+        final Log log = new Log();
+        for (int i = 0; i < count; i++) {
+            final Event event = new Event();
+            event.setUei("uei.opennms.org/test/" + i);
+            log.addEvent(event);
+            ueis.add(event.getUei());
+        }
+
+        m_handler.createRunnable(log).run();
+        assertEquals(count, m_onCommits.size());
+        assertTrue(m_processed.isEmpty());
+
+        for (final Runnable onCommit : m_onCommits) {
+            onCommit.run();
+        }
+        return ueis;
+    }
+}
@@ -33,6 +33,8 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -424,7 +426,95 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         
         assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
     }
-    
+
+
+    public void testRingBufferDispatchWithUeiPartAndBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/bar", "testRingBufferDispatchWithUeiPartAndBroadcast");
+        Event e = bldr.getEvent();
+
+        m_mocks.replayAll();
+
+        m_manager.setListenerDispatch(EventIpcManagerDefaultImpl.DISPATCH_RING_BUFFER);
+        m_manager.addEventListener(m_listener, "uei.opennms.org/foo/");
+        m_manager.addEventListener(m_listener, "uei.opennms.org/");
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+
+        m_mocks.verifyAll();
+
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+
+        EventListenerMetrics metrics = m_manager.getListenerMetrics().get(m_listener.getName());
+        assertEquals(0, metrics.getLag());
+        assertEquals(1, metrics.getDelivered());
+        assertEquals(0, metrics.getDropped());
+    }
+
+    public void testRingBufferDispatchDropsEventsForSlowListener() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger();
+        EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "slowListener";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                received.incrementAndGet();
+            }
+        };
+
+        m_mocks.replayAll();
+
+        m_manager.setListenerDispatch(EventIpcManagerDefaultImpl.DISPATCH_RING_BUFFER);
+        m_manager.setListenerWaitStrategy("sleeping");
+        m_manager.addEventListener(m_listener);
+        m_manager.setListenerQueueSize(3); // rounded up to 4
+        m_manager.addEventListener(slowListener);
+
+        for (int i = 0; i < 10; i++) {
+            m_manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testRingBufferDispatchDropsEventsForSlowListener").getEvent());
+        }
+        Thread.sleep(100);
+
+        // Four events fill the ring buffer (the first one is being delivered) and the rest are dropped
+        EventListenerMetrics slow = m_manager.getListenerMetrics().get("slowListener");
+        assertEquals(4, slow.getLag());
+        assertEquals(6, slow.getDropped());
+
+        // The other listener is not held back
+        EventListenerMetrics fast = m_manager.getListenerMetrics().get(m_listener.getName());
+        assertEquals(10, fast.getDelivered());
+        assertEquals(0, fast.getDropped());
+        m_listener.getEvents().clear();
+
+        // Removing the listener still delivers what was queued
+        m_manager.removeEventListener(slowListener);
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals(4, received.get());
+
+        m_mocks.verifyAll();
+    }
+
+    public void testSetUnknownWaitStrategy() {
+        ThrowableAnticipator ta = new ThrowableAnticipator();
+        ta.anticipate(new IllegalArgumentException("Unknown wait strategy: lazy"));
+
+        try {
+            m_manager.setListenerWaitStrategy("lazy");
+        } catch (Throwable t) {
+            ta.throwableReceived(t);
+        }
+
+        ta.verifyAnticipated();
+    }    
 
     /**
      * This is the type of exception we want to catch.
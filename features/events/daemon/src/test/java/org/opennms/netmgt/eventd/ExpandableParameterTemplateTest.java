@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class ExpandableParameterTemplateTest {
+
+    @Test
+    public void testParse() {
+        ExpandableParameterTemplate template = ExpandableParameterTemplate.parse("Node %nodelabel% (%foreignsource%:%foreignid%) is down");
+        assertEquals(3, template.getParmCount());
+        assertEquals("nodelabel", template.getParm(0));
+        assertEquals("foreignsource", template.getParm(1));
+        assertEquals("foreignid", template.getParm(2));
+        assertEquals("Node ", template.getLiteral(0));
+        assertEquals(" (", template.getLiteral(1));
+        assertEquals(":", template.getLiteral(2));
+        assertEquals(") is down", template.getLiteral(3));
+    }
+
+    @Test
+    public void testParseWithoutTokens() {
+        assertEquals(0, ExpandableParameterTemplate.parse("").getParmCount());
+        assertEquals(0, ExpandableParameterTemplate.parse("no tokens").getParmCount());
+
+        ExpandableParameterTemplate template = ExpandableParameterTemplate.parse("100% sure");
+        assertEquals(0, template.getParmCount());
+        assertEquals("100% sure", template.getLiteral(0));
+    }
+
+    @Test
+    public void testParseSkipsWhitespaceSpans() {
+        // "% used, %" contains whitespace, so the first percent sign is literal
+        // and the second one starts the %parm[#1]% token
+        ExpandableParameterTemplate template = ExpandableParameterTemplate.parse("disk 90% used, %parm[#1]% left");
+        assertEquals(1, template.getParmCount());
+        assertEquals("parm[#1]", template.getParm(0));
+        assertEquals("disk 90% used, ", template.getLiteral(0));
+        assertEquals(" left", template.getLiteral(1));
+    }
+
+    @Test
+    public void testExpandParms() {
+        CountingEventUtil eventUtil = new CountingEventUtil();
+        Event event = new EventBuilder("uei.opennms.org/test", "test")
+            .setNodeid(1)
+            .addParam("status", "1")
+            .getEvent();
+
+        assertEquals("Node node1 (fs:fid) uei.opennms.org/test is up(1), 50% done",
+            eventUtil.expandParms("Node %nodelabel% (%foreignsource%:%foreignid%) %uei% is %parm[status]%, 50% done",
+                event, Collections.singletonMap("parm[status]", Collections.singletonMap("1", "up"))));
+        assertEquals(1, eventUtil.getNodeLookups());
+
+        assertNull(eventUtil.expandParms("nothing to expand", event));
+        assertNull(eventUtil.expandParms("%unknown with spaces%", event));
+
+        // Each expansion starts with an empty cache
+        assertEquals("node1", eventUtil.expandParms("%nodelabel%", event));
+        assertEquals(2, eventUtil.getNodeLookups());
+    }
+
+    private static class CountingEventUtil extends AbstractEventUtil {
+        private final AtomicInteger m_nodeLookups = new AtomicInteger();
+
+        public int getNodeLookups() {
+            return m_nodeLookups.get();
+        }
+
+        private String[] getNode(long nodeId) {
+            return getCachedLookup("node:" + nodeId, () -> {
+                m_nodeLookups.incrementAndGet();
+                return new String[] { "node" + nodeId, "fs", "fid" };
+            });
+        }
+
+        @Override
+        protected String getNodeLabel(long nodeId) throws SQLException {
+            return getNode(nodeId)[0];
+        }
+
+        @Override
+        protected String getForeignSource(long nodeId) throws SQLException {
+            return getNode(nodeId)[1];
+        }
+
+        @Override
+        protected String getForeignId(long nodeId) throws SQLException {
+            return getNode(nodeId)[2];
+        }
+
+        @Override
+        protected String getIfAlias(long nodeId, String ipaddr) throws SQLException {
+            return null;
+        }
+
+        @Override
+        protected String getAssetFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getHardwareFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getHostName(int nodeId, String hostip) throws SQLException {
+            return hostip;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.EventdServiceManager;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Logmsg;
+
+public class BatchingEventWriterTest {
+
+    private static final String LOCAL_SYSTEM_ID = "00000000-0000-0000-0000-000000000000";
+
+    private static final String MINION_ID = "minion-1";
+
+    private FakeDatabase m_db;
+
+    private BatchingEventWriter m_writer;
+
+    @Before
+    public void setUp() {
+        m_db = new FakeDatabase();
+
+        m_writer = new BatchingEventWriter();
+        m_writer.setDataSource(m_db.getDataSource());
+        m_writer.setEventUtil(stub(EventUtil.class));
+        m_writer.setEventdServiceManager(stub(EventdServiceManager.class));
+        m_writer.setDistPollerDao(distPollerDao());
+        m_writer.setGetNextIdString("SELECT nextval('eventsNxtId')");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_writer.destroy();
+    }
+
+    @Test
+    public void testEventsAreWrittenInOneBatchWithPreallocatedIds() throws Exception {
+        m_writer.setBatchSize(10);
+        m_writer.setBatchDelay(TimeUnit.SECONDS.toMillis(10));
+        m_writer.setIdBlockSize(4);
+        m_writer.setGetNextIdBlockString(BatchingEventWriter.GET_NEXT_ID_BLOCK_STRING);
+        m_writer.afterPropertiesSet();
+
+        final CountDownLatch done = new CountDownLatch(10);
+        final List<Integer> committed = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 10; i++) {
+            final Event event = createEvent("uei.opennms.org/test/" + i);
+            m_writer.process(null, event, new Runnable() {
+                @Override
+                public void run() {
+                    // The row must be visible before the rest of the chain sees the event
+                    assertTrue(m_db.getCommittedUeis().contains(event.getUei()));
+                    committed.add(event.getDbid());
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), committed);
+        assertEquals(1, m_db.getCommits());
+        assertEquals(1, m_db.getBatches());
+        assertEquals(3, m_db.getIdQueries());
+        assertEquals(10, m_writer.getEventsWritten());
+        assertEquals(1, m_writer.getBatchesWritten());
+    }
+
+    @Test
+    public void testSynchronousProcessWaitsForCommit() throws Exception {
+        m_writer.setBatchDelay(0);
+        m_writer.afterPropertiesSet();
+
+        final Event event = createEvent("uei.opennms.org/test/sync");
+        m_writer.process(null, event);
+
+        assertEquals(Integer.valueOf(1), event.getDbid());
+        assertEquals(Collections.singletonList(event.getUei()), m_db.getCommittedUeis());
+    }
+
+    @Test
+    public void testConfiguredIdQueryIsUsedForEveryEvent() throws Exception {
+        m_writer.setBatchDelay(TimeUnit.SECONDS.toMillis(1));
+        m_writer.afterPropertiesSet();
+
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            m_writer.process(null, createEvent("uei.opennms.org/test/" + i), new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("SELECT nextval('eventsNxtId')", "SELECT nextval('eventsNxtId')", "SELECT nextval('eventsNxtId')"), m_db.getIdQueryStrings());
+        assertEquals(1, m_db.getCommits());
+    }
+
+    @Test
+    public void testSystemIdIsResolvedAgainstTheDistPollers() throws Exception {
+        m_writer.setBatchDelay(0);
+        m_writer.afterPropertiesSet();
+
+        final Header header = new Header();
+        header.setDpName(MINION_ID);
+        m_writer.process(header, createEvent("uei.opennms.org/test/header"));
+
+        final Event fromEvent = createEvent("uei.opennms.org/test/event");
+        fromEvent.setDistPoller(MINION_ID);
+        m_writer.process(null, fromEvent);
+
+        final Event unknown = createEvent("uei.opennms.org/test/unknown");
+        unknown.setDistPoller("no-such-poller");
+        m_writer.process(null, unknown);
+
+        m_writer.process(null, createEvent("uei.opennms.org/test/none"));
+
+        assertEquals(Arrays.asList(MINION_ID, MINION_ID, LOCAL_SYSTEM_ID, LOCAL_SYSTEM_ID), m_db.getCommittedSystemIds());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedOneEventAtATime() throws Exception {
+        m_writer.setBatchSize(3);
+        m_writer.setBatchDelay(TimeUnit.SECONDS.toMillis(1));
+        m_writer.afterPropertiesSet();
+
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        for (final String uei : new String[] { "uei.opennms.org/test/first", FakeDatabase.BAD_UEI, "uei.opennms.org/test/last" }) {
+            final Event event = createEvent(uei);
+            m_writer.process(null, event, new Runnable() {
+                @Override
+                public void run() {
+                    processed.add(event.getUei());
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("uei.opennms.org/test/first", "uei.opennms.org/test/last"), processed);
+        assertEquals(processed, m_db.getCommittedUeis());
+        assertEquals(2, m_writer.getEventsWritten());
+        assertEquals(1, m_writer.getEventsFailed());
+
+        try {
+            m_writer.process(null, createEvent(FakeDatabase.BAD_UEI));
+            fail("expected an EventProcessorException");
+        } catch (final EventProcessorException e) {
+            assertTrue(e.getCause() instanceof BatchUpdateException);
+        }
+    }
+
+    @Test
+    public void testSuppressedEventsAreNotStored() throws Exception {
+        m_writer.setBatchDelay(TimeUnit.SECONDS.toMillis(1));
+        m_writer.afterPropertiesSet();
+
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        for (final String uei : new String[] { "uei.opennms.org/test/stored", "uei.opennms.org/test/suppressed" }) {
+            final Event event = createEvent(uei);
+            if (uei.endsWith("suppressed")) {
+                event.getLogmsg().setDest("donotpersist");
+            }
+            m_writer.process(null, event, new Runnable() {
+                @Override
+                public void run() {
+                    processed.add(event.getUei());
+                    done.countDown();
+                }
+            });
+        }
+
+        // The suppressed event is not handed on ahead of the event queued before it
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("uei.opennms.org/test/stored", "uei.opennms.org/test/suppressed"), processed);
+        assertEquals(Collections.singletonList("uei.opennms.org/test/stored"), m_db.getCommittedUeis());
+        assertEquals(1, m_writer.getEventsWritten());
+    }
+
+    private static Event createEvent(final String uei) {
+        final Logmsg logmsg = new Logmsg();
+        logmsg.setDest("logndisplay");
+        logmsg.setContent(uei);
+
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setTime(new Date());
+        event.setSource("BatchingEventWriterTest");
+        event.setSeverity("Normal");
+        event.setLogmsg(logmsg);
+        return event;
+    }
+
+    private static DistPollerDao distPollerDao() {
+        return (DistPollerDao)Proxy.newProxyInstance(DistPollerDao.class.getClassLoader(), new Class<?>[] { DistPollerDao.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("whoami".equals(method.getName())) {
+                    return new OnmsDistPoller(LOCAL_SYSTEM_ID);
+                } else if ("get".equals(method.getName()) && MINION_ID.equals(args[0])) {
+                    return new OnmsDistPoller(MINION_ID);
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> clazz) {
+        return (T)Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Just enough of a JDBC driver to see which rows were inserted, in which
+     * transaction, and how many sequence queries were made.
+     */
+    private static class FakeDatabase {
+        private static final String BAD_UEI = "uei.opennms.org/test/violatesConstraint";
+
+        private final List<String> m_committed = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> m_uncommitted = new ArrayList<>();
+        private final List<String> m_committedSystemIds = new ArrayList<>();
+        private final List<String> m_uncommittedSystemIds = new ArrayList<>();
+        private final List<String> m_idQueryStrings = new ArrayList<>();
+        private int m_sequence = 0;
+        private int m_idQueries = 0;
+        private int m_batches = 0;
+        private int m_commits = 0;
+
+        public List<String> getCommittedUeis() {
+            return m_committed;
+        }
+
+        public synchronized int getIdQueries() {
+            return m_idQueries;
+        }
+
+        public synchronized List<String> getIdQueryStrings() {
+            return new ArrayList<>(m_idQueryStrings);
+        }
+
+        public synchronized List<String> getCommittedSystemIds() {
+            return new ArrayList<>(m_committedSystemIds);
+        }
+
+        public synchronized int getBatches() {
+            return m_batches;
+        }
+
+        public synchronized int getCommits() {
+            return m_commits;
+        }
+
+        public DataSource getDataSource() {
+            return (DataSource)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    if ("getConnection".equals(method.getName())) {
+                        return connection();
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        private Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    synchronized (FakeDatabase.this) {
+                        if ("prepareStatement".equals(method.getName())) {
+                            if (EventdConstants.SQL_DB_INS_EVENT.equals(args[0])) {
+                                return insertStatement();
+                            }
+                            m_idQueryStrings.add((String)args[0]);
+                            return idStatement();
+                        } else if ("commit".equals(method.getName())) {
+                            m_commits++;
+                            m_committed.addAll(m_uncommitted);
+                            m_uncommitted.clear();
+                            m_committedSystemIds.addAll(m_uncommittedSystemIds);
+                            m_uncommittedSystemIds.clear();
+                        } else if ("rollback".equals(method.getName())) {
+                            m_uncommitted.clear();
+                            m_uncommittedSystemIds.clear();
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                }
+            });
+        }
+
+        private PreparedStatement insertStatement() {
+            final List<String> batch = new ArrayList<>();
+            final List<String> systemIds = new ArrayList<>();
+            final String[] uei = new String[1];
+            final String[] systemId = new String[1];
+            return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+                    synchronized (FakeDatabase.this) {
+                        if ("setString".equals(method.getName()) && Integer.valueOf(2).equals(args[0])) {
+                            uei[0] = (String)args[1];
+                        } else if ("setString".equals(method.getName()) && Integer.valueOf(7).equals(args[0])) {
+                            systemId[0] = (String)args[1];
+                        } else if ("addBatch".equals(method.getName())) {
+                            batch.add(uei[0]);
+                            systemIds.add(systemId[0]);
+                        } else if ("executeBatch".equals(method.getName())) {
+                            m_batches++;
+                            if (batch.contains(BAD_UEI)) {
+                                throw new BatchUpdateException("foreign key violation", new int[0]);
+                            }
+                            m_uncommitted.addAll(batch);
+                            m_uncommittedSystemIds.addAll(systemIds);
+                            final int[] counts = new int[batch.size()];
+                            Arrays.fill(counts, 1);
+                            batch.clear();
+                            systemIds.clear();
+                            return counts;
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                }
+            });
+        }
+
+        private PreparedStatement idStatement() {
+            // One ID unless the block query says otherwise
+            final int[] count = new int[] { 1 };
+            return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    synchronized (FakeDatabase.this) {
+                        if ("setInt".equals(method.getName())) {
+                            count[0] = (Integer)args[1];
+                        } else if ("executeQuery".equals(method.getName())) {
+                            m_idQueries++;
+                            final int first = m_sequence + 1;
+                            m_sequence += count[0];
+                            return ids(first, count[0]);
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                }
+            });
+        }
+
+        private ResultSet ids(final int first, final int count) {
+            final int[] row = new int[] { -1 };
+            return (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    if ("next".equals(method.getName())) {
+                        return ++row[0] < count;
+                    } else if ("getInt".equals(method.getName())) {
+                        return first + row[0];
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+    }
+}
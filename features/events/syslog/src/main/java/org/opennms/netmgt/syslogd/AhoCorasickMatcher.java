@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of a fixed set of literal strings occur in a text, in a single
+ * pass over the text (Aho-Corasick automaton).
+ *
+ * <p>Instances are immutable once built and can be shared between threads.</p>
+ */
+final class AhoCorasickMatcher {
+
+    private static final int[] NONE = new int[0];
+
+    /** The characters leading out of each state, sorted. */
+    private final char[][] m_labels;
+    /** The target state for each of the characters in {@link #m_labels}. */
+    private final int[][] m_targets;
+    /** The state to fall back to when no transition matches. */
+    private final int[] m_failure;
+    /** The ids of the literals ending at each state, including those inherited from the failure state. */
+    private final int[][] m_outputs;
+
+    /**
+     * <p>Constructor for AhoCorasickMatcher.</p>
+     *
+     * @param literals the literals to find; <code>null</code> and empty entries are ignored.
+     *        The id of a literal is its index in the list.
+     */
+    AhoCorasickMatcher(final List<String> literals) {
+        final List<TreeMap<Character, Integer>> children = new ArrayList<TreeMap<Character, Integer>>();
+        final List<int[]> outputs = new ArrayList<int[]>();
+        children.add(new TreeMap<Character, Integer>());
+        outputs.add(NONE);
+
+        // Build the trie
+        for (int id = 0; id < literals.size(); id++) {
+            final String literal = literals.get(id);
+            if (literal == null || literal.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                Integer next = children.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<Character, Integer>());
+                    outputs.add(NONE);
+                    children.get(state).put(literal.charAt(i), next);
+                }
+                state = next;
+            }
+            outputs.set(state, append(outputs.get(state), id));
+        }
+
+        final int states = children.size();
+        m_labels = new char[states][];
+        m_targets = new int[states][];
+        m_failure = new int[states];
+        m_outputs = new int[states][];
+        for (int state = 0; state < states; state++) {
+            final TreeMap<Character, Integer> edges = children.get(state);
+            m_labels[state] = new char[edges.size()];
+            m_targets[state] = new int[edges.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                m_labels[state][i] = edge.getKey();
+                m_targets[state][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // Compute the failure links breadth first, so that the failure state
+        // of a state's parent is always complete before the state itself
+        final Deque<Integer> queue = new ArrayDeque<Integer>();
+        m_outputs[0] = outputs.get(0);
+        for (final int child : m_targets[0]) {
+            m_failure[child] = 0;
+            m_outputs[child] = outputs.get(child);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (int i = 0; i < m_labels[state].length; i++) {
+                final char c = m_labels[state][i];
+                final int child = m_targets[state][i];
+                int fallback = m_failure[state];
+                int target;
+                while ((target = transition(fallback, c)) < 0 && fallback != 0) {
+                    fallback = m_failure[fallback];
+                }
+                m_failure[child] = target < 0 ? 0 : target;
+                m_outputs[child] = merge(outputs.get(child), m_outputs[m_failure[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the literals found in the text, in increasing order.
+     *
+     * @param text the text to search
+     * @return the sorted ids of the literals found, never null
+     */
+    int[] find(final CharSequence text) {
+        int[] found = NONE;
+        int count = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = m_failure[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (final int id : m_outputs[state]) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, Math.max(4, count * 2));
+                }
+                found[count++] = id;
+            }
+        }
+        if (count == 0) {
+            return NONE;
+        }
+
+        // Sort and remove the duplicates of literals found more than once
+        Arrays.sort(found, 0, count);
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (found[i] != found[unique - 1]) {
+                found[unique++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, unique);
+    }
+
+    private int transition(final int state, final char c) {
+        final int i = Arrays.binarySearch(m_labels[state], c);
+        return i < 0 ? -1 : m_targets[state][i];
+    }
+
+    private static int[] append(final int[] ids, final int id) {
+        final int[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+
+    private static int[] merge(final int[] own, final int[] inherited) {
+        if (inherited.length == 0) {
+            return own;
+        } else if (own.length == 0) {
+            return inherited;
+        }
+        final int[] result = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, result, own.length, inherited.length);
+        return result;
+    }
+}
@@ -0,0 +1,598 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ueiMatch</code> and <code>hideMatch</code> rules of a
+ * {@link SyslogdConfig}, compiled once per configuration load.
+ *
+ * <p>Every regular expression is compiled up front, and a literal text that
+ * each rule requires (the whole expression of a <code>substr</code> match, or
+ * a run of literal characters that any match of a regular expression must
+ * contain) is fed to an {@link AhoCorasickMatcher}. A single
+ * pass over the message then tells which rules can possibly match, and only
+ * those are evaluated, still in configuration order so that the first
+ * matching rule wins as before.</p>
+ *
+ * <p>The engine of the last configuration seen is kept by
+ * {@link #getInstance(SyslogdConfig)} and reused as long as the configuration
+ * returns the same rule lists.</p>
+ */
+final class SyslogRuleEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogRuleEngine.class);
+
+    private static final Object s_lock = new Object();
+    private static volatile SyslogRuleEngine s_instance;
+
+    private final UeiList m_ueiList;
+    private final HideMessage m_hideMessage;
+    private final int m_ueiMatchCount;
+    private final int m_hideMatchCount;
+    private final String m_discardUei;
+
+    private final UeiRule[] m_ueiRules;
+    private final int[] m_unfilteredUeiRules;
+    private final AhoCorasickMatcher m_ueiLiterals;
+
+    private final HideRule[] m_hideRules;
+    private final int[] m_unfilteredHideRules;
+    private final AhoCorasickMatcher m_hideLiterals;
+
+    /**
+     * Returns the compiled rules for the given configuration, compiling them
+     * if the configuration was loaded (or changed) since the last call.
+     *
+     * @param config the syslogd configuration
+     * @return the rule engine
+     */
+    static SyslogRuleEngine getInstance(final SyslogdConfig config) {
+        final UeiList ueiList = config.getUeiList();
+        final HideMessage hideMessage = config.getHideMessages();
+        final String discardUei = config.getDiscardUei();
+
+        SyslogRuleEngine engine = s_instance;
+        if (engine != null && engine.isCompiledFrom(ueiList, hideMessage, discardUei)) {
+            return engine;
+        }
+        synchronized (s_lock) {
+            engine = s_instance;
+            if (engine == null || !engine.isCompiledFrom(ueiList, hideMessage, discardUei)) {
+                final long start = System.currentTimeMillis();
+                engine = new SyslogRuleEngine(ueiList, hideMessage, discardUei);
+                LOG.info("Compiled {} ueiMatch and {} hideMatch rules in {}ms", engine.m_ueiRules.length, engine.m_hideRules.length, System.currentTimeMillis() - start);
+                s_instance = engine;
+            }
+        }
+        return engine;
+    }
+
+    SyslogRuleEngine(final UeiList ueiList, final HideMessage hideMessage, final String discardUei) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+        m_discardUei = discardUei;
+
+        final List<UeiMatch> ueiMatches = ueiList == null ? null : ueiList.getUeiMatchCollection();
+        m_ueiMatchCount = ueiMatches == null ? -1 : ueiMatches.size();
+        final List<UeiRule> ueiRules = new ArrayList<UeiRule>();
+        if (ueiMatches != null) {
+            for (final UeiMatch ueiMatch : ueiMatches) {
+                ueiRules.add(new UeiRule(ueiMatch));
+            }
+        }
+        m_ueiRules = ueiRules.toArray(new UeiRule[ueiRules.size()]);
+        final List<List<String>> ueiRequired = new ArrayList<List<String>>(m_ueiRules.length);
+        for (final UeiRule rule : m_ueiRules) {
+            ueiRequired.add(rule.m_requiredLiterals);
+        }
+        final List<String> ueiLiterals = chooseLiterals(ueiRequired);
+        m_unfilteredUeiRules = unfiltered(ueiLiterals);
+        m_ueiLiterals = new AhoCorasickMatcher(ueiLiterals);
+
+        final List<HideMatch> hideMatches = hideMessage == null ? null : hideMessage.getHideMatchCollection();
+        m_hideMatchCount = hideMatches == null ? -1 : hideMatches.size();
+        final List<HideRule> hideRules = new ArrayList<HideRule>();
+        if (hideMatches != null) {
+            for (final HideMatch hideMatch : hideMatches) {
+                hideRules.add(new HideRule(hideMatch.getMatch().getType(), hideMatch.getMatch().getExpression()));
+            }
+        }
+        m_hideRules = hideRules.toArray(new HideRule[hideRules.size()]);
+        final List<List<String>> hideRequired = new ArrayList<List<String>>(m_hideRules.length);
+        for (final HideRule rule : m_hideRules) {
+            hideRequired.add(rule.m_requiredLiterals);
+        }
+        final List<String> hideLiterals = chooseLiterals(hideRequired);
+        m_unfilteredHideRules = unfiltered(hideLiterals);
+        m_hideLiterals = new AhoCorasickMatcher(hideLiterals);
+    }
+
+    private boolean isCompiledFrom(final UeiList ueiList, final HideMessage hideMessage, final String discardUei) {
+        return m_ueiList == ueiList
+            && m_hideMessage == hideMessage
+            && m_ueiMatchCount == (ueiList == null ? -1 : ueiList.getUeiMatchCount())
+            && m_hideMatchCount == (hideMessage == null ? -1 : hideMessage.getHideMatchCount())
+            && (m_discardUei == null ? discardUei == null : m_discardUei.equals(discardUei));
+    }
+
+    boolean hasUeiList() {
+        return m_ueiMatchCount >= 0;
+    }
+
+    boolean hasHideMessage() {
+        return m_hideMatchCount >= 0;
+    }
+
+    /**
+     * Applies the first matching <code>ueiMatch</code> rule to the event.
+     *
+     * @return true if a rule matched
+     * @throws MessageDiscardedException if the matching rule has the discard UEI
+     */
+    boolean matchUei(final SyslogMessage message, final String facilityTxt, final String priorityTxt, final EventBuilder bldr) throws MessageDiscardedException {
+        if (m_ueiRules.length == 0) {
+            return false;
+        }
+        final String text = message.getMatchedMessage() != null ? message.getMatchedMessage() : message.getFullText();
+        final int[] candidates = m_ueiLiterals.find(text);
+
+        // Walk the rules whose literal was found and the ones without a literal, in configuration order
+        int c = 0;
+        int u = 0;
+        while (c < candidates.length || u < m_unfilteredUeiRules.length) {
+            final int index;
+            if (u == m_unfilteredUeiRules.length || (c < candidates.length && candidates[c] < m_unfilteredUeiRules[u])) {
+                index = candidates[c++];
+            } else {
+                index = m_unfilteredUeiRules[u++];
+            }
+            if (m_ueiRules[index].match(message, text, facilityTxt, priorityTxt, bldr, m_discardUei)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the message must be hidden because it matches a <code>hideMatch</code> rule
+     */
+    boolean shouldHide(final String fullText) {
+        if (m_hideRules.length == 0) {
+            return false;
+        }
+        final int[] candidates = m_hideLiterals.find(fullText);
+        for (final int index : candidates) {
+            if (m_hideRules[index].matches(fullText)) {
+                return true;
+            }
+        }
+        for (final int index : m_unfilteredHideRules) {
+            if (m_hideRules[index].matches(fullText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks, for each rule, the literal shared by the fewest other rules
+     * (and then the longest one), so that the prefilter discards as many
+     * rules as possible. Many rules are often written from the same template
+     * (e.g. <code>.*foo1: load test</code>, <code>.*foo2: load test</code>),
+     * and the longest literal is then the least selective one.
+     */
+    private static List<String> chooseLiterals(final List<List<String>> required) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (final List<String> literals : required) {
+            if (literals == null) continue;
+            for (final String literal : new HashSet<String>(literals)) {
+                final Integer count = counts.get(literal);
+                counts.put(literal, count == null ? 1 : count + 1);
+            }
+        }
+        final List<String> chosen = new ArrayList<String>(required.size());
+        for (final List<String> literals : required) {
+            String best = null;
+            if (literals != null) {
+                for (final String literal : literals) {
+                    if (best == null) {
+                        best = literal;
+                        continue;
+                    }
+                    final int delta = counts.get(literal) - counts.get(best);
+                    if (delta < 0 || (delta == 0 && literal.length() > best.length())) {
+                        best = literal;
+                    }
+                }
+            }
+            chosen.add(best);
+        }
+        return chosen;
+    }
+
+    private static int[] unfiltered(final List<String> literals) {
+        int count = 0;
+        for (final String literal : literals) {
+            if (literal == null) count++;
+        }
+        final int[] indexes = new int[count];
+        int i = 0;
+        for (int index = 0; index < literals.size(); index++) {
+            if (literals.get(index) == null) {
+                indexes[i++] = index;
+            }
+        }
+        return indexes;
+    }
+
+    private static Pattern compile(final String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the strings of literal characters that every match of the given
+     * regular expression contains, or <code>null</code> if none can be found.
+     * This is deliberately conservative: only the top level of the expression
+     * is considered, and any alternation, inline flag, quoting or unusual
+     * escape makes it give up.
+     */
+    static List<String> requiredLiterals(final String regex) {
+        if (regex == null) {
+            return null;
+        }
+        final List<String> runs = new ArrayList<String>();
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean lastWasLiteral = false;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            boolean literal = false;
+            switch (c) {
+            case '\\':
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // Only the character classes and anchors that are exactly two characters long
+                    if ("dDsSwWbBAGZzntrfeaRhHvVX".indexOf(escaped) < 0) {
+                        return null;
+                    }
+                    endRun(run, runs);
+                } else if (depth == 0) {
+                    run.append(escaped);
+                    literal = true;
+                }
+                i += 2;
+                break;
+            case '[':
+                endRun(run, runs);
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                break;
+            case '(':
+                if (i + 2 < regex.length() && regex.charAt(i + 1) == '?' && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                    // Inline flags such as (?i) change the meaning of the literals
+                    return null;
+                }
+                endRun(run, runs);
+                depth++;
+                i++;
+                break;
+            case ')':
+                endRun(run, runs);
+                depth--;
+                i++;
+                break;
+            case '|':
+                if (depth == 0) {
+                    return null;
+                }
+                i++;
+                break;
+            case '.':
+            case '^':
+            case '$':
+                endRun(run, runs);
+                i++;
+                break;
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                // The quantified atom is optional or repeated, so it cannot be part of a run
+                if (lastWasLiteral && run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                endRun(run, runs);
+                if (c == '{') {
+                    i = regex.indexOf('}', i);
+                    if (i < 0) {
+                        return null;
+                    }
+                }
+                i++;
+                // Reluctant and possessive quantifiers
+                if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                    i++;
+                }
+                break;
+            default:
+                if (depth == 0) {
+                    run.append(c);
+                    literal = true;
+                }
+                i++;
+                break;
+            }
+            lastWasLiteral = literal;
+        }
+        endRun(run, runs);
+        return runs.isEmpty() ? null : runs;
+    }
+
+    private static void endRun(final StringBuilder run, final List<String> runs) {
+        if (run.length() > 0) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * @return the index following the character class starting at the given index, or -1 if it is not terminated
+     */
+    private static int skipCharacterClass(final String regex, final int start) {
+        int nesting = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                nesting++;
+                i++;
+                // A closing bracket right after the opening one (or after a negation) is a literal
+                if (i < regex.length() && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < regex.length() && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            } else if (c == ']') {
+                nesting--;
+                if (nesting == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static final class UeiRule {
+        private final String m_uei;
+        private final String[] m_facilities;
+        private final String[] m_severities;
+        private final boolean m_hasProcessMatch;
+        private final Pattern m_processPattern;
+        private final boolean m_hasHostnameMatch;
+        private final Pattern m_hostnamePattern;
+        private final boolean m_hasHostaddrMatch;
+        private final Pattern m_hostaddrPattern;
+        private final boolean m_substring;
+        private final boolean m_regex;
+        private final String m_expression;
+        private final Pattern m_pattern;
+        private final boolean m_defaultParameterMapping;
+        private final ParameterAssignment[] m_assignments;
+        /** Strings that every message matching this rule contains, or null if unknown. */
+        private final List<String> m_requiredLiterals;
+
+        UeiRule(final UeiMatch uei) {
+            m_uei = uei.getUei();
+            m_facilities = uei.getFacilityCollection().toArray(new String[0]);
+            m_severities = uei.getSeverityCollection().toArray(new String[0]);
+            m_hasProcessMatch = uei.getProcessMatch() != null;
+            m_processPattern = m_hasProcessMatch ? compile(uei.getProcessMatch().getExpression()) : null;
+            m_hasHostnameMatch = uei.getHostnameMatch() != null;
+            m_hostnamePattern = m_hasHostnameMatch ? compile(uei.getHostnameMatch().getExpression()) : null;
+            m_hasHostaddrMatch = uei.getHostaddrMatch() != null;
+            m_hostaddrPattern = m_hasHostaddrMatch ? compile(uei.getHostaddrMatch().getExpression()) : null;
+
+            final String type = uei.getMatch().getType();
+            m_expression = uei.getMatch().getExpression();
+            m_substring = "substr".equals(type);
+            m_regex = !m_substring && type.startsWith("regex");
+            m_pattern = m_regex ? compile(m_expression) : null;
+            m_defaultParameterMapping = uei.getMatch().isDefaultParameterMapping();
+            m_assignments = uei.getParameterAssignmentCollection().toArray(new ParameterAssignment[0]);
+
+            if (m_substring) {
+                m_requiredLiterals = m_expression == null || m_expression.isEmpty() ? null : Collections.singletonList(m_expression);
+            } else if (m_pattern != null) {
+                m_requiredLiterals = requiredLiterals(m_expression);
+            } else {
+                m_requiredLiterals = null;
+            }
+        }
+
+        boolean match(final SyslogMessage message, final String text, final String facilityTxt, final String priorityTxt, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+            final boolean otherStuffMatches = containsIgnoreCase(m_facilities, facilityTxt) &&
+                                              containsIgnoreCase(m_severities, priorityTxt) &&
+                                              matchFind(m_hasProcessMatch, m_processPattern, message.getProcessName()) &&
+                                              matchFind(m_hasHostnameMatch, m_hostnamePattern, message.getHostName()) &&
+                                              matchFind(m_hasHostaddrMatch, m_hostaddrPattern, message.getHostAddress());
+            if (!otherStuffMatches) {
+                return false;
+            }
+            if (m_substring) {
+                return matchSubstring(text, bldr, discardUei);
+            } else if (m_regex) {
+                return matchRegex(message, text, bldr, discardUei);
+            }
+            return false;
+        }
+
+        private boolean matchSubstring(final String text, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+            final boolean traceEnabled = LOG.isTraceEnabled();
+            if (text.contains(m_expression)) {
+                if (discardUei.equals(m_uei)) {
+                    if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", m_uei);
+                    throw new MessageDiscardedException();
+                }
+                //We can pass a new UEI on this
+                if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", m_uei);
+                bldr.setUei(m_uei);
+                // I think we want to stop processing here so the first
+                // ueiMatch wins, right?
+                return true;
+            }
+            if (traceEnabled) LOG.trace("No substring match for text of a Syslogd event to : {}", m_expression);
+            return false;
+        }
+
+        private boolean matchRegex(final SyslogMessage message, final String text, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+            final boolean traceEnabled = LOG.isTraceEnabled();
+            if (m_pattern == null) {
+                LOG.debug("Unable to create pattern for expression '{}'", m_expression);
+                return false;
+            }
+            final Matcher msgMat = m_pattern.matcher(text);
+            if (msgMat.find()) {
+                if (discardUei.equals(m_uei)) {
+                    LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", m_uei);
+                    throw new MessageDiscardedException();
+                }
+
+                // We matched a UEI
+                bldr.setUei(m_uei);
+                if (msgMat.groupCount() > 0) {
+                    if (m_defaultParameterMapping) {
+                        if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
+                        for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                            if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
+                            bldr.addParam("group"+groupNum, msgMat.group(groupNum));
+                        }
+                    }
+
+                    if (m_assignments.length > 0) {
+                        if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
+                        for (final ParameterAssignment assignment : m_assignments) {
+                            String parmName = assignment.getParameterName();
+                            String parmValue = msgMat.group(assignment.getMatchingGroup());
+                            parmValue = parmValue == null ? "" : parmValue;
+                            bldr.addParam(parmName, parmValue);
+                            if (traceEnabled) {
+                                LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
+                            }
+                        }
+                    }
+                }
+                // I think we want to stop processing here so the first
+                // ueiMatch wins, right?
+                return true;
+            }
+            if (traceEnabled) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), m_expression);
+            return false;
+        }
+
+        private static boolean matchFind(final boolean configured, final Pattern pattern, final String input) {
+            if (!configured) return true;
+            if (input == null || pattern == null) return false;
+            return pattern.matcher(input).find();
+        }
+
+        private static boolean containsIgnoreCase(final String[] values, final String match) {
+            if (values.length == 0) return true;
+            for (final String value : values) {
+                if (value.equalsIgnoreCase(match)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class HideRule {
+        private final String m_expression;
+        private final boolean m_substring;
+        private final Pattern m_pattern;
+        /** Strings that every message matching this rule contains, or null if unknown. */
+        private final List<String> m_requiredLiterals;
+
+        HideRule(final String type, final String expression) {
+            m_expression = expression;
+            m_substring = "substr".equals(type);
+            m_pattern = "regex".equals(type) ? compile(expression) : null;
+            if (m_substring) {
+                m_requiredLiterals = expression == null || expression.isEmpty() ? null : Collections.singletonList(expression);
+            } else if (m_pattern != null) {
+                m_requiredLiterals = requiredLiterals(expression);
+            } else {
+                m_requiredLiterals = null;
+            }
+        }
+
+        boolean matches(final String fullText) {
+            if (m_substring) {
+                return fullText.contains(m_expression);
+            } else if (m_pattern != null) {
+                return m_pattern.matcher(fullText).find();
+            }
+            return false;
+        }
+    }
+}
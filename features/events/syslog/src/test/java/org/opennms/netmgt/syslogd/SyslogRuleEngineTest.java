@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.xml.event.Event;
+
+public class SyslogRuleEngineTest {
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals(Arrays.asList("foo0: ", "load test ", " on "), SyslogRuleEngine.requiredLiterals(".*foo0: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("ouble", "ecret"), SyslogRuleEngine.requiredLiterals("[Dd]ouble[Ss]ecret"));
+        assertEquals(Arrays.asList("Accepted password for ", " from ", " port "), SyslogRuleEngine.requiredLiterals("^Accepted password for (\\S+) from (\\S+) port (\\d+)"));
+        assertEquals(Arrays.asList("1.2.3"), SyslogRuleEngine.requiredLiterals("^1\\.2\\.3$"));
+        assertEquals(Arrays.asList("xyz", "abc"), SyslogRuleEngine.requiredLiterals("xyzz?abc"));
+        assertEquals(Arrays.asList("a", "ab"), SyslogRuleEngine.requiredLiterals("ab{0,2}abc+"));
+        assertEquals(Arrays.asList("xyz"), SyslogRuleEngine.requiredLiterals("[]x]xyz"));
+        assertNull(SyslogRuleEngine.requiredLiterals("foo|bar"));
+        assertNull(SyslogRuleEngine.requiredLiterals("(?i)foo"));
+        assertNull(SyslogRuleEngine.requiredLiterals("\\Qfoo|bar\\E"));
+        assertNull(SyslogRuleEngine.requiredLiterals("\\p{Alpha}+"));
+        assertNull(SyslogRuleEngine.requiredLiterals(".*"));
+    }
+
+    @Test
+    public void testRequiredLiteralIsInEveryMatch() {
+        final String[] expressions = new String[] {
+            "ab+c", "a(bc)?d", "x[yz]*w", "(a|b)cd", "foo\\.bar?", "a{2}bc", "q\\s+rs", "(?:ab)+cd"
+        };
+        final Random random = new Random(42);
+        final char[] alphabet = "abcdqrswxyz. ".toCharArray();
+        for (final String expression : expressions) {
+            final Pattern pattern = Pattern.compile(expression);
+            final List<String> literals = SyslogRuleEngine.requiredLiterals(expression);
+            for (int i = 0; i < 20000; i++) {
+                final char[] text = new char[random.nextInt(10)];
+                for (int j = 0; j < text.length; j++) {
+                    text[j] = alphabet[random.nextInt(alphabet.length)];
+                }
+                final String input = new String(text);
+                if (literals != null && pattern.matcher(input).find()) {
+                    for (final String literal : literals) {
+                        if (!input.contains(literal)) {
+                            fail("'" + input + "' matches '" + expression + "' but does not contain '" + literal + "'");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAhoCorasickMatcher() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", null, "his", "hers", "", "s"));
+        assertArrayEquals(new int[] { 0, 1, 4, 6 }, matcher.find("ushers"));
+        assertArrayEquals(new int[] { 3, 6 }, matcher.find("this"));
+        assertArrayEquals(new int[0], matcher.find("xyz"));
+    }
+
+    @Test
+    public void testLoadTestRules() throws Exception {
+        final SyslogdConfig config;
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml")) {
+            config = new SyslogdConfigFactory(stream);
+        }
+        assertSame(SyslogRuleEngine.getInstance(config), SyslogRuleEngine.getInstance(config));
+
+        for (final int foo : new int[] { 0, 1, 10, 123, 9999 }) {
+            final Event event = convert(config, String.format("<34> 2010-08-19 localhost foo%d: load test %d on tty1", foo, foo));
+            assertEquals("uei.example.org/syslog/loadTest/foo" + foo, event.getUei());
+            assertEquals(Integer.toString(foo), event.getParm("group1").getValue().getContent());
+        }
+
+        // No rule for this one
+        assertEquals("uei.opennms.org/syslogd/auth/Critical", convert(config, "<34> 2010-08-19 localhost foo10000: load test 10000 on tty1").getUei());
+
+        assertTrue(convert(config, "<34> 2010-08-19 localhost foo1: TESTHIDING on tty1").getLogmsg().getContent().startsWith("The message logged has been removed"));
+        assertTrue(convert(config, "<34> 2010-08-19 localhost foo1: my doubleSecret password").getLogmsg().getContent().startsWith("The message logged has been removed"));
+        assertEquals("my secret password", convert(config, "<34> 2010-08-19 localhost foo1: my secret password").getLogmsg().getContent());
+    }
+
+    private static Event convert(final SyslogdConfig config, final String data) throws Exception {
+        return new ConvertToEvent(InetAddressUtils.ONE_TWENTY_SEVEN, 9999, data, config).getEvent();
+    }
+}
@@ -38,6 +38,7 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -302,6 +303,55 @@ public class SyslogdLoadIT implements InitializingBean {
         assertEquals(eventCount, m_eventCounter.getCount());
     }
 
+    /**
+     * Throughput benchmark: replays recorded syslog messages, which hit both the
+     * 10,000 ueiMatch rules and the hideMatch rules of the load test configuration,
+     * through {@link SyslogReceiverNioDisruptorImpl} and reports the rate at which
+     * events come out. The number of messages in flight is capped so that the
+     * kernel does not drop UDP packets when the receiver falls behind.
+     */
+    @Test
+    @Transactional
+    public void testRecordedMessagesThroughNioDisruptor() throws Exception {
+        startSyslogdNioDisruptor();
+
+        final List<byte[]> messages = new ArrayList<byte[]>();
+        try (final InputStream stream = getClass().getResourceAsStream("/syslog/loadtest-recorded-messages.txt")) {
+            for (final String line : IOUtils.readLines(stream, StandardCharsets.US_ASCII)) {
+                if (line.trim().length() > 0) {
+                    messages.add(line.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+
+        final int eventCount = 20000;
+        final int maxInFlight = 1000;
+        m_eventCounter.setAnticipated(eventCount);
+
+        final InetAddress address = addr("127.0.0.1");
+        final DatagramSocket socket = new DatagramSocket();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < eventCount; i++) {
+            while (i - m_eventCounter.getCount() >= maxInFlight) {
+                Thread.sleep(1);
+            }
+            final byte[] bytes = messages.get(i % messages.size());
+            socket.send(new DatagramPacket(bytes, bytes.length, address, SyslogClient.PORT));
+        }
+        socket.close();
+        final long mid = System.currentTimeMillis();
+
+        m_eventCounter.waitForFinish(120000);
+        final long end = System.currentTimeMillis();
+
+        final long total = (end - start);
+        final double eventsPerSecond = (m_eventCounter.getCount() * 1000.0 / total);
+        System.err.println(String.format("Replayed %d recorded messages (%d distinct), events received: %d", eventCount, messages.size(), m_eventCounter.getCount()));
+        System.err.println(String.format("total time: %d, wait time: %d, events per second: %8.4f", total, (end - mid), eventsPerSecond));
+
+        assertEquals(eventCount, m_eventCounter.getCount());
+    }
+
     @Test
     @Transactional
     public void testRfcSyslog() throws Exception {
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * A {@link Filter} that works directly on the primitive columns of a
+ * {@link ColumnarTable}, avoiding a boxed value per cell.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public interface ColumnarFilter extends Filter {
+
+    void filter(ColumnarTable table) throws Exception;
+
+    /**
+     * Converts the table, applies {@link #filter(ColumnarTable)} and copies
+     * the results back. Rows are renumbered from 0 and missing cells are
+     * filled with NaNs.
+     */
+    @Override
+    default void filter(RowSortedTable<Long, String, Double> qrAsTable) throws Exception {
+        final ColumnarTable table = ColumnarTable.fromRowSortedTable(qrAsTable);
+        filter(table);
+        table.copyTo(qrAsTable);
+    }
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.TreeBasedTable;
+
+/**
+ * A table of measurements stored as one primitive array per column.
+ *
+ * Every column has exactly {@link #getRowCount()} values, and missing
+ * values are stored as NaNs. The timestamps are stored in the
+ * {@link Filter#TIMESTAMP_COLUMN_NAME} column, in milliseconds, like they
+ * are in the {@link RowSortedTable} representation.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class ColumnarTable {
+
+    private int m_rowCount;
+
+    private final Map<String, double[]> m_columns = Maps.newLinkedHashMap();
+
+    public ColumnarTable(int rowCount) {
+        Preconditions.checkArgument(rowCount >= 0, "rowCount must be >= 0");
+        m_rowCount = rowCount;
+    }
+
+    /**
+     * Builds a table from a {@link RowSortedTable} indexed by row number.
+     * Missing cells are set to NaN.
+     */
+    public static ColumnarTable fromRowSortedTable(RowSortedTable<Long, String, Double> table) {
+        final ColumnarTable columnarTable = new ColumnarTable(0);
+        columnarTable.copyFrom(table);
+        return columnarTable;
+    }
+
+    /**
+     * Replaces the contents of this table with the contents of a
+     * {@link RowSortedTable} indexed by row number. Missing cells are set
+     * to NaN.
+     */
+    public void copyFrom(RowSortedTable<Long, String, Double> table) {
+        Preconditions.checkNotNull(table, "table argument");
+
+        m_columns.clear();
+        m_rowCount = 0;
+        if (table.isEmpty()) {
+            return;
+        }
+
+        final long firstRow = table.rowKeySet().first();
+        final long lastRow = table.rowKeySet().last();
+        Preconditions.checkArgument(firstRow >= 0, "row indices must be positive");
+        m_rowCount = (int)lastRow + 1;
+
+        for (Map.Entry<String, Map<Long, Double>> column : table.columnMap().entrySet()) {
+            final double[] values = addColumn(column.getKey());
+            for (Map.Entry<Long, Double> cell : column.getValue().entrySet()) {
+                if (cell.getValue() != null) {
+                    values[cell.getKey().intValue()] = cell.getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the given table with the contents of this
+     * one.
+     */
+    public void copyTo(RowSortedTable<Long, String, Double> table) {
+        table.clear();
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            final double[] values = column.getValue();
+            for (int i = 0; i < m_rowCount; i++) {
+                table.put(Long.valueOf(i), column.getKey(), values[i]);
+            }
+        }
+    }
+
+    public RowSortedTable<Long, String, Double> asRowSortedTable() {
+        final RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
+        copyTo(table);
+        return table;
+    }
+
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    /**
+     * Grows or shrinks all of the columns. Added rows are filled with NaNs.
+     */
+    public void setRowCount(int rowCount) {
+        Preconditions.checkArgument(rowCount >= 0, "rowCount must be >= 0");
+        if (rowCount == m_rowCount) {
+            return;
+        }
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            final double[] values = Arrays.copyOf(column.getValue(), rowCount);
+            if (rowCount > m_rowCount) {
+                Arrays.fill(values, m_rowCount, rowCount, Double.NaN);
+            }
+            column.setValue(values);
+        }
+        m_rowCount = rowCount;
+    }
+
+    /**
+     * Keeps the rows from <code>fromRow</code>, inclusive, to
+     * <code>toRow</code>, exclusive, and renumbers them from 0.
+     */
+    public void retainRows(int fromRow, int toRow) {
+        Preconditions.checkPositionIndexes(fromRow, toRow, m_rowCount);
+        if (fromRow == 0 && toRow == m_rowCount) {
+            return;
+        }
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            column.setValue(Arrays.copyOfRange(column.getValue(), fromRow, toRow));
+        }
+        m_rowCount = toRow - fromRow;
+    }
+
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(m_columns.keySet());
+    }
+
+    public boolean containsColumn(String columnName) {
+        return m_columns.containsKey(columnName);
+    }
+
+    /**
+     * Returns the values of the column, which can be modified in place, or
+     * null if there is no such column.
+     */
+    public double[] getColumn(String columnName) {
+        return m_columns.get(columnName);
+    }
+
+    /**
+     * Returns the values of the column, adding a column filled with NaNs
+     * if there is no such column yet.
+     */
+    public double[] addColumn(String columnName) {
+        double[] values = m_columns.get(columnName);
+        if (values == null) {
+            values = new double[m_rowCount];
+            Arrays.fill(values, Double.NaN);
+            m_columns.put(columnName, values);
+        }
+        return values;
+    }
+
+    /**
+     * Adds or replaces a column.
+     */
+    public void putColumn(String columnName, double[] values) {
+        Preconditions.checkNotNull(values, "values argument");
+        Preconditions.checkArgument(values.length == m_rowCount, "column %s has %s values, expected %s", columnName, values.length, m_rowCount);
+        m_columns.put(columnName, values);
+    }
+
+    public void removeColumn(String columnName) {
+        m_columns.remove(columnName);
+    }
+
+    /**
+     * Returns the value of a cell, or NaN if there is no such column.
+     */
+    public double get(int row, String columnName) {
+        Preconditions.checkElementIndex(row, m_rowCount);
+        final double[] values = m_columns.get(columnName);
+        return values == null ? Double.NaN : values[row];
+    }
+
+    public void set(int row, String columnName, double value) {
+        Preconditions.checkElementIndex(row, m_rowCount);
+        addColumn(columnName)[row] = value;
+    }
+
+    @Override
+    public String toString() {
+        final Objects.ToStringHelper helper = Objects.toStringHelper(this.getClass())
+                .add("rowCount", m_rowCount);
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            helper.add(column.getKey(), Arrays.toString(column.getValue()));
+        }
+        return helper.toString();
+    }
+}
@@ -35,6 +35,7 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.Sets;
 import com.google.common.collect.TreeBasedTable;
 
 /**
@@ -120,6 +121,41 @@ public class FetchResults {
         }
     }
 
+    /**
+     * Used when applying filters.
+     */
+    public FetchResults(final ColumnarTable table, final long step, final Map<String, Object> constants) {
+        Preconditions.checkNotNull(table, "table argument");
+        Preconditions.checkNotNull(constants, "constants argument");
+
+        m_step = step;
+        m_constants = constants;
+
+        final int numRows = table.getRowCount();
+        if (numRows < 1) {
+            // No rows
+            m_timestamps = new long[0];
+            m_columns = Maps.newHashMapWithExpectedSize(0);
+            return;
+        }
+
+        final double[] timestamps = table.getColumn(Filter.TIMESTAMP_COLUMN_NAME);
+        Preconditions.checkNotNull(timestamps, "filter timestamps must be contiguous");
+        m_timestamps = new long[numRows];
+        for (int k = 0; k < numRows; k++) {
+            Preconditions.checkState(!Double.isNaN(timestamps[k]), "filter timestamps must be contiguous");
+            m_timestamps[k] = (long)timestamps[k];
+        }
+
+        // Sort the columns by name, as they are when built from a RowSortedTable
+        m_columns = Maps.newLinkedHashMap();
+        for (String columnName : Sets.newTreeSet(table.getColumnNames())) {
+            if (!Filter.TIMESTAMP_COLUMN_NAME.equals(columnName)) {
+                m_columns.put(columnName, table.getColumn(columnName));
+            }
+        }
+    }
+
     public long[] getTimestamps() {
         return m_timestamps;
     }
@@ -145,6 +181,25 @@ public class FetchResults {
             .toString();
     }
 
+    /**
+     * Copies the results to a {@link ColumnarTable}, so that they can be
+     * filtered without modifying these results.
+     */
+    public ColumnarTable asColumnarTable() {
+        final ColumnarTable table = new ColumnarTable(m_timestamps.length);
+
+        final double[] timestamps = new double[m_timestamps.length];
+        for (int i = 0; i < m_timestamps.length; i++) {
+            timestamps[i] = m_timestamps[i];
+        }
+        table.putColumn(Filter.TIMESTAMP_COLUMN_NAME, timestamps);
+
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            table.putColumn(column.getKey(), column.getValue().clone());
+        }
+        return table;
+    }
+
     public RowSortedTable<Long, String, Double> asRowSortedTable() {
         RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
 
@@ -41,7 +41,8 @@ import org.opennms.netmgt.measurements.model.FilterMetaData;
 import org.springframework.stereotype.Component;
 
 /**
- * Used to apply a series of {@link Filter} to a {@link RowSortedTable}. 
+ * Used to apply a series of {@link Filter} to a {@link RowSortedTable}
+ * or a {@link ColumnarTable}.
  *
  * @author jwhite
  */
@@ -82,6 +83,45 @@ public class FilterEngine {
         }
     }
 
+    /**
+     * Successively applies all of the filters to a {@link ColumnarTable}.
+     *
+     * Filters that do not implement {@link ColumnarFilter} are applied to
+     * a {@link RowSortedTable} copy of the table.
+     */
+    public void filter(final List<FilterDef> filterDefinitions, final ColumnarTable table) throws FilterException {
+        Preconditions.checkNotNull(filterDefinitions, "filterDefinitions argument");
+        Preconditions.checkNotNull(table, "table argument");
+
+        RowSortedTable<Long, String, Double> rowSortedTable = null;
+        for (FilterDef filterDef : filterDefinitions) {
+            Filter filter = getFilter(filterDef);
+            if (filter == null) {
+                throw new FilterException("No filter implementation found for {}", filterDef.getName());
+            }
+            try {
+                if (filter instanceof ColumnarFilter) {
+                    if (rowSortedTable != null) {
+                        table.copyFrom(rowSortedTable);
+                        rowSortedTable = null;
+                    }
+                    ((ColumnarFilter)filter).filter(table);
+                } else {
+                    // Consecutive row based filters share the same copy
+                    if (rowSortedTable == null) {
+                        rowSortedTable = table.asRowSortedTable();
+                    }
+                    filter.filter(rowSortedTable);
+                }
+            } catch (Throwable t) {
+                throw new FilterException(t, "An error occurred while applying filter {}", t.getMessage());
+            }
+        }
+        if (rowSortedTable != null) {
+            table.copyFrom(rowSortedTable);
+        }
+    }
+
     /**
      * Retrieves a {@link Filter} that supports the given filter definition.
      *
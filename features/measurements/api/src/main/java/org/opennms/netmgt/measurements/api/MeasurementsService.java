@@ -31,7 +31,6 @@ package org.opennms.netmgt.measurements.api;
 import java.util.Map;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.RowSortedTable;
 
 import org.opennms.netmgt.measurements.api.exceptions.FetchException;
 import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
@@ -85,7 +84,7 @@ public class MeasurementsService {
 
         // Apply the filters
         if (!request.getFilters().isEmpty()) {
-            RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
+            ColumnarTable table = results.asColumnarTable();
             filterEngine.filter(request.getFilters(), table);
             results = new FetchResults(table, results.getStep(), results.getConstants());
         }
@@ -35,6 +35,7 @@ import static org.junit.Assert.assertTrue;
 import java.util.Map;
 
 import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.Filter;
 
@@ -89,4 +90,37 @@ public class FetchResultsTest {
         assertEquals(Double.NaN, table.get(1L, "y"), delta);
         assertEquals(99d, table.get(2L, "y"), delta);
     }
+
+    @Test
+    public void canConvertColumnarTableToAndFromFetchResults() {
+        final double delta = 0.0000001;
+
+        Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", new double[]{1d, 1d, Double.NaN});
+        FetchResults results = new FetchResults(new long[]{0L, 100L, 200L}, columns, 300, Maps.<String, Object>newHashMap());
+
+        // Filters work on a copy of the columns
+        ColumnarTable table = results.asColumnarTable();
+        assertEquals(3, table.getRowCount());
+        assertArrayEquals(new double[]{0d, 100d, 200d}, table.getColumn(Filter.TIMESTAMP_COLUMN_NAME), delta);
+        table.getColumn("x")[0] = 2d;
+        assertEquals(1d, results.getColumns().get("x")[0], delta);
+
+        // Add a column and a row
+        table.setRowCount(4);
+        table.set(3, Filter.TIMESTAMP_COLUMN_NAME, 300d);
+        table.set(2, "y", 99d);
+
+        results = new FetchResults(table, 300, results.getConstants());
+        assertArrayEquals(new long[]{0L, 100L, 200L, 300L}, results.getTimestamps());
+        assertEquals(Lists.newArrayList("x", "y"), Lists.newArrayList(results.getColumns().keySet()));
+        assertArrayEquals(new double[]{2d, 1d, Double.NaN, Double.NaN}, results.getColumns().get("x"), delta);
+        assertArrayEquals(new double[]{Double.NaN, Double.NaN, 99d, Double.NaN}, results.getColumns().get("y"), delta);
+
+        // Remove the first and last rows
+        table.retainRows(1, 3);
+        assertEquals(2, table.getRowCount());
+        assertArrayEquals(new double[]{100d, 200d}, table.getColumn(Filter.TIMESTAMP_COLUMN_NAME), delta);
+        assertArrayEquals(new double[]{Double.NaN, 99d}, table.getColumn("y"), delta);
+    }
 }
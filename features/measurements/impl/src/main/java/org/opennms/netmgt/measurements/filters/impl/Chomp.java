@@ -30,12 +30,12 @@ package org.opennms.netmgt.measurements.filters.impl;
 
 import java.util.Set;
 
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 import org.opennms.netmgt.measurements.filters.impl.Utils.TableLimits;
 
-import com.google.common.collect.RowSortedTable;
 import com.google.common.collect.Sets;
 
 /**
@@ -49,7 +49,7 @@ import com.google.common.collect.Sets;
  * @author jwhite
  */
 @FilterInfo(name="Chomp", description="Strips leading and trailing rows that contain nothing but NaNs/null values.")
-public class Chomp implements Filter {
+public class Chomp implements ColumnarFilter {
 
     @FilterParam(key="stripNaNs", value="true", displayName="Strip", description="When set, leading and trailing rows containing NaNs will be removed")
     private boolean m_stripNaNs;
@@ -65,19 +65,20 @@ public class Chomp implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable)
-            throws Exception {
-
-        int numRowsInTable = qrAsTable.rowKeySet().size();
+    public void filter(ColumnarTable table) throws Exception {
+        int numRowsInTable = table.getRowCount();
         long lastRowToKeep = numRowsInTable;
         long firstRowToKeep = lastRowToKeep;
 
         // Determine the index of the first row with a timestamp
         // on/after the cutoff date
-        for (long k : qrAsTable.rowKeySet()) {
-            if(qrAsTable.get(k, TIMESTAMP_COLUMN_NAME) >= m_cutoffDate) {
-                firstRowToKeep = k;
-                break;
+        double[] timestamps = table.getColumn(TIMESTAMP_COLUMN_NAME);
+        if (timestamps != null) {
+            for (int k = 0; k < numRowsInTable; k++) {
+                if (timestamps[k] >= m_cutoffDate) {
+                    firstRowToKeep = k;
+                    break;
+                }
             }
         }
 
@@ -85,42 +86,20 @@ public class Chomp implements Filter {
             // Excluding the timestamp column, determine the
             // index of the first and last rows which don't contain
             // completely NaN values
-            Set<String> columnNamesNoTs = Sets.newHashSet(qrAsTable.columnKeySet());
+            Set<String> columnNamesNoTs = Sets.newHashSet(table.getColumnNames());
             columnNamesNoTs.remove(TIMESTAMP_COLUMN_NAME);
-            TableLimits limits = Utils.getRowsWithValues(qrAsTable, columnNamesNoTs.toArray(new String[0]));
+            TableLimits limits = Utils.getRowsWithValues(table, columnNamesNoTs.toArray(new String[0]));
             firstRowToKeep = Math.max(firstRowToKeep, limits.firstRowWithValues);
             lastRowToKeep = Math.min(lastRowToKeep, limits.lastRowWithValues);
         }
 
-        Set<String> columnNames = Sets.newHashSet(qrAsTable.columnKeySet());
-
-        // Remove all of the trailing rows
-        for (long i = lastRowToKeep+1; i < numRowsInTable; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
-        }
-
-        // Remove all of the leading rows
-        for (long i = 0; i < firstRowToKeep; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
-        }
-
-        // Bump up the indices on the remaining rows
-        if (firstRowToKeep > 0) {
-            long j = 0;
-            for (long i = firstRowToKeep; i <= lastRowToKeep; i++) {
-                for (String columnName : columnNames) {
-                    Double value = qrAsTable.get(i, columnName);
-                    if (value != null) {
-                        qrAsTable.put(j, columnName, value);
-                    }
-                    qrAsTable.remove(i, columnName);
-                }
-                j++;
-            }
+        // Remove the leading and trailing rows, and bump up the indices
+        // on the remaining rows
+        lastRowToKeep = Math.min(lastRowToKeep, numRowsInTable - 1);
+        if (firstRowToKeep > lastRowToKeep) {
+            table.setRowCount(0);
+        } else {
+            table.retainRows((int)firstRowToKeep, (int)lastRowToKeep + 1);
         }
     }
 }
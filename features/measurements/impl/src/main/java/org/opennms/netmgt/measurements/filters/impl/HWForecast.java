@@ -35,6 +35,8 @@ import org.opennms.netmgt.integrations.R.RScriptException;
 import org.opennms.netmgt.integrations.R.RScriptExecutor;
 import org.opennms.netmgt.integrations.R.RScriptInput;
 import org.opennms.netmgt.integrations.R.RScriptOutput;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.Filter;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
@@ -45,8 +47,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Maps;
-import com.google.common.collect.RowSortedTable;
-import com.google.common.collect.TreeBasedTable;
 
 /**
  * Performs Holt-Winters forecasting on a given column of
@@ -55,7 +55,7 @@ import com.google.common.collect.TreeBasedTable;
  * @author jwhite
  */
 @FilterInfo(name="HoltWinters", description="Performs Holt-Winters forecasting.", backend="R")
-public class HWForecast implements Filter {
+public class HWForecast implements ColumnarFilter {
     private static final Logger LOG = LoggerFactory.getLogger(HWForecast.class);
     private static final String PATH_TO_R_SCRIPT = "/org/opennms/netmgt/measurements/filters/impl/holtWinters.R";
 
@@ -87,7 +87,7 @@ public class HWForecast implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> table) throws RScriptException {
+    public void filter(ColumnarTable table) throws RScriptException {
         Preconditions.checkArgument(table.containsColumn(TIMESTAMP_COLUMN_NAME), String.format("Data source must have a '%s' column.", Filter.TIMESTAMP_COLUMN_NAME));
 
         // Determine the index of the first and last non-NaN values
@@ -102,8 +102,10 @@ public class HWForecast implements Filter {
         }
 
         // Determine the step size
-        Date lastTimestamp = new Date(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME).longValue());
-        long stepInMs = (long)(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME) - table.get(limits.lastRowWithValues-1, Filter.TIMESTAMP_COLUMN_NAME));
+        double[] timestamps = table.getColumn(TIMESTAMP_COLUMN_NAME);
+        int lastRowWithValues = (int)limits.lastRowWithValues;
+        Date lastTimestamp = new Date((long)timestamps[lastRowWithValues]);
+        long stepInMs = (long)(timestamps[lastRowWithValues] - timestamps[lastRowWithValues-1]);
 
         // Calculate the number of samples per period
         int numSamplesPerPeriod = (int)Math.floor(m_periodInSeconds * 1000 / stepInMs);
@@ -124,7 +126,7 @@ public class HWForecast implements Filter {
 
         // Make the forecasts
         RScriptExecutor executor = new RScriptExecutor();
-        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table, arguments));
+        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(Utils.toRowSortedTable(table, TIMESTAMP_COLUMN_NAME, m_inputColumn), arguments));
         ImmutableTable<Long, String, Double> outputTable = output.getTable();
 
         // The output table contains the fitted values, followed
@@ -132,34 +134,48 @@ public class HWForecast implements Filter {
         int numOutputRows = outputTable.rowKeySet().size();
         int numFittedValues = numOutputRows - numForecasts;
 
+        // Make room for the forecasted values
+        int lastRow = lastRowWithValues + numOutputRows - numFittedValues;
+        if (lastRow >= table.getRowCount()) {
+            table.setRowCount(lastRow + 1);
+        }
+        timestamps = table.getColumn(TIMESTAMP_COLUMN_NAME);
+        double[] fit = table.addColumn(m_outputPrefix + "Fit");
+
         // Add the fitted values to rows where the input column has values
         for (long i = 0; i < numFittedValues; i++) {
             long idxTarget = i + (numSampleRows - numFittedValues) + limits.firstRowWithValues + 1;
-            table.put(idxTarget, m_outputPrefix + "Fit", outputTable.get(i, "fit"));
+            fit[(int)idxTarget] = toDouble(outputTable.get(i, "fit"));
         }
 
         // Append the forecasted values and include the time stamp with the appropriate step
+        double[] lwr = m_confidenceLevel > 0 ? table.addColumn(m_outputPrefix + "Lwr") : null;
+        double[] upr = m_confidenceLevel > 0 ? table.addColumn(m_outputPrefix + "Upr") : null;
         for (long i = numFittedValues; i < numOutputRows; i++) {
             long idxForecast = i - numFittedValues + 1;
-            long idxTarget = limits.lastRowWithValues + idxForecast;
+            int idxTarget = (int)(limits.lastRowWithValues + idxForecast);
             if (m_confidenceLevel > 0) {
-                table.put(idxTarget, m_outputPrefix + "Fit", outputTable.get(i, "fit"));
-                table.put(idxTarget, m_outputPrefix + "Lwr", outputTable.get(i, "lwr"));
-                table.put(idxTarget, m_outputPrefix + "Upr", outputTable.get(i, "upr"));
+                fit[idxTarget] = toDouble(outputTable.get(i, "fit"));
+                lwr[idxTarget] = toDouble(outputTable.get(i, "lwr"));
+                upr[idxTarget] = toDouble(outputTable.get(i, "upr"));
             }
-            table.put(idxTarget, TIMESTAMP_COLUMN_NAME, (double)new Date(lastTimestamp.getTime() + stepInMs * idxForecast).getTime());
+            timestamps[idxTarget] = (double)new Date(lastTimestamp.getTime() + stepInMs * idxForecast).getTime();
         }
     }
 
+    private static double toDouble(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
     public static void checkForecastSupport() throws RScriptException {
         // Verify the HW filter
         HWForecast forecastFilter = new HWForecast("HW", "X", 1, 1, 0.95);
 
         // Use constant values for the Y column
-        RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
-        for (long i = 0; i < 100; i++) {
-            table.put(i, Filter.TIMESTAMP_COLUMN_NAME, (double)(i * 1000));
-            table.put(i, "X", 1.0d);
+        ColumnarTable table = new ColumnarTable(100);
+        for (int i = 0; i < 100; i++) {
+            table.set(i, Filter.TIMESTAMP_COLUMN_NAME, (double)(i * 1000));
+            table.set(i, "X", 1.0d);
         }
 
         // Apply the filter
@@ -35,6 +35,8 @@ import org.opennms.netmgt.integrations.R.RScriptException;
 import org.opennms.netmgt.integrations.R.RScriptExecutor;
 import org.opennms.netmgt.integrations.R.RScriptInput;
 import org.opennms.netmgt.integrations.R.RScriptOutput;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.Filter;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
@@ -45,7 +47,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Maps;
-import com.google.common.collect.RowSortedTable;
 
 /**
  * Fits a trend line to the samples in a column using R.
@@ -53,7 +54,7 @@ import com.google.common.collect.RowSortedTable;
  * @author jwhite
  */
 @FilterInfo(name="Trend", description="Fits a trend line or polynomial to a given column.", backend="R")
-public class TrendLine implements Filter {
+public class TrendLine implements ColumnarFilter {
     private static final Logger LOG = LoggerFactory.getLogger(TrendLine.class);
     private static final String PATH_TO_R_SCRIPT = "/org/opennms/netmgt/measurements/filters/impl/trendLine.R";
 
@@ -79,7 +80,7 @@ public class TrendLine implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> table) throws RScriptException {
+    public void filter(ColumnarTable table) throws RScriptException {
         Preconditions.checkArgument(table.containsColumn(TIMESTAMP_COLUMN_NAME), String.format("Data source must have a '%s' column.", Filter.TIMESTAMP_COLUMN_NAME));
 
         // Determine the index of the first and last non-NaN values
@@ -94,8 +95,10 @@ public class TrendLine implements Filter {
         }
 
         // Determine the step size
-        Date lastTimestamp = new Date(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME).longValue());
-        long stepInMs = (long)(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME) - table.get(limits.lastRowWithValues-1, Filter.TIMESTAMP_COLUMN_NAME));
+        double[] timestamps = table.getColumn(TIMESTAMP_COLUMN_NAME);
+        int lastRowWithValues = (int)limits.lastRowWithValues;
+        Date lastTimestamp = new Date((long)timestamps[lastRowWithValues]);
+        long stepInMs = (long)(timestamps[lastRowWithValues] - timestamps[lastRowWithValues-1]);
 
         // Num steps ahead
         int numStepsAhead = (int)Math.floor(m_secondsAhead * 1000 / stepInMs);
@@ -113,17 +116,24 @@ public class TrendLine implements Filter {
 
         // Calculate the trend line/curve
         RScriptExecutor executor = new RScriptExecutor();
-        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table, arguments));
+        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(Utils.toRowSortedTable(table, TIMESTAMP_COLUMN_NAME, m_inputColumn), arguments));
         ImmutableTable<Long, String, Double> outputTable = output.getTable();
 
         // Calculate the value of the polynomial for all of the samples
         // and the requested number of steps ahead
+        int lastRow = lastRowWithValues + numStepsAhead;
+        if (lastRow >= table.getRowCount()) {
+            table.setRowCount(lastRow + 1);
+        }
+        timestamps = table.getColumn(TIMESTAMP_COLUMN_NAME);
+        double[] values = table.addColumn(m_outputColumn);
         long j = 0;
-        for (long i = limits.firstRowWithValues; i <= (limits.lastRowWithValues + numStepsAhead); i++) {
-            if (i >= limits.lastRowWithValues) {
-                table.put(i, TIMESTAMP_COLUMN_NAME, (double)new Date(lastTimestamp.getTime() + stepInMs * (i-limits.lastRowWithValues)).getTime());
+        for (int i = (int)limits.firstRowWithValues; i <= lastRow; i++) {
+            if (i >= lastRowWithValues) {
+                timestamps[i] = (double)new Date(lastTimestamp.getTime() + stepInMs * (i-lastRowWithValues)).getTime();
             }
-            table.put(i, m_outputColumn, outputTable.get(j++, "x"));
+            Double value = outputTable.get(j++, "x");
+            values[i] = value == null ? Double.NaN : value;
         }
     }
 }
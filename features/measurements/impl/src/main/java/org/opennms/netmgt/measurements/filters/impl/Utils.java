@@ -28,7 +28,11 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
+import org.opennms.netmgt.measurements.api.ColumnarTable;
+
+import com.google.common.collect.RowSortedTable;
 import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
 
 /**
  * Helper functions for manipulating tables.
@@ -59,4 +63,48 @@ public class Utils {
 
         return limits;
     }
+
+    public static TableLimits getRowsWithValues(ColumnarTable table, String... columnNames) {
+        TableLimits limits = new TableLimits();
+        for (String columnName : columnNames) {
+            double[] values = table.getColumn(columnName);
+            if (values == null) {
+                continue;
+            }
+            for (int k = 0; k < values.length; k++) {
+                if (!Double.isNaN(values[k])) {
+                    if (limits.firstRowWithValues < 0 || k < limits.firstRowWithValues) {
+                        limits.firstRowWithValues = k;
+                    }
+                    break;
+                }
+            }
+            for (int k = values.length - 1; k >= 0; k--) {
+                if (!Double.isNaN(values[k])) {
+                    limits.lastRowWithValues = Math.max(limits.lastRowWithValues, k);
+                    break;
+                }
+            }
+        }
+
+        return limits;
+    }
+
+    /**
+     * Copies the given columns of the table, for filters that need a
+     * {@link RowSortedTable}.
+     */
+    public static RowSortedTable<Long, String, Double> toRowSortedTable(ColumnarTable table, String... columnNames) {
+        RowSortedTable<Long, String, Double> rowSortedTable = TreeBasedTable.create();
+        for (String columnName : columnNames) {
+            double[] values = table.getColumn(columnName);
+            if (values == null) {
+                continue;
+            }
+            for (int k = 0; k < values.length; k++) {
+                rowSortedTable.put(Long.valueOf(k), columnName, values[k]);
+            }
+        }
+        return rowSortedTable;
+    }
 }
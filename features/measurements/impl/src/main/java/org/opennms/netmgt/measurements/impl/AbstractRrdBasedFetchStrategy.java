@@ -29,10 +29,19 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.RrdException;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
@@ -40,11 +49,17 @@ import org.opennms.netmgt.measurements.model.Source;
 import org.opennms.netmgt.measurements.utils.Utils;
 import org.opennms.netmgt.model.OnmsResource;
 import org.opennms.netmgt.model.RrdGraphAttribute;
+import org.opennms.netmgt.rrd.RecentSampleStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -56,9 +71,66 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRrdBasedFetchStrategy.class);
 
+    /**
+     * Number of milliseconds for which resources are cached, 0 to disable.
+     */
+    static final long RESOURCE_CACHE_TTL = Long.getLong("org.opennms.measurements.resourceCacheTtl", 5000);
+
+    private static final int RESOURCE_CACHE_SIZE = 10000;
+
+    /**
+     * Number of threads used to read the files of a request in parallel,
+     * shared by all requests.
+     */
+    private static final int FETCH_THREADS = Integer.getInteger("org.opennms.measurements.fetchThreads", 4);
+
+    /**
+     * Files are only split over several threads when each thread gets at
+     * least this many.
+     */
+    private static final int MIN_FILES_PER_FETCH = 4;
+
+    private static ExecutorService s_fetchExecutor;
+
+    /**
+     * The parts of a resource needed to resolve a source. They are copied
+     * from the {@link OnmsResource} when it is looked up, so that cached
+     * resources never load their attributes concurrently.
+     */
+    static class ResolvedResource {
+        private final Map<String, RrdGraphAttribute> m_rrdGraphAttributes;
+        private final Map<String, String> m_stringPropertyAttributes;
+
+        private ResolvedResource(OnmsResource resource) {
+            m_rrdGraphAttributes = resource.getRrdGraphAttributes();
+            m_stringPropertyAttributes = resource.getStringPropertyAttributes();
+        }
+    }
+
+    private final Cache<String, ResolvedResource> m_resourceCache;
+
     @Autowired
     private ResourceDao m_resourceDao;
 
+    protected AbstractRrdBasedFetchStrategy() {
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source used to expire cached resources
+     */
+    AbstractRrdBasedFetchStrategy(Ticker ticker) {
+        m_resourceCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(RESOURCE_CACHE_TTL, TimeUnit.MILLISECONDS)
+                .maximumSize(RESOURCE_CACHE_SIZE)
+                .ticker(ticker)
+                .build();
+    }
+
+    void setResourceDao(ResourceDao resourceDao) {
+        m_resourceDao = resourceDao;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -72,8 +144,7 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         
         for (final Source source : sources) {
             // Grab the resource
-            final OnmsResource resource = m_resourceDao.getResourceById(source
-                    .getResourceId());
+            final ResolvedResource resource = getResource(source.getResourceId());
             if (resource == null) {
                 if (relaxed) continue;
                 LOG.error("No resource with id: {}", source.getResourceId());
@@ -81,13 +152,13 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             }
 
             // Grab the attribute
-            RrdGraphAttribute rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
+            RrdGraphAttribute rrdGraphAttribute = resource.m_rrdGraphAttributes.get(source.getAttribute());
 
             if (rrdGraphAttribute == null && !Strings.isNullOrEmpty(source.getFallbackAttribute())) {
                 LOG.error("No attribute with name '{}', using fallback-attribute with name '{}'", source.getAttribute(), source.getFallbackAttribute());
                 source.setAttribute(source.getFallbackAttribute());
                 source.setFallbackAttribute(null);
-                rrdGraphAttribute = resource.getRrdGraphAttributes().get(source.getAttribute());
+                rrdGraphAttribute = resource.m_rrdGraphAttributes.get(source.getAttribute());
             }
 
             if (rrdGraphAttribute == null) {
@@ -97,7 +168,7 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             }
 
             // Gather the values from strings.properties
-            Utils.convertStringAttributesToConstants(source.getLabel(), resource.getStringPropertyAttributes(), constants);
+            Utils.convertStringAttributesToConstants(source.getLabel(), resource.m_stringPropertyAttributes, constants);
 
             // Build the path to the archive
             final String rrdFile = System.getProperty("rrd.base.dir")
@@ -110,6 +181,30 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, relaxed);
     }
 
+    /**
+     * Looks up a resource, using the cached copy if it was looked up less
+     * than <code>org.opennms.measurements.resourceCacheTtl</code>
+     * milliseconds ago. Resources that are not found are not cached.
+     */
+    ResolvedResource getResource(String resourceId) {
+        if (RESOURCE_CACHE_TTL > 0) {
+            final ResolvedResource cached = m_resourceCache.getIfPresent(resourceId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
+        if (resource == null) {
+            return null;
+        }
+        final ResolvedResource resolved = new ResolvedResource(resource);
+        if (RESOURCE_CACHE_TTL > 0) {
+            m_resourceCache.put(resourceId, resolved);
+        }
+        return resolved;
+    }
+
     /**
      *  Performs the actual retrieval of the values from the RRD/JRB files.
      *  If relaxed is <code>true</code> the {@link FetchResults} is populated with {@link Double#NaN} for all missing
@@ -118,13 +213,117 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
     private FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
                                            Map<Source, String> rrdsBySource, Map<String, Object> constants,
                                            List<Source> sources, boolean relaxed) throws RrdException {
-        FetchResults fetchResults = fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        // Recent windows can be answered from memory, without touching the files
+        FetchResults fetchResults = RecentSampleFetcher.fetch(RecentSampleStore.getInstance(), start, end, step, maxrows, rrdsBySource, constants);
+        if (fetchResults == null) {
+            fetchResults = fetchMeasurementsInParallel(start, end, step, maxrows, rrdsBySource, constants);
+        }
         if (relaxed) {
             Utils.fillMissingValues(fetchResults, sources);
         }
         return fetchResults;
     }
 
+    /**
+     * Splits the files over several threads when the strategy supports it,
+     * and merges the results.
+     *
+     * If the parts don't end up with the same timestamps and step, which
+     * can happen when the files have different steps, the files are fetched
+     * again all together so that the results are the same as with a single
+     * fetch.
+     */
+    FetchResults fetchMeasurementsInParallel(final long start, final long end, final long step, final int maxrows,
+            final Map<Source, String> rrdsBySource, final Map<String, Object> constants) throws RrdException {
+        // Keep the sources that read the same file together
+        final Map<String, Map<Source, String>> sourcesByFile = Maps.newLinkedHashMap();
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            Map<Source, String> sourcesForFile = sourcesByFile.get(entry.getValue());
+            if (sourcesForFile == null) {
+                sourcesForFile = Maps.newLinkedHashMap();
+                sourcesByFile.put(entry.getValue(), sourcesForFile);
+            }
+            sourcesForFile.put(entry.getKey(), entry.getValue());
+        }
+
+        final int numParts = Math.min(FETCH_THREADS, sourcesByFile.size() / MIN_FILES_PER_FETCH);
+        if (!isParallelFetchSupported() || numParts < 2) {
+            return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+        }
+
+        final List<Map<Source, String>> parts = Lists.newArrayListWithCapacity(numParts);
+        int k = 0;
+        for (final Map<Source, String> sourcesForFile : sourcesByFile.values()) {
+            final int partIndex = k++ * numParts / sourcesByFile.size();
+            if (parts.size() <= partIndex) {
+                parts.add(Maps.<Source, String>newLinkedHashMap());
+            }
+            parts.get(partIndex).putAll(sourcesForFile);
+        }
+
+        // Fetch all but the first part on the pool, and the first one in this thread
+        final List<Future<FetchResults>> futures = Lists.newArrayListWithCapacity(numParts - 1);
+        for (final Map<Source, String> part : parts.subList(1, parts.size())) {
+            futures.add(getFetchExecutor().submit(new Callable<FetchResults>() {
+                @Override
+                public FetchResults call() throws Exception {
+                    return fetchMeasurements(start, end, step, maxrows, part, constants);
+                }
+            }));
+        }
+
+        final List<FetchResults> results = Lists.newArrayListWithCapacity(numParts);
+        try {
+            results.add(fetchMeasurements(start, end, step, maxrows, parts.get(0), constants));
+            for (final Future<FetchResults> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while fetching measurements.");
+        } catch (final ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), RrdException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (final Future<FetchResults> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        // Merge the columns, if the rows are the same
+        final FetchResults first = results.get(0);
+        final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(rrdsBySource.size());
+        for (final FetchResults result : results) {
+            if (result.getStep() != first.getStep() || !Arrays.equals(result.getTimestamps(), first.getTimestamps())) {
+                LOG.debug("Fetched parts have different timestamps, fetching {} files at once.", sourcesByFile.size());
+                return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
+            }
+            columns.putAll(result.getColumns());
+        }
+        return new FetchResults(first.getTimestamps(), columns, first.getStep(), constants);
+    }
+
+    private static synchronized ExecutorService getFetchExecutor() {
+        if (s_fetchExecutor == null) {
+            // Callers fetch their own files when the pool is busy
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(FETCH_THREADS * 4),
+                    new LogPreservingThreadFactory("MeasurementsFetch", FETCH_THREADS),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            s_fetchExecutor = executor;
+        }
+        return s_fetchExecutor;
+    }
+
+    /**
+     * Returns true if {@link #fetchMeasurements(long, long, long, int, Map, Map)}
+     * can be called concurrently, with different files.
+     */
+    protected boolean isParallelFetchSupported() {
+        return false;
+    }
+
     /**
      * Performs the actual retrieval of the values from the RRD/JRB files.
      */
@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Evaluates simple arithmetic expressions one column at a time instead of
+ * one row at a time.
+ *
+ * Only expressions made of column references, numeric constants and
+ * literals, the unary minus and the <code>+ - * / %</code> operators are
+ * compiled. All of the operations are done on doubles, so an operation is
+ * only compiled when at least one of its operands is a double, where JEXL
+ * would also use double arithmetic. Division and modulo by zero yield 0,
+ * as they do with a lenient JEXL engine. Anything else makes
+ * {@link #compile(String, Resolver)} return null, and the expression must
+ * be evaluated with JEXL.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+final class ColumnExpression {
+
+    /**
+     * Words that have a meaning of their own in JEXL.
+     */
+    private static final Set<String> RESERVED = ImmutableSet.of(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not",
+            "null", "true", "false", "new", "empty", "size", "if", "else", "for",
+            "foreach", "while", "var", "function", "return", "in");
+
+    /**
+     * Maps the variables referenced by an expression to their values.
+     */
+    interface Resolver {
+        /**
+         * Returns the column with the values of the variable, a
+         * {@link Double} or a {@link Long}, or null if the variable
+         * cannot be used in a compiled expression.
+         */
+        Object resolve(String name);
+    }
+
+    private abstract static class Node {
+        /**
+         * True if JEXL would treat the value as a floating point number.
+         */
+        abstract boolean isFloatingPoint();
+
+        /**
+         * Returns the values for all of the rows. The array may be shared
+         * with the table and must not be modified.
+         */
+        abstract double[] evaluate(int numRows);
+    }
+
+    private static final class Constant extends Node {
+        private final double m_value;
+        private final boolean m_floatingPoint;
+
+        private Constant(double value, boolean floatingPoint) {
+            m_value = value;
+            m_floatingPoint = floatingPoint;
+        }
+
+        @Override
+        boolean isFloatingPoint() {
+            return m_floatingPoint;
+        }
+
+        @Override
+        double[] evaluate(int numRows) {
+            final double[] values = new double[numRows];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    private static final class Column extends Node {
+        private final double[] m_values;
+
+        private Column(double[] values) {
+            m_values = values;
+        }
+
+        @Override
+        boolean isFloatingPoint() {
+            return true;
+        }
+
+        @Override
+        double[] evaluate(int numRows) {
+            return m_values;
+        }
+    }
+
+    private static final class LongColumn extends Node {
+        private final long[] m_values;
+
+        private LongColumn(long[] values) {
+            m_values = values;
+        }
+
+        @Override
+        boolean isFloatingPoint() {
+            return false;
+        }
+
+        @Override
+        double[] evaluate(int numRows) {
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = m_values[i];
+            }
+            return values;
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        private Negate(Node operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        boolean isFloatingPoint() {
+            return true;
+        }
+
+        @Override
+        double[] evaluate(int numRows) {
+            final double[] operand = m_operand.evaluate(numRows);
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = -operand[i];
+            }
+            return values;
+        }
+    }
+
+    private static final class Operation extends Node {
+        private final char m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Operation(char operator, Node left, Node right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean isFloatingPoint() {
+            return true;
+        }
+
+        @Override
+        double[] evaluate(int numRows) {
+            final double[] values = new double[numRows];
+            if (m_right instanceof Constant) {
+                // Avoid materializing the constant, i.e. x * 8
+                final double[] left = m_left.evaluate(numRows);
+                final double right = ((Constant)m_right).m_value;
+                for (int i = 0; i < numRows; i++) {
+                    values[i] = apply(m_operator, left[i], right);
+                }
+            } else if (m_left instanceof Constant) {
+                final double left = ((Constant)m_left).m_value;
+                final double[] right = m_right.evaluate(numRows);
+                for (int i = 0; i < numRows; i++) {
+                    values[i] = apply(m_operator, left, right[i]);
+                }
+            } else {
+                final double[] left = m_left.evaluate(numRows);
+                final double[] right = m_right.evaluate(numRows);
+                for (int i = 0; i < numRows; i++) {
+                    values[i] = apply(m_operator, left[i], right[i]);
+                }
+            }
+            return values;
+        }
+    }
+
+    private static double apply(char operator, double left, double right) {
+        switch (operator) {
+        case '+':
+            return left + right;
+        case '-':
+            return left - right;
+        case '*':
+            return left * right;
+        case '/':
+            return right == 0.0 ? 0.0 : left / right;
+        case '%':
+            return right == 0.0 ? 0.0 : left % right;
+        default:
+            throw new IllegalStateException("Unsupported operator " + operator);
+        }
+    }
+
+    private final Node m_root;
+
+    private ColumnExpression(Node root) {
+        m_root = root;
+    }
+
+    /**
+     * Compiles the expression.
+     *
+     * @return null if the expression is not supported
+     */
+    static ColumnExpression compile(String expression, Resolver resolver) {
+        final Parser parser = new Parser(expression, resolver);
+        final Node root = parser.parse();
+        if (root == null || !root.isFloatingPoint()) {
+            return null;
+        }
+        return new ColumnExpression(root);
+    }
+
+    /**
+     * Evaluates the expression for all of the rows.
+     *
+     * @return a new array
+     */
+    double[] evaluate(int numRows) {
+        final double[] values = m_root.evaluate(numRows);
+        // The expression is a single variable
+        return m_root instanceof Column ? values.clone() : values;
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the JEXL
+     * grammar. The parse methods return null when they encounter anything
+     * that isn't supported.
+     */
+    private static final class Parser {
+        private final String m_expression;
+        private final Resolver m_resolver;
+        private int m_pos = 0;
+
+        private Parser(String expression, Resolver resolver) {
+            m_expression = expression;
+            m_resolver = resolver;
+        }
+
+        private Node parse() {
+            final Node node = parseSum();
+            skipWhitespace();
+            return m_pos == m_expression.length() ? node : null;
+        }
+
+        private Node parseSum() {
+            Node left = parseProduct();
+            while (left != null) {
+                skipWhitespace();
+                if (!peek('+') && !peek('-')) {
+                    break;
+                }
+                final char operator = m_expression.charAt(m_pos++);
+                left = combine(operator, left, parseProduct());
+            }
+            return left;
+        }
+
+        private Node parseProduct() {
+            Node left = parseUnary();
+            while (left != null) {
+                skipWhitespace();
+                if (!peek('*') && !peek('/') && !peek('%')) {
+                    break;
+                }
+                final char operator = m_expression.charAt(m_pos++);
+                left = combine(operator, left, parseUnary());
+            }
+            return left;
+        }
+
+        private Node parseUnary() {
+            skipWhitespace();
+            if (peek('-')) {
+                m_pos++;
+                final Node operand = parseUnary();
+                if (operand == null) {
+                    return null;
+                } else if (operand instanceof Constant) {
+                    final Constant constant = (Constant)operand;
+                    return new Constant(-constant.m_value, constant.m_floatingPoint);
+                } else if (!operand.isFloatingPoint()) {
+                    return null;
+                }
+                return new Negate(operand);
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (m_pos >= m_expression.length()) {
+                return null;
+            }
+
+            final char c = m_expression.charAt(m_pos);
+            if (c == '(') {
+                m_pos++;
+                final Node node = parseSum();
+                skipWhitespace();
+                if (node == null || !peek(')')) {
+                    return null;
+                }
+                m_pos++;
+                return node;
+            } else if (Character.isDigit(c)) {
+                return parseNumber();
+            } else if (Character.isJavaIdentifierStart(c)) {
+                return parseVariable();
+            }
+            return null;
+        }
+
+        private Node parseNumber() {
+            final int start = m_pos;
+            while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+                m_pos++;
+            }
+            boolean decimal = false;
+            if (peek('.')) {
+                decimal = true;
+                m_pos++;
+                while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+                    m_pos++;
+                }
+            }
+            final String digits = m_expression.substring(start, m_pos);
+
+            // Suffixes select the type of the literal
+            if (peek('d') || peek('D')) {
+                m_pos++;
+                return endOfNumber() ? new Constant(Double.parseDouble(digits), true) : null;
+            } else if (peek('f') || peek('F')) {
+                m_pos++;
+                return endOfNumber() ? new Constant(Float.parseFloat(digits), true) : null;
+            } else if (!endOfNumber() || digits.endsWith(".")) {
+                return null;
+            }
+
+            if (decimal) {
+                // JEXL parses these as floats, and converts them to doubles
+                // using their string representation
+                return new Constant(Double.parseDouble(Float.valueOf(digits).toString()), true);
+            } else if (digits.length() > 1 && digits.charAt(0) == '0') {
+                // octal
+                return null;
+            }
+            try {
+                return new Constant(Long.parseLong(digits), false);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private boolean endOfNumber() {
+            return m_pos >= m_expression.length() || !Character.isJavaIdentifierPart(m_expression.charAt(m_pos));
+        }
+
+        private Node parseVariable() {
+            final int start = m_pos;
+            while (m_pos < m_expression.length() && Character.isJavaIdentifierPart(m_expression.charAt(m_pos))) {
+                m_pos++;
+            }
+            String name = m_expression.substring(start, m_pos);
+            if (RESERVED.contains(name)) {
+                return null;
+            }
+
+            // Constants are named <source>.<attribute>, which JEXL resolves
+            // as a single variable when there is no variable named <source>
+            if (peek('.') && m_resolver.resolve(name) != null) {
+                return null;
+            }
+            while (peek('.')) {
+                final int segmentStart = ++m_pos;
+                while (m_pos < m_expression.length() && Character.isJavaIdentifierPart(m_expression.charAt(m_pos))) {
+                    m_pos++;
+                }
+                if (m_pos == segmentStart) {
+                    return null;
+                }
+                name = m_expression.substring(start, m_pos);
+            }
+
+            skipWhitespace();
+            if (peek('(') || peek('[') || peek(':')) {
+                return null;
+            }
+
+            final Object value = m_resolver.resolve(name);
+            if (value instanceof double[]) {
+                return new Column((double[])value);
+            } else if (value instanceof long[]) {
+                return new LongColumn((long[])value);
+            } else if (value instanceof Double) {
+                return new Constant((Double)value, true);
+            } else if (value instanceof Long) {
+                return new Constant((Long)value, false);
+            }
+            return null;
+        }
+
+        private Node combine(char operator, Node left, Node right) {
+            if (left == null || right == null) {
+                return null;
+            } else if (!left.isFloatingPoint() && !right.isFloatingPoint()) {
+                // JEXL would use integer arithmetic
+                return null;
+            } else if (left instanceof Constant && right instanceof Constant) {
+                return new Constant(apply(operator, ((Constant)left).m_value, ((Constant)right).m_value), true);
+            }
+            return new Operation(operator, left, right);
+        }
+
+        private boolean peek(char c) {
+            return m_pos < m_expression.length() && m_expression.charAt(m_pos) == c;
+        }
+
+        private void skipWhitespace() {
+            while (m_pos < m_expression.length() && Character.isWhitespace(m_expression.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+    }
+}
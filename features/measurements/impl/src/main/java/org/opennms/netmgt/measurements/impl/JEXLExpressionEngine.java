@@ -1,15 +1,20 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.JexlException;
 import org.apache.commons.jexl2.MapContext;
+import org.apache.commons.jexl2.Script;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
@@ -102,6 +107,15 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         // Calculate the time span
         jexlValues.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
 
+        // Evaluate the expressions one at a time, unless one of them refers
+        // to the value of an expression that comes after it (or to itself),
+        // which it sees from the previous row
+        final Map<String, Set<String>> variables = getVariables(expressions);
+        if (variables != null && !hasForwardReferences(variables, columns)) {
+            applyExpressionsByColumn(expressions, variables, transientFlags, jexlValues, timestamps, columns);
+            return;
+        }
+
         final double expressionValues[][] = new double[numNonTransientExpression][numRows];
 
         // Iterate through all of the rows, apply the expressions
@@ -149,4 +163,129 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
     }
+
+    /**
+     * Evaluates the expressions in order, each one for all of the rows.
+     *
+     * Simple arithmetic expressions are evaluated with a
+     * {@link ColumnExpression}, without boxing any of the values, and the
+     * others with JEXL, row by row.
+     */
+    private void applyExpressionsByColumn(final LinkedHashMap<String, org.apache.commons.jexl2.Expression> expressions,
+            final Map<String, Set<String>> variables, final boolean transientFlags[], final Map<String, Object> constants,
+            final long timestamps[], final Map<String, double[]> columns) throws ExpressionException {
+        final int numRows = timestamps.length;
+
+        // Values of the expressions that were already evaluated
+        final Map<String, double[]> expressionValues = Maps.newHashMap();
+
+        final ColumnExpression.Resolver resolver = new ColumnExpression.Resolver() {
+            @Override
+            public Object resolve(String name) {
+                // Same precedence as when evaluating by row
+                if (columns.containsKey(name)) {
+                    return columns.get(name);
+                } else if ("timestamp".equals(name)) {
+                    return timestamps;
+                } else if (expressionValues.containsKey(name)) {
+                    return expressionValues.get(name);
+                }
+                final Object constant = constants.get(name);
+                // Constants from strings.properties are strings, and are left to JEXL
+                return constant instanceof Double ? constant : null;
+            }
+        };
+
+        int j = 0;
+        for (final Map.Entry<String, org.apache.commons.jexl2.Expression> expressionEntry : expressions.entrySet()) {
+            final String label = expressionEntry.getKey();
+            final ColumnExpression columnExpression = ColumnExpression.compile(expressionEntry.getValue().getExpression(), resolver);
+
+            final double values[];
+            if (columnExpression != null) {
+                values = columnExpression.evaluate(numRows);
+            } else {
+                values = evaluateByRow(label, expressionEntry.getValue(), variables.get(label), resolver, constants, numRows);
+            }
+            expressionValues.put(label, values);
+        }
+
+        // Store the results
+        for (final String expressionLabel : expressions.keySet()) {
+            if (!transientFlags[j++]) {
+                columns.put(expressionLabel, expressionValues.get(expressionLabel));
+            }
+        }
+    }
+
+    private static double[] evaluateByRow(final String label, final org.apache.commons.jexl2.Expression expression, final Set<String> variables,
+            final ColumnExpression.Resolver resolver, final Map<String, Object> constants, final int numRows) throws ExpressionException {
+        // Only the variables used by the expression need to be updated for every row
+        final Map<String, Object> jexlValues = Maps.newHashMap(constants);
+        final JexlContext context = new MapContext(jexlValues);
+        final Map<String, Object> columnsByName = Maps.newHashMap();
+        for (final String variable : variables) {
+            final Object column = resolver.resolve(variable);
+            if (column instanceof double[] || column instanceof long[]) {
+                columnsByName.put(variable, column);
+            }
+        }
+
+        final double values[] = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (final Map.Entry<String, Object> column : columnsByName.entrySet()) {
+                if (column.getValue() instanceof long[]) {
+                    jexlValues.put(column.getKey(), ((long[])column.getValue())[i]);
+                } else {
+                    jexlValues.put(column.getKey(), ((double[])column.getValue())[i]);
+                }
+            }
+
+            try {
+                values[i] = Utils.toDouble(expression.evaluate(context));
+            } catch (NullPointerException|NumberFormatException e) {
+                throw new ExpressionException(e, "The return value from expression with label '" +
+                        label + "' could not be cast to a Double.");
+            } catch (JexlException e) {
+                throw new ExpressionException(e, "Failed to evaluate expression with label '" +
+                        label + "'.");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the names of the variables used by each of the expressions,
+     * or null if they cannot be determined.
+     */
+    private Map<String, Set<String>> getVariables(final LinkedHashMap<String, org.apache.commons.jexl2.Expression> expressions) {
+        final Map<String, Set<String>> variablesByLabel = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, org.apache.commons.jexl2.Expression> expressionEntry : expressions.entrySet()) {
+            if (!(expressionEntry.getValue() instanceof Script)) {
+                return null;
+            }
+            final Set<String> variables = Sets.newHashSet();
+            for (final List<String> variable : jexl.getVariables((Script)expressionEntry.getValue())) {
+                if (!variable.isEmpty()) {
+                    variables.add(variable.get(0));
+                }
+            }
+            variablesByLabel.put(expressionEntry.getKey(), variables);
+        }
+        return variablesByLabel;
+    }
+
+    private static boolean hasForwardReferences(final Map<String, Set<String>> variables, final Map<String, double[]> columns) {
+        final List<String> labels = Lists.newArrayList(variables.keySet());
+        int k = 0;
+        for (final Map.Entry<String, Set<String>> entry : variables.entrySet()) {
+            for (final String variable : entry.getValue()) {
+                if (!columns.containsKey(variable) && !"timestamp".equals(variable) && labels.indexOf(variable) >= k) {
+                    return true;
+                }
+            }
+            k++;
+        }
+        return false;
+    }
 }
@@ -35,6 +35,7 @@ import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdDbPool;
 
 import com.google.common.collect.Maps;
 
@@ -67,6 +68,8 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
             dproc.setPixelCount(maxrows);
         }
         dproc.setFetchRequestResolution(stepInSeconds);
+        // share the handles kept open by the JRobin strategy, if any
+        dproc.setPoolUsed(JRobinRrdDbPool.getInstance() != null);
 
         for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
             final Source source = entry.getKey();
@@ -95,4 +98,15 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
         return new FetchResults(timestamps, columns, dproc.getStep() * 1000, constants);
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Each fetch uses its own {@link DataProcessor}, and the files are only
+     * shared through the thread-safe JRobin pool.
+     */
+    @Override
+    protected boolean isParallelFetchSupported() {
+        return true;
+    }
 }
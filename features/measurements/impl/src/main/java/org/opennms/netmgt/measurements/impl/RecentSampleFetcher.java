@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.rrd.RecentSampleStore;
+import org.opennms.netmgt.rrd.RecentSampleStore.Samples;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Answers fetches that only cover the last few collection intervals from
+ * the {@link RecentSampleStore}, without reading the RRD files.
+ *
+ * The rows are built the way {@link JrobinFetchStrategy} builds them from a
+ * file's finest archive: the samples are turned into primary data points
+ * like JRobin does when it updates the file, and the timestamps are those
+ * of the {@link org.jrobin.data.DataProcessor}.  Fetches that would be
+ * answered from another archive, or that need samples older than the ones
+ * in memory, are left to the files.
+ */
+abstract class RecentSampleFetcher {
+
+    private RecentSampleFetcher() {
+    }
+
+    /**
+     * Returns the results for the given sources, or null if the store does
+     * not hold every sample needed to answer the fetch.
+     */
+    static FetchResults fetch(final RecentSampleStore store, final long start, final long end, final long step, final int maxrows,
+            final Map<Source, String> rrdsBySource, final Map<String, Object> constants) {
+        if (!store.isEnabled() || rrdsBySource.isEmpty()) {
+            return null;
+        }
+
+        // Same rounding as the JRobin strategy
+        final long startInSeconds = start / 1000;
+        final long endInSeconds = end / 1000;
+        final long stepInSeconds = Math.max(1, step / 1000);
+        if (endInSeconds <= startInSeconds) {
+            return null;
+        }
+
+        final Map<Source, Samples> samplesBySource = Maps.newHashMapWithExpectedSize(rrdsBySource.size());
+        long fileStep = 0;
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            if (!"AVERAGE".equalsIgnoreCase(entry.getKey().getAggregation())) {
+                // Only the finest AVERAGE archive is known to hold one step per row
+                return null;
+            }
+            final Samples samples = store.getSamples(entry.getValue(), entry.getKey().getEffectiveDataSource());
+            if (samples == null || (fileStep != 0 && samples.getStep() != fileStep)) {
+                // Files with different steps are normalized by the data processor
+                return null;
+            }
+            samplesBySource.put(entry.getKey(), samples);
+            fileStep = samples.getStep();
+        }
+        if (fileStep <= 0 || stepInSeconds > fileStep) {
+            // A coarser archive may be closer to the requested step
+            return null;
+        }
+
+        // The data processor uses the step of the archive, and includes the rows containing start and end
+        final long first = normalize(startInSeconds, fileStep);
+        long last = normalize(endInSeconds, fileStep);
+        if (last < endInSeconds) {
+            last += fileStep;
+        }
+        final int numRows = (int)((last - first) / fileStep) + 1;
+        final long[] timestamps = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = first + i * fileStep;
+        }
+
+        final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(samplesBySource.size());
+        for (final Map.Entry<Source, Samples> entry : samplesBySource.entrySet()) {
+            final double[] column = toRows(entry.getValue(), timestamps);
+            if (column == null) {
+                // Some of the rows are only on disk
+                return null;
+            }
+            columns.put(entry.getKey().getLabel(), column);
+        }
+
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] *= 1000;
+        }
+        return new FetchResults(timestamps, columns, fileStep * 1000, constants);
+    }
+
+    /**
+     * Computes the primary data points of the given rows the same way
+     * JRobin's Datasource does when the samples are written, or returns
+     * null if a row was completed before the oldest sample and can only be
+     * read from the file.
+     *
+     * Unless the oldest sample falls on a step boundary, the points completed
+     * by the first update that crosses one are not known, since they also
+     * depend on the samples before the oldest one.
+     */
+    private static double[] toRows(final Samples samples, final long[] rows) {
+        final long step = samples.getStep();
+        final long heartbeat = samples.getHeartbeat();
+        final long[] sampleTimes = samples.getTimestamps();
+        final double[] sampleValues = samples.getValues();
+        if (sampleTimes.length == 0) {
+            return null;
+        }
+
+        final long oldest = sampleTimes[0] / 1000;
+        final double[] column = new double[rows.length];
+        Arrays.fill(column, Double.NaN);
+
+        // What was accumulated before the oldest sample isn't known
+        long firstKnownBoundary = oldest % step == 0 ? oldest + step : Long.MAX_VALUE;
+        long lastBoundary = normalize(oldest, step);
+        long lastTime = oldest;
+        double accum = 0;
+        long nanSeconds = 0;
+        for (int k = 1; k < sampleTimes.length; k++) {
+            final long time = sampleTimes[k] / 1000;
+            final double value = sampleValues[k];
+            final long startTime = normalize(lastTime, step);
+            if (time < startTime + step) {
+                if (Double.isNaN(value)) {
+                    nanSeconds += time - lastTime;
+                } else {
+                    accum += value * (time - lastTime);
+                }
+            } else {
+                final long boundary = normalize(time, step);
+                if (Double.isNaN(value)) {
+                    nanSeconds += boundary - lastTime;
+                } else {
+                    accum += value * (boundary - lastTime);
+                }
+                if (firstKnownBoundary == Long.MAX_VALUE) {
+                    firstKnownBoundary = boundary + step;
+                }
+                lastBoundary = boundary;
+                final long validSeconds = boundary - startTime - nanSeconds;
+                final double total = nanSeconds <= heartbeat && validSeconds > 0 ? accum / validSeconds : Double.NaN;
+                // An update spanning several steps completes all of them with the same value
+                for (long t = startTime + step; t <= boundary; t += step) {
+                    final int row = (int)((t - rows[0]) / step);
+                    if (t >= rows[0] && row < rows.length) {
+                        column[row] = total;
+                    }
+                }
+                accum = 0;
+                nanSeconds = 0;
+                if (Double.isNaN(value)) {
+                    nanSeconds += time - boundary;
+                } else {
+                    accum += value * (time - boundary);
+                }
+            }
+            lastTime = time;
+        }
+
+        // Points up to the last boundary are in the file, the later ones are unknown
+        if (rows[0] <= lastBoundary && rows[0] < firstKnownBoundary) {
+            return null;
+        }
+        return column;
+    }
+
+    private static long normalize(final long timestamp, final long step) {
+        return timestamp - timestamp % step;
+    }
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnExpressionTest {
+
+    private static final int N = 50;
+
+    private final long[] m_timestamps = new long[N];
+    private final double[] m_x = new double[N];
+    private final double[] m_y = new double[N];
+
+    private final ColumnExpression.Resolver m_resolver = new ColumnExpression.Resolver() {
+        @Override
+        public Object resolve(String name) {
+            switch (name) {
+            case "x":
+                return m_x;
+            case "y":
+                return m_y;
+            case "timestamp":
+                return m_timestamps;
+            case "NaN":
+                return Double.NaN;
+            case "src.ifSpeed":
+                return 1.0E8d;
+            default:
+                return null;
+            }
+        }
+    };
+
+    public ColumnExpressionTest() {
+        for (int i = 0; i < N; i++) {
+            m_timestamps[i] = i * 300000L;
+            m_x[i] = i % 7 == 3 ? Double.NaN : i * 1.3 - 20;
+            m_y[i] = i % 5 == 0 ? 0 : 100 - i * 0.7;
+        }
+    }
+
+    @Test
+    public void evaluatesLikeJexl() {
+        final String[] expressions = new String[] {
+                "x",
+                "x * 8",
+                "-x + 1.1",
+                "x / y",
+                "x % y",
+                "x % 2.5",
+                "(x + y) / 2",
+                "x - y - 1 * 0.3",
+                "x * 0.1 + y * 1.23456789",
+                "x * 1.5d - y / 2.5f",
+                "x / 0",
+                "NaN * x",
+                "x * 8 / src.ifSpeed * 100",
+                "timestamp / 1000.0 + x",
+                "- - x",
+                "10 / x * 3"
+        };
+
+        final JexlEngine jexl = new JexlEngine();
+        for (String expression : expressions) {
+            final ColumnExpression columnExpression = ColumnExpression.compile(expression, m_resolver);
+            assertNotNull(expression, columnExpression);
+            final double[] actual = columnExpression.evaluate(N);
+
+            final org.apache.commons.jexl2.Expression jexlExpression = jexl.createExpression(expression);
+            final Map<String, Object> values = Maps.newHashMap();
+            values.put("NaN", Double.NaN);
+            values.put("src.ifSpeed", 1.0E8d);
+            for (int i = 0; i < N; i++) {
+                values.put("x", m_x[i]);
+                values.put("y", m_y[i]);
+                values.put("timestamp", m_timestamps[i]);
+                final double expected = ((Number)jexlExpression.evaluate(new MapContext(values))).doubleValue();
+                assertEquals(expression + " at row " + i, expected, actual[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void doesNotCompileOtherExpressions() {
+        final String[] expressions = new String[] {
+                "x < y ? x : y",
+                "math:abs(x)",
+                "timestamp / 1000",
+                "1 / 2",
+                "x + z",
+                "x + 'a'",
+                "x div 2",
+                "x +",
+                "(x",
+                "x y",
+                "010 * x",
+                "x.y + 1",
+                "x == y"
+        };
+
+        for (String expression : expressions) {
+            assertNull(expression, ColumnExpression.compile(expression, m_resolver));
+        }
+    }
+
+    @Test
+    public void resultsDoNotShareColumns() {
+        final double[] values = ColumnExpression.compile("x", m_resolver).evaluate(N);
+        assertArrayEquals(m_x, values, 0.0);
+        values[0] = 1000;
+        assertEquals(-20, m_x[0], 0.0);
+    }
+
+    @Test
+    public void engineMixesCompiledAndJexlExpressions() throws Exception {
+        QueryRequest request = new QueryRequest();
+        Source source = new Source();
+        source.setLabel("x");
+        request.setSources(Lists.newArrayList(source));
+
+        // a and c are compiled, b is not and c depends on b
+        List<Expression> expressions = Lists.newArrayList();
+        expressions.add(new Expression("a", "x * 2.0", true));
+        expressions.add(new Expression("b", "a > 10 ? a : 0", false));
+        expressions.add(new Expression("c", "b - a + 0.5", false));
+        request.setExpressions(expressions);
+
+        Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", new double[] { 1, 10, Double.NaN });
+        FetchResults results = new FetchResults(new long[] { 0, 1, 2 }, columns, 1, Maps.<String, Object>newHashMap());
+        new JEXLExpressionEngine().applyExpressions(request, results);
+
+        assertNull(results.getColumns().get("a"));
+        assertArrayEquals(new double[] { 0, 20, 0 }, results.getColumns().get("b"), 0.0);
+        assertArrayEquals(new double[] { -1.5, 0.5, Double.NaN }, results.getColumns().get("c"), 0.0);
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jrobin.core.RrdException;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Maps;
+
+public class ParallelFetchTest {
+
+    /**
+     * Returns the index of the file in every row, with a step of 300 seconds
+     * unless the file name says otherwise.
+     */
+    private static class MockFetchStrategy extends AbstractRrdBasedFetchStrategy {
+        private final List<Integer> m_fetchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
+                Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+            m_fetchSizes.add(rrdsBySource.size());
+            long fetchStep = 300000;
+            for (String rrdFile : rrdsBySource.values()) {
+                if (rrdFile.endsWith("-60.jrb")) {
+                    fetchStep = 60000;
+                }
+            }
+            final int rows = (int)((end - start) / fetchStep);
+            final long[] timestamps = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                timestamps[i] = start + i * fetchStep;
+            }
+            final Map<String, double[]> columns = Maps.newHashMap();
+            for (Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+                final double[] values = new double[rows];
+                final String rrdFile = entry.getValue();
+                Arrays.fill(values, Integer.parseInt(rrdFile.substring(0, rrdFile.indexOf('-'))));
+                columns.put(entry.getKey().getLabel(), values);
+            }
+            return new FetchResults(timestamps, columns, fetchStep, constants);
+        }
+
+        @Override
+        protected boolean isParallelFetchSupported() {
+            return true;
+        }
+    }
+
+    /**
+     * Two sources for each file, with a step of 300 seconds except for the
+     * last file if specified.
+     */
+    private static Map<Source, String> getSources(int numFiles, String lastSuffix) {
+        final Map<Source, String> rrdsBySource = Maps.newLinkedHashMap();
+        for (int i = 0; i < numFiles; i++) {
+            final String rrdFile = i + "-" + (i == numFiles - 1 ? lastSuffix : "300") + ".jrb";
+            rrdsBySource.put(new Source("in" + i, "node[" + i + "]", "ifInOctets", null, false), rrdFile);
+            rrdsBySource.put(new Source("out" + i, "node[" + i + "]", "ifOutOctets", null, false), rrdFile);
+        }
+        return rrdsBySource;
+    }
+
+    @Test
+    public void testMergesParts() throws Exception {
+        final MockFetchStrategy strategy = new MockFetchStrategy();
+        final Map<Source, String> rrdsBySource = getSources(16, "300");
+
+        final FetchResults results = strategy.fetchMeasurementsInParallel(0, 3000000, 300000, 0, rrdsBySource, Collections.<String,Object>emptyMap());
+        // Both sources of a file are always fetched together
+        for (int size : strategy.m_fetchSizes) {
+            assertEquals(0, size % 2);
+        }
+        assertEquals(32, results.getColumns().size());
+        assertEquals(300000, results.getStep());
+        assertEquals(10, results.getTimestamps().length);
+        for (int i = 0; i < 16; i++) {
+            assertArrayEquals(strategy.fetchMeasurements(0, 3000000, 300000, 0, Collections.singletonMap(
+                    new Source("in" + i, "node[" + i + "]", "ifInOctets", null, false), i + "-300.jrb"), Collections.<String,Object>emptyMap())
+                    .getColumns().get("in" + i), results.getColumns().get("in" + i), 0);
+            assertArrayEquals(results.getColumns().get("in" + i), results.getColumns().get("out" + i), 0);
+        }
+    }
+
+    @Test
+    public void testFallsBackWhenRowsDiffer() throws Exception {
+        final MockFetchStrategy strategy = new MockFetchStrategy();
+        final Map<Source, String> rrdsBySource = getSources(16, "60");
+
+        final FetchResults results = strategy.fetchMeasurementsInParallel(0, 3000000, 300000, 0, rrdsBySource, Collections.<String,Object>emptyMap());
+        // The last call included all of the sources
+        assertEquals(32, (int)strategy.m_fetchSizes.get(strategy.m_fetchSizes.size() - 1));
+        assertEquals(60000, results.getStep());
+        assertEquals(50, results.getTimestamps().length);
+    }
+
+    @Test
+    public void testFewFilesAreFetchedAtOnce() throws Exception {
+        final MockFetchStrategy strategy = new MockFetchStrategy();
+        strategy.fetchMeasurementsInParallel(0, 3000000, 300000, 0, getSources(3, "300"), Collections.<String,Object>emptyMap());
+        assertEquals(Collections.singletonList(6), strategy.m_fetchSizes);
+    }
+}
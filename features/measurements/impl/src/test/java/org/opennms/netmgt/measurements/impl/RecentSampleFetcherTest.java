@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.rrd.RecentSampleStore;
+
+import com.google.common.collect.Maps;
+
+public class RecentSampleFetcherTest {
+
+    private static final String RRD_FILE = "/opt/opennms/share/rrd/snmp/1/mib2-interfaces.jrb";
+
+    private static final String[] DS_NAMES = new String[] { "ifInOctets", "ifSpeed" };
+
+    private static final boolean[] COUNTERS = new boolean[] { true, false };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testFetchFromMemory() {
+        final RecentSampleStore store = new RecentSampleStore(10);
+        // Samples every 300 seconds; the counter grows by 3000 octets per step
+        for (int i = 0; i < 5; i++) {
+            store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, (i + 1) * 300000L, new double[] { i * 3000, 100000000 });
+        }
+
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(new Source("octets", "node[1].interfaceSnmp[eth0]", "ifInOctets", null, false), RRD_FILE);
+        rrdsBySource.put(new Source("speed", "node[1].interfaceSnmp[eth0]", "ifSpeed", null, false), RRD_FILE);
+
+        // The first row covers the 300 seconds before 600
+        final FetchResults results = RecentSampleFetcher.fetch(store, 600000L, 1500000L, 1000L, 0, rrdsBySource, Collections.<String,Object>emptyMap());
+        assertNotNull(results);
+        assertEquals(300000L, results.getStep());
+        assertArrayEquals(new long[] { 600000L, 900000L, 1200000L, 1500000L }, results.getTimestamps());
+        assertArrayEquals(new double[] { 10, 10, 10, 10 }, results.getColumns().get("octets"), 0.0001);
+        assertArrayEquals(new double[] { 1e8, 1e8, 1e8, 1e8 }, results.getColumns().get("speed"), 0.0001);
+    }
+
+    @Test
+    public void testCounterStartingAtStart() {
+        final RecentSampleStore store = new RecentSampleStore(10);
+        for (int i = 0; i < 5; i++) {
+            store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, (i + 1) * 300000L, new double[] { i * 3000, 100000000 });
+        }
+        final Map<Source, String> rrdsBySource = Collections.singletonMap(new Source("octets", "node[1]", "ifInOctets", null, false), RRD_FILE);
+
+        // The row at 300 needs the counter value before the oldest sample, which only the file has
+        assertNull(RecentSampleFetcher.fetch(store, 300000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+
+        // A start within the first row rounds down to it
+        assertNull(RecentSampleFetcher.fetch(store, 500000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+
+        final FetchResults results = RecentSampleFetcher.fetch(store, 600000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap());
+        assertFalse(Double.isNaN(results.getColumns().get("octets")[0]));
+    }
+
+    @Test
+    public void testOnlyAnswersFromTheFinestArchive() {
+        final RecentSampleStore store = new RecentSampleStore(10);
+        for (int i = 0; i < 5; i++) {
+            store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, (i + 1) * 300000L, new double[] { i * 3000, 100000000 });
+        }
+        final Source source = new Source("speed", "node[1].interfaceSnmp[eth0]", "ifSpeed", null, false);
+        final Map<Source, String> rrdsBySource = Collections.singletonMap(source, RRD_FILE);
+
+        // Steps coarser than the file's may be answered by another archive
+        assertNull(RecentSampleFetcher.fetch(store, 600000L, 1500000L, 600000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+        assertNotNull(RecentSampleFetcher.fetch(store, 600000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+
+        // So are the other consolidation functions
+        source.setAggregation("MAX");
+        assertNull(RecentSampleFetcher.fetch(store, 600000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+    }
+
+    @Test
+    public void testCounterWrap() {
+        final RecentSampleStore store = new RecentSampleStore(10);
+        store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, 300000L, new double[] { 4294967296.0 - 1500, 0 });
+        store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, 600000L, new double[] { 1500, 0 });
+
+        final RecentSampleStore.Samples samples = store.getSamples(RRD_FILE, "ifInOctets");
+        assertArrayEquals(new double[] { Double.NaN, 10 }, samples.getValues(), 0.0001);
+    }
+
+    @Test
+    public void testHeartbeatAndBounds() {
+        final RecentSampleStore store = new RecentSampleStore(10);
+        final double[] mins = new double[] { Double.NaN, 0 };
+        final double[] maxs = new double[] { 20, 100 };
+        store.update(RRD_FILE, 300, 600, DS_NAMES, COUNTERS, mins, maxs, 300000L, new double[] { 0, 50 });
+        store.update(RRD_FILE, 300, 600, DS_NAMES, COUNTERS, mins, maxs, 600000L, new double[] { 3000, 150 });
+        store.update(RRD_FILE, 300, 600, DS_NAMES, COUNTERS, mins, maxs, 900000L, new double[] { 9000000, 50 });
+        // More than a heartbeat without samples
+        store.update(RRD_FILE, 300, 600, DS_NAMES, COUNTERS, mins, maxs, 1800000L, new double[] { 9003000, 50 });
+
+        assertArrayEquals(new double[] { Double.NaN, 10, Double.NaN, Double.NaN }, store.getSamples(RRD_FILE, "ifInOctets").getValues(), 0.0001);
+        assertArrayEquals(new double[] { Double.NaN, Double.NaN, 50, Double.NaN }, store.getSamples(RRD_FILE, "ifSpeed").getValues(), 0.0001);
+    }
+
+    @Test
+    public void testFallsBackToFiles() {
+        final RecentSampleStore store = new RecentSampleStore(3);
+        for (int i = 0; i < 5; i++) {
+            store.update(RRD_FILE, 300, DS_NAMES, COUNTERS, (i + 1) * 300000L, new double[] { i, i });
+        }
+
+        final Map<Source, String> rrdsBySource = Collections.singletonMap(new Source("speed", "node[1]", "ifSpeed", null, false), RRD_FILE);
+
+        // Only the last three samples are kept
+        assertNull(RecentSampleFetcher.fetch(store, 300000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+        assertNotNull(RecentSampleFetcher.fetch(store, 1200000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+
+        // Unknown files and data sources are not in memory
+        assertNull(RecentSampleFetcher.fetch(store, 1200000L, 1500000L, 300000L, 0,
+                Collections.singletonMap(new Source("speed", "node[2]", "ifSpeed", null, false), "/tmp/other.jrb"), Collections.<String,Object>emptyMap()));
+        assertNull(RecentSampleFetcher.fetch(store, 1200000L, 1500000L, 300000L, 0,
+                Collections.singletonMap(new Source("x", "node[1]", "ifOutOctets", null, false), RRD_FILE), Collections.<String,Object>emptyMap()));
+
+        // A disabled store never answers
+        assertNull(RecentSampleFetcher.fetch(new RecentSampleStore(0), 1200000L, 1500000L, 300000L, 0, rrdsBySource, Collections.<String,Object>emptyMap()));
+    }
+
+    /**
+     * Writes the same samples to a JRB file and to the store, at irregular
+     * times and with gaps, and verifies that both answer the same.
+     */
+    @Test
+    public void testSameResultsAsTheFile() throws Exception {
+        final String rrdFile = new File(tempFolder.getRoot(), "mib2-interfaces.jrb").getAbsolutePath();
+        final double[] mins = new double[] { Double.NaN, 0 };
+        final double[] maxs = new double[] { Double.NaN, 1e9 };
+
+        final RrdDef def = new RrdDef(rrdFile, 1000000, 300);
+        def.addDatasource(DS_NAMES[0], "COUNTER", 600, Double.NaN, Double.NaN);
+        def.addDatasource(DS_NAMES[1], "GAUGE", 600, 0, 1e9);
+        def.addArchive("AVERAGE", 0.5, 1, 2016);
+        def.addArchive("AVERAGE", 0.5, 12, 1488);
+        final RrdDb db = new RrdDb(def);
+
+        final RecentSampleStore store = new RecentSampleStore(100);
+        long time = 1000000;
+        double octets = 4294967296.0 - 100000;
+        for (int i = 0; i < 60; i++) {
+            // Jitter, and a few longer gaps
+            time += i % 17 == 16 ? 700 : 290 + (i * 7) % 23;
+            octets = (octets + 1000 + i * 37) % 4294967296.0;
+            final double speed = i % 11 == 10 ? Double.NaN : i % 13 == 12 ? 2e9 : 1e8 + i;
+            final Sample sample = db.createSample(time);
+            sample.setValues(new double[] { octets, speed });
+            sample.update();
+            store.update(rrdFile, 300, 600, DS_NAMES, COUNTERS, mins, maxs, time * 1000, new double[] { octets, speed });
+        }
+        db.close();
+
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(new Source("octets", "node[1].interfaceSnmp[eth0]", "ifInOctets", null, false), rrdFile);
+        rrdsBySource.put(new Source("speed", "node[1].interfaceSnmp[eth0]", "ifSpeed", null, false), rrdFile);
+
+        final long[][] windows = new long[][] {
+            { 1003000, time },
+            { 1003001, time - 1 },
+            { 1010000, time + 1000 },
+            { time - 3600, time },
+        };
+        for (final long[] window : windows) {
+            for (final long step : new long[] { 1000, 60000, 300000 }) {
+                final FetchResults fromMemory = RecentSampleFetcher.fetch(store, window[0] * 1000, window[1] * 1000, step, 0, rrdsBySource,
+                        Collections.<String,Object>emptyMap());
+                final FetchResults fromFile = new JrobinFetchStrategy().fetchMeasurements(window[0] * 1000, window[1] * 1000, step, 0, rrdsBySource,
+                        Collections.<String,Object>emptyMap());
+                assertNotNull(fromMemory);
+                assertEquals(fromFile.getStep(), fromMemory.getStep());
+                assertArrayEquals(fromFile.getTimestamps(), fromMemory.getTimestamps());
+                for (final String label : new String[] { "octets", "speed" }) {
+                    assertArrayEquals(label, fromFile.getColumns().get(label), fromMemory.getColumns().get(label), 0.000001);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdException;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsLocationMonitor;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.model.OnmsResourceType;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.RrdGraphAttribute;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+public class ResourceCacheTest {
+
+    private final AtomicLong m_nanos = new AtomicLong();
+    private final Map<String, Integer> m_lookups = Maps.newHashMap();
+    private AbstractRrdBasedFetchStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_strategy = new AbstractRrdBasedFetchStrategy(new Ticker() {
+            @Override
+            public long read() {
+                return m_nanos.get();
+            }
+        }) {
+            @Override
+            protected FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
+                    Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+                throw new UnsupportedOperationException();
+            }
+        };
+        m_strategy.setResourceDao(new MockResourceDao());
+    }
+
+    @Test
+    public void testResourceIsReusedWithinTtl() {
+        final Object resource = m_strategy.getResource("node[1].interfaceSnmp[eth0]");
+        assertNotNull(resource);
+
+        advance(AbstractRrdBasedFetchStrategy.RESOURCE_CACHE_TTL - 1);
+        assertSame(resource, m_strategy.getResource("node[1].interfaceSnmp[eth0]"));
+        assertEquals(Integer.valueOf(1), m_lookups.get("node[1].interfaceSnmp[eth0]"));
+    }
+
+    @Test
+    public void testResourceIsReloadedAfterTtl() {
+        final Object resource = m_strategy.getResource("node[1].interfaceSnmp[eth0]");
+
+        advance(AbstractRrdBasedFetchStrategy.RESOURCE_CACHE_TTL);
+        final Object reloaded = m_strategy.getResource("node[1].interfaceSnmp[eth0]");
+        assertNotNull(reloaded);
+        assertNotSame(resource, reloaded);
+        assertEquals(Integer.valueOf(2), m_lookups.get("node[1].interfaceSnmp[eth0]"));
+
+        // the reloaded copy is cached in turn
+        assertSame(reloaded, m_strategy.getResource("node[1].interfaceSnmp[eth0]"));
+        assertEquals(Integer.valueOf(2), m_lookups.get("node[1].interfaceSnmp[eth0]"));
+    }
+
+    @Test
+    public void testMissingResourceIsNotCached() {
+        assertNull(m_strategy.getResource("node[2].missing[]"));
+        assertNull(m_strategy.getResource("node[2].missing[]"));
+        assertEquals(Integer.valueOf(2), m_lookups.get("node[2].missing[]"));
+    }
+
+    private void advance(long millis) {
+        m_nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Counts the lookups of each resource id; ids starting with
+     * <code>node[1]</code> exist.
+     */
+    private class MockResourceDao implements ResourceDao {
+        @Override
+        public OnmsResource getResourceById(String id) {
+            final Integer lookups = m_lookups.get(id);
+            m_lookups.put(id, lookups == null ? 1 : lookups + 1);
+            if (!id.startsWith("node[1]")) {
+                return null;
+            }
+            final OnmsAttribute attribute = new RrdGraphAttribute("ifInOctets", "snmp/1/eth0", "ifInOctets.jrb");
+            return new OnmsResource(id, id, new MockResourceType(), Collections.singleton(attribute), ResourcePath.get("snmp", "1", "eth0"));
+        }
+
+        @Override
+        public Collection<OnmsResourceType> getResourceTypes() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<OnmsResource> findTopLevelResources() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OnmsResource getResourceForNode(OnmsNode node) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OnmsResource getResourceForIpInterface(OnmsIpInterface ipInterface, OnmsLocationMonitor locationMonitor) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean deleteResourceById(String resourceId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class MockResourceType implements OnmsResourceType {
+        @Override
+        public String getName() {
+            return "interfaceSnmp";
+        }
+
+        @Override
+        public String getLabel() {
+            return "SNMP Interface Data";
+        }
+
+        @Override
+        public boolean isResourceTypeOnParent(OnmsResource parent) {
+            return false;
+        }
+
+        @Override
+        public List<OnmsResource> getResourcesForParent(OnmsResource parent) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public OnmsResource getChildByName(OnmsResource parent, String name) {
+            return null;
+        }
+
+        @Override
+        public String getLinkForResource(OnmsResource resource) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts;
+
+/**
+ * What the {@link NewtsWriter} does with a batch of samples when its ring
+ * buffer is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Discards the samples that could not be queued. This is the default.
+     */
+    DROP("drop"),
+
+    /**
+     * Blocks the caller until a writer thread frees up a slot.
+     */
+    BLOCK("block"),
+
+    /**
+     * Discards the samples of the oldest queued entry that no writer thread
+     * has picked up yet, and queues the new samples in its place. The caller
+     * never blocks. The new samples are dropped if there is no such entry.
+     */
+    DROP_OLDEST("drop-oldest"),
+
+    /**
+     * Writes the samples to a spool directory, from which they are queued
+     * again once the ring buffer has drained.
+     */
+    SPILL("spill");
+
+    private final String m_name;
+
+    private BackpressurePolicy(final String name) {
+        m_name = name;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public static BackpressurePolicy fromName(final String name) {
+        for (final BackpressurePolicy policy : values()) {
+            if (policy.m_name.equalsIgnoreCase(name) || policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown backpressure policy: " + name);
+    }
+}
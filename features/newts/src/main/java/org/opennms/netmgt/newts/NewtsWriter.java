@@ -28,10 +28,18 @@
 
 package org.opennms.netmgt.newts;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -50,11 +58,13 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Strings;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventTranslatorOneArg;
@@ -70,9 +80,20 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The writer threads merge the samples of consecutive ring buffer entries
+ * into batches of up to max_batch_size samples and max_batch_bytes
+ * (estimated) bytes, so that the many small batches produced by the
+ * collectors result in fewer, larger writes. A batch that has not filled
+ * up is written once its oldest sample has waited max_batch_delay
+ * milliseconds. With a delay of zero, the samples of each entry are
+ * written as soon as they are taken off the ring buffer.
+ *
+ * What happens when the ring buffer is full is determined by the
+ * {@link BackpressurePolicy}.
+ *
  * @author jwhite
  */
-public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
+public class NewtsWriter implements DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
@@ -81,6 +102,12 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    /**
+     * Rough per-sample overhead used to estimate the size of a batch, on top
+     * of the lengths of the resource id, metric name and attributes.
+     */
+    private static final int SAMPLE_OVERHEAD_BYTES = 64;
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
@@ -93,32 +120,83 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final int m_maxBatchSize;
 
+    private final int m_maxBatchBytes;
+
+    private final long m_maxBatchDelayNanos;
+
     private final int m_ringBufferSize;
 
     private final int m_numWriterThreads;
 
+    private final BackpressurePolicy m_backpressurePolicy;
+
+    private final SampleSpool m_spool;
+
+    private final SampleBatcher m_insertBatcher = new SampleBatcher();
+
+    private final SampleBatcher m_indexBatcher = new SampleBatcher();
+
+    private ScheduledExecutorService m_scheduler;
+
     private final Meter m_droppedSamples;
 
+    private final Meter m_spilledSamples;
+
+    private final Histogram m_batchSize;
+
+    private final Timer m_batchLatency;
+
+    private final Timer m_queueLatency;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    /**
+     * Creates a writer that writes the samples of each ring buffer entry as
+     * soon as they are taken off the ring buffer, and drops samples when
+     * the ring buffer is full.
+     */
+    public NewtsWriter(Integer maxBatchSize, Integer ringBufferSize, Integer numWriterThreads, MetricRegistry registry) {
+        this(maxBatchSize, 0, 0L, ringBufferSize, numWriterThreads, BackpressurePolicy.DROP.getName(), null, registry);
+    }
+
     @Inject
-    public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
-            @Named("newts.writer_threads") Integer numWriterThreads, MetricRegistry registry) {
+    public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.max_batch_bytes") Integer maxBatchBytes,
+            @Named("newts.max_batch_delay") Long maxBatchDelay, @Named("newts.ring_buffer_size") Integer ringBufferSize,
+            @Named("newts.writer_threads") Integer numWriterThreads, @Named("newts.backpressure_policy") String backpressurePolicy,
+            @Named("newts.spool_directory") String spoolDirectory, MetricRegistry registry) {
         Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be strictly positive");
+        Preconditions.checkArgument(maxBatchBytes >= 0, "maxBatchBytes must be positive or zero");
+        Preconditions.checkArgument(maxBatchDelay >= 0, "maxBatchDelay must be positive or zero");
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
         Preconditions.checkNotNull(registry, "metric registry");
 
         m_maxBatchSize = maxBatchSize;
+        m_maxBatchBytes = maxBatchBytes == 0 ? Integer.MAX_VALUE : maxBatchBytes;
+        m_maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelay);
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
+        m_backpressurePolicy = BackpressurePolicy.fromName(backpressurePolicy);
         m_numEntriesOnRingBuffer.set(0L);
 
+        if (m_backpressurePolicy == BackpressurePolicy.SPILL) {
+            final File spool = Strings.isNullOrEmpty(spoolDirectory)
+                    ? Paths.get(System.getProperty("opennms.home", ""), "share", "newts-spool").toFile()
+                    : new File(spoolDirectory);
+            try {
+                m_spool = new SampleSpool(spool);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to use spool directory " + spool, e);
+            }
+        } else {
+            m_spool = null;
+        }
+
         registry.register(MetricRegistry.name("ring-buffer", "size"),
                 new Gauge<Long>() {
                     @Override
@@ -133,11 +211,24 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         return Long.valueOf(m_ringBufferSize);
                     }
                 });
+        registry.register(MetricRegistry.name("ring-buffer", "spooled-batches"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_spool == null ? 0 : m_spool.size();
+                    }
+                });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_spilledSamples = registry.meter(MetricRegistry.name("ring-buffer", "spilled-samples"));
+        m_batchSize = registry.histogram(MetricRegistry.name("writer", "batch-size"));
+        m_batchLatency = registry.timer(MetricRegistry.name("writer", "batch-latency"));
+        m_queueLatency = registry.timer(MetricRegistry.name("writer", "queue-latency"));
 
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
+        LOG.debug("Using max_batch_size: {}, max_batch_bytes: {}, max_batch_delay: {}ms, ring_buffer_size: {} and backpressure_policy: {}",
+                maxBatchSize, maxBatchBytes, maxBatchDelay, m_ringBufferSize, m_backpressurePolicy.getName());
         setUpWorkerPool();
+        setUpScheduler();
     }
 
     private void setUpWorkerPool() {
@@ -149,7 +240,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         @SuppressWarnings("unchecked")
         final WorkHandler<SampleBatchEvent> handlers[] = new WorkHandler[m_numWriterThreads];
         for (int i = 0; i < m_numWriterThreads; i++) {
-            handlers[i] = this;
+            handlers[i] = this::onEvent;
         }
 
         m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
@@ -163,11 +254,40 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         m_workerPool.start(executor);
     }
 
+    /**
+     * Writes the batches that have been waiting for longer than the delay,
+     * and moves spooled batches back onto the ring buffer.
+     */
+    private void setUpScheduler() {
+        if (m_maxBatchDelayNanos == 0 && m_spool == null) {
+            return;
+        }
+        final long period = m_maxBatchDelayNanos == 0 ? TimeUnit.MILLISECONDS.toNanos(100) : Math.max(TimeUnit.MILLISECONDS.toNanos(1), m_maxBatchDelayNanos / 2);
+        m_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NewtsWriter-Flusher-%d").setDaemon(true).build());
+        m_scheduler.scheduleWithFixedDelay(() -> {
+            Logging.putPrefix("collectd");
+            try {
+                flushExpiredBatches();
+                restoreSpooledBatches();
+            } catch (Throwable t) {
+                RATE_LIMITED_LOGGER.error("An error occurred while flushing samples.", t);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void destroy() throws Exception {
+        if (m_scheduler != null) {
+            m_scheduler.shutdown();
+            m_scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
+        // Write whatever is left in the partial batches
+        write(m_insertBatcher.takeAll(), false);
+        write(m_indexBatcher.takeAll(), true);
     }
 
     public void insert(List<Sample> samples) {
@@ -181,74 +301,281 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
-            RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
-                    samples.size(), new Object() {
-                        @Override
-                        public String toString() {
-                            // We wrap this in a toString() method to avoid build the string
-                            // unless the log message is actually printed
-                            return samples.stream()
-                                    .map(s -> s.getResource().getId())
-                                    .distinct()
-                                    .collect(Collectors.joining(", "));
-                        }
-                    });
-            m_droppedSamples.mark(samples.size());
-            return;
+            switch (m_backpressurePolicy) {
+            case BLOCK:
+                m_ringBuffer.publishEvent(translator, samples);
+                break;
+            case DROP_OLDEST:
+                if (replaceOldest(samples, translator == INDEX_ONLY_TRANSLATOR)) {
+                    return;
+                }
+                drop(samples);
+                return;
+            case SPILL:
+                if (m_spool.spill(samples, translator == INDEX_ONLY_TRANSLATOR)) {
+                    m_spilledSamples.mark(samples.size());
+                    return;
+                }
+                drop(samples);
+                return;
+            default:
+                drop(samples);
+                return;
+            }
         }
         // Increase our entry counter
         m_numEntriesOnRingBuffer.incrementAndGet();
     }
 
-    @Override
-    public void onEvent(SampleBatchEvent event) throws Exception {
+    private void drop(List<Sample> samples) {
+        RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
+                samples.size(), new Object() {
+                    @Override
+                    public String toString() {
+                        // We wrap this in a toString() method to avoid build the string
+                        // unless the log message is actually printed
+                        return samples.stream()
+                                .map(s -> s.getResource().getId())
+                                .distinct()
+                                .collect(Collectors.joining(", "));
+                    }
+                });
+        m_droppedSamples.mark(samples.size());
+    }
+
+    private void onEvent(SampleBatchEvent event) throws Exception {
         // We'd expect the logs from this thread to be in collectd.log
         Logging.putPrefix("collectd");
 
-        List<Sample> samples = event.getSamples();
+        final List<Sample> samples;
+        final boolean indexOnly;
+        final long enqueuedAt;
+        // The event may be replaced by a producer, see replaceOldest()
+        synchronized (event) {
+            samples = event.getSamples();
+            indexOnly = event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING;
+            enqueuedAt = event.getEnqueuedAt();
+            // Release the reference held by the preallocated event
+            event.setSamples(null);
+        }
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
-            try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
+        final SampleBatcher batcher = indexOnly ? m_indexBatcher : m_insertBatcher;
+        write(batcher.add(samples, enqueuedAt), indexOnly);
+    }
+
+    /**
+     * Used by {@link BackpressurePolicy#DROP_OLDEST} when the ring buffer is full.
+     *
+     * The writer threads only free up a slot once they are done writing, so
+     * instead of waiting for one, the samples of the oldest entry that has
+     * not been picked up yet are dropped and replaced with the given samples.
+     *
+     * @return false if every entry has already been picked up by a writer thread
+     */
+    private boolean replaceOldest(List<Sample> samples, boolean indexOnly) {
+        final long newest = m_ringBuffer.getCursor();
+        for (long sequence = newest - m_ringBufferSize + 1; sequence <= newest; sequence++) {
+            final SampleBatchEvent event = m_ringBuffer.get(sequence);
+            final List<Sample> oldest;
+            synchronized (event) {
+                oldest = event.getSamples();
+                if (oldest == null) {
+                    continue;
                 }
+                setEvent(event, samples, indexOnly);
+            }
+            RATE_LIMITED_LOGGER.error("The ring buffer is full. {} of the oldest queued samples will be dropped.", oldest.size());
+            m_droppedSamples.mark(oldest.size());
+            return true;
+        }
+        return false;
+    }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+    private void flushExpiredBatches() {
+        final long now = System.nanoTime();
+        write(m_insertBatcher.takeIfOlderThan(now - m_maxBatchDelayNanos), false);
+        write(m_indexBatcher.takeIfOlderThan(now - m_maxBatchDelayNanos), true);
+    }
+
+    private void restoreSpooledBatches() {
+        if (m_spool == null) {
+            return;
+        }
+        // Only refill up to half of the ring buffer, leaving room for new samples
+        SampleSpool.SpooledBatch batch;
+        while (m_ringBuffer.remainingCapacity() > m_ringBufferSize / 2 && (batch = m_spool.peek()) != null) {
+            if (!m_ringBuffer.tryPublishEvent(batch.isIndexOnly() ? INDEX_ONLY_TRANSLATOR : TRANSLATOR, batch.getSamples())) {
+                break;
+            }
+            m_numEntriesOnRingBuffer.incrementAndGet();
+            m_spool.remove(batch);
+        }
+    }
+
+    private void write(List<SampleBatch> batches, boolean indexOnly) {
+        for (SampleBatch batch : batches) {
+            write(batch, indexOnly);
+        }
+    }
+
+    private void write(SampleBatch batch, boolean indexOnly) {
+        if (batch == null) {
+            return;
+        }
+        final List<Sample> samples = batch.getSamples();
+        try {
+            final Timer.Context ctx = m_batchLatency.time();
+            if (indexOnly) {
+                LOG.debug("Indexing {} samples", samples.size());
+                m_indexer.update(samples);
+            } else {
+                LOG.debug("Inserting {} samples", samples.size());
+                m_sampleRepository.insert(samples);
+            }
+            ctx.stop();
+            m_batchSize.update(samples.size());
+            m_queueLatency.update(System.nanoTime() - batch.getEnqueuedAt(), TimeUnit.NANOSECONDS);
+
+            if (LOG.isDebugEnabled()) {
+                String uniqueResourceIds = samples.stream()
+                    .map(s -> s.getResource().getId())
+                    .distinct()
+                    .collect(Collectors.joining(", "));
+                LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+            }
+        } catch (Throwable t) {
+            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+        }
+    }
+
+    private static int estimateSize(Sample sample) {
+        int size = SAMPLE_OVERHEAD_BYTES + sample.getResource().getId().length() + sample.getName().length();
+        final Map<String, String> attributes = sample.getAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                size += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Samples to be written together, and the time at which the oldest of
+     * them was queued.
+     */
+    private static class SampleBatch {
+        private final List<Sample> m_samples;
+        private final long m_enqueuedAt;
+
+        private SampleBatch(List<Sample> samples, long enqueuedAt) {
+            m_samples = samples;
+            m_enqueuedAt = enqueuedAt;
+        }
+
+        public List<Sample> getSamples() {
+            return m_samples;
+        }
+
+        public long getEnqueuedAt() {
+            return m_enqueuedAt;
+        }
+    }
+
+    /**
+     * Accumulates the samples taken off the ring buffer by all of the writer
+     * threads, and cuts them into batches that respect the sample and byte
+     * budgets.
+     */
+    private class SampleBatcher {
+        private List<Sample> m_samples;
+        private int m_bytes;
+        private long m_enqueuedAt;
+
+        private SampleBatcher() {
+            reset();
+        }
+
+        /**
+         * Adds the samples to the pending batch.
+         *
+         * @return the batches that are ready to be written
+         */
+        public synchronized List<SampleBatch> add(List<Sample> samples, long enqueuedAt) {
+            List<SampleBatch> ready = Collections.emptyList();
+            for (Sample sample : samples) {
+                final int size = estimateSize(sample);
+                if (!m_samples.isEmpty() && m_bytes + size > m_maxBatchBytes) {
+                    ready = take(ready);
                 }
-            } catch (Throwable t) {
-                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+                if (m_samples.isEmpty()) {
+                    m_enqueuedAt = enqueuedAt;
+                }
+                m_samples.add(sample);
+                m_bytes += size;
+                if (m_samples.size() >= m_maxBatchSize) {
+                    ready = take(ready);
+                }
+            }
+            if (m_maxBatchDelayNanos == 0 && !m_samples.isEmpty()) {
+                ready = take(ready);
             }
+            return ready;
+        }
+
+        public synchronized SampleBatch takeIfOlderThan(long enqueuedBefore) {
+            if (m_samples.isEmpty() || m_enqueuedAt - enqueuedBefore > 0) {
+                return null;
+            }
+            return takeAll();
+        }
+
+        public synchronized SampleBatch takeAll() {
+            if (m_samples.isEmpty()) {
+                return null;
+            }
+            final SampleBatch batch = new SampleBatch(m_samples, m_enqueuedAt);
+            reset();
+            return batch;
+        }
+
+        private List<SampleBatch> take(List<SampleBatch> ready) {
+            final List<SampleBatch> batches = ready.isEmpty() ? new ArrayList<>(1) : ready;
+            batches.add(takeAll());
+            return batches;
+        }
+
+        private void reset() {
+            m_samples = new ArrayList<>(Math.min(m_maxBatchSize, 1024));
+            m_bytes = 0;
         }
     }
 
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
             new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
-                    event.setIndexOnly(false);
-                    event.setSamples(samples);
+                    synchronized (event) {
+                        setEvent(event, samples, false);
+                    }
                 }
             };
 
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> INDEX_ONLY_TRANSLATOR =
             new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
-                    event.setIndexOnly(true);
-                    event.setSamples(samples);
+                    synchronized (event) {
+                        setEvent(event, samples, true);
+                    }
                 }
             };
 
+    private static void setEvent(SampleBatchEvent event, List<Sample> samples, boolean indexOnly) {
+        event.setIndexOnly(indexOnly);
+        event.setSamples(samples);
+        event.setEnqueuedAt(System.nanoTime());
+    }
+
     @VisibleForTesting
     public void setSampleRepository(SampleRepository sampleRepository) {
         m_sampleRepository = sampleRepository;
@@ -42,6 +42,7 @@ import org.opennms.newts.api.Sample;
 public class SampleBatchEvent {
     private List<Sample> m_samples;
     private boolean m_indexOnly;
+    private long m_enqueuedAt;
 
     public void setSamples(List<Sample> samples) {
         m_samples = samples;
@@ -58,4 +59,15 @@ public class SampleBatchEvent {
     public boolean isIndexOnly() {
         return m_indexOnly;
     }
+
+    /**
+     * @param enqueuedAt the value of {@link System#nanoTime()} when the samples were queued
+     */
+    public void setEnqueuedAt(long enqueuedAt) {
+        m_enqueuedAt = enqueuedAt;
+    }
+
+    public long getEnqueuedAt() {
+        return m_enqueuedAt;
+    }
 }
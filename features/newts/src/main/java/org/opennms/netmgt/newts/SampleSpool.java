@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.opennms.newts.api.Sample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory of sample batches that did not fit in the {@link NewtsWriter}'s
+ * ring buffer.
+ *
+ * Each batch is serialized to its own file, named after a sequence number so
+ * that batches are restored in the order in which they were spilled. Files
+ * left behind by a previous run are picked up when the spool is created.
+ */
+class SampleSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSpool.class);
+
+    private static final String PREFIX = "samples-";
+    private static final String SUFFIX = ".spool";
+
+    /**
+     * A batch read back from the spool.
+     */
+    static class SpooledBatch {
+        private final long m_id;
+        private final List<Sample> m_samples;
+        private final boolean m_indexOnly;
+
+        private SpooledBatch(long id, List<Sample> samples, boolean indexOnly) {
+            m_id = id;
+            m_samples = samples;
+            m_indexOnly = indexOnly;
+        }
+
+        public List<Sample> getSamples() {
+            return m_samples;
+        }
+
+        public boolean isIndexOnly() {
+            return m_indexOnly;
+        }
+    }
+
+    private final File m_directory;
+
+    private final TreeMap<Long, File> m_files = new TreeMap<>();
+
+    private long m_nextId = 0;
+
+    public SampleSpool(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+        m_directory = directory;
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    final long id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    m_files.put(id, file);
+                    m_nextId = Math.max(m_nextId, id + 1);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {} in spool directory {}", name, directory);
+                }
+            }
+        }
+        if (!m_files.isEmpty()) {
+            LOG.info("Found {} spooled sample batches in {}", m_files.size(), directory);
+        }
+    }
+
+    /**
+     * Writes the given samples to the spool.
+     *
+     * @return false if the samples could not be written
+     */
+    public synchronized boolean spill(List<Sample> samples, boolean indexOnly) {
+        final long id = m_nextId++;
+        final File tmp = new File(m_directory, PREFIX + id + SUFFIX + ".tmp");
+        final File file = new File(m_directory, PREFIX + id + SUFFIX);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeBoolean(indexOnly);
+            out.writeObject(new ArrayList<Sample>(samples));
+        } catch (IOException e) {
+            LOG.warn("Failed to spool {} samples to {}", samples.size(), file, e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            LOG.warn("Failed to rename {} to {}", tmp, file);
+            tmp.delete();
+            return false;
+        }
+        m_files.put(id, file);
+        return true;
+    }
+
+    /**
+     * Reads the oldest batch without removing it from the spool. Batches
+     * that cannot be read are discarded.
+     *
+     * @return the oldest batch, or null if the spool is empty
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized SpooledBatch peek() {
+        while (!m_files.isEmpty()) {
+            final Long id = m_files.firstKey();
+            final File file = m_files.get(id);
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                final boolean indexOnly = in.readBoolean();
+                final List<Sample> samples = (List<Sample>)in.readObject();
+                return new SpooledBatch(id, samples, indexOnly);
+            } catch (IOException|ClassNotFoundException|ClassCastException e) {
+                LOG.warn("Discarding unreadable spool file {}", file, e);
+                delete(id);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a batch returned by {@link #peek()} once it has been queued.
+     */
+    public synchronized void remove(SpooledBatch batch) {
+        delete(batch.m_id);
+    }
+
+    public synchronized int size() {
+        return m_files.size();
+    }
+
+    private void delete(Long id) {
+        final File file = m_files.remove(id);
+        if (file != null && !file.delete()) {
+            LOG.warn("Failed to delete spool file {}", file);
+        }
+    }
+}
@@ -29,13 +29,19 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Counter;
@@ -119,6 +125,234 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that single sample entries from many producers are merged into
+     * batches of max_batch_size samples, and that the remainder is written
+     * on shutdown.
+     */
+    @Test
+    public void mergesSmallBatchesUpToMaxBatchSize() throws Exception {
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(10, 0, 60000L, 1024, 4, "drop", null, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        Resource x = new Resource("x");
+        for (int i = 0; i < 25; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        sampleRepo.awaitSamples(20);
+        assertEquals(Lists.newArrayList(10, 10), sampleRepo.getBatchSizes());
+
+        writer.destroy();
+        assertEquals(Lists.newArrayList(10, 10, 5), sampleRepo.getBatchSizes());
+        assertEquals(3, registry.histogram("writer.batch-size").getCount());
+        assertEquals(3, registry.timer("writer.batch-latency").getCount());
+        assertEquals(3, registry.timer("writer.queue-latency").getCount());
+    }
+
+    /**
+     * Verifies that batches are cut before they exceed max_batch_bytes.
+     */
+    @Test
+    public void limitsBatchesToMaxBatchBytes() throws Exception {
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        NewtsWriter writer = new NewtsWriter(100, 200, 60000L, 1024, 1, "drop", null, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+
+        // Each sample is estimated at a little over 64 bytes
+        Resource x = new Resource("x");
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 7; i++) {
+            samples.add(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)));
+        }
+        writer.insert(samples);
+
+        sampleRepo.awaitSamples(6);
+        writer.destroy();
+        assertEquals(Lists.newArrayList(3, 3, 1), sampleRepo.getBatchSizes());
+    }
+
+    /**
+     * Verifies that a partial batch is written once its delay has expired.
+     */
+    @Test
+    public void writesPartialBatchAfterMaxBatchDelay() throws Exception {
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        NewtsWriter writer = new NewtsWriter(100, 0, 50L, 1024, 2, "drop", null, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+
+        Resource x = new Resource("x");
+        for (int i = 0; i < 3; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        sampleRepo.awaitSamples(3);
+        assertEquals(Lists.newArrayList(3), sampleRepo.getBatchSizes());
+        writer.destroy();
+    }
+
+    /**
+     * Verifies that no samples are lost with the block policy.
+     */
+    @Test
+    public void producersBlockWhenRingBufferIsFull() throws Exception {
+        Resource x = new Resource("x");
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, 0, 0L, 4, 1, "block", null, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        lock.lock();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+                writer.insert(Lists.newArrayList(s));
+            }
+        });
+        producer.start();
+
+        // The ring buffer is full, including the entry held by the writer thread
+        Thread.sleep(250);
+        assertTrue(producer.isAlive());
+
+        lock.unlock();
+        producer.join(10000);
+        writer.destroy();
+
+        assertEquals(20, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    /**
+     * Verifies that the oldest queued entry makes room for new samples with
+     * the drop-oldest policy.
+     */
+    @Test(timeout=30000)
+    public void oldestSamplesAreDroppedWhenRingBufferIsFull() throws Exception {
+        Resource x = new Resource("x");
+        Lock lock = new ReentrantLock();
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, 0, 0L, 4, 1, "drop-oldest", null, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        lock.lock();
+        // The first sample is taken by the writer thread, which keeps holding its
+        // slot until the sample is written, and the next three fill the ring buffer
+        for (int i = 0; i < 4; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+        Thread.sleep(250);
+
+        // The ring buffer is full, this replaces the oldest entry that is still queued
+        // without waiting for the writer thread
+        Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(4));
+        writer.insert(Lists.newArrayList(s));
+        assertEquals(1, registry.meter("ring-buffer.dropped-samples").getCount());
+
+        lock.unlock();
+        sampleRepo.awaitSamples(4);
+        writer.destroy();
+
+        // The new sample took the place of the oldest queued one
+        assertEquals(Lists.newArrayList(0L, 4L, 2L, 3L), sampleRepo.getCounterValues());
+        assertEquals(1, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    /**
+     * Verifies that samples are spooled to disk when the ring buffer is full,
+     * and queued again once it has drained.
+     */
+    @Test
+    public void samplesAreSpilledWhenRingBufferIsFull() throws Exception {
+        File spool = Files.createTempDirectory("newts-spool").toFile();
+        try {
+            Resource x = new Resource("x");
+            Lock lock = new ReentrantLock();
+            RecordingSampleRepository sampleRepo = new RecordingSampleRepository(lock);
+            MetricRegistry registry = new MetricRegistry();
+            NewtsWriter writer = new NewtsWriter(1, 0, 0L, 4, 1, "spill", spool.getAbsolutePath(), registry);
+            writer.setSampleRepository(sampleRepo);
+
+            lock.lock();
+            for (int i = 0; i < 4; i++) {
+                Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+                writer.insert(Lists.newArrayList(s));
+            }
+            Thread.sleep(250);
+            for (int i = 4; i < 10; i++) {
+                Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+                writer.insert(Lists.newArrayList(s));
+            }
+            assertEquals(6, registry.meter("ring-buffer.spilled-samples").getCount());
+            assertEquals(6, spool.list().length);
+
+            lock.unlock();
+            sampleRepo.awaitSamples(10);
+            writer.destroy();
+
+            assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+            assertEquals(0, spool.list().length);
+            List<Long> values = sampleRepo.getCounterValues();
+            Collections.sort(values);
+            assertEquals(Lists.newArrayList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), values);
+        } finally {
+            FileUtils.deleteQuietly(spool);
+        }
+    }
+
+    private static class RecordingSampleRepository extends MockSampleRepository {
+        private final Lock lock;
+        private final List<Integer> batchSizes = Lists.newArrayList();
+        private final List<Long> counterValues = Lists.newArrayList();
+
+        public RecordingSampleRepository() {
+            this(new ReentrantLock());
+        }
+
+        public RecordingSampleRepository(Lock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            lock.lock();
+            try {
+                synchronized (this) {
+                    batchSizes.add(samples.size());
+                    for (Sample sample : samples) {
+                        counterValues.add(sample.getValue().longValue());
+                    }
+                    notifyAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public synchronized void awaitSamples(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (counterValues.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue("Expected at least " + count + " samples, got " + counterValues.size(), counterValues.size() >= count);
+        }
+
+        public synchronized List<Integer> getBatchSizes() {
+            return Lists.newArrayList(batchSizes);
+        }
+
+        public synchronized List<Long> getCounterValues() {
+            return Lists.newArrayList(counterValues);
+        }
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -63,6 +63,18 @@ public abstract class AvailabilityConstants {
                                                                                                                                                                                                         // > ?)
                                                                                                                                                                                                         // )";
 
+    /**
+     * The SQL statement for getting every outage of an active, managed
+     * service that overlaps a period. Parameters are the end and the start
+     * of the period.
+     */
+    public static final String DB_GET_OUTAGE_ENTRIES_IN_PERIOD = "SELECT node.nodeid, node.nodelabel, ipInterface.ipaddr, service.servicename, outages.ifLostService, outages.ifRegainedService FROM outages, ifServices, ipInterface, node, service WHERE outages.ifServiceId = ifServices.id AND ifServices.ipInterfaceId = ipInterface.id AND ipInterface.nodeId = node.nodeId AND ifServices.serviceid = service.serviceid AND node.nodeType = 'A' AND ipInterface.isManaged = 'M' AND ifServices.status = 'A' AND outages.ifLostService < ? AND (outages.ifRegainedService IS NULL OR outages.ifRegainedService > ?) ORDER BY node.nodeid, ipInterface.ipaddr, service.servicename, outages.ifLostService";
+
+    /**
+     * The SQL statement for getting every active, managed service.
+     */
+    public static final String DB_GET_ALL_SVC_ENTRIES = "SELECT node.nodeid, ipInterface.ipaddr, service.servicename FROM ifServices, ipInterface, node, service WHERE ifServices.ipInterfaceId = ipInterface.id AND ipInterface.nodeId = node.nodeId AND ifServices.serviceid = service.serviceid AND node.nodeType = 'A' AND ipInterface.isManaged = 'M' AND ifServices.status = 'A' ORDER BY node.nodeid, ipInterface.ipaddr, service.servicename";
+
     /**
      * The list of Availability Report Constants that are needed to display
      * appropriate messages on the report.
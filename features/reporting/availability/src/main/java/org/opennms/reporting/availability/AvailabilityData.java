@@ -176,6 +176,9 @@ public class AvailabilityData {
                 LOG.debug("Inside AvailabilityData");
                 
                 m_nodes = new ArrayList<Node>();
+                if (m_availabilityDataService != null) {
+                    m_availabilityDataService.clearCache();
+                }
                 
                 initializeInterval(periodEndDate);
                 
@@ -48,4 +48,10 @@ public interface AvailabilityDataService {
      */
     public List<Node> getNodes(org.opennms.netmgt.config.categories.Category category, long startTime, long endTime) throws AvailabilityDataServiceException;
 
+    /**
+     * Drops the outage data kept between calls to {@link #getNodes} so that
+     * the next report reads it from the database again.
+     */
+    public void clearCache();
+
 }
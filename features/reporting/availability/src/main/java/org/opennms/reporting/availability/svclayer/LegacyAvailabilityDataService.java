@@ -32,14 +32,12 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.db.DataSourceFactory;
@@ -48,10 +46,7 @@ import org.opennms.core.utils.DBUtils;
 import org.opennms.netmgt.config.CategoryFactory;
 import org.opennms.netmgt.config.api.CatFactory;
 import org.opennms.netmgt.filter.FilterDaoFactory;
-import org.opennms.reporting.availability.AvailabilityConstants;
 import org.opennms.reporting.datablock.Node;
-import org.opennms.reporting.datablock.Outage;
-import org.opennms.reporting.datablock.OutageSvcTimesList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +62,8 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
 
     private List<Node> m_nodes;
 
+    private OutageProjection m_projection;
+
     private static final String LOG4J_CATEGORY = "reports";
 
     /**
@@ -84,10 +81,6 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                     final DBUtils db = new DBUtils();
                     m_nodes = new ArrayList<Node>();
 
-                    PreparedStatement ipInfoGetStmt = null;
-                    PreparedStatement servicesGetStmt = null;
-                    PreparedStatement outagesGetStmt = null;
-
                     String categoryName = category.getLabel();
                     try {
                         CategoryFactory.init();
@@ -109,73 +102,19 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                         final List<String> monitoredServices = new ArrayList<String>(category.getServiceCollection());
                         LOG.debug("categories in monitoredServices = {}", monitoredServices);
 
-                        initialiseConnection();
-                        db.watch(m_availConn);
-                        // Prepare the statement to get service entries for each IP
-
-                        // Prepared statement to get node info for an IP
-                        ipInfoGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_INFO_FOR_IP);
-                        db.watch(ipInfoGetStmt);
-
-                        // Prepared statedment to get services info for an IP address
-                        servicesGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_SVC_ENTRIES);
-                        db.watch(servicesGetStmt);
-
-                        // Prepared statement to get outages entries
-                        outagesGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_OUTAGE_ENTRIES);
-                        db.watch(outagesGetStmt);
-
-                        /*
-                         * For each of these IP addresses, get the details from the
-                         * ifServices and services tables.
-                         */
-                        Iterator<InetAddress> ipIter = nodeIPs.iterator();
-                        String ip = null;
-                        ResultSet ipRS = null;
-
-                        // Prepared statement to get node info for an IP
-                        ipInfoGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_INFO_FOR_IP);
-                        db.watch(ipInfoGetStmt);
-
-                        while (ipIter.hasNext()) {
-                            ip = str(ipIter.next());
-                            LOG.debug("executing {} for {}", ip, AvailabilityConstants.DB_GET_INFO_FOR_IP);
-
-                            // get node info for this ip
-                            ipInfoGetStmt.setString(1, ip);
-
-                            ipRS = ipInfoGetStmt.executeQuery();
-                            db.watch(ipRS);
-
-                            // now handle all the results from this
-                            while (ipRS.next()) {
-                                int nodeid = ipRS.getInt(1);
-                                final String nodeName = ipRS.getString(2);
-
-                                // get the services for this IP address
-                                ResultSet svcRS = null;
-                                servicesGetStmt.setString(1, ip);
-                                servicesGetStmt.setLong(2, nodeid);
-                                svcRS = servicesGetStmt.executeQuery();
-                                db.watch(svcRS);
-
-                                // create node objects for this nodeID/IP/service
-                                while (svcRS.next()) {
-                                    // read data from the resultSet
-                                    final int svcid = svcRS.getInt(1);
-                                    final String svcname = svcRS.getString(2);
+                        final Set<String> ipaddrs = new HashSet<String>(nodeIPs.size());
+                        for (final InetAddress nodeIP : nodeIPs) {
+                            ipaddrs.add(str(nodeIP));
+                        }
 
-                                    /*
-                                     * If the list is empty, we assume all services are
-                                     * monitored. If it has any, we use it as a filter
-                                     */
-                                    if (monitoredServices.isEmpty() || monitoredServices.contains(svcname)) {
-                                        final OutageSvcTimesList outageSvcTimesList = new OutageSvcTimesList();
-                                        getOutagesNodeIpSvc(nodeid, nodeName, ip, svcid, svcname, outageSvcTimesList, outagesGetStmt, startTime, endTime);
-                                    }
-                                }
-                            }
+                        // the outages of the period are loaded once and shared by all categories of the report
+                        if (m_projection == null || m_projection.getStartTime() != startTime || m_projection.getEndTime() != endTime) {
+                            initialiseConnection();
+                            db.watch(m_availConn);
+                            m_projection = OutageProjection.load(m_availConn, startTime, endTime);
                         }
+                        m_nodes = m_projection.getNodes(ipaddrs, monitoredServices);
+                        LOG.debug("Number of nodes with outages in category {}: {}", categoryName, m_nodes.size());
                     } catch (final Exception e) {
                         LOG.debug("Failed to get nodes for category {}", category, e);
                         throw new AvailabilityDataServiceException("Failed to get nodes for category " + category, e);
@@ -195,79 +134,10 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
 
     }
 
-    /**
-     * Get all outages for this nodeid/ipaddr/service combination and add it
-     * to m_nodes.
-     */
-    private void getOutagesNodeIpSvc(int nodeid, String nodeName, String ipaddr, int serviceid, String serviceName, OutageSvcTimesList outageSvcTimesList, PreparedStatement outagesGetStmt, long startTime,long endTime) throws SQLException {
-        // Get outages for this node/ip/svc pair
-        try {
-            outagesGetStmt.setInt(1, nodeid);
-            outagesGetStmt.setString(2, ipaddr);
-            outagesGetStmt.setInt(3, serviceid);
-
-            ResultSet rs = outagesGetStmt.executeQuery();
-
-
-            if (m_nodes != null && m_nodes.size() > 0) {
-                ListIterator<Node> lstIter = m_nodes.listIterator();
-                boolean foundFlag = false;
-                Node oldNode = null;
-                while (lstIter.hasNext()) {
-                    oldNode = (Node) lstIter.next();
-                    if (oldNode != null && oldNode.getNodeID() == nodeid) {
-                        foundFlag = true;
-                        break;
-                    }
-                }
-                if (!foundFlag) {
-                    Node newNode = new Node(nodeName, nodeid);
-                    newNode.addInterface(ipaddr, serviceName);
-                    m_nodes.add(newNode);
-                } else {
-                    oldNode.addInterface(ipaddr, serviceName);
-                }
-            } else {
-                Node newNode = new Node(nodeName, nodeid);
-                newNode.addInterface(ipaddr, serviceName);
-                if (m_nodes == null) {
-                    LOG.debug("NODES IS NULL");
-                }
-                m_nodes.add(newNode);
-            }
-
-            while (rs.next()) {
-                Timestamp lost = rs.getTimestamp(1);
-                Timestamp regained = rs.getTimestamp(2);
-                long losttime = lost.getTime();
-                long regainedtime = 0;
-
-                if (regained != null) {
-                    regainedtime = regained.getTime();
-                }
-
-                if (regainedtime > 0) {
-                    if (regainedtime <= startTime
-                            || losttime >= endTime) {
-                        continue;
-                    }
-                } else {
-                    if (losttime >= endTime) {
-                        continue;
-                    }
-                }
-                Outage outage = new Outage(losttime, regainedtime);
-                outageSvcTimesList.add(outage);
-                addNode(nodeName, nodeid, ipaddr, serviceName, losttime, regainedtime);
-            }
-            if (rs != null) {
-                rs.close();
-            }
-
-        } catch (SQLException e) {
-            LOG.error("SQL Error occured while getting the outages ", e);
-            throw e;
-        }
+    /** {@inheritDoc} */
+    @Override
+    public void clearCache() {
+        m_projection = null;
     }
 
     /**
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.reporting.availability.svclayer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.core.utils.DBUtils;
+import org.opennms.reporting.availability.AvailabilityConstants;
+import org.opennms.reporting.datablock.Node;
+
+/**
+ * The outages of a report period together with the managed services of the
+ * nodes they affect.
+ *
+ * Nodes without any outage in the period are dropped from the report, so
+ * only those with outages are kept. The projection is loaded with one query
+ * for the outages and one for the services, and is then sliced in memory for
+ * each category of the report instead of querying the database for every
+ * interface and service of every category.
+ */
+public class OutageProjection {
+
+    private static class ServiceEntry {
+        final String m_ipaddr;
+        final String m_serviceName;
+
+        ServiceEntry(String ipaddr, String serviceName) {
+            m_ipaddr = ipaddr;
+            m_serviceName = serviceName;
+        }
+    }
+
+    private static class OutageEntry extends ServiceEntry {
+        final long m_lostTime;
+        final long m_regainedTime;
+
+        OutageEntry(String ipaddr, String serviceName, long lostTime, long regainedTime) {
+            super(ipaddr, serviceName);
+            m_lostTime = lostTime;
+            m_regainedTime = regainedTime;
+        }
+    }
+
+    private static class NodeEntry {
+        final String m_nodeLabel;
+        final List<ServiceEntry> m_services = new ArrayList<ServiceEntry>();
+        final List<OutageEntry> m_outages = new ArrayList<OutageEntry>();
+
+        NodeEntry(String nodeLabel) {
+            m_nodeLabel = nodeLabel;
+        }
+    }
+
+    private final long m_startTime;
+    private final long m_endTime;
+    private final Map<Integer, NodeEntry> m_nodes = new LinkedHashMap<Integer, NodeEntry>();
+
+    public OutageProjection(long startTime, long endTime) {
+        m_startTime = startTime;
+        m_endTime = endTime;
+    }
+
+    /**
+     * Loads the outages overlapping the period and the services of the nodes
+     * they affect.
+     */
+    public static OutageProjection load(Connection conn, long startTime, long endTime) throws SQLException {
+        final OutageProjection projection = new OutageProjection(startTime, endTime);
+        final DBUtils db = new DBUtils(OutageProjection.class);
+        try {
+            final PreparedStatement outagesStmt = conn.prepareStatement(AvailabilityConstants.DB_GET_OUTAGE_ENTRIES_IN_PERIOD);
+            db.watch(outagesStmt);
+            outagesStmt.setTimestamp(1, new Timestamp(endTime));
+            outagesStmt.setTimestamp(2, new Timestamp(startTime));
+            final ResultSet outagesRS = outagesStmt.executeQuery();
+            db.watch(outagesRS);
+            while (outagesRS.next()) {
+                final Timestamp regained = outagesRS.getTimestamp(6);
+                projection.addOutage(outagesRS.getInt(1), outagesRS.getString(2), outagesRS.getString(3), outagesRS.getString(4),
+                                     outagesRS.getTimestamp(5).getTime(), regained == null ? 0 : regained.getTime());
+            }
+
+            if (projection.m_nodes.isEmpty()) {
+                return projection;
+            }
+
+            final PreparedStatement servicesStmt = conn.prepareStatement(AvailabilityConstants.DB_GET_ALL_SVC_ENTRIES);
+            db.watch(servicesStmt);
+            final ResultSet servicesRS = servicesStmt.executeQuery();
+            db.watch(servicesRS);
+            while (servicesRS.next()) {
+                projection.addService(servicesRS.getInt(1), servicesRS.getString(2), servicesRS.getString(3));
+            }
+        } finally {
+            db.cleanUp();
+        }
+        return projection;
+    }
+
+    public long getStartTime() {
+        return m_startTime;
+    }
+
+    public long getEndTime() {
+        return m_endTime;
+    }
+
+    /**
+     * Adds an outage, ignoring it if it does not overlap the period.
+     *
+     * @param regainedTime the time the service was regained, or 0 if the
+     *            outage is still open
+     */
+    public void addOutage(int nodeid, String nodeLabel, String ipaddr, String serviceName, long lostTime, long regainedTime) {
+        if (lostTime >= m_endTime || (regainedTime > 0 && regainedTime <= m_startTime)) {
+            return;
+        }
+        NodeEntry node = m_nodes.get(nodeid);
+        if (node == null) {
+            node = new NodeEntry(nodeLabel);
+            m_nodes.put(nodeid, node);
+        }
+        node.m_outages.add(new OutageEntry(ipaddr, serviceName, lostTime, regainedTime));
+    }
+
+    /**
+     * Adds a managed service. Services of nodes without outages are ignored.
+     */
+    public void addService(int nodeid, String ipaddr, String serviceName) {
+        final NodeEntry node = m_nodes.get(nodeid);
+        if (node != null) {
+            node.m_services.add(new ServiceEntry(ipaddr, serviceName));
+        }
+    }
+
+    /**
+     * Builds the nodes of a category: the services on the given interfaces,
+     * restricted to the given service names if there are any, of the nodes
+     * that have an outage on one of these services.
+     */
+    public List<Node> getNodes(Collection<String> ipaddrs, Collection<String> serviceNames) {
+        final List<Node> nodes = new ArrayList<Node>();
+        for (final Map.Entry<Integer, NodeEntry> entry : m_nodes.entrySet()) {
+            final NodeEntry nodeEntry = entry.getValue();
+            Node node = null;
+            for (final OutageEntry outage : nodeEntry.m_outages) {
+                if (!matches(outage, ipaddrs, serviceNames)) {
+                    continue;
+                }
+                if (node == null) {
+                    node = new Node(nodeEntry.m_nodeLabel, entry.getKey());
+                    for (final ServiceEntry service : nodeEntry.m_services) {
+                        if (matches(service, ipaddrs, serviceNames)) {
+                            node.addInterface(service.m_ipaddr, service.m_serviceName);
+                        }
+                    }
+                }
+                if (outage.m_regainedTime > 0) {
+                    node.addInterface(outage.m_ipaddr, outage.m_serviceName, outage.m_lostTime, outage.m_regainedTime);
+                } else {
+                    node.addInterface(outage.m_ipaddr, outage.m_serviceName, outage.m_lostTime);
+                }
+            }
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static boolean matches(ServiceEntry service, Collection<String> ipaddrs, Collection<String> serviceNames) {
+        return ipaddrs.contains(service.m_ipaddr)
+                && (serviceNames.isEmpty() || serviceNames.contains(service.m_serviceName));
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.reporting.availability.svclayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.reporting.datablock.Node;
+
+public class OutageProjectionTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long START = 1000L * HOUR;
+    private static final long END = START + 24L * HOUR;
+
+    private OutageProjection m_projection;
+
+    @Before
+    public void setUp() {
+        m_projection = new OutageProjection(START, END);
+
+        // node 1: an ICMP outage inside the period and an open HTTP outage
+        m_projection.addOutage(1, "node1", "192.168.1.1", "ICMP", START + HOUR, START + 2 * HOUR);
+        m_projection.addOutage(1, "node1", "192.168.1.1", "HTTP", START + 3 * HOUR, 0);
+        // node 2: only outages outside of the period
+        m_projection.addOutage(2, "node2", "192.168.1.2", "ICMP", START - 3 * HOUR, START - 2 * HOUR);
+        m_projection.addOutage(2, "node2", "192.168.1.2", "ICMP", END, 0);
+        // node 3: an outage that started before the period
+        m_projection.addOutage(3, "node3", "192.168.1.3", "SNMP", START - HOUR, START + HOUR);
+
+        m_projection.addService(1, "192.168.1.1", "ICMP");
+        m_projection.addService(1, "192.168.1.1", "HTTP");
+        m_projection.addService(1, "192.168.1.11", "ICMP");
+        m_projection.addService(2, "192.168.1.2", "ICMP");
+        m_projection.addService(3, "192.168.1.3", "ICMP");
+        m_projection.addService(3, "192.168.1.3", "SNMP");
+        m_projection.addService(4, "192.168.1.4", "ICMP");
+    }
+
+    @Test
+    public void testAllServices() {
+        final List<Node> nodes = m_projection.getNodes(Arrays.asList("192.168.1.1", "192.168.1.11", "192.168.1.2", "192.168.1.3", "192.168.1.4"),
+                                                       Collections.<String>emptyList());
+        assertEquals(2, nodes.size());
+
+        final Node node1 = nodes.get(0);
+        assertEquals(1, node1.getNodeID());
+        assertTrue(node1.hasOutages());
+        assertEquals(2, node1.getInterfaceCount());
+        assertEquals(3, node1.getServiceCount());
+
+        final Node node3 = nodes.get(1);
+        assertEquals(3, node3.getNodeID());
+        assertEquals(2, node3.getServiceCount());
+        assertEquals(HOUR, node3.getOutage(END, 24L * HOUR));
+    }
+
+    @Test
+    public void testCategoryServicesAndInterfaces() {
+        // node 1 only has an outage on HTTP
+        List<Node> nodes = m_projection.getNodes(Arrays.asList("192.168.1.1", "192.168.1.11", "192.168.1.3"), Arrays.asList("ICMP"));
+        assertEquals(1, nodes.size());
+        assertEquals(1, nodes.get(0).getNodeID());
+        assertEquals(2, nodes.get(0).getServiceCount());
+        assertEquals(HOUR, nodes.get(0).getOutage(END, 24L * HOUR));
+
+        // the interface with the outages is not in the category
+        nodes = m_projection.getNodes(Arrays.asList("192.168.1.11"), Collections.<String>emptyList());
+        assertEquals(0, nodes.size());
+    }
+}
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.List;
+
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.xml.event.Event;
 import org.springframework.transaction.annotation.Transactional;
@@ -49,4 +51,21 @@ public interface AlarmPersister {
     @Transactional
     public abstract OnmsAlarm persist(Event event);
 
+    /**
+     * Writes the reductions that {@link #persist(Event)} has held back since
+     * the last flush.
+     *
+     * @return the alarms that were updated
+     */
+    @Transactional
+    public abstract List<OnmsAlarm> flush();
+
+    /**
+     * <p>getReductionFlushInterval</p>
+     *
+     * @return the number of milliseconds between calls to {@link #flush()},
+     *         or 0 if reductions are written as events arrive
+     */
+    public abstract long getReductionFlushInterval();
+
 }
@@ -28,6 +28,14 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -40,11 +48,23 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * <p>When a reduction flush interval is set, events that reduce into an alarm
+ * that is already known are not written one by one.  They are collected per
+ * reduction key and written by {@link #flush()}: one alarm update with the
+ * combined counter and the values of the last event, one bulk update pointing
+ * the events at the alarm, and one alarm-updated event.  Events with update
+ * fields, and events for reduction keys that are not in the index yet, are
+ * still handled synchronously.  If the transaction of a flush does not
+ * commit, its reductions are held back again for the next flush.  The
+ * reduction key index is loaded from the alarms table on first use.</p>
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
@@ -54,6 +74,55 @@ public class AlarmPersisterImpl implements AlarmPersister {
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
     private EventForwarder m_eventForwarder;
+    private long m_reductionFlushInterval = 0;
+
+    private volatile Map<String, Integer> m_alarmIdsByReductionKey = null;
+    private final Object m_pendingLock = new Object();
+    private Map<String, PendingReduction> m_pendingReductions = new LinkedHashMap<String, PendingReduction>();
+
+    /**
+     * The events for one reduction key that have not been written yet.
+     */
+    private static class PendingReduction {
+        private final Integer m_alarmId;
+        private final List<Integer> m_eventIds = new ArrayList<Integer>();
+        private Event m_lastEvent;
+
+        public PendingReduction(Integer alarmId) {
+            m_alarmId = alarmId;
+        }
+
+        public void add(Event event) {
+            if (m_lastEvent != null) {
+                m_eventIds.add(m_lastEvent.getDbid());
+            }
+            m_lastEvent = event;
+        }
+
+        public Integer getAlarmId() {
+            return m_alarmId;
+        }
+
+        /** The events before the last one. */
+        public List<Integer> getPreviousEventIds() {
+            return m_eventIds;
+        }
+
+        public Event getLastEvent() {
+            return m_lastEvent;
+        }
+
+        public int getEventCount() {
+            return m_eventIds.size() + 1;
+        }
+
+        /** Puts the events of an older reduction for the same key in front of ours. */
+        public void addOlder(PendingReduction older) {
+            final List<Integer> eventIds = new ArrayList<Integer>(older.getPreviousEventIds());
+            eventIds.add(older.getLastEvent().getDbid());
+            m_eventIds.addAll(0, eventIds);
+        }
+    }
 
     /** {@inheritDoc} 
      * @return */
@@ -64,9 +133,163 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
         LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
 
+        if (m_reductionFlushInterval > 0 && deferReduction(event)) {
+            return null;
+        }
         return addOrReduceEventAsAlarm(event);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<OnmsAlarm> flush() {
+        final Map<String, PendingReduction> pendingReductions;
+        synchronized (m_pendingLock) {
+            if (m_pendingReductions.isEmpty()) {
+                return Collections.emptyList();
+            }
+            pendingReductions = m_pendingReductions;
+            m_pendingReductions = new LinkedHashMap<String, PendingReduction>();
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // nothing has been written if the transaction rolls back, so hold the reductions back again
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        LOG.warn("flush: the transaction did not commit; keeping the reductions for {} alarms until the next flush", pendingReductions.size());
+                        restore(pendingReductions);
+                    }
+                }
+            });
+        }
+
+        LOG.debug("flush: writing reductions for {} alarms", pendingReductions.size());
+        final List<OnmsAlarm> alarms = new ArrayList<OnmsAlarm>(pendingReductions.size());
+        for (final Entry<String, PendingReduction> entry : pendingReductions.entrySet()) {
+            final OnmsAlarm alarm = writeReduction(entry.getKey(), entry.getValue());
+            if (alarm != null) {
+                alarms.add(alarm);
+            }
+        }
+        return alarms;
+    }
+
+    /**
+     * Merges reductions that failed to be written with the ones held back
+     * since, keeping the older events first.
+     */
+    private void restore(Map<String, PendingReduction> pendingReductions) {
+        synchronized (m_pendingLock) {
+            final Map<String, PendingReduction> merged = new LinkedHashMap<String, PendingReduction>(pendingReductions);
+            for (final Entry<String, PendingReduction> entry : m_pendingReductions.entrySet()) {
+                final PendingReduction older = merged.get(entry.getKey());
+                if (older != null) {
+                    entry.getValue().addOlder(older);
+                }
+                merged.put(entry.getKey(), entry.getValue());
+            }
+            m_pendingReductions = merged;
+        }
+    }
+
+    /**
+     * @return the number of events held back until the next flush
+     */
+    int getPendingEventCount() {
+        synchronized (m_pendingLock) {
+            int count = 0;
+            for (final PendingReduction pending : m_pendingReductions.values()) {
+                count += pending.getEventCount();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Holds the event back until the next flush if it reduces into an alarm
+     * we already know about and needs nothing but the default reduction.
+     */
+    private boolean deferReduction(Event event) {
+        if (event.getDbid() <= 0 || event.getAlarmData().hasUpdateFields()) {
+            return false;
+        }
+
+        final String reductionKey = event.getAlarmData().getReductionKey();
+        synchronized (m_pendingLock) {
+            PendingReduction pending = m_pendingReductions.get(reductionKey);
+            if (pending == null) {
+                final Integer alarmId = getAlarmIdsByReductionKey().get(reductionKey);
+                if (alarmId == null) {
+                    // let the synchronous path find or create the alarm
+                    return false;
+                }
+                pending = new PendingReduction(alarmId);
+                m_pendingReductions.put(reductionKey, pending);
+            }
+            pending.add(event);
+        }
+        LOG.debug("deferReduction: holding back event {} for reduction key: {}", event.getDbid(), reductionKey);
+        return true;
+    }
+
+    private OnmsAlarm writeReduction(String reductionKey, PendingReduction pending) {
+        final Event event = pending.getLastEvent();
+        OnmsAlarm alarm = m_alarmDao.get(pending.getAlarmId());
+
+        if (alarm == null || !reductionKey.equals(alarm.getReductionKey())) {
+            // the alarm went away since it was indexed, so run the last event
+            // through the regular path to find or create the alarm again
+            LOG.debug("writeReduction: alarm {} for reduction key: {} no longer exists", pending.getAlarmId(), reductionKey);
+            getAlarmIdsByReductionKey().remove(reductionKey);
+            alarm = addOrReduceEventAsAlarm(event);
+            if (pending.getEventCount() > 1) {
+                alarm.setCounter(alarm.getCounter() + pending.getEventCount() - 1);
+                m_alarmDao.update(alarm);
+                m_eventDao.setAlarmForEvents(alarm, pending.getPreviousEventIds());
+                if (event.getAlarmData().isAutoClean()) {
+                    m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), alarm.getLastEvent());
+                }
+            }
+            return alarm;
+        }
+
+        final OnmsEvent e = m_eventDao.get(event.getDbid());
+        if (e == null) {
+            LOG.warn("writeReduction: event {} was deleted before it could be reduced into alarm {}; dropping {} reductions", event.getDbid(), alarm.getId(), pending.getEventCount());
+            return null;
+        }
+
+        LOG.debug("writeReduction: reducing {} events into alarm {} for reduction key: {}", pending.getEventCount(), alarm.getId(), reductionKey);
+        alarm.setCounter(alarm.getCounter() + pending.getEventCount() - 1);
+        reduceEvent(e, alarm, event);
+        m_alarmDao.update(alarm);
+        m_eventDao.update(e);
+        if (!pending.getPreviousEventIds().isEmpty()) {
+            m_eventDao.setAlarmForEvents(alarm, pending.getPreviousEventIds());
+        }
+
+        if (event.getAlarmData().isAutoClean()) {
+            m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
+        }
+
+        if (alarm.getNodeId() != null) {
+            alarm.getNode().getForeignSource(); // This should trigger the lazy loading of the node object, to properly populate the NorthboundAlarm class.
+        }
+
+        sendAlarmEvent(EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI, alarm);
+        return alarm;
+    }
+
+    private Map<String, Integer> getAlarmIdsByReductionKey() {
+        if (m_alarmIdsByReductionKey == null) {
+            final Map<String, Integer> alarmIds = new ConcurrentHashMap<String, Integer>(m_alarmDao.getAlarmIdsByReductionKey());
+            LOG.info("Loaded {} reduction keys from the alarms table", alarmIds.size());
+            m_alarmIdsByReductionKey = alarmIds;
+        }
+        return m_alarmIdsByReductionKey;
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) {
         //TODO: Understand why we use Assert
         Assert.notNull(event, "Incoming event was null, aborting"); 
@@ -78,6 +301,16 @@ public class AlarmPersisterImpl implements AlarmPersister {
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
     
         String reductionKey = event.getAlarmData().getReductionKey();
+
+        // anything held back for this key has to be written first
+        final PendingReduction pending;
+        synchronized (m_pendingLock) {
+            pending = m_pendingReductions.remove(reductionKey);
+        }
+        if (pending != null) {
+            writeReduction(reductionKey, pending);
+        }
+
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
 
@@ -114,9 +347,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_eventForwarder.sendNow(ebldr.getEvent());
         }
 
+        if (m_reductionFlushInterval > 0) {
+            getAlarmIdsByReductionKey().put(reductionKey, alarm.getId());
+        }
+
         return alarm;
     }
 
+    private void sendAlarmEvent(String uei, OnmsAlarm alarm) {
+        final EventBuilder ebldr = new EventBuilder(uei, Alarmd.NAME);
+        ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
+        ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
+        m_eventForwarder.sendNow(ebldr.getEvent());
+    }
+
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
         
         //Always set these
@@ -280,4 +524,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public EventForwarder getEventForwarder() {
         return m_eventForwarder;
     }
+
+    /**
+     * <p>setReductionFlushInterval</p>
+     *
+     * @param reductionFlushInterval milliseconds between flushes of held
+     *        back reductions; 0 writes every reduction as it arrives
+     */
+    public void setReductionFlushInterval(long reductionFlushInterval) {
+        m_reductionFlushInterval = reductionFlushInterval;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getReductionFlushInterval() {
+        return m_reductionFlushInterval;
+    }
 }
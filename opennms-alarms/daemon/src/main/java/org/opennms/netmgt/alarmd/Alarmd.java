@@ -30,7 +30,11 @@ package org.opennms.netmgt.alarmd;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
 import org.opennms.netmgt.alarmd.api.Northbounder;
 import org.opennms.netmgt.daemon.SpringServiceDaemon;
@@ -62,6 +66,14 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
 
     private AlarmPersister m_persister;
 
+    /**
+     * Serializes persist() and flush() including their transactions, so a
+     * flush never works from alarm rows another transaction is changing.
+     */
+    private final Object m_persistLock = new Object();
+
+    private ScheduledExecutorService m_reductionFlusher;
+
     //Get all events
     /**
      * <p>onEvent</p>
@@ -76,16 +88,41 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
            return;
     	}
     	
-        OnmsAlarm alarm = m_persister.persist(e);
+        OnmsAlarm alarm;
+        synchronized (m_persistLock) {
+            alarm = m_persister.persist(e);
+        }
         
         if (alarm != null) {
-        	NorthboundAlarm a = new NorthboundAlarm(alarm);
+            forwardAlarm(alarm);
+        }
+        
+    }
 
-            for (Northbounder nbi : m_northboundInterfaces) {
-                nbi.onAlarm(a);
+    private void forwardAlarm(OnmsAlarm alarm) {
+        NorthboundAlarm a = new NorthboundAlarm(alarm);
+
+        for (Northbounder nbi : m_northboundInterfaces) {
+            nbi.onAlarm(a);
+        }
+    }
+
+    /**
+     * Writes the reductions held back by the persister and hands the updated
+     * alarms to the northbound interfaces.
+     */
+    void flushReductions() {
+        try {
+            List<OnmsAlarm> alarms;
+            synchronized (m_persistLock) {
+                alarms = m_persister.flush();
+            }
+            for (OnmsAlarm alarm : alarms) {
+                forwardAlarm(alarm);
             }
+        } catch (Throwable t) {
+            LOG.error("Failed to write held back alarm reductions", t);
         }
-        
     }
 
     private void handleReloadEvent(Event e) {
@@ -151,6 +188,18 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
                 nb.start();
             }
         }
+
+        final long flushInterval = m_persister.getReductionFlushInterval();
+        if (flushInterval > 0) {
+            LOG.info("Writing alarm reductions every {}ms", flushInterval);
+            m_reductionFlusher = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("Alarmd-ReductionFlusher", 1));
+            m_reductionFlusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushReductions();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -160,6 +209,12 @@ public class Alarmd implements SpringServiceDaemon, DisposableBean {
      */
     @Override
     public void destroy() throws Exception {
+        if (m_reductionFlusher != null) {
+            m_reductionFlusher.shutdown();
+            m_reductionFlusher.awaitTermination(1, TimeUnit.MINUTES);
+            m_reductionFlusher = null;
+            flushReductions();
+        }
     }
 
     /**
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class AlarmPersisterImplTest {
+
+    private static final String REDUCTION_KEY = "uei.opennms.org/test::1";
+
+    private AlarmPersisterImpl m_persister;
+
+    private boolean m_failAlarmLookups = false;
+
+    private final OnmsAlarm m_alarm = new OnmsAlarm();
+
+    private final List<Integer> m_reducedEventIds = new ArrayList<Integer>();
+
+    @Before
+    public void setUp() {
+        m_alarm.setId(1);
+        m_alarm.setReductionKey(REDUCTION_KEY);
+        m_alarm.setCounter(1);
+
+        m_persister = new AlarmPersisterImpl();
+        m_persister.setAlarmDao(stub(AlarmDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getAlarmIdsByReductionKey".equals(method.getName())) {
+                    return Collections.singletonMap(REDUCTION_KEY, m_alarm.getId());
+                } else if ("get".equals(method.getName())) {
+                    if (m_failAlarmLookups) {
+                        throw new DataRetrievalFailureException("Connection lost");
+                    }
+                    return m_alarm;
+                }
+                return null;
+            }
+        }));
+        m_persister.setEventDao(stub(EventDao.class, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("get".equals(method.getName())) {
+                    return new OnmsEvent();
+                } else if ("setAlarmForEvents".equals(method.getName())) {
+                    m_reducedEventIds.addAll((Collection<Integer>)args[1]);
+                    return m_reducedEventIds.size();
+                }
+                return null;
+            }
+        }));
+        m_persister.setEventForwarder(stub(EventForwarder.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        }));
+        m_persister.setReductionFlushInterval(60000);
+
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void reductionsAreKeptWhenTheFlushRollsBack() {
+        assertNull(m_persister.persist(createEvent(10)));
+        assertNull(m_persister.persist(createEvent(11)));
+        assertEquals(2, m_persister.getPendingEventCount());
+
+        m_failAlarmLookups = true;
+        try {
+            m_persister.flush();
+            fail("Expected the flush to fail");
+        } catch (DataRetrievalFailureException e) {
+            // expected
+        }
+        // an event arrives before the transaction is rolled back
+        assertNull(m_persister.persist(createEvent(12)));
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(3, m_persister.getPendingEventCount());
+
+        // the next flush writes the old and the new reductions, in order
+        m_failAlarmLookups = false;
+        assertEquals(1, m_persister.flush().size());
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(0, m_persister.getPendingEventCount());
+        assertEquals(4, m_alarm.getCounter().intValue());
+        assertEquals(2, m_reducedEventIds.size());
+        assertEquals(10, m_reducedEventIds.get(0).intValue());
+        assertEquals(11, m_reducedEventIds.get(1).intValue());
+    }
+
+    private static void completeTransaction(int status) {
+        final List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (final TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    private static Event createEvent(int dbid) {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(1);
+        alarmData.setReductionKey(REDUCTION_KEY);
+
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test");
+        event.setDbid(dbid);
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private static <T> T stub(Class<T> clazz, InvocationHandler handler) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, handler));
+    }
+}
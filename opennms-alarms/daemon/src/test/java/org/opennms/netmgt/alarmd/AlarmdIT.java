@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd;
 
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -38,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
@@ -216,7 +219,51 @@ public class AlarmdIT implements TemporaryDatabaseAware<MockDatabase>, Initializ
 
         });
     }
-    
+
+    @Test
+    public void testDeferredReduction() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persister.setReductionFlushInterval(60000);
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+
+            // the first occurrence is always written immediately
+            sendNodeDownEvent("%nodeid%", node);
+            await().atMost(1, MINUTES).until(alarmCountIs(1));
+            assertEquals(1, m_jdbcTemplate.queryForObject("select counter from alarms", Integer.class).intValue());
+
+            // further occurrences are held back until the next flush
+            for (int i = 0; i < 5; i++) {
+                sendNodeDownEvent("%nodeid%", node);
+            }
+            await().atMost(1, MINUTES).until(pendingEventCountIs(persister, 5));
+            assertEquals(1, m_jdbcTemplate.queryForObject("select counter from alarms", Integer.class).intValue());
+
+            m_alarmd.flushReductions();
+            assertEquals(1, m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue());
+            assertEquals(6, m_jdbcTemplate.queryForObject("select counter from alarms", Integer.class).intValue());
+        } finally {
+            persister.setReductionFlushInterval(0);
+        }
+    }
+
+    private Callable<Boolean> alarmCountIs(final int count) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return count == m_jdbcTemplate.queryForObject("select count(*) from alarms", Integer.class).intValue();
+            }
+        };
+    }
+
+    private static Callable<Boolean> pendingEventCountIs(final AlarmPersisterImpl persister, final int count) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return count == persister.getPendingEventCount();
+            }
+        };
+    }
 
     @Test
     public void testPersistManyAlarmsAtOnce() throws InterruptedException {
@@ -61,6 +61,26 @@ public class CollectdConfiguration implements Serializable {
     @XmlAttribute(name="threads")
     private Integer m_threads;
 
+    /**
+     * The scheduler implementation used to dispatch collections.
+     */
+    @XmlAttribute(name="scheduler")
+    private String m_scheduler;
+
+    /**
+     * The number of threads given to each collector type. When unset,
+     * collections run on the scheduler's threads.
+     */
+    @XmlAttribute(name="threads-per-collector")
+    private Integer m_threadsPerCollector;
+
+    /**
+     * The maximum number of collections running against a single agent
+     * address.
+     */
+    @XmlAttribute(name="max-concurrent-per-agent")
+    private Integer m_maxConcurrentPerAgent;
+
     /**
      * Package encapsulating addresses eligible to have SNMP data collected
      * from them.
@@ -89,6 +109,41 @@ public class CollectdConfiguration implements Serializable {
         m_threads = threads;
     }
 
+    /**
+     * The scheduler implementation used to dispatch collections.
+     */
+    public String getScheduler() {
+        return m_scheduler == null? "legacy" : m_scheduler;
+    }
+
+    public void setScheduler(final String scheduler) {
+        m_scheduler = scheduler;
+    }
+
+    /**
+     * The number of threads given to each collector type, 0 if collections
+     * run on the scheduler's threads.
+     */
+    public Integer getThreadsPerCollector() {
+        return m_threadsPerCollector == null? 0 : m_threadsPerCollector;
+    }
+
+    public void setThreadsPerCollector(final Integer threadsPerCollector) {
+        m_threadsPerCollector = threadsPerCollector;
+    }
+
+    /**
+     * The maximum number of collections running against a single agent
+     * address, 0 for no limit.
+     */
+    public Integer getMaxConcurrentPerAgent() {
+        return m_maxConcurrentPerAgent == null? 0 : m_maxConcurrentPerAgent;
+    }
+
+    public void setMaxConcurrentPerAgent(final Integer maxConcurrentPerAgent) {
+        m_maxConcurrentPerAgent = maxConcurrentPerAgent;
+    }
+
     public List<Package> getPackages() {
         if (m_packages == null) {
             return Collections.emptyList();
@@ -169,6 +224,9 @@ public class CollectdConfiguration implements Serializable {
         final Set<String> seenCollectors = new HashSet<String>();
         final CollectdConfiguration newConfig = new CollectdConfiguration();
         newConfig.setThreads(getThreads());
+        newConfig.setScheduler(m_scheduler);
+        newConfig.setThreadsPerCollector(m_threadsPerCollector);
+        newConfig.setMaxConcurrentPerAgent(m_maxConcurrentPerAgent);
 
         // Add all requested polling packages to the config
         boolean foundPackage = false;
@@ -201,6 +259,9 @@ public class CollectdConfiguration implements Serializable {
         result = prime * result + ((m_collectors == null) ? 0 : m_collectors.hashCode());
         result = prime * result + ((m_packages == null) ? 0 : m_packages.hashCode());
         result = prime * result + ((m_threads == null) ? 0 : m_threads.hashCode());
+        result = prime * result + ((m_scheduler == null) ? 0 : m_scheduler.hashCode());
+        result = prime * result + ((m_threadsPerCollector == null) ? 0 : m_threadsPerCollector.hashCode());
+        result = prime * result + ((m_maxConcurrentPerAgent == null) ? 0 : m_maxConcurrentPerAgent.hashCode());
         return result;
     }
 
@@ -237,12 +298,33 @@ public class CollectdConfiguration implements Serializable {
         } else if (!m_threads.equals(other.m_threads)) {
             return false;
         }
+        if (m_scheduler == null) {
+            if (other.m_scheduler != null) {
+                return false;
+            }
+        } else if (!m_scheduler.equals(other.m_scheduler)) {
+            return false;
+        }
+        if (m_threadsPerCollector == null) {
+            if (other.m_threadsPerCollector != null) {
+                return false;
+            }
+        } else if (!m_threadsPerCollector.equals(other.m_threadsPerCollector)) {
+            return false;
+        }
+        if (m_maxConcurrentPerAgent == null) {
+            if (other.m_maxConcurrentPerAgent != null) {
+                return false;
+            }
+        } else if (!m_maxConcurrentPerAgent.equals(other.m_maxConcurrentPerAgent)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "CollectdConfiguration [threads=" + m_threads + ", packages=" + m_packages + ", collectors=" + m_collectors + "]";
+        return "CollectdConfiguration [threads=" + m_threads + ", scheduler=" + m_scheduler + ", threadsPerCollector=" + m_threadsPerCollector + ", maxConcurrentPerAgent=" + m_maxConcurrentPerAgent + ", packages=" + m_packages + ", collectors=" + m_collectors + "]";
     }
 
 }
@@ -67,6 +67,12 @@ public class PollerConfiguration implements Serializable {
     @XmlAttribute(name="threads")
     private Integer m_threads = 30;
 
+    /**
+     * The scheduler implementation used to dispatch polls.
+     */
+    @XmlAttribute(name="scheduler")
+    private String m_scheduler;
+
     /**
      * SQL query for getting the next outage ID.
      */
@@ -115,6 +121,17 @@ public class PollerConfiguration implements Serializable {
         m_threads = threads;
     }
 
+    /**
+     * The scheduler implementation used to dispatch polls.
+     */
+    public String getScheduler() {
+        return m_scheduler == null? "legacy" : m_scheduler;
+    }
+
+    public void setScheduler(final String scheduler) {
+        m_scheduler = scheduler;
+    }
+
     /**
      * SQL query for getting the next outage ID.
      */
@@ -218,6 +235,7 @@ public class PollerConfiguration implements Serializable {
         final Set<String> seenMonitors = new HashSet<String>();
         final PollerConfiguration newConfig = new PollerConfiguration();
         newConfig.setThreads(getThreads());
+        newConfig.setScheduler(m_scheduler);
         newConfig.setNextOutageId(getNextOutageId());
         newConfig.setServiceUnresponsiveEnabled(getServiceUnresponsiveEnabled());
         newConfig.setPathOutageEnabled(getPathOutageEnabled());
@@ -257,6 +275,7 @@ public class PollerConfiguration implements Serializable {
         result = prime * result + ((m_pathOutageEnabled == null) ? 0 : m_pathOutageEnabled.hashCode());
         result = prime * result + ((m_serviceUnresponsiveEnabled == null) ? 0 : m_serviceUnresponsiveEnabled.hashCode());
         result = prime * result + ((m_threads == null) ? 0 : m_threads.hashCode());
+        result = prime * result + ((m_scheduler == null) ? 0 : m_scheduler.hashCode());
         return result;
     }
 
@@ -321,6 +340,13 @@ public class PollerConfiguration implements Serializable {
         } else if (!m_threads.equals(other.m_threads)) {
             return false;
         }
+        if (m_scheduler == null) {
+            if (other.m_scheduler != null) {
+                return false;
+            }
+        } else if (!m_scheduler.equals(other.m_scheduler)) {
+            return false;
+        }
         return true;
     }
 
@@ -328,6 +354,7 @@ public class PollerConfiguration implements Serializable {
     public String toString() {
         return "PollerConfiguration[" +
                 "threads=" + m_threads +
+                ",scheduler=" + m_scheduler +
                 ",nextOutageId=" + m_nextOutageId +
                 ",serviceUnresponsiveEnabled=" + m_serviceUnresponsiveEnabled +
                 ",pathOutageEnabled=" + m_pathOutageEnabled +
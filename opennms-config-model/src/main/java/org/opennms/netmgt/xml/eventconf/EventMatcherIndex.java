@@ -0,0 +1,427 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A precompiled index over an {@link Events} tree and all of its loaded event
+ * files, used to find the first eventconf event matching an incoming event
+ * without scanning every definition.
+ *
+ * Every eventconf event is given a position in the order in which
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * visits them. Each event is then filed in exactly one bucket:
+ * <ul>
+ * <li>by partition key, if the {@link Partition} assigns it one</li>
+ * <li>by UEI, if it can only ever match a fixed set of UEIs</li>
+ * <li>by enterprise id, if its <code>id</code> mask element only uses exact
+ * values and <code>%</code> prefixes, using a prefix trie for the latter</li>
+ * <li>otherwise in a list of events that must always be checked</li>
+ * </ul>
+ * Within the partition and enterprise id buckets, events with exact
+ * <code>generic</code> and <code>specific</code> mask values are further
+ * keyed by that pair, since a single enterprise often defines hundreds of
+ * traps.
+ * A lookup scans the few buckets that apply to the incoming event and keeps
+ * the lowest position whose matcher accepts it, which is the same event a
+ * linear scan would return. No objects are allocated per lookup.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class EventMatcherIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Used when the incoming event has no generic/specific pair. Only a
+     * generic type of Integer.MIN_VALUE would produce the same key, and SNMP
+     * generic trap types are 0-6.
+     */
+    private static final long NO_TRAP_KEY = Long.MIN_VALUE;
+
+    /**
+     * The events filed under one key, split into those that can only match a
+     * given generic/specific pair and the rest.
+     */
+    private static final class Bucket {
+        private final int[] m_unkeyed;
+        private final long[] m_keys;
+        private final int[][] m_keyed;
+
+        private Bucket(final Event[] events, final List<Integer> positions) {
+            final Map<Long, List<Integer>> keyed = new HashMap<Long, List<Integer>>();
+            final List<Integer> unkeyed = new ArrayList<Integer>();
+            for (final Integer position : positions) {
+                final Mask mask = events[position].getMask();
+                final List<String> generics = mask == null ? null : canonical(mask.getMaskElementValues(TAG_SNMP_GENERIC));
+                final List<String> specifics = mask == null ? null : canonical(mask.getMaskElementValues(TAG_SNMP_SPECIFIC));
+                if (generics == null || specifics == null) {
+                    unkeyed.add(position);
+                    continue;
+                }
+                for (final String generic : generics) {
+                    for (final String specific : specifics) {
+                        add(keyed, trapKey(Integer.parseInt(generic), Integer.parseInt(specific)), position);
+                    }
+                }
+            }
+            m_unkeyed = toArray(unkeyed);
+
+            // open addressing keeps lookups free of boxing
+            int capacity = 1;
+            while (capacity < keyed.size() * 2) {
+                capacity <<= 1;
+            }
+            m_keys = new long[keyed.isEmpty() ? 0 : capacity];
+            m_keyed = new int[m_keys.length][];
+            for (final Entry<Long, List<Integer>> entry : keyed.entrySet()) {
+                int slot = slot(entry.getKey(), m_keys.length);
+                while (m_keyed[slot] != null) {
+                    slot = (slot + 1) & (m_keys.length - 1);
+                }
+                m_keys[slot] = entry.getKey();
+                m_keyed[slot] = toArray(entry.getValue());
+            }
+        }
+
+        private int[] get(final long key) {
+            if (m_keys.length == 0) {
+                return null;
+            }
+            for (int slot = slot(key, m_keys.length); m_keyed[slot] != null; slot = (slot + 1) & (m_keys.length - 1)) {
+                if (m_keys[slot] == key) {
+                    return m_keyed[slot];
+                }
+            }
+            return null;
+        }
+
+        private static int slot(final long key, final int capacity) {
+            final long hash = key * 0x9E3779B97F4A7C15L;
+            return (int)(hash ^ (hash >>> 32)) & (capacity - 1);
+        }
+
+        /**
+         * Returns the values if they are all plain integers written the way
+         * the event field renders them, otherwise null.
+         */
+        private static List<String> canonical(final List<String> values) {
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+            for (final String value : values) {
+                try {
+                    if (value == null || !value.equals(Integer.toString(Integer.parseInt(value)))) {
+                        return null;
+                    }
+                } catch (final NumberFormatException e) {
+                    return null;
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * A node in the enterprise id prefix trie.
+     */
+    private static final class PrefixNode {
+        private final Map<Character, PrefixNode> m_children = new HashMap<Character, PrefixNode>(4);
+        private List<Integer> m_building = null;
+        private int[] m_events = EMPTY;
+
+        private PrefixNode child(final char c, final boolean create) {
+            PrefixNode child = m_children.get(c);
+            if (child == null && create) {
+                child = new PrefixNode();
+                m_children.put(c, child);
+            }
+            return child;
+        }
+
+        private void freeze() {
+            m_events = toArray(m_building);
+            m_building = null;
+            for (final PrefixNode child : m_children.values()) {
+                child.freeze();
+            }
+        }
+    }
+
+    private final Partition m_partition;
+    private final Event[] m_events;
+
+    private final Map<String, Bucket> m_byPartitionKey;
+    private final Map<String, int[]> m_byUei;
+    private final Map<String, Bucket> m_byId;
+    private final PrefixNode m_idPrefixes = new PrefixNode();
+    private final int[] m_unindexed;
+
+    /**
+     * Builds the index for the given (already initialized) events.
+     *
+     * @param events the root of the eventconf tree
+     * @param partition the partition used to group the events
+     */
+    public EventMatcherIndex(final Events events, final Partition partition) {
+        m_partition = partition;
+
+        final List<Event> ordered = new ArrayList<Event>();
+        collect(events, ordered);
+        m_events = ordered.toArray(new Event[ordered.size()]);
+
+        final Map<String, List<Integer>> byPartitionKey = new HashMap<String, List<Integer>>();
+        final Map<String, List<Integer>> byUei = new HashMap<String, List<Integer>>();
+        final Map<String, List<Integer>> byId = new HashMap<String, List<Integer>>();
+        final List<Integer> unindexed = new ArrayList<Integer>();
+
+        for (int position = 0; position < m_events.length; position++) {
+            final Event event = m_events[position];
+
+            final List<String> partitionKeys = partition == null ? null : partition.group(event);
+            if (partitionKeys != null) {
+                for (final String key : partitionKeys) {
+                    add(byPartitionKey, key, position);
+                }
+                continue;
+            }
+
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelementCount() <= 0) {
+                // no mask, only the UEI is compared; without one it never matches
+                if (event.getUei() != null) {
+                    add(byUei, event.getUei(), position);
+                }
+                continue;
+            }
+
+            final List<String> ueis = mask.getMaskElementValues(TAG_UEI);
+            if (ueis != null && allExact(ueis)) {
+                for (final String uei : ueis) {
+                    if (uei != null) add(byUei, uei, position);
+                }
+                continue;
+            }
+
+            final List<String> ids = mask.getMaskElementValues(TAG_SNMP_EID);
+            if (ids != null && noRegex(ids)) {
+                for (final String id : ids) {
+                    if (id == null) continue;
+                    if (id.endsWith("%")) {
+                        addPrefix(id.substring(0, id.length() - 1), position);
+                    } else {
+                        add(byId, id, position);
+                    }
+                }
+                continue;
+            }
+
+            unindexed.add(position);
+        }
+
+        m_byPartitionKey = freezeBuckets(byPartitionKey);
+        m_byUei = freeze(byUei);
+        m_byId = freezeBuckets(byId);
+        m_idPrefixes.freeze();
+        m_unindexed = toArray(unindexed);
+    }
+
+    /**
+     * Returns the first event, in eventconf order, that matches the given
+     * event.
+     *
+     * @param matchingEvent the incoming event
+     * @return the eventconf event or null if none match
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        int first = m_events.length;
+
+        final org.opennms.netmgt.xml.event.Snmp snmp = matchingEvent.getSnmp();
+        final long trapKey = snmp != null && snmp.hasGeneric() && snmp.hasSpecific() ? trapKey(snmp.getGeneric(), snmp.getSpecific()) : NO_TRAP_KEY;
+
+        if (m_partition != null) {
+            final String key = m_partition.group(matchingEvent);
+            if (key != null) {
+                first = firstMatch(m_byPartitionKey.get(key), trapKey, matchingEvent, first);
+            }
+        }
+
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            first = firstMatch(m_byUei.get(uei), matchingEvent, first);
+        }
+
+        final String id = snmp == null ? null : snmp.getId();
+        if (id != null) {
+            first = firstMatch(m_byId.get(id), trapKey, matchingEvent, first);
+            PrefixNode node = m_idPrefixes;
+            for (int i = 0; node != null; i++) {
+                first = firstMatch(node.m_events, matchingEvent, first);
+                node = i < id.length() ? node.child(id.charAt(i), false) : null;
+            }
+        }
+
+        first = firstMatch(m_unindexed, matchingEvent, first);
+
+        return first < m_events.length ? m_events[first] : null;
+    }
+
+    /**
+     * Returns the number of eventconf events covered by this index.
+     *
+     * @return the number of events
+     */
+    public int size() {
+        return m_events.length;
+    }
+
+    private int firstMatch(final Bucket bucket, final long trapKey, final org.opennms.netmgt.xml.event.Event matchingEvent, final int best) {
+        if (bucket == null) {
+            return best;
+        }
+        int first = best;
+        if (trapKey != NO_TRAP_KEY) {
+            first = firstMatch(bucket.get(trapKey), matchingEvent, first);
+        }
+        return firstMatch(bucket.m_unkeyed, matchingEvent, first);
+    }
+
+    /**
+     * Scans a bucket for a matching event that comes before the best match
+     * found so far.
+     */
+    private int firstMatch(final int[] positions, final org.opennms.netmgt.xml.event.Event matchingEvent, final int best) {
+        if (positions == null) {
+            return best;
+        }
+        for (final int position : positions) {
+            if (position >= best) {
+                break;
+            }
+            if (m_events[position].matches(matchingEvent)) {
+                return position;
+            }
+        }
+        return best;
+    }
+
+    private static void collect(final Events events, final List<Event> ordered) {
+        ordered.addAll(events.getEventCollection());
+        for (final Entry<String, Events> loadedEvents : events.getLoadedEventFiles().entrySet()) {
+            collect(loadedEvents.getValue(), ordered);
+        }
+    }
+
+    private void addPrefix(final String prefix, final int position) {
+        PrefixNode node = m_idPrefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.child(prefix.charAt(i), true);
+        }
+        if (node.m_building == null) {
+            node.m_building = new ArrayList<Integer>(1);
+        }
+        addOnce(node.m_building, position);
+    }
+
+    private static <K> void add(final Map<K, List<Integer>> index, final K key, final int position) {
+        List<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<Integer>(1);
+            index.put(key, positions);
+        }
+        addOnce(positions, position);
+    }
+
+    private static void addOnce(final List<Integer> positions, final int position) {
+        // positions are added in increasing order, so duplicates are adjacent
+        if (positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+            positions.add(position);
+        }
+    }
+
+    private static boolean allExact(final List<String> values) {
+        for (final String value : values) {
+            if (value != null && (value.startsWith("~") || value.endsWith("%"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean noRegex(final List<String> values) {
+        for (final String value : values) {
+            if (value != null && value.startsWith("~")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long trapKey(final int generic, final int specific) {
+        return ((long)generic << 32) | (specific & 0xffffffffL);
+    }
+
+    private Map<String, Bucket> freezeBuckets(final Map<String, List<Integer>> index) {
+        final Map<String, Bucket> frozen = new HashMap<String, Bucket>(index.size() * 2);
+        for (final Entry<String, List<Integer>> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), new Bucket(m_events, entry.getValue()));
+        }
+        return frozen;
+    }
+
+    private static Map<String, int[]> freeze(final Map<String, List<Integer>> index) {
+        final Map<String, int[]> frozen = new HashMap<String, int[]>(index.size() * 2);
+        for (final Entry<String, List<Integer>> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return frozen;
+    }
+
+    private static int[] toArray(final List<Integer> positions) {
+        if (positions == null || positions.isEmpty()) {
+            return EMPTY;
+        }
+        final int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = positions.get(i);
+        }
+        return array;
+    }
+}
@@ -115,6 +115,9 @@ public class Events implements Serializable {
         
 	@XmlTransient
 	private EventOrdering m_ordering;
+
+	@XmlTransient
+	private EventMatcherIndex m_matcherIndex;
 	
 	public EventOrdering getOrdering() {
 	    return m_ordering;
@@ -418,6 +421,11 @@ public class Events implements Serializable {
 	}
 	
 	public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+		final EventMatcherIndex matcherIndex = m_matcherIndex;
+		if (matcherIndex != null) {
+			return matcherIndex.findFirstMatchingEvent(matchingEvent);
+		}
+
 		String key = m_partition.group(matchingEvent);
 		SortedSet<Event> potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
 		if (key != null) {
@@ -481,9 +489,19 @@ public class Events implements Serializable {
 		return result;
 	}
 	
+	/**
+	 * Initializes the matchers of this file and all of its loaded event files,
+	 * and builds the index used by {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+	 */
 	public void initialize(Partition partition, EventOrdering eventOrdering) {
+		initializeEvents(partition, eventOrdering);
+		m_matcherIndex = new EventMatcherIndex(this, partition);
+	}
+
+	private void initializeEvents(Partition partition, EventOrdering eventOrdering) {
 	    
 	        m_ordering = eventOrdering;
+	        m_matcherIndex = null;
 	    
 		for(Event event : m_events) {
 			event.initialize(m_ordering.next());
@@ -493,11 +511,15 @@ public class Events implements Serializable {
 		
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events events = loadedEvents.getValue();
-			events.initialize(partition, m_ordering.subsequence());
+			events.initializeEvents(partition, m_ordering.subsequence());
 		}
 
 	}
 
+	Map<String, Events> getLoadedEventFiles() {
+		return m_loadedEventFiles;
+	}
+
 	public Events getLoadEventsByFile(String relativePath) {
 		return m_loadedEventFiles.get(relativePath);
 	}
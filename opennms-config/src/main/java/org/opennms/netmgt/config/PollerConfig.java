@@ -337,6 +337,13 @@ public interface PollerConfig {
      */
     public int getThreads();
 
+    /**
+     * <p>getScheduler</p>
+     *
+     * @return the scheduler implementation to use, "legacy" or "timing-wheel".
+     */
+    public String getScheduler();
+
     /**
      * <p>getServiceMonitors</p>
      *
@@ -949,6 +949,21 @@ abstract public class PollerConfigManager implements PollerConfig {
         }
     }
 
+    /**
+     * <p>getScheduler</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getScheduler() {
+        try {
+            getReadLock().lock();
+            return getConfiguration().getScheduler();
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
     /**
      * @param poller
      * @return
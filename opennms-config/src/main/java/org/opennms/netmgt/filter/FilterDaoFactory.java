@@ -93,7 +93,16 @@ public class FilterDaoFactory {
         
         jdbcFilterDao.afterPropertiesSet();
         
-        setInstance(jdbcFilterDao);
+        if (Boolean.getBoolean(InMemoryFilterDao.ENABLED_PROPERTY)) {
+            final InMemoryFilterDao inMemoryFilterDao = new InMemoryFilterDao();
+            inMemoryFilterDao.setDelegate(jdbcFilterDao);
+            inMemoryFilterDao.setDataSource(jdbcFilterDao.getDataSource());
+            inMemoryFilterDao.setDatabaseSchemaConfigFactory(jdbcFilterDao.getDatabaseSchemaConfigFactory());
+            inMemoryFilterDao.afterPropertiesSet();
+            setInstance(inMemoryFilterDao);
+        } else {
+            setInstance(jdbcFilterDao);
+        }
     }
 
 }
@@ -0,0 +1,906 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
+import org.opennms.netmgt.config.filter.Table;
+import org.opennms.netmgt.filter.FilterSnapshot.InterfaceEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.NodeEntry;
+import org.opennms.netmgt.filter.api.FilterParseException;
+
+/**
+ * A filter rule compiled into a predicate tree that can be evaluated against
+ * a {@link FilterSnapshot}.  The rule language is the one accepted by
+ * {@link JdbcFilterDao}, and evaluation follows the SQL it would generate:
+ * an interface matches when the rule is true for at least one combination
+ * of the joined service and category rows, comparisons with NULL are
+ * unknown, and only a true result selects the interface.
+ *
+ * Constructs whose SQL meaning is not reproduced here (IN lists, casts,
+ * ordering comparisons on text, tables other than node, ipInterface,
+ * snmpInterface, ifServices, service, assets and categories, ...) cause
+ * {@link UnsupportedRuleException} so that the caller can hand the rule to
+ * the database instead.
+ */
+final class FilterRule {
+
+    /**
+     * Thrown when a rule, or a value it meets during evaluation, can only be
+     * handled by the database.
+     */
+    static final class UnsupportedRuleException extends RuntimeException {
+        private static final long serialVersionUID = 4823716392839420012L;
+
+        UnsupportedRuleException(final String message) {
+            super(message);
+        }
+    }
+
+    private static final List<Map<String, Object>> NULL_ROW = Collections.singletonList(null);
+    private static final Pattern IPLIKE_PATTERN = Pattern.compile("[0-9a-fA-F.:*,\\-]+");
+    private static final Pattern COLUMN_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]*[a-zA-Z][a-zA-Z0-9_\\-]*");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+    private static final Set<String> SUPPORTED_TABLES = new LinkedHashSet<String>(Arrays.asList("node", "ipinterface", "snmpinterface", "ifservices", "service", "assets", "categories"));
+
+    private final String m_rule;
+    private final Predicate m_root;
+    private final boolean m_joinsServices;
+    private final boolean m_joinsCategories;
+    private final boolean m_joinsSnmpInterface;
+    private final boolean m_joinsAssets;
+    private final Set<String> m_columns;
+
+    private FilterRule(final String rule, final Predicate root, final Set<String> tables, final Set<String> columns) {
+        m_rule = rule;
+        m_root = root;
+        m_columns = columns;
+        m_joinsServices = tables.contains("ifservices") || tables.contains("service");
+        m_joinsCategories = tables.contains("categories");
+        m_joinsSnmpInterface = tables.contains("snmpinterface");
+        m_joinsAssets = tables.contains("assets");
+    }
+
+    /**
+     * Compiles a filter rule.
+     *
+     * @throws FilterParseException if the rule names a column that is not in the database schema
+     * @throws UnsupportedRuleException if the rule has to be evaluated by the database
+     */
+    static FilterRule compile(final String rule, final DatabaseSchemaConfig schema) throws FilterParseException {
+        final Set<String> tables = new LinkedHashSet<String>();
+        final Set<String> columns = new LinkedHashSet<String>();
+        if (rule == null || rule.trim().length() == 0) {
+            return new FilterRule(rule, null, tables, columns);
+        }
+        final Parser parser = new Parser(rule, schema, tables, columns);
+        final Predicate root = parser.parseExpression();
+        parser.expectEnd();
+        return new FilterRule(rule, root, tables, columns);
+    }
+
+    String getRule() {
+        return m_rule;
+    }
+
+    /**
+     * Returns true if the rule refers to the given column, in whatever case
+     * it was written.
+     */
+    boolean references(final String table, final String column) {
+        return m_columns.contains(table.toLowerCase(Locale.ENGLISH) + "." + column.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the interfaces of the snapshot that need to be evaluated; the
+     * address and node ID constraints of the rule are used to narrow them
+     * down through the snapshot indexes.
+     */
+    Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+        if (m_root != null) {
+            final Collection<InterfaceEntry> candidates = m_root.getCandidates(snapshot);
+            if (candidates != null) {
+                return candidates;
+            }
+        }
+        return snapshot.getInterfaces();
+    }
+
+    /**
+     * Returns true if the rule selects the interface.
+     */
+    boolean matches(final InterfaceEntry iface) {
+        return matches(iface, m_joinsServices, null);
+    }
+
+    /**
+     * Adds the names of the services for which the rule selects the
+     * interface to the given set.
+     */
+    void collectServices(final InterfaceEntry iface, final Set<String> serviceNames) {
+        matches(iface, true, serviceNames);
+    }
+
+    private boolean matches(final InterfaceEntry iface, final boolean joinServices, final Set<String> serviceNames) {
+        if (m_joinsSnmpInterface && iface.getSnmpInterface() == null) {
+            return false;
+        }
+        final NodeEntry node = iface.getNode();
+        if (m_joinsAssets && node.getAssets() == null) {
+            return false;
+        }
+        final List<Map<String, Object>> services = joinServices ? iface.getServices() : NULL_ROW;
+        final List<Map<String, Object>> categories = !m_joinsCategories || node.getCategories().isEmpty() ? NULL_ROW : node.getCategories();
+
+        boolean matched = false;
+        final Row row = new Row(iface);
+        for (final Map<String, Object> service : services) {
+            row.m_service = service;
+            for (final Map<String, Object> category : categories) {
+                row.m_category = category;
+                if (m_root == null || Boolean.TRUE.equals(m_root.evaluate(row))) {
+                    if (serviceNames == null) {
+                        return true;
+                    }
+                    final Object serviceName = service.get("servicename");
+                    if (serviceName != null) {
+                        serviceNames.add(serviceName.toString());
+                    }
+                    matched = true;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * One combination of an interface with its joined rows.
+     */
+    private static final class Row {
+        private final InterfaceEntry m_interface;
+        private Map<String, Object> m_service;
+        private Map<String, Object> m_category;
+
+        private Row(final InterfaceEntry iface) {
+            m_interface = iface;
+        }
+
+        private Object get(final String table, final String column) {
+            final Map<String, Object> values;
+            if ("ipinterface".equals(table)) {
+                values = m_interface.getIpInterface();
+            } else if ("node".equals(table)) {
+                values = m_interface.getNode().getNode();
+            } else if ("snmpinterface".equals(table)) {
+                values = m_interface.getSnmpInterface();
+            } else if ("assets".equals(table)) {
+                values = m_interface.getNode().getAssets();
+            } else if ("ifservices".equals(table) || "service".equals(table)) {
+                values = m_service;
+            } else {
+                values = m_category;
+            }
+            return values == null ? null : values.get(column);
+        }
+    }
+
+    private abstract static class Predicate {
+        /**
+         * @return TRUE, FALSE or null when the result is unknown
+         */
+        abstract Boolean evaluate(Row row);
+
+        /**
+         * @return a superset of the interfaces this predicate can be true
+         *         for, or null if it cannot be narrowed down
+         */
+        Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+            return null;
+        }
+    }
+
+    private static final class And extends Predicate {
+        private final Predicate m_left;
+        private final Predicate m_right;
+
+        private And(final Predicate left, final Predicate right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Boolean left = m_left.evaluate(row);
+            if (Boolean.FALSE.equals(left)) {
+                return Boolean.FALSE;
+            }
+            final Boolean right = m_right.evaluate(row);
+            if (Boolean.FALSE.equals(right)) {
+                return Boolean.FALSE;
+            }
+            return left == null || right == null ? null : Boolean.TRUE;
+        }
+
+        @Override
+        Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+            final Collection<InterfaceEntry> left = m_left.getCandidates(snapshot);
+            final Collection<InterfaceEntry> right = m_right.getCandidates(snapshot);
+            if (left == null) {
+                return right;
+            } else if (right == null) {
+                return left;
+            }
+            return left.size() <= right.size() ? left : right;
+        }
+    }
+
+    private static final class Or extends Predicate {
+        private final Predicate m_left;
+        private final Predicate m_right;
+
+        private Or(final Predicate left, final Predicate right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Boolean left = m_left.evaluate(row);
+            if (Boolean.TRUE.equals(left)) {
+                return Boolean.TRUE;
+            }
+            final Boolean right = m_right.evaluate(row);
+            if (Boolean.TRUE.equals(right)) {
+                return Boolean.TRUE;
+            }
+            return left == null || right == null ? null : Boolean.FALSE;
+        }
+
+        @Override
+        Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+            final Collection<InterfaceEntry> left = m_left.getCandidates(snapshot);
+            if (left == null) {
+                return null;
+            }
+            final Collection<InterfaceEntry> right = m_right.getCandidates(snapshot);
+            if (right == null) {
+                return null;
+            }
+            final Set<InterfaceEntry> union = new LinkedHashSet<InterfaceEntry>(left);
+            union.addAll(right);
+            return union;
+        }
+    }
+
+    private static final class Not extends Predicate {
+        private final Predicate m_operand;
+
+        private Not(final Predicate operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Boolean value = m_operand.evaluate(row);
+            return value == null ? null : Boolean.valueOf(!value.booleanValue());
+        }
+    }
+
+    private abstract static class Operand {
+        abstract Object getValue(Row row);
+    }
+
+    private static final class Literal extends Operand {
+        private final Object m_value;
+
+        private Literal(final Object value) {
+            m_value = value;
+        }
+
+        @Override
+        Object getValue(final Row row) {
+            return m_value;
+        }
+    }
+
+    private static final class ColumnRef extends Operand {
+        private final String m_table;
+        private final String m_column;
+
+        private ColumnRef(final String table, final String column) {
+            m_table = table;
+            m_column = column;
+        }
+
+        @Override
+        Object getValue(final Row row) {
+            return row.get(m_table, m_column);
+        }
+
+        private boolean is(final String table, final String column) {
+            return m_table.equals(table) && m_column.equals(column);
+        }
+    }
+
+    private static final class Comparison extends Predicate {
+        private final Operand m_left;
+        private final String m_operator;
+        private final Operand m_right;
+
+        private Comparison(final Operand left, final String operator, final Operand right) {
+            m_left = left;
+            m_operator = operator;
+            m_right = right;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Object left = m_left.getValue(row);
+            final Object right = m_right.getValue(row);
+            if (left == null || right == null) {
+                return null;
+            }
+
+            final int result;
+            if (left instanceof Number || right instanceof Number) {
+                result = toNumber(left).compareTo(toNumber(right));
+            } else if (left instanceof String && right instanceof String) {
+                if (!"=".equals(m_operator) && !"<>".equals(m_operator)) {
+                    throw new UnsupportedRuleException("ordering comparison on text values");
+                }
+                result = left.equals(right) ? 0 : 1;
+            } else {
+                throw new UnsupportedRuleException("comparison of " + left.getClass().getSimpleName() + " values");
+            }
+
+            if ("=".equals(m_operator)) {
+                return result == 0;
+            } else if ("<>".equals(m_operator)) {
+                return result != 0;
+            } else if ("<".equals(m_operator)) {
+                return result < 0;
+            } else if ("<=".equals(m_operator)) {
+                return result <= 0;
+            } else if (">".equals(m_operator)) {
+                return result > 0;
+            } else {
+                return result >= 0;
+            }
+        }
+
+        @Override
+        Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+            if (!"=".equals(m_operator)) {
+                return null;
+            }
+            final ColumnRef column;
+            final Literal literal;
+            if (m_left instanceof ColumnRef && m_right instanceof Literal) {
+                column = (ColumnRef)m_left;
+                literal = (Literal)m_right;
+            } else if (m_right instanceof ColumnRef && m_left instanceof Literal) {
+                column = (ColumnRef)m_right;
+                literal = (Literal)m_left;
+            } else {
+                return null;
+            }
+            if (literal.m_value == null) {
+                return Collections.emptyList();
+            } else if (column.is("ipinterface", "ipaddr") && literal.m_value instanceof String) {
+                return snapshot.getInterfacesByIpAddr((String)literal.m_value);
+            } else if (column.is("node", "nodeid")) {
+                final BigDecimal nodeId;
+                try {
+                    nodeId = toNumber(literal.m_value);
+                } catch (final UnsupportedRuleException e) {
+                    return null;
+                }
+                if (nodeId.signum() < 0 || nodeId.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0) {
+                    return Collections.emptyList();
+                }
+                final NodeEntry node = snapshot.getNode(nodeId.intValue());
+                return node == null ? Collections.<InterfaceEntry>emptyList() : node.getInterfaces();
+            }
+            return null;
+        }
+    }
+
+    private static final class Like extends Predicate {
+        private final Operand m_operand;
+        private final Pattern m_pattern;
+
+        private Like(final Operand operand, final String pattern) {
+            m_operand = operand;
+            m_pattern = toRegex(pattern);
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Object value = m_operand.getValue(row);
+            if (value == null) {
+                return null;
+            } else if (!(value instanceof String)) {
+                throw new UnsupportedRuleException("LIKE on " + value.getClass().getSimpleName() + " values");
+            }
+            return m_pattern.matcher((String)value).matches();
+        }
+
+        /**
+         * Translates an SQL LIKE pattern, with the PostgreSQL default escape
+         * character of '\', to a regular expression.
+         */
+        private static Pattern toRegex(final String pattern) {
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c == '\\' && i + 1 < pattern.length()) {
+                    regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+                } else if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    private static final class IsNull extends Predicate {
+        private final Operand m_operand;
+
+        private IsNull(final Operand operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            return m_operand.getValue(row) == null;
+        }
+    }
+
+    private static final class IpLike extends Predicate {
+        private final Operand m_operand;
+        private final String m_pattern;
+        private final boolean m_ipv6;
+        private final long m_low;
+        private final long m_high;
+
+        private IpLike(final Operand operand, final String pattern) {
+            m_operand = operand;
+            m_pattern = pattern;
+            m_ipv6 = pattern.indexOf(':') >= 0;
+
+            long low = 0;
+            long high = 0;
+            final String[] octets = pattern.split("\\.", -1);
+            if (m_ipv6 || octets.length != 4) {
+                low = -1;
+            } else {
+                try {
+                    for (final String octet : octets) {
+                        long min = 255;
+                        long max = 0;
+                        for (final String range : octet.split(",", -1)) {
+                            if ("*".equals(range)) {
+                                min = 0;
+                                max = 255;
+                            } else {
+                                final int dash = range.indexOf('-');
+                                min = Math.min(min, Long.parseLong(dash < 0 ? range : range.substring(0, dash)));
+                                max = Math.max(max, Long.parseLong(dash < 0 ? range : range.substring(dash + 1)));
+                            }
+                        }
+                        low = (low << 8) | Math.max(0, Math.min(255, min));
+                        high = (high << 8) | Math.max(0, Math.min(255, max));
+                    }
+                } catch (final NumberFormatException e) {
+                    low = -1;
+                }
+            }
+            m_low = low;
+            m_high = high;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            final Object value = m_operand.getValue(row);
+            if (value == null) {
+                return null;
+            }
+            final String address = value.toString();
+            if ((address.indexOf(':') >= 0) != m_ipv6) {
+                return false;
+            }
+            try {
+                return IPLike.matches(address, m_pattern);
+            } catch (final IllegalArgumentException e) {
+                throw new UnsupportedRuleException("IPLIKE on '" + address + "' with '" + m_pattern + "': " + e.getMessage());
+            }
+        }
+
+        @Override
+        Collection<InterfaceEntry> getCandidates(final FilterSnapshot snapshot) {
+            if (m_low < 0 || !(m_operand instanceof ColumnRef) || !((ColumnRef)m_operand).is("ipinterface", "ipaddr")) {
+                return null;
+            }
+            return snapshot.getIpv4InterfacesInRange(m_low, m_high);
+        }
+    }
+
+    private static final class InCategory extends Predicate {
+        private final String m_category;
+
+        private InCategory(final String category) {
+            m_category = category;
+        }
+
+        @Override
+        Boolean evaluate(final Row row) {
+            return row.m_interface.getNode().isInCategory(m_category);
+        }
+    }
+
+    private static BigDecimal toNumber(final Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal)value;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            return BigDecimal.valueOf(((Number)value).longValue());
+        } else if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        } else if (value instanceof String) {
+            try {
+                return new BigDecimal(((String)value).trim());
+            } catch (final NumberFormatException e) {
+                throw new UnsupportedRuleException("'" + value + "' is not a number");
+            }
+        }
+        throw new UnsupportedRuleException("comparison of " + value.getClass().getSimpleName() + " with a number");
+    }
+
+    /**
+     * Recursive descent parser for the filter rule syntax.
+     */
+    private static final class Parser {
+        private static final int END = 0;
+        private static final int WORD = 1;
+        private static final int STRING = 2;
+        private static final int SYMBOL = 3;
+
+        private final String m_rule;
+        private final DatabaseSchemaConfig m_schema;
+        private final Set<String> m_tables;
+        private final Set<String> m_columns;
+        private int m_position = 0;
+
+        private int m_type;
+        private String m_token;
+        private int m_tokenStart = -1;
+
+        private Parser(final String rule, final DatabaseSchemaConfig schema, final Set<String> tables, final Set<String> columns) {
+            m_rule = rule;
+            m_schema = schema;
+            m_tables = tables;
+            m_columns = columns;
+        }
+
+        private Predicate parseExpression() {
+            Predicate left = parseAnd();
+            while (peekSymbol("|", "||") || peekKeyword("OR")) {
+                next();
+                left = new Or(left, parseAnd());
+            }
+            return left;
+        }
+
+        private Predicate parseAnd() {
+            Predicate left = parseUnary();
+            while (peekSymbol("&", "&&") || peekKeyword("AND")) {
+                next();
+                left = new And(left, parseUnary());
+            }
+            return left;
+        }
+
+        private Predicate parseUnary() {
+            if (peekSymbol("!") || peekKeyword("NOT")) {
+                next();
+                return new Not(parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private Predicate parsePrimary() {
+            if (peekSymbol("(")) {
+                next();
+                final Predicate predicate = parseExpression();
+                expectSymbol(")");
+                return predicate;
+            }
+
+            if (peekKeyword("IPLIKE")) {
+                next();
+                expectSymbol("(");
+                final Operand operand = parseOperand();
+                expectSymbol(",");
+                final String pattern = parseIpLikePattern();
+                expectSymbol(")");
+                return new IpLike(operand, pattern);
+            }
+
+            if (peek() == WORD) {
+                final String word = m_token;
+                if (word.startsWith("notis")) {
+                    // the ifServices.ipAddr column this expands to no longer exists
+                    throw new UnsupportedRuleException("notis");
+                } else if (word.startsWith("catinc")) {
+                    next();
+                    return new InCategory(word.substring(6));
+                } else if (word.startsWith("is")) {
+                    next();
+                    return new Comparison(column("serviceName"), "=", new Literal(word.substring(2)));
+                }
+            }
+
+            final Operand operand = parseOperand();
+            if (peek() == SYMBOL && isComparisonOperator(m_token)) {
+                String operator = next();
+                if ("==".equals(operator)) {
+                    operator = "=";
+                } else if ("!=".equals(operator)) {
+                    operator = "<>";
+                }
+                return new Comparison(operand, operator, parseOperand());
+            } else if (peekKeyword("LIKE")) {
+                next();
+                return new Like(operand, parseStringLiteral());
+            } else if (peekKeyword("NOT")) {
+                next();
+                expectKeyword("LIKE");
+                return new Not(new Like(operand, parseStringLiteral()));
+            } else if (peekKeyword("IPLIKE")) {
+                next();
+                return new IpLike(operand, parseIpLikePattern());
+            } else if (peekKeyword("IS")) {
+                next();
+                if (peekKeyword("NOT")) {
+                    next();
+                    expectKeyword("NULL");
+                    return new Not(new IsNull(operand));
+                }
+                expectKeyword("NULL");
+                return new IsNull(operand);
+            }
+            throw unsupported();
+        }
+
+        private Operand parseOperand() {
+            final int type = peek();
+            if (type == STRING) {
+                return new Literal(next());
+            } else if (type != WORD) {
+                throw unsupported();
+            }
+            final String word = m_token;
+            if ("NULL".equalsIgnoreCase(word)) {
+                next();
+                return new Literal(null);
+            } else if (NUMBER_PATTERN.matcher(word).matches()) {
+                next();
+                return new Literal(new BigDecimal(word));
+            } else if (isKeyword(word) || !COLUMN_PATTERN.matcher(word).matches()) {
+                throw unsupported();
+            }
+            next();
+            if (peekSymbol("(")) {
+                // function call
+                throw unsupported();
+            }
+            return column(word);
+        }
+
+        private String parseStringLiteral() {
+            if (peek() != STRING) {
+                throw unsupported();
+            }
+            return next();
+        }
+
+        private String parseIpLikePattern() {
+            if (peek() == STRING) {
+                return next();
+            }
+            // unquoted patterns may contain ',' which is otherwise a token of its own
+            if (m_tokenStart >= 0) {
+                m_position = m_tokenStart;
+                m_tokenStart = -1;
+            }
+            skipWhitespace();
+            final Matcher m = IPLIKE_PATTERN.matcher(m_rule);
+            m.region(m_position, m_rule.length());
+            if (!m.lookingAt()) {
+                throw unsupported();
+            }
+            m_position = m.end();
+            return m.group();
+        }
+
+        private ColumnRef column(final String name) {
+            final Table table = m_schema.findTableByVisibleColumn(name);
+            if (table == null) {
+                throw new FilterParseException("Could not find the column '" + name + "' in filter rule");
+            }
+            final String tableName = table.getName().toLowerCase(Locale.ENGLISH);
+            if (!SUPPORTED_TABLES.contains(tableName)) {
+                throw new UnsupportedRuleException("table " + table.getName());
+            }
+            m_tables.add(tableName);
+            m_columns.add(tableName + "." + name.toLowerCase(Locale.ENGLISH));
+            return new ColumnRef(tableName, name.toLowerCase(Locale.ENGLISH));
+        }
+
+        private void expectEnd() {
+            if (peek() != END) {
+                throw unsupported();
+            }
+        }
+
+        private void expectSymbol(final String symbol) {
+            if (!peekSymbol(symbol)) {
+                throw unsupported();
+            }
+            next();
+        }
+
+        private void expectKeyword(final String keyword) {
+            if (!peekKeyword(keyword)) {
+                throw unsupported();
+            }
+            next();
+        }
+
+        private boolean peekSymbol(final String... symbols) {
+            if (peek() == SYMBOL) {
+                for (final String symbol : symbols) {
+                    if (symbol.equals(m_token)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean peekKeyword(final String keyword) {
+            return peek() == WORD && keyword.equalsIgnoreCase(m_token);
+        }
+
+        private UnsupportedRuleException unsupported() {
+            return new UnsupportedRuleException(peek() == END ? "unexpected end of rule" : "unexpected '" + m_token + "' at position " + m_tokenStart);
+        }
+
+        private static boolean isComparisonOperator(final String symbol) {
+            return "=".equals(symbol) || "==".equals(symbol) || "!=".equals(symbol) || "<>".equals(symbol)
+                || "<".equals(symbol) || "<=".equals(symbol) || ">".equals(symbol) || ">=".equals(symbol);
+        }
+
+        private static boolean isKeyword(final String word) {
+            final String upper = word.toUpperCase(Locale.ENGLISH);
+            return "AND".equals(upper) || "OR".equals(upper) || "NOT".equals(upper) || "LIKE".equals(upper)
+                || "IS".equals(upper) || "IN".equals(upper) || "IPLIKE".equals(upper) || "DISTINCT".equals(upper)
+                || "FROM".equals(upper);
+        }
+
+        private String next() {
+            peek();
+            m_tokenStart = -1;
+            return m_token;
+        }
+
+        private int peek() {
+            if (m_tokenStart >= 0) {
+                return m_type;
+            }
+            skipWhitespace();
+            m_tokenStart = m_position;
+            if (m_position >= m_rule.length()) {
+                m_type = END;
+                m_token = null;
+                return m_type;
+            }
+
+            final char c = m_rule.charAt(m_position);
+            if (c == '\'' || c == '"') {
+                final StringBuilder value = new StringBuilder();
+                int i = m_position + 1;
+                while (true) {
+                    if (i >= m_rule.length()) {
+                        throw new FilterParseException("Unmatched " + c + " in filter rule '" + m_rule + "'");
+                    }
+                    final char ch = m_rule.charAt(i++);
+                    if (ch == c) {
+                        if (i < m_rule.length() && m_rule.charAt(i) == c) {
+                            value.append(c);
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(ch);
+                    }
+                }
+                m_position = i;
+                m_type = STRING;
+                m_token = value.toString();
+            } else if (isWordChar(c)) {
+                int i = m_position;
+                while (i < m_rule.length() && isWordChar(m_rule.charAt(i))) {
+                    i++;
+                }
+                m_token = m_rule.substring(m_position, i);
+                m_position = i;
+                m_type = WORD;
+            } else {
+                final String two = m_position + 1 < m_rule.length() ? m_rule.substring(m_position, m_position + 2) : "";
+                if ("&&".equals(two) || "||".equals(two) || "==".equals(two) || "!=".equals(two) || "<>".equals(two) || "<=".equals(two) || ">=".equals(two)) {
+                    m_token = two;
+                } else {
+                    m_token = String.valueOf(c);
+                }
+                m_position += m_token.length();
+                m_type = SYMBOL;
+            }
+            return m_type;
+        }
+
+        private void skipWhitespace() {
+            while (m_position < m_rule.length() && Character.isWhitespace(m_rule.charAt(m_position))) {
+                m_position++;
+            }
+        }
+
+        private static boolean isWordChar(final char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '*' || c == ':';
+        }
+    }
+}
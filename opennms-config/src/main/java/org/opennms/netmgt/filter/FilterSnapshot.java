@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+import org.opennms.core.utils.InetAddressComparator;
+
+/**
+ * An immutable, in-memory copy of the node, interface, service, category
+ * and asset rows that filter rules are evaluated against.  Interfaces are
+ * indexed by address so that equality and IPLIKE constraints only have to
+ * look at the interfaces that can possibly match.
+ *
+ * Column names are stored in lower case, the way the database reports them.
+ */
+final class FilterSnapshot {
+
+    /**
+     * A node row with its asset record and the categories it belongs to.
+     */
+    static final class NodeEntry {
+        private final int m_nodeId;
+        private final Map<String, Object> m_node;
+        private Map<String, Object> m_assets;
+        private final List<Map<String, Object>> m_categories = new ArrayList<Map<String, Object>>();
+        private final List<InterfaceEntry> m_interfaces = new ArrayList<InterfaceEntry>();
+
+        NodeEntry(final int nodeId, final Map<String, Object> node) {
+            m_nodeId = nodeId;
+            m_node = node;
+        }
+
+        int getNodeId() {
+            return m_nodeId;
+        }
+
+        Map<String, Object> getNode() {
+            return m_node;
+        }
+
+        Map<String, Object> getAssets() {
+            return m_assets;
+        }
+
+        void setAssets(final Map<String, Object> assets) {
+            m_assets = assets;
+        }
+
+        List<Map<String, Object>> getCategories() {
+            return m_categories;
+        }
+
+        List<InterfaceEntry> getInterfaces() {
+            return m_interfaces;
+        }
+
+        String getNodeLabel() {
+            final Object label = m_node.get("nodelabel");
+            return label == null ? null : label.toString();
+        }
+
+        boolean isInCategory(final String categoryName) {
+            for (final Map<String, Object> category : m_categories) {
+                if (categoryName.equals(category.get("categoryname"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An IP interface row with its SNMP interface and monitored services.
+     */
+    static final class InterfaceEntry {
+        private final NodeEntry m_node;
+        private final String m_ipAddr;
+        private final InetAddress m_address;
+        private final Map<String, Object> m_ipInterface;
+        private Map<String, Object> m_snmpInterface;
+        private final List<Map<String, Object>> m_services = new ArrayList<Map<String, Object>>();
+
+        InterfaceEntry(final NodeEntry node, final Map<String, Object> ipInterface) {
+            m_node = node;
+            m_ipInterface = ipInterface;
+            final Object ipAddr = ipInterface.get("ipaddr");
+            m_ipAddr = ipAddr == null ? null : ipAddr.toString();
+            InetAddress address = null;
+            try {
+                address = m_ipAddr == null ? null : addr(m_ipAddr);
+            } catch (final IllegalArgumentException e) {
+                // leave unparseable addresses out of the index
+            }
+            m_address = address;
+        }
+
+        NodeEntry getNode() {
+            return m_node;
+        }
+
+        String getIpAddr() {
+            return m_ipAddr;
+        }
+
+        InetAddress getAddress() {
+            return m_address;
+        }
+
+        Map<String, Object> getIpInterface() {
+            return m_ipInterface;
+        }
+
+        Map<String, Object> getSnmpInterface() {
+            return m_snmpInterface;
+        }
+
+        void setSnmpInterface(final Map<String, Object> snmpInterface) {
+            m_snmpInterface = snmpInterface;
+        }
+
+        List<Map<String, Object>> getServices() {
+            return m_services;
+        }
+
+        /**
+         * Mirrors "isManaged != 'D' or isManaged IS NULL".
+         */
+        boolean isActive() {
+            return !"D".equals(m_ipInterface.get("ismanaged"));
+        }
+    }
+
+    private static final Comparator<InterfaceEntry> ADDRESS_ORDER = new Comparator<InterfaceEntry>() {
+        private final InetAddressComparator m_comparator = new InetAddressComparator();
+
+        @Override
+        public int compare(final InterfaceEntry o1, final InterfaceEntry o2) {
+            return m_comparator.compare(o1.getAddress(), o2.getAddress());
+        }
+    };
+
+    private final Map<Integer, NodeEntry> m_nodes;
+    private final List<InterfaceEntry> m_interfaces;
+    private final Map<String, List<InterfaceEntry>> m_byIpAddr;
+    private final Map<InetAddress, List<InterfaceEntry>> m_byAddress;
+    private final long[] m_ipv4Keys;
+    private final InterfaceEntry[] m_ipv4Interfaces;
+
+    FilterSnapshot(final Collection<NodeEntry> nodes) {
+        m_nodes = new HashMap<Integer, NodeEntry>(nodes.size() * 2);
+        m_byIpAddr = new HashMap<String, List<InterfaceEntry>>();
+        m_byAddress = new HashMap<InetAddress, List<InterfaceEntry>>();
+
+        final List<InterfaceEntry> ipv4 = new ArrayList<InterfaceEntry>();
+        final List<InterfaceEntry> others = new ArrayList<InterfaceEntry>();
+        for (final NodeEntry node : nodes) {
+            m_nodes.put(node.getNodeId(), node);
+            for (final InterfaceEntry iface : node.getInterfaces()) {
+                if (iface.getIpAddr() != null) {
+                    add(m_byIpAddr, iface.getIpAddr(), iface);
+                }
+                if (iface.getAddress() instanceof Inet4Address) {
+                    ipv4.add(iface);
+                } else {
+                    others.add(iface);
+                }
+                if (iface.getAddress() != null) {
+                    add(m_byAddress, iface.getAddress(), iface);
+                }
+            }
+        }
+
+        Collections.sort(ipv4, ADDRESS_ORDER);
+        m_ipv4Interfaces = ipv4.toArray(new InterfaceEntry[ipv4.size()]);
+        m_ipv4Keys = new long[m_ipv4Interfaces.length];
+        for (int i = 0; i < m_ipv4Interfaces.length; i++) {
+            m_ipv4Keys[i] = toKey(m_ipv4Interfaces[i].getAddress());
+        }
+
+        final List<InterfaceEntry> all = new ArrayList<InterfaceEntry>(ipv4.size() + others.size());
+        all.addAll(ipv4);
+        all.addAll(others);
+        m_interfaces = Collections.unmodifiableList(all);
+    }
+
+    private static <K> void add(final Map<K, List<InterfaceEntry>> index, final K key, final InterfaceEntry iface) {
+        List<InterfaceEntry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<InterfaceEntry>(1);
+            index.put(key, entries);
+        }
+        entries.add(iface);
+    }
+
+    private static long toKey(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xffL) << 16) | ((bytes[2] & 0xffL) << 8) | (bytes[3] & 0xffL);
+    }
+
+    /**
+     * All interfaces, IPv4 addresses first in address order.
+     */
+    List<InterfaceEntry> getInterfaces() {
+        return m_interfaces;
+    }
+
+    NodeEntry getNode(final int nodeId) {
+        return m_nodes.get(nodeId);
+    }
+
+    List<InterfaceEntry> getInterfacesByIpAddr(final String ipAddr) {
+        final List<InterfaceEntry> entries = m_byIpAddr.get(ipAddr);
+        return entries == null ? Collections.<InterfaceEntry>emptyList() : entries;
+    }
+
+    List<InterfaceEntry> getInterfacesByAddress(final InetAddress address) {
+        final List<InterfaceEntry> entries = m_byAddress.get(address);
+        return entries == null ? Collections.<InterfaceEntry>emptyList() : entries;
+    }
+
+    /**
+     * Returns the IPv4 interfaces whose address lies between the two
+     * addresses (inclusive), given as unsigned 32-bit values.
+     */
+    List<InterfaceEntry> getIpv4InterfacesInRange(final long low, final long high) {
+        int from = Arrays.binarySearch(m_ipv4Keys, low);
+        if (from < 0) {
+            from = -from - 1;
+        } else {
+            while (from > 0 && m_ipv4Keys[from - 1] == low) {
+                from--;
+            }
+        }
+        int to = from;
+        while (to < m_ipv4Keys.length && m_ipv4Keys[to] <= high) {
+            to++;
+        }
+        return Arrays.asList(m_ipv4Interfaces).subList(from, to);
+    }
+
+    /**
+     * Loads the nodes from the database.
+     *
+     * @param dataSource the database to read from
+     * @param nodeId the node to load, or null to load every node
+     * @return the loaded nodes keyed by node ID
+     */
+    static Map<Integer, NodeEntry> load(final DataSource dataSource, final Integer nodeId) throws SQLException {
+        final Map<Integer, NodeEntry> nodes = new HashMap<Integer, NodeEntry>();
+        final Map<Integer, InterfaceEntry> interfaces = new HashMap<Integer, InterfaceEntry>();
+        final Map<Integer, Map<String, Object>> snmpInterfaces = new HashMap<Integer, Map<String, Object>>();
+
+        final DBUtils d = new DBUtils(FilterSnapshot.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+
+            for (final Map<String, Object> row : query(d, conn, "SELECT * FROM node", "nodeid", nodeId)) {
+                final Integer id = getInteger(row, "nodeid");
+                nodes.put(id, new NodeEntry(id, row));
+            }
+            for (final Map<String, Object> row : query(d, conn, "SELECT * FROM assets", "nodeid", nodeId)) {
+                final NodeEntry node = nodes.get(getInteger(row, "nodeid"));
+                if (node != null) {
+                    node.setAssets(row);
+                }
+            }
+            for (final Map<String, Object> row : query(d, conn, "SELECT category_node.nodeid AS category_nodeid, categories.* FROM category_node JOIN categories ON (categories.categoryid = category_node.categoryid)", "category_node.nodeid", nodeId)) {
+                final NodeEntry node = nodes.get(getInteger(row, "category_nodeid"));
+                if (node != null) {
+                    node.getCategories().add(row);
+                }
+            }
+            for (final Map<String, Object> row : query(d, conn, "SELECT * FROM snmpinterface", "nodeid", nodeId)) {
+                snmpInterfaces.put(getInteger(row, "id"), row);
+            }
+            for (final Map<String, Object> row : query(d, conn, "SELECT * FROM ipinterface", "nodeid", nodeId)) {
+                final NodeEntry node = nodes.get(getInteger(row, "nodeid"));
+                if (node != null) {
+                    final InterfaceEntry iface = new InterfaceEntry(node, row);
+                    final Integer snmpInterfaceId = getInteger(row, "snmpinterfaceid");
+                    if (snmpInterfaceId != null) {
+                        iface.setSnmpInterface(snmpInterfaces.get(snmpInterfaceId));
+                    }
+                    node.getInterfaces().add(iface);
+                    interfaces.put(getInteger(row, "id"), iface);
+                }
+            }
+            for (final Map<String, Object> row : query(d, conn, "SELECT ifservices.*, service.servicename FROM ifservices JOIN service ON (service.serviceid = ifservices.serviceid) JOIN ipinterface ON (ipinterface.id = ifservices.ipinterfaceid)", "ipinterface.nodeid", nodeId)) {
+                final InterfaceEntry iface = interfaces.get(getInteger(row, "ipinterfaceid"));
+                if (iface != null) {
+                    iface.getServices().add(row);
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return nodes;
+    }
+
+    private static List<Map<String, Object>> query(final DBUtils d, final Connection conn, final String select, final String nodeColumn, final Integer nodeId) throws SQLException {
+        final PreparedStatement stmt = conn.prepareStatement(nodeId == null ? select : select + " WHERE " + nodeColumn + " = ?");
+        d.watch(stmt);
+        if (nodeId != null) {
+            stmt.setInt(1, nodeId);
+        }
+        final ResultSet rs = stmt.executeQuery();
+        d.watch(rs);
+
+        final ResultSetMetaData metaData = rs.getMetaData();
+        final String[] columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = metaData.getColumnLabel(i + 1).toLowerCase();
+        }
+
+        final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        while (rs.next()) {
+            final Map<String, Object> row = new HashMap<String, Object>(columns.length * 2);
+            for (int i = 0; i < columns.length; i++) {
+                row.put(columns[i], rs.getObject(i + 1));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Integer getInteger(final Map<String, Object> row, final String column) {
+        final Object value = row.get(column);
+        return value == null ? null : Integer.valueOf(((Number)value).intValue());
+    }
+}
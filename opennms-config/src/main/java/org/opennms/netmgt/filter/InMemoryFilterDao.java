@@ -0,0 +1,524 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.InetAddressComparator;
+import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.FilterRule.UnsupportedRuleException;
+import org.opennms.netmgt.filter.FilterSnapshot.InterfaceEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.NodeEntry;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * <p>A {@link FilterDao} that can evaluate rules in memory instead of
+ * turning each call into an SQL query.</p>
+ *
+ * <p>When the <code>org.opennms.netmgt.filter.inMemory</code> system
+ * property is true, rules are compiled once into a {@link FilterRule} and
+ * evaluated in memory against a {@link FilterSnapshot} of the node,
+ * interface, service, category and asset tables.  The snapshot is loaded on
+ * first use and kept up to date from node and interface events: the nodes
+ * named by those events are re-read on the next call, and
+ * {@link #flushActiveIpAddressListCache()} reloads everything.  Events are
+ * delivered to each listener on its own thread, so a daemon handling the
+ * same event may evaluate a rule before the node is marked stale, and some
+ * changes are not announced by any event at all.  The snapshot is therefore
+ * also reloaded once it is older than
+ * <code>org.opennms.netmgt.filter.inMemory.maxAge</code> milliseconds
+ * (five minutes by default).  Rules that cannot be evaluated in memory, and
+ * all calls made while no event subscription is available, are still passed
+ * to the delegate.</p>
+ *
+ * <p>Otherwise every call is delegated.</p>
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class InMemoryFilterDao implements FilterDao, EventListener, InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryFilterDao.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.filter.inMemory";
+
+    public static final String MAX_AGE_PROPERTY = "org.opennms.netmgt.filter.inMemory.maxAge";
+
+    private static final long DEFAULT_MAX_AGE = 300000;
+
+    private static final int MAX_CACHED_RULES = 10000;
+
+    private static final List<String> UEIS = Arrays.asList(
+        EventConstants.NODE_ADDED_EVENT_UEI,
+        EventConstants.NODE_UPDATED_EVENT_UEI,
+        EventConstants.NODE_DELETED_EVENT_UEI,
+        EventConstants.DUP_NODE_DELETED_EVENT_UEI,
+        EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+        EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI,
+        EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+        EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI,
+        EventConstants.INTERFACE_IP_HOSTNAME_CHANGED_EVENT_UEI,
+        EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+        EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI,
+        EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+        EventConstants.SERVICE_DELETED_EVENT_UEI,
+        EventConstants.SERVICE_UNMANAGED_EVENT_UEI
+    );
+
+    /**
+     * A rule evaluation against the snapshot.
+     */
+    private interface Evaluation<T> {
+        T evaluate(FilterRule rule, FilterSnapshot snapshot);
+    }
+
+    private FilterDao m_delegate;
+    private DataSource m_dataSource;
+    private DatabaseSchemaConfig m_databaseSchemaConfigFactory;
+    private EventSubscriptionService m_eventSubscriptionService;
+    private boolean m_enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private long m_maxAge = Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE);
+
+    private final Map<String, FilterRule> m_rules = new ConcurrentHashMap<String, FilterRule>();
+    private final Set<String> m_unsupportedRules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Object m_snapshotLock = new Object();
+    private final Map<Integer, NodeEntry> m_nodes = new HashMap<Integer, NodeEntry>();
+    private final Set<Integer> m_staleNodes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private volatile boolean m_reloadAll = true;
+    private volatile boolean m_subscribed = false;
+    private volatile FilterSnapshot m_snapshot;
+    private volatile long m_loadTime;
+
+    /**
+     * <p>setDelegate</p>
+     *
+     * @param delegate the {@link FilterDao} used for rules that cannot be evaluated in memory
+     */
+    public void setDelegate(final FilterDao delegate) {
+        m_delegate = delegate;
+    }
+
+    public FilterDao getDelegate() {
+        return m_delegate;
+    }
+
+    public void setDataSource(final DataSource dataSource) {
+        m_dataSource = dataSource;
+    }
+
+    public DataSource getDataSource() {
+        return m_dataSource;
+    }
+
+    public void setDatabaseSchemaConfigFactory(final DatabaseSchemaConfig factory) {
+        m_databaseSchemaConfigFactory = factory;
+    }
+
+    public DatabaseSchemaConfig getDatabaseSchemaConfigFactory() {
+        return m_databaseSchemaConfigFactory;
+    }
+
+    /**
+     * <p>setEventSubscriptionService</p>
+     *
+     * @param eventSubscriptionService the service that delivers node and
+     *        interface events; if not set, the {@link EventIpcManagerFactory}
+     *        instance is used once it is available
+     */
+    public void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        m_enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * <p>setMaxAge</p>
+     *
+     * @param maxAge the number of milliseconds after which the whole
+     *        snapshot is reloaded, even if no event asked for it
+     */
+    public void setMaxAge(final long maxAge) {
+        m_maxAge = maxAge;
+    }
+
+    public long getMaxAge() {
+        return m_maxAge;
+    }
+
+    /**
+     * <p>afterPropertiesSet</p>
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_delegate != null, "property delegate cannot be null");
+        Assert.state(m_dataSource != null, "property dataSource cannot be null");
+        Assert.state(m_databaseSchemaConfigFactory != null, "property databaseSchemaConfigFactory cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+        final SortedMap<Integer, String> nodes = evaluate(rule, new Evaluation<SortedMap<Integer, String>>() {
+            @Override
+            public SortedMap<Integer, String> evaluate(final FilterRule filterRule, final FilterSnapshot snapshot) {
+                final SortedMap<Integer, String> resultMap = new TreeMap<Integer, String>();
+                for (final InterfaceEntry iface : filterRule.getCandidates(snapshot)) {
+                    final NodeEntry node = iface.getNode();
+                    if (!resultMap.containsKey(node.getNodeId()) && filterRule.matches(iface)) {
+                        resultMap.put(node.getNodeId(), node.getNodeLabel());
+                    }
+                }
+                return Collections.unmodifiableSortedMap(resultMap);
+            }
+        });
+        return nodes == null ? m_delegate.getNodeMap(rule) : nodes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+        final Map<InetAddress, Set<String>> ipServices = evaluate(rule, new Evaluation<Map<InetAddress, Set<String>>>() {
+            @Override
+            public Map<InetAddress, Set<String>> evaluate(final FilterRule filterRule, final FilterSnapshot snapshot) {
+                final Map<InetAddress, Set<String>> resultMap = new TreeMap<InetAddress, Set<String>>(new InetAddressComparator());
+                final Set<String> services = new TreeSet<String>();
+                for (final InterfaceEntry iface : filterRule.getCandidates(snapshot)) {
+                    if (iface.getAddress() == null) {
+                        continue;
+                    }
+                    filterRule.collectServices(iface, services);
+                    if (!services.isEmpty()) {
+                        final Set<String> existing = resultMap.get(iface.getAddress());
+                        if (existing == null) {
+                            resultMap.put(iface.getAddress(), new TreeSet<String>(services));
+                        } else {
+                            existing.addAll(services);
+                        }
+                        services.clear();
+                    }
+                }
+                return resultMap;
+            }
+        });
+        return ipServices == null ? m_delegate.getIPAddressServiceMap(rule) : ipServices;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reloads the whole snapshot on the next call.
+     */
+    @Override
+    public void flushActiveIpAddressListCache() {
+        m_reloadAll = true;
+        m_delegate.flushActiveIpAddressListCache();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+        final List<InetAddress> addresses = getIPAddressList(rule, true);
+        return addresses == null ? m_delegate.getActiveIPAddressList(rule) : addresses;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+        final List<InetAddress> addresses = getIPAddressList(rule, false);
+        return addresses == null ? m_delegate.getIPAddressList(rule) : addresses;
+    }
+
+    private List<InetAddress> getIPAddressList(final String rule, final boolean filterDeleted) {
+        return evaluate(rule, new Evaluation<List<InetAddress>>() {
+            @Override
+            public List<InetAddress> evaluate(final FilterRule filterRule, final FilterSnapshot snapshot) {
+                final boolean checkActive = filterDeleted && isActiveCheckNeeded(filterRule);
+                final Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+                for (final InterfaceEntry iface : filterRule.getCandidates(snapshot)) {
+                    if (iface.getAddress() != null && (!checkActive || iface.isActive()) && !addresses.contains(iface.getAddress()) && filterRule.matches(iface)) {
+                        addresses.add(iface.getAddress());
+                    }
+                }
+                return new ArrayList<InetAddress>(addresses);
+            }
+        });
+    }
+
+    /**
+     * As in JdbcFilterDao, deleted interfaces are only left out when the
+     * rule does not refer to the isManaged column itself, however the rule
+     * capitalizes it.
+     */
+    private static boolean isActiveCheckNeeded(final FilterRule filterRule) {
+        return !filterRule.references("ipInterface", "isManaged");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the interfaces with the given address are evaluated.
+     */
+    @Override
+    public boolean isValid(final String addr, final String rule) throws FilterParseException {
+        if (rule.length() == 0) {
+            return true;
+        }
+        final Boolean valid = evaluate(rule, new Evaluation<Boolean>() {
+            @Override
+            public Boolean evaluate(final FilterRule filterRule, final FilterSnapshot snapshot) {
+                final boolean checkActive = isActiveCheckNeeded(filterRule);
+                for (final InterfaceEntry iface : snapshot.getInterfacesByAddress(addr(addr))) {
+                    if ((!checkActive || iface.isActive()) && filterRule.matches(iface)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        return valid == null ? m_delegate.isValid(addr, rule) : valid;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isRuleMatching(final String rule) throws FilterParseException {
+        final Boolean matches = evaluate(rule, new Evaluation<Boolean>() {
+            @Override
+            public Boolean evaluate(final FilterRule filterRule, final FilterSnapshot snapshot) {
+                for (final InterfaceEntry iface : filterRule.getCandidates(snapshot)) {
+                    if (filterRule.matches(iface)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        if (matches == null) {
+            return m_delegate.isRuleMatching(rule);
+        }
+        LOG.debug("isRuleMatching: rule \"{}\" {} an entry in the snapshot", rule, matches ? "matches" : "does not match");
+        return matches;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void validateRule(final String rule) throws FilterParseException {
+        // as in JdbcFilterDao, a rule is valid if it can be evaluated
+        isRuleMatching(rule);
+    }
+
+    /**
+     * Runs the evaluation against the current snapshot.
+     *
+     * @return the result, or null if the caller has to use the delegate
+     */
+    private <T> T evaluate(final String rule, final Evaluation<T> evaluation) throws FilterParseException {
+        if (!m_enabled) {
+            return null;
+        }
+        final FilterRule filterRule = getRule(rule);
+        if (filterRule == null) {
+            return null;
+        }
+        final FilterSnapshot snapshot = getSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return evaluation.evaluate(filterRule, snapshot);
+        } catch (final UnsupportedRuleException e) {
+            LOG.debug("Filter rule \"{}\" will be evaluated by the database: {}", rule, e.getMessage());
+            m_rules.remove(rule);
+            m_unsupportedRules.add(rule);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the compiled rule, or null if it has to be evaluated by the
+     * delegate.
+     */
+    private FilterRule getRule(final String rule) throws FilterParseException {
+        final String key = rule == null ? "" : rule;
+        if (m_unsupportedRules.contains(key)) {
+            return null;
+        }
+        FilterRule filterRule = m_rules.get(key);
+        if (filterRule == null) {
+            try {
+                filterRule = FilterRule.compile(key, m_databaseSchemaConfigFactory);
+            } catch (final UnsupportedRuleException e) {
+                LOG.debug("Filter rule \"{}\" will be evaluated by the database: {}", rule, e.getMessage());
+                if (m_unsupportedRules.size() >= MAX_CACHED_RULES) {
+                    m_unsupportedRules.clear();
+                }
+                m_unsupportedRules.add(key);
+                return null;
+            }
+            if (m_rules.size() >= MAX_CACHED_RULES) {
+                m_rules.clear();
+            }
+            m_rules.put(key, filterRule);
+        }
+        return filterRule;
+    }
+
+    /**
+     * Returns the current snapshot, applying any reloads that events or
+     * flushes have asked for, or null if no snapshot can be kept.
+     */
+    private FilterSnapshot getSnapshot() {
+        if (!subscribe()) {
+            return null;
+        }
+        final FilterSnapshot current = m_snapshot;
+        if (current != null && !m_reloadAll && m_staleNodes.isEmpty() && !isExpired()) {
+            return current;
+        }
+
+        synchronized (m_snapshotLock) {
+            try {
+                if (m_reloadAll || m_snapshot == null || isExpired()) {
+                    m_reloadAll = false;
+                    m_staleNodes.clear();
+                    final long loadTime = System.currentTimeMillis();
+                    final Map<Integer, NodeEntry> nodes = FilterSnapshot.load(m_dataSource, null);
+                    m_nodes.clear();
+                    m_nodes.putAll(nodes);
+                    m_loadTime = loadTime;
+                    LOG.debug("Loaded {} nodes into the filter snapshot", m_nodes.size());
+                } else if (!m_staleNodes.isEmpty()) {
+                    for (final Iterator<Integer> it = m_staleNodes.iterator(); it.hasNext();) {
+                        final Integer nodeId = it.next();
+                        it.remove();
+                        m_nodes.remove(nodeId);
+                        m_nodes.putAll(FilterSnapshot.load(m_dataSource, nodeId));
+                    }
+                } else {
+                    return m_snapshot;
+                }
+            } catch (final SQLException e) {
+                LOG.warn("Failed to load the filter snapshot; rules will be evaluated by the database.", e);
+                m_reloadAll = true;
+                m_snapshot = null;
+                return null;
+            }
+            m_snapshot = new FilterSnapshot(m_nodes.values());
+            return m_snapshot;
+        }
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - m_loadTime > m_maxAge;
+    }
+
+    /**
+     * The snapshot can only be trusted while node and interface events are
+     * being received, so subscribe before the first load.
+     */
+    private boolean subscribe() {
+        if (m_subscribed) {
+            return true;
+        }
+        synchronized (m_snapshotLock) {
+            if (!m_subscribed) {
+                EventSubscriptionService subscriptionService = m_eventSubscriptionService;
+                if (subscriptionService == null) {
+                    try {
+                        subscriptionService = EventIpcManagerFactory.getIpcManager();
+                    } catch (final IllegalStateException e) {
+                        return false;
+                    }
+                }
+                subscriptionService.addEventListener(this, UEIS);
+                m_reloadAll = true;
+                m_subscribed = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>getName</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onEvent(final Event e) {
+        if (e.hasNodeid() && !EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(e.getUei())) {
+            m_staleNodes.add(e.getNodeid().intValue());
+        } else {
+            // reparenting touches two nodes
+            m_reloadAll = true;
+        }
+    }
+}
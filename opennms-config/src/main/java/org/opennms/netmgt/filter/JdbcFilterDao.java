@@ -76,6 +76,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     private static final Pattern SQL_QUOTE_PATTERN = Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
 	private static final Pattern SQL_ESCAPED_PATTERN = Pattern.compile("###@(\\d+)@###");
 	private static final Pattern SQL_VALUE_COLUMN_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]*[a-zA-Z][a-zA-Z0-9_\\-]*");
+	private static final Pattern SQL_IS_MANAGED_PATTERN = Pattern.compile("\\bipInterface\\.isManaged\\b", Pattern.CASE_INSENSITIVE);
 	private static final Pattern SQL_IPLIKE_PATTERN = Pattern.compile("(\\w+)\\s+IPLIKE\\s+([0-9a-f.:*,-]+|###@\\d+@###)", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 	private static final String SQL_IPLIKE6_RHS_REGEX = "^[0-9A-Fa-f:*,-]+$";
 
@@ -277,7 +278,8 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             sqlString = getSQLStatement(rule);
 
             if (filterDeleted) {
-            	if (!sqlString.contains("isManaged")) {
+            	// the rule's columns are written as the user spelled them
+            	if (!SQL_IS_MANAGED_PATTERN.matcher(sqlString).find()) {
             		sqlString += " AND (ipInterface.isManaged != 'D' or ipInterface.isManaged IS NULL)";
             	}
             }
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Measures eventconf lookups against the default eventconf.xml shipped in
+ * opennms-base-assembly, comparing the indexed
+ * {@link DefaultEventConfDao#findByEvent(org.opennms.netmgt.xml.event.Event)}
+ * with a linear scan over every definition.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.config.EventConfMatchingBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventConfMatchingBenchmark {
+
+    private DefaultEventConfDao m_eventConfDao;
+    private org.opennms.netmgt.xml.event.Event[] m_events;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        final List<org.opennms.netmgt.xml.event.Event> events = createSampleEvents(m_eventConfDao.getRootEvents());
+        m_events = events.toArray(new org.opennms.netmgt.xml.event.Event[events.size()]);
+    }
+
+    @Benchmark
+    public void indexed(final Blackhole blackhole) {
+        for (final org.opennms.netmgt.xml.event.Event event : m_events) {
+            blackhole.consume(m_eventConfDao.findByEvent(event));
+        }
+    }
+
+    @Benchmark
+    public void linearScan(final Blackhole blackhole) {
+        for (final org.opennms.netmgt.xml.event.Event event : m_events) {
+            blackhole.consume(findByLinearScan(m_eventConfDao.getRootEvents(), event));
+        }
+    }
+
+    /**
+     * Returns the first definition matching the event by checking every
+     * definition in order.
+     */
+    static Event findByLinearScan(final Events events, final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        return events.findFirstMatchingEvent(new Events.EventCriteria() {
+            @Override
+            public boolean matches(final Event e) {
+                return e.matches(matchingEvent);
+            }
+        });
+    }
+
+    /**
+     * Builds one incoming event per eventconf definition, using the first
+     * value of each mask element and varbind so that most of them match, plus
+     * a few that don't match anything.
+     */
+    static List<org.opennms.netmgt.xml.event.Event> createSampleEvents(final Events events) {
+        final List<org.opennms.netmgt.xml.event.Event> samples = new ArrayList<org.opennms.netmgt.xml.event.Event>();
+        events.forEachEvent(samples, new Events.EventCallback<List<org.opennms.netmgt.xml.event.Event>>() {
+            @Override
+            public List<org.opennms.netmgt.xml.event.Event> process(final List<org.opennms.netmgt.xml.event.Event> accum, final Event eventConf) {
+                final EventBuilder bldr = new EventBuilder(eventConf.getUei(), "EventConfMatchingBenchmark");
+                final Mask mask = eventConf.getMask();
+                if (mask != null) {
+                    final String uei = sampleValue(mask.getMaskElementValues("uei"));
+                    if (uei != null) {
+                        bldr.setUei(uei);
+                    }
+                    final String id = sampleValue(mask.getMaskElementValues("id"));
+                    if (id != null) {
+                        bldr.setEnterpriseId(id);
+                    }
+                    final String generic = sampleValue(mask.getMaskElementValues("generic"));
+                    if (generic != null && generic.matches("-?\\d+")) {
+                        bldr.setGeneric(Integer.parseInt(generic));
+                    }
+                    final String specific = sampleValue(mask.getMaskElementValues("specific"));
+                    if (specific != null && specific.matches("-?\\d+")) {
+                        bldr.setSpecific(Integer.parseInt(specific));
+                    }
+                    int vbnumber = 1;
+                    for (final Varbind varbind : mask.getVarbindCollection()) {
+                        if (varbind.getVbnumber() == null) continue;
+                        while (vbnumber < varbind.getVbnumber()) {
+                            bldr.addParam(".1.3.6.1.2.1.1.0." + vbnumber, "0");
+                            vbnumber++;
+                        }
+                        final String value = sampleValue(varbind.getVbvalueCollection());
+                        bldr.addParam(".1.3.6.1.2.1.1.1." + vbnumber, value == null ? "0" : value);
+                        vbnumber++;
+                    }
+                }
+                accum.add(bldr.getEvent());
+                return accum;
+            }
+        });
+
+        samples.add(new EventBuilder("uei.opennms.org/benchmark/noSuchEvent", "EventConfMatchingBenchmark").getEvent());
+        samples.add(new EventBuilder(null, "EventConfMatchingBenchmark").setEnterpriseId(".1.3.6.1.4.1.99999.1").setGeneric(6).setSpecific(1).getEvent());
+        return samples;
+    }
+
+    private static String sampleValue(final List<String> values) {
+        if (values == null) return null;
+        for (final String value : values) {
+            if (value == null || value.startsWith("~")) continue;
+            return value.endsWith("%") ? value.substring(0, value.length() - 1) + "1" : value;
+        }
+        return null;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(EventConfMatchingBenchmark.class.getSimpleName())
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .forks(1)
+            .build()).run();
+    }
+}
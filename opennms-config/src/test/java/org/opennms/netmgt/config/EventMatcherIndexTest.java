@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Verifies that the indexed eventconf lookup returns the same definition as a
+ * linear scan of the default eventconf.xml.
+ */
+public class EventMatcherIndexTest {
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(false);
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+    }
+
+    @Test
+    public void testSameMatchAsLinearScan() {
+        final List<Event> events = EventConfMatchingBenchmark.createSampleEvents(m_eventConfDao.getRootEvents());
+        assertTrue(events.size() > 1000);
+
+        int matched = 0;
+        for (final Event event : events) {
+            final org.opennms.netmgt.xml.eventconf.Event expected = EventConfMatchingBenchmark.findByLinearScan(m_eventConfDao.getRootEvents(), event);
+            assertSame("wrong match for " + event, expected, m_eventConfDao.findByEvent(event));
+            if (expected != null) matched++;
+        }
+        assertTrue(matched > events.size() / 2);
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertNull(m_eventConfDao.findByEvent(new EventBuilder("uei.opennms.org/test/noSuchEvent", "EventMatcherIndexTest").getEvent()));
+    }
+}
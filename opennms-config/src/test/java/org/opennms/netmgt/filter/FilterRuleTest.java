@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.filter.FilterRule.UnsupportedRuleException;
+import org.opennms.netmgt.filter.FilterSnapshot.InterfaceEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.NodeEntry;
+import org.opennms.netmgt.filter.api.FilterParseException;
+
+public class FilterRuleTest {
+    private DatabaseSchemaConfigFactory m_schema;
+    private FilterSnapshot m_snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        m_schema = new DatabaseSchemaConfigFactory(getClass().getResourceAsStream("/etc/database-schema.xml"));
+
+        final NodeEntry router = node(1, "router", "Routers");
+        iface(router, "192.168.1.1", "M", "ICMP", "SNMP");
+        iface(router, "192.168.1.2", "M", "ICMP");
+        final NodeEntry server = node(2, "server");
+        server.getNode().put("nodesysname", "web01");
+        iface(server, "10.0.0.1", "M", "HTTP");
+        iface(server, "10.0.0.2", "D", "ICMP");
+
+        m_snapshot = new FilterSnapshot(Arrays.asList(router, server));
+    }
+
+    @Test
+    public void testIpLikeUsesAddressIndex() {
+        final FilterRule rule = FilterRule.compile("IPADDR IPLIKE 192.168.1.* & isSNMP", m_schema);
+        assertEquals(2, rule.getCandidates(m_snapshot).size());
+        assertEquals(Arrays.asList("192.168.1.1"), match(rule));
+
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), match("ipaddr iplike 10.0.0.1-2"));
+        assertEquals(Arrays.asList("192.168.1.1", "192.168.1.2"), match("IPLIKE(ipAddr, '192.168.1,2.*')"));
+    }
+
+    @Test
+    public void testNotificationConstraints() {
+        final FilterRule rule = FilterRule.compile("((catincRouters | nodeLabel == 'server') & (nodeId == 1) & (ipAddr == '192.168.1.2'))", m_schema);
+        assertEquals(1, rule.getCandidates(m_snapshot).size());
+        assertEquals(Arrays.asList("192.168.1.2"), match(rule));
+
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), match("!catincRouters"));
+        assertEquals(Arrays.asList("10.0.0.1"), match("(isHTTP | isSNMP) & nodeId > 1"));
+    }
+
+    @Test
+    public void testNullComparisons() {
+        // NULL is neither equal nor unequal to anything
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), match("nodeSysName != 'db01'"));
+        assertEquals(Arrays.asList("192.168.1.1", "192.168.1.2"), match("nodeSysName IS NULL"));
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), match("NOT (nodeSysName IS NULL) & nodeSysName LIKE 'web%'"));
+        assertEquals(Arrays.asList("10.0.0.2"), match("IsManaged == 'D'"));
+    }
+
+    @Test
+    public void testMixedCaseIsManagedRule() {
+        // JdbcFilterDao only adds its own check for deleted interfaces when the rule does not refer to isManaged
+        for (final String rule : new String[] { "IsManaged == 'D'", "ISMANAGED == 'D'", "IsMaNaGeD != 'M' & nodeId == 2" }) {
+            final FilterRule filterRule = FilterRule.compile(rule, m_schema);
+            assertTrue(rule, filterRule.references("ipInterface", "isManaged"));
+            assertEquals(Arrays.asList("10.0.0.2"), match(filterRule));
+        }
+        // a lower case "is" prefix names a service
+        assertFalse(FilterRule.compile("isManaged", m_schema).references("ipInterface", "isManaged"));
+        assertFalse(FilterRule.compile("nodeLabel == 'IsManaged'", m_schema).references("ipInterface", "isManaged"));
+        assertFalse(FilterRule.compile("", m_schema).references("ipInterface", "isManaged"));
+    }
+
+    @Test
+    public void testCollectServices() {
+        final FilterRule rule = FilterRule.compile("nodeId == 1 & serviceName != 'ICMP'", m_schema);
+        final Set<String> services = new TreeSet<String>();
+        for (final InterfaceEntry iface : rule.getCandidates(m_snapshot)) {
+            rule.collectServices(iface, services);
+        }
+        assertEquals("[SNMP]", services.toString());
+    }
+
+    @Test
+    public void testUnsupportedRules() {
+        for (final String rule : new String[] { "nodeId IN (1, 2)", "nodeCreateTime > '2016-01-01'::timestamp", "notisICMP", "nodeLabel > 'a'" }) {
+            try {
+                match(rule);
+                fail("expected rule to be unsupported: " + rule);
+            } catch (final UnsupportedRuleException e) {
+                // expected
+            }
+        }
+        try {
+            FilterRule.compile("noSuchColumn == 1", m_schema);
+            fail("expected a FilterParseException");
+        } catch (final FilterParseException e) {
+            assertTrue(e.getMessage().contains("noSuchColumn"));
+        }
+        assertFalse(FilterRule.compile("nodeLabel == 'router''s'", m_schema).matches(m_snapshot.getInterfaces().get(0)));
+    }
+
+    private List<String> match(final String rule) {
+        return match(FilterRule.compile(rule, m_schema));
+    }
+
+    private List<String> match(final FilterRule rule) {
+        final List<String> addresses = new ArrayList<String>();
+        for (final InterfaceEntry iface : rule.getCandidates(m_snapshot)) {
+            if (rule.matches(iface)) {
+                addresses.add(iface.getIpAddr());
+            }
+        }
+        return addresses;
+    }
+
+    private static NodeEntry node(final int nodeId, final String label, final String... categories) {
+        final Map<String, Object> row = new HashMap<String, Object>();
+        row.put("nodeid", nodeId);
+        row.put("nodelabel", label);
+        final NodeEntry node = new NodeEntry(nodeId, row);
+        for (final String category : categories) {
+            final Map<String, Object> categoryRow = new HashMap<String, Object>();
+            categoryRow.put("categoryname", category);
+            node.getCategories().add(categoryRow);
+        }
+        return node;
+    }
+
+    private static void iface(final NodeEntry node, final String ipAddr, final String isManaged, final String... services) {
+        final Map<String, Object> row = new HashMap<String, Object>();
+        row.put("nodeid", node.getNodeId());
+        row.put("ipaddr", ipAddr);
+        row.put("ismanaged", isManaged);
+        final InterfaceEntry iface = new InterfaceEntry(node, row);
+        for (final String service : services) {
+            final Map<String, Object> serviceRow = new HashMap<String, Object>();
+            serviceRow.put("servicename", service);
+            iface.getServices().add(serviceRow);
+        }
+        node.getInterfaces().add(iface);
+    }
+}
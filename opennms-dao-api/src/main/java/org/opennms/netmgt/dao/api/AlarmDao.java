@@ -29,6 +29,7 @@
 package org.opennms.netmgt.dao.api;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.netmgt.model.HeatMapElement;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -39,6 +40,12 @@ public interface AlarmDao extends LegacyOnmsDao<OnmsAlarm, Integer> {
 
     OnmsAlarm findByReductionKey(String reductionKey);
 
+    /**
+     * Returns the id of every alarm that has a reduction key, keyed by
+     * reduction key, without loading the alarms themselves.
+     */
+    Map<String, Integer> getAlarmIdsByReductionKey();
+
     /**
      * <p>Get the list of current - not yet acknowledged - alarms per node with severity greater than normal,
      * reflecting the max severity, the minimum last event time and alarm count;
@@ -57,6 +57,8 @@ public interface BridgeBridgeLinkDao extends OnmsDao<BridgeBridgeLink, Integer>
     void deleteByNodeIdOlderThen(Integer nodeiId, Date now);
 
     void deleteByDesignatedNodeIdOlderThen(Integer nodeiId, Date now);
+
+    void updateLastPollTimeByNodeId(Integer nodeId, Date now);
     
     void deleteByNodeId(Integer nodeiId);
 
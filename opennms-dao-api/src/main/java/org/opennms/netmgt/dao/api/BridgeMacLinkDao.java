@@ -50,6 +50,8 @@ public interface BridgeMacLinkDao extends OnmsDao<BridgeMacLink, Integer> {
 
     void deleteByNodeIdOlderThen(Integer nodeiId, Date now);
 
+    void updateLastPollTimeByNodeId(Integer nodeId, Date now);
+
     public List<BridgeMacTopologyLink> getAllBridgeLinksToIpAddrToNodes();
 
     public List<BridgeMacTopologyLink> getAllBridgeLinksToBridgeNodes();
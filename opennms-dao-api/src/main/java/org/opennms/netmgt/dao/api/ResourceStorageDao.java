@@ -110,6 +110,15 @@ public interface ResourceStorageDao {
      */
     public boolean delete(ResourcePath path);
 
+    /**
+     * Notifies the DAO that the metric with the given name was
+     * persisted at the given path, so that implementations which
+     * index their resources can keep the index up to date.
+     */
+    public default void metricPersisted(ResourcePath path, String metricName) {
+        // No index by default
+    }
+
     /**
      * Retrieves the set of (resource-level) attributes stored at the given path.
      */
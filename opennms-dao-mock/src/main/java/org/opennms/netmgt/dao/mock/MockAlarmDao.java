@@ -34,7 +34,9 @@ import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.alarm.AlarmSummary;
 import org.opennms.netmgt.model.topology.EdgeAlarmStatusSummary;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements AlarmDao {
@@ -75,6 +77,17 @@ public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIds = new HashMap<String, Integer>();
+        for (final OnmsAlarm alarm : findAll()) {
+            if (alarm.getReductionKey() != null) {
+                alarmIds.put(alarm.getReductionKey(), alarm.getId());
+            }
+        }
+        return alarmIds;
+    }
+
     @Override
     public List<AlarmSummary> getNodeAlarmSummaries() {
         throw new UnsupportedOperationException("Not yet implemented!");
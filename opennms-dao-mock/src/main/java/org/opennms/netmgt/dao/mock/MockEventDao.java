@@ -31,6 +31,7 @@ package org.opennms.netmgt.dao.mock;
 import org.opennms.netmgt.dao.api.CountedObject;
 import org.opennms.netmgt.dao.api.EventCountDao;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 
 import java.util.*;
@@ -55,6 +56,20 @@ public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public int setAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds) {
+        int updated = 0;
+        for (final Integer eventId : eventIds) {
+            final OnmsEvent event = get(eventId);
+            if (event != null) {
+                event.setAlarm(alarm);
+                update(event);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
     @Override
     public List<OnmsEvent> getEventsAfterDate(List<String> ueiList, Date date) {
         List<OnmsEvent> matchingEvents = new ArrayList<OnmsEvent>();
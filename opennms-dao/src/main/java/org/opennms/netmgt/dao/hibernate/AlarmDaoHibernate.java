@@ -30,7 +30,9 @@ package org.opennms.netmgt.dao.hibernate;
 
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -62,6 +64,17 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final List<Object[]> rows = findObjects(Object[].class, "select alarm.reductionKey, alarm.id from OnmsAlarm as alarm where alarm.reductionKey is not null");
+        final Map<String, Integer> alarmIds = new HashMap<String, Integer>(rows.size());
+        for (final Object[] row : rows) {
+            alarmIds.put((String)row[0], (Integer)row[1]);
+        }
+        return alarmIds;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
@@ -93,6 +93,12 @@ public class BridgeBridgeLinkDaoHibernate extends AbstractDaoHibernate<BridgeBri
 		}
 	}
 
+	@Override
+	public void updateLastPollTimeByNodeId(Integer nodeId, Date now) {
+		getHibernateTemplate().bulkUpdate("update BridgeBridgeLink rec set rec.bridgeBridgeLinkLastPollTime = ? where rec.node.id = ?",
+		                                  new Object[] { now, nodeId });
+	}
+
         @Override
         public void deleteByNodeId(Integer nodeId) {
                 for (BridgeBridgeLink elem: find("from BridgeBridgeLink rec where rec.node.id = ? ",nodeId)) {
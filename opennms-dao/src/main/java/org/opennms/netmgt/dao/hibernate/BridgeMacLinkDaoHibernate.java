@@ -85,6 +85,12 @@ public class BridgeMacLinkDaoHibernate extends AbstractDaoHibernate<BridgeMacLin
         }
     }
 
+    @Override
+    public void updateLastPollTimeByNodeId(Integer nodeId, Date now) {
+        getHibernateTemplate().bulkUpdate("update BridgeMacLink rec set rec.bridgeMacLinkLastPollTime = ? where rec.node.id = ?",
+                                          new Object[] { now, nodeId });
+    }
+
     @Override
     public void deleteByNodeId(Integer nodeId) {
         for (BridgeMacLink elem : find("from BridgeMacLink rec where rec.node.id = ? ",
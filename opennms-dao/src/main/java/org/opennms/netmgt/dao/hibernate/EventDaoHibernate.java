@@ -31,11 +31,14 @@ package org.opennms.netmgt.dao.hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.hibernate3.HibernateCallback;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -53,6 +56,28 @@ public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer>
         return bulkDelete(hql, values);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public int setAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds) {
+        final String hql = "update OnmsEvent e set e.alarm = :alarm where e.id in (:eventIds)";
+        final List<Integer> ids = new ArrayList<Integer>(eventIds);
+        int updated = 0;
+        // keep the IN lists to a sane size
+        for (int i = 0; i < ids.size(); i += 1000) {
+            final List<Integer> chunk = ids.subList(i, Math.min(i + 1000, ids.size()));
+            updated += getHibernateTemplate().execute(new HibernateCallback<Integer>() {
+                @Override
+                public Integer doInHibernate(Session session) throws HibernateException, SQLException {
+                    return session.createQuery(hql)
+                            .setParameter("alarm", alarm)
+                            .setParameterList("eventIds", chunk)
+                            .executeUpdate();
+                }
+            });
+        }
+        return updated;
+    }
+
     @Override
     public List<OnmsEvent> getEventsAfterDate(final List<String> ueiList, final Date date) {
         final String hql = "From OnmsEvent e where e.eventUei in (:eventUei) and e.eventTime > :eventTime order by e.eventTime desc";
@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.dao.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.opennms.netmgt.model.ResourcePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the directories under the RRD directory that contain metric
+ * files, and of the metrics in each of them.
+ *
+ * The index is built by walking the RRD directory, and then kept up to
+ * date as metrics are persisted and resources are deleted. It can be saved
+ * to and loaded from a file so that it is available as soon as OpenNMS
+ * starts, while it is being rebuilt.
+ *
+ * Until the index was either loaded or built, {@link #isReady()} returns
+ * false and the filesystem should be used instead.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class FilesystemResourceIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceIndex.class);
+
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * A directory. The children and metrics are only allocated when used,
+     * since most directories are leaves.
+     */
+    private static class Node {
+        private Map<String, Node> m_children;
+        private Set<String> m_metrics;
+
+        private Node getChild(String name) {
+            return m_children == null ? null : m_children.get(name);
+        }
+
+        private Node getOrCreateChild(String name) {
+            if (m_children == null) {
+                m_children = new HashMap<>(4);
+            }
+            Node child = m_children.get(name);
+            if (child == null) {
+                child = new Node();
+                m_children.put(name, child);
+            }
+            return child;
+        }
+
+        private boolean hasMetrics() {
+            return m_metrics != null && !m_metrics.isEmpty();
+        }
+
+        private void addMetric(String metric) {
+            if (m_metrics == null) {
+                m_metrics = new HashSet<>(4);
+            }
+            m_metrics.add(metric);
+        }
+    }
+
+    /**
+     * A change made while the index was being rebuilt, replayed on the new
+     * index once it is complete.
+     */
+    private static class Change {
+        private final ResourcePath m_path;
+        private final String m_metric;
+
+        private Change(ResourcePath path, String metric) {
+            m_path = path;
+            m_metric = metric;
+        }
+    }
+
+    private final File m_rrdDirectory;
+    private final String m_rrdExtension;
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private Node m_root = new Node();
+    private boolean m_ready = false;
+    private List<Change> m_changesDuringRebuild = null;
+
+    public FilesystemResourceIndex(File rrdDirectory, String rrdExtension) {
+        m_rrdDirectory = rrdDirectory;
+        m_rrdExtension = rrdExtension;
+    }
+
+    public boolean isReady() {
+        m_lock.readLock().lock();
+        try {
+            return m_ready;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#exists(ResourcePath, int)
+     */
+    public boolean exists(ResourcePath path, int depth) {
+        m_lock.readLock().lock();
+        try {
+            return exists(find(path), depth);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#existsWithin(ResourcePath, int)
+     */
+    public boolean existsWithin(ResourcePath path, int depth) {
+        m_lock.readLock().lock();
+        try {
+            return existsWithin(find(path), depth);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#children(ResourcePath, int)
+     */
+    public Set<ResourcePath> children(ResourcePath path, int depth) {
+        m_lock.readLock().lock();
+        try {
+            final Node node = find(path);
+            if (node == null || node.m_children == null) {
+                return Collections.emptySet();
+            }
+            final Set<ResourcePath> children = new HashSet<>();
+            for (Map.Entry<String, Node> child : node.m_children.entrySet()) {
+                if (exists(child.getValue(), depth - 1)) {
+                    children.add(ResourcePath.get(path, child.getKey()));
+                }
+            }
+            return children;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the names of the metrics at the given path, without the
+     * file extension.
+     */
+    public Set<String> getMetrics(ResourcePath path) {
+        m_lock.readLock().lock();
+        try {
+            final Node node = find(path);
+            if (node == null || node.m_metrics == null) {
+                return Collections.emptySet();
+            }
+            return new HashSet<>(node.m_metrics);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the metric with the given name, without the file
+     * extension, exists at the given path.
+     */
+    public void addMetric(ResourcePath path, String metric) {
+        // Most calls are for metrics that are already known
+        m_lock.readLock().lock();
+        try {
+            final Node node = find(path);
+            if (node != null && node.m_metrics != null && node.m_metrics.contains(metric)) {
+                return;
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+
+        m_lock.writeLock().lock();
+        try {
+            add(m_root, path, metric);
+            if (m_changesDuringRebuild != null) {
+                m_changesDuringRebuild.add(new Change(path, metric));
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the given path, and everything below it.
+     */
+    public void remove(ResourcePath path) {
+        m_lock.writeLock().lock();
+        try {
+            remove(m_root, path);
+            if (m_changesDuringRebuild != null) {
+                m_changesDuringRebuild.add(new Change(path, null));
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Walks the RRD directory and replaces the index with its content.
+     * Changes made while the directory is being walked are kept.
+     */
+    public void rebuild() throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            m_changesDuringRebuild = new ArrayList<>();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+
+        final long start = System.currentTimeMillis();
+        final Node root = new Node();
+        try {
+            if (m_rrdDirectory.isDirectory()) {
+                walk(root);
+            }
+        } catch (IOException e) {
+            m_lock.writeLock().lock();
+            try {
+                m_changesDuringRebuild = null;
+            } finally {
+                m_lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        m_lock.writeLock().lock();
+        try {
+            for (final Change change : m_changesDuringRebuild) {
+                if (change.m_metric != null) {
+                    add(root, change.m_path, change.m_metric);
+                } else {
+                    remove(root, change.m_path);
+                }
+            }
+            m_changesDuringRebuild = null;
+            m_root = root;
+            m_ready = true;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+        LOG.info("Indexed the resources in {} in {}ms.", m_rrdDirectory, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Loads an index previously saved with {@link #save(File)}. Returns
+     * false if the file doesn't exist or can't be read.
+     */
+    public boolean load(File file) {
+        if (!file.canRead()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != FILE_VERSION || !in.readUTF().equals(m_rrdExtension)) {
+                LOG.info("Ignoring the resource index in {}, it was written for another version or strategy.", file);
+                return false;
+            }
+            final Node root = read(in);
+            m_lock.writeLock().lock();
+            try {
+                if (!m_ready) {
+                    m_root = root;
+                    m_ready = true;
+                }
+            } finally {
+                m_lock.writeLock().unlock();
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to read the resource index from {}.", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Saves the index to the given file, if it is ready.
+     */
+    public void save(File file) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        m_lock.readLock().lock();
+        try {
+            if (!m_ready) {
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+                out.writeInt(FILE_VERSION);
+                out.writeUTF(m_rrdExtension);
+                write(out, m_root);
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Node find(ResourcePath path) {
+        Node node = m_root;
+        for (final String element : path) {
+            node = node.getChild(element);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static boolean exists(Node node, int depth) {
+        if (node == null) {
+            return false;
+        } else if (depth == 0) {
+            return node.hasMetrics();
+        } else if (node.m_children == null) {
+            return false;
+        }
+        for (final Node child : node.m_children.values()) {
+            if (exists(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean existsWithin(Node node, int depth) {
+        if (node == null || depth < 0) {
+            return false;
+        } else if (node.hasMetrics()) {
+            return true;
+        } else if (node.m_children == null) {
+            return false;
+        }
+        for (final Node child : node.m_children.values()) {
+            if (existsWithin(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void add(Node root, ResourcePath path, String metric) {
+        Node node = root;
+        for (final String element : path) {
+            node = node.getOrCreateChild(element);
+        }
+        node.addMetric(metric);
+    }
+
+    private static void remove(Node root, ResourcePath path) {
+        final String[] elements = path.elements();
+        if (elements.length == 0) {
+            root.m_children = null;
+            root.m_metrics = null;
+            return;
+        }
+        Node parent = root;
+        for (int i = 0; i < elements.length - 1 && parent != null; i++) {
+            parent = parent.getChild(elements[i]);
+        }
+        if (parent != null && parent.m_children != null) {
+            parent.m_children.remove(elements[elements.length - 1]);
+        }
+    }
+
+    private void walk(final Node root) throws IOException {
+        final Path rootPath = m_rrdDirectory.toPath();
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                final String fileName = file.getFileName().toString();
+                if (attrs.isRegularFile() && fileName.endsWith(m_rrdExtension)) {
+                    Node node = root;
+                    for (final Path element : rootPath.relativize(file.getParent())) {
+                        node = node.getOrCreateChild(element.toString());
+                    }
+                    node.addMetric(fileName.substring(0, fileName.length() - m_rrdExtension.length()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOG.warn("Failed to index {}.", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void write(DataOutputStream out, Node node) throws IOException {
+        if (node.m_metrics == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(node.m_metrics.size());
+            for (final String metric : node.m_metrics) {
+                out.writeUTF(metric);
+            }
+        }
+        if (node.m_children == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(node.m_children.size());
+            for (final Map.Entry<String, Node> child : node.m_children.entrySet()) {
+                out.writeUTF(child.getKey());
+                write(out, child.getValue());
+            }
+        }
+    }
+
+    private static Node read(DataInputStream in) throws IOException {
+        final Node node = new Node();
+        final int numMetrics = in.readInt();
+        for (int i = 0; i < numMetrics; i++) {
+            node.addMetric(in.readUTF());
+        }
+        final int numChildren = in.readInt();
+        for (int i = 0; i < numChildren; i++) {
+            final String name = in.readUTF();
+            if (node.m_children == null) {
+                node.m_children = new HashMap<>(4);
+            }
+            node.m_children.put(name, read(in));
+        }
+        return node;
+    }
+}
@@ -37,19 +37,25 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.model.OnmsAttribute;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RecentSampleStore;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -63,7 +69,7 @@ import com.google.common.collect.Maps;
  *
  * @author jwhite
  */
-public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean {
+public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceStorageDao.class);
 
@@ -74,27 +80,117 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     private File m_rrdDirectory;
 
+    private boolean m_indexEnabled = false;
+
+    private File m_indexFile;
+
+    private long m_indexRebuildInterval = 0;
+
+    private FilesystemResourceIndex m_index;
+
+    private ScheduledExecutorService m_indexExecutor;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
         setRrdExtension(m_rrdStrategy.getDefaultFileExtension());
+
+        if (m_indexEnabled) {
+            startIndex();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (m_indexExecutor != null) {
+            m_indexExecutor.shutdownNow();
+            m_indexExecutor = null;
+        }
+        saveIndex();
+    }
+
+    /**
+     * Loads the saved index, if any, so that it can be used right away, and
+     * rebuilds it in the background.
+     */
+    private void startIndex() {
+        m_index = new FilesystemResourceIndex(m_rrdDirectory, RRD_EXTENSION);
+        if (m_indexFile != null && m_index.load(m_indexFile)) {
+            LOG.info("Loaded the resource index from {}.", m_indexFile);
+        }
+
+        m_indexExecutor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("ResourceIndex", 1));
+        final Runnable rebuild = new Runnable() {
+            @Override
+            public void run() {
+                rebuildIndex();
+            }
+        };
+        if (m_indexRebuildInterval > 0) {
+            m_indexExecutor.scheduleWithFixedDelay(rebuild, 0, m_indexRebuildInterval, TimeUnit.MILLISECONDS);
+        } else {
+            m_indexExecutor.execute(rebuild);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the content of the RRD directory, and saves
+     * it.
+     */
+    private void rebuildIndex() {
+        try {
+            m_index.rebuild();
+            saveIndex();
+        } catch (IOException e) {
+            LOG.error("Failed to index the resources in {}.", m_rrdDirectory, e);
+        }
+    }
+
+    private void saveIndex() {
+        if (m_index == null || m_indexFile == null) {
+            return;
+        }
+        try {
+            m_index.save(m_indexFile);
+        } catch (IOException e) {
+            LOG.warn("Failed to save the resource index to {}.", m_indexFile, e);
+        }
+    }
+
+    /**
+     * Returns the index if it's enabled and has been loaded or built.
+     */
+    private FilesystemResourceIndex getIndex() {
+        return m_index != null && m_index.isReady() ? m_index : null;
     }
 
     @Override
     public boolean exists(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        final FilesystemResourceIndex index = getIndex();
+        if (index != null) {
+            return index.exists(path, depth);
+        }
         return exists(toFile(path).toPath(), depth);
     }
 
     @Override
     public boolean existsWithin(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        final FilesystemResourceIndex index = getIndex();
+        if (index != null) {
+            return index.existsWithin(path, depth);
+        }
         return existsWithin(toFile(path).toPath(), depth);
     }
 
     @Override
     public Set<ResourcePath> children(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth > 0, "depth must be positive");
+        final FilesystemResourceIndex index = getIndex();
+        if (index != null) {
+            return index.children(path, depth);
+        }
         final File root = toFile(path);
         if (!root.isDirectory()) {
             return Collections.emptySet();
@@ -146,9 +242,22 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         return RrdMetaDataUtils.readMetaDataFile(getRrdDirectory(), toRelativePath(path));
     }
 
+    @Override
+    public void metricPersisted(ResourcePath path, String metricName) {
+        if (m_index != null) {
+            m_index.addMetric(path, metricName);
+        }
+    }
+
     @Override
     public boolean delete(ResourcePath path) {
-        return FileUtils.deleteQuietly(toFile(path));
+        final File file = toFile(path);
+        final boolean deleted = FileUtils.deleteQuietly(file);
+        if (m_index != null) {
+            m_index.remove(path);
+        }
+        RecentSampleStore.getInstance().remove(file.getAbsolutePath());
+        return deleted;
     }
 
     private boolean exists(Path root, int depth) {
@@ -216,6 +325,32 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         RRD_EXTENSION = rrdExtension;
     }
 
+    /**
+     * Answers {@link #exists(ResourcePath, int)}, {@link #existsWithin(ResourcePath, int)}
+     * and {@link #children(ResourcePath, int)} from an index of the RRD
+     * directory rather than by listing directories. Defaults to false.
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        m_indexEnabled = indexEnabled;
+    }
+
+    /**
+     * File in which the index is saved, so that it can be used on startup
+     * while it is rebuilt. The index isn't saved when null.
+     */
+    public void setIndexFile(File indexFile) {
+        m_indexFile = indexFile;
+    }
+
+    /**
+     * Interval in milliseconds at which the index is rebuilt, to account for
+     * files that were added or removed without going through this DAO. The
+     * index is only built on startup when 0.
+     */
+    public void setIndexRebuildInterval(long indexRebuildInterval) {
+        m_indexRebuildInterval = indexRebuildInterval;
+    }
+
     private static Predicate<Path> isRrdFile = new Predicate<Path>() {
         @Override
         public boolean test(Path path) {
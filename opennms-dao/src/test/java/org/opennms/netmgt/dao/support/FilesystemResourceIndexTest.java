@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.model.ResourcePath;
+
+import com.google.common.collect.Sets;
+
+public class FilesystemResourceIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FilesystemResourceIndex m_index;
+
+    @Before
+    public void setUp() throws IOException {
+        m_index = new FilesystemResourceIndex(tempFolder.getRoot(), ".jrb");
+
+        File folder = tempFolder.newFolder("snmp", "1", "eth0");
+        new File(folder, "ifInOctets.jrb").createNewFile();
+        new File(folder, "ifOutOctets.jrb").createNewFile();
+        new File(folder, "strings.properties").createNewFile();
+        new File(folder.getParentFile(), "tcpActiveOpens.jrb").createNewFile();
+        tempFolder.newFolder("snmp", "2", "empty");
+    }
+
+    @Test
+    public void canAnswerQueriesOnceBuilt() throws IOException {
+        assertFalse(m_index.isReady());
+        m_index.rebuild();
+        assertTrue(m_index.isReady());
+
+        assertTrue(m_index.exists(ResourcePath.get("snmp", "1"), 0));
+        assertTrue(m_index.exists(ResourcePath.get("snmp", "1"), 1));
+        assertFalse(m_index.exists(ResourcePath.get("snmp", "1"), 2));
+        assertFalse(m_index.exists(ResourcePath.get("snmp"), 0));
+        assertFalse(m_index.exists(ResourcePath.get("snmp", "2"), 1));
+        assertFalse(m_index.exists(ResourcePath.get("should", "not", "exist"), 0));
+
+        assertFalse(m_index.existsWithin(ResourcePath.get("snmp"), 0));
+        assertTrue(m_index.existsWithin(ResourcePath.get("snmp"), 1));
+
+        assertEquals(Collections.singleton(ResourcePath.get("snmp", "1", "eth0")), m_index.children(ResourcePath.get("snmp", "1"), 1));
+        assertEquals(Collections.singleton(ResourcePath.get("snmp", "1")), m_index.children(ResourcePath.get("snmp"), 1));
+        assertEquals(Collections.emptySet(), m_index.children(ResourcePath.get("snmp", "2"), 1));
+
+        assertEquals(Sets.newHashSet("ifInOctets", "ifOutOctets"), m_index.getMetrics(ResourcePath.get("snmp", "1", "eth0")));
+    }
+
+    @Test
+    public void canBeUpdated() throws IOException {
+        m_index.rebuild();
+
+        m_index.addMetric(ResourcePath.get("snmp", "2", "eth1"), "ifInOctets");
+        assertTrue(m_index.exists(ResourcePath.get("snmp", "2"), 1));
+        assertEquals(Collections.singleton(ResourcePath.get("snmp", "2", "eth1")), m_index.children(ResourcePath.get("snmp", "2"), 1));
+
+        m_index.remove(ResourcePath.get("snmp", "1"));
+        assertFalse(m_index.existsWithin(ResourcePath.get("snmp", "1"), 2));
+        assertEquals(Collections.singleton(ResourcePath.get("snmp", "2")), m_index.children(ResourcePath.get("snmp"), 2));
+
+        // Rebuilding picks up the files again
+        m_index.rebuild();
+        assertTrue(m_index.exists(ResourcePath.get("snmp", "1"), 0));
+        assertFalse(m_index.exists(ResourcePath.get("snmp", "2"), 1));
+    }
+
+    @Test
+    public void canBeSavedAndLoaded() throws IOException {
+        final File indexFile = new File(tempFolder.getRoot(), ".resource-index");
+
+        // Nothing is saved until the index is built
+        m_index.save(indexFile);
+        assertFalse(indexFile.exists());
+        assertFalse(m_index.load(indexFile));
+
+        m_index.rebuild();
+        m_index.save(indexFile);
+
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot(), ".jrb");
+        assertTrue(index.load(indexFile));
+        assertTrue(index.isReady());
+        assertEquals(Sets.newHashSet("ifInOctets", "ifOutOctets"), index.getMetrics(ResourcePath.get("snmp", "1", "eth0")));
+        assertEquals(Collections.singleton(ResourcePath.get("snmp", "1")), index.children(ResourcePath.get("snmp"), 1));
+
+        // An index built for another extension is ignored
+        assertFalse(new FilesystemResourceIndex(tempFolder.getRoot(), ".rrd").load(indexFile));
+    }
+}
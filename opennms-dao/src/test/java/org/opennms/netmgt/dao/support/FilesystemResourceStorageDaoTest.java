@@ -30,6 +30,8 @@ package org.opennms.netmgt.dao.support;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -42,6 +44,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.opennms.netmgt.model.OnmsAttribute;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RecentSampleStore;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 
@@ -138,6 +141,30 @@ public class FilesystemResourceStorageDaoTest {
         assertTrue(rrd.delete());
     }
 
+    @Test
+    public void deleteForgetsRecentSamples() throws IOException {
+        File folder = tempFolder.newFolder("a", "b");
+        File rrd = new File(folder, "ds" + m_rrdFileExtension);
+        rrd.createNewFile();
+        File otherRrd = new File(tempFolder.newFolder("a", "bc"), "ds" + m_rrdFileExtension);
+
+        RecentSampleStore store = new RecentSampleStore(10);
+        store.update(rrd.getAbsolutePath(), 300, new String[] { "ds" }, new boolean[] { false }, 1000L, new double[] { 1.0 });
+        store.update(otherRrd.getAbsolutePath(), 300, new String[] { "ds" }, new boolean[] { false }, 1000L, new double[] { 1.0 });
+        RecentSampleStore.setInstance(store);
+        try {
+            assertTrue(m_fsResourceStorageDao.delete(ResourcePath.get("a", "b")));
+            assertFalse(rrd.exists());
+
+            // Only the samples below the deleted resource are gone
+            assertNull(store.getSamples(rrd.getAbsolutePath(), "ds"));
+            assertNotNull(store.getSamples(otherRrd.getAbsolutePath(), "ds"));
+            assertEquals(1, store.size());
+        } finally {
+            RecentSampleStore.setInstance(null);
+        }
+    }
+
     @Test
     public void getAttributes() throws IOException {
         File subFolder = tempFolder.newFolder("a");
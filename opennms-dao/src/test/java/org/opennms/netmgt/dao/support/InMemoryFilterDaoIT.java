@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.InMemoryFilterDao;
+import org.opennms.netmgt.filter.JdbcFilterDao;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+/**
+ * Runs the {@link JdbcFilterDaoIT} rule evaluations against an
+ * {@link InMemoryFilterDao}, whose snapshot is loaded from the same database.
+ */
+public class InMemoryFilterDaoIT extends JdbcFilterDaoIT {
+
+    private InMemoryFilterDao m_inMemoryFilterDao;
+
+    @Override
+    protected FilterDao createFilterDao(final JdbcFilterDao jdbcFilterDao) throws Exception {
+        m_inMemoryFilterDao = new InMemoryFilterDao();
+        m_inMemoryFilterDao.setDelegate(jdbcFilterDao);
+        m_inMemoryFilterDao.setDataSource(m_dataSource);
+        m_inMemoryFilterDao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
+        m_inMemoryFilterDao.setEventSubscriptionService(new EventSubscriptionService() {
+            @Override public void addEventListener(EventListener listener) {}
+            @Override public void addEventListener(EventListener listener, Collection<String> ueis) {}
+            @Override public void addEventListener(EventListener listener, String uei) {}
+            @Override public void removeEventListener(EventListener listener) {}
+            @Override public void removeEventListener(EventListener listener, Collection<String> ueis) {}
+            @Override public void removeEventListener(EventListener listener, String uei) {}
+        });
+        m_inMemoryFilterDao.setEnabled(true);
+        m_inMemoryFilterDao.afterPropertiesSet();
+        return m_inMemoryFilterDao;
+    }
+
+    @Test
+    @JUnitTemporaryDatabase // This test manages its own transactions so use a fresh database
+    public void testNodeIsReloadedAfterAnEvent() throws Exception {
+        assertEquals(1, getActiveIPAddressList().size());
+
+        final int nodeId = deleteInterface();
+        // nothing announced the change yet
+        assertEquals(1, getActiveIPAddressList().size());
+
+        m_inMemoryFilterDao.onEvent(new EventBuilder(EventConstants.INTERFACE_DELETED_EVENT_UEI, "test").setNodeid(nodeId).getEvent());
+        assertEquals(0, getActiveIPAddressList().size());
+    }
+
+    @Test
+    @JUnitTemporaryDatabase // This test manages its own transactions so use a fresh database
+    public void testSnapshotIsReloadedOnceItIsTooOld() throws Exception {
+        assertEquals(1, getActiveIPAddressList().size());
+
+        deleteInterface();
+        assertEquals(1, getActiveIPAddressList().size());
+
+        m_inMemoryFilterDao.setMaxAge(0);
+        Thread.sleep(10);
+        assertEquals(0, getActiveIPAddressList().size());
+    }
+
+    private List<?> getActiveIPAddressList() {
+        return m_inMemoryFilterDao.getActiveIPAddressList("ipaddr == '192.168.1.1'");
+    }
+
+    private int deleteInterface() {
+        final int[] nodeId = new int[1];
+        m_transTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                final OnmsIpInterface iface = m_interfaceDao.findByIpAddress("192.168.1.1").get(0);
+                iface.setIsManaged("D");
+                m_interfaceDao.save(iface);
+                m_interfaceDao.flush();
+                nodeId[0] = iface.getNode().getId();
+            }
+        });
+        return nodeId[0];
+    }
+}
@@ -57,6 +57,7 @@ import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.filter.JdbcFilterDao;
+import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.model.AbstractEntityVisitor;
 import org.opennms.netmgt.model.EntityVisitor;
 import org.opennms.netmgt.model.OnmsIpInterface;
@@ -99,6 +100,8 @@ public class JdbcFilterDaoIT implements InitializingBean {
     ServiceTypeDao m_serviceTypeDao;
 
     JdbcFilterDao m_dao;
+
+    FilterDao m_filterDao;
     
     @Autowired
     DatabasePopulator m_populator;
@@ -131,7 +134,15 @@ public class JdbcFilterDaoIT implements InitializingBean {
         m_dao.setDataSource(m_dataSource);
         m_dao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
         m_dao.afterPropertiesSet();
-        FilterDaoFactory.setInstance(m_dao);
+        m_filterDao = createFilterDao(m_dao);
+        FilterDaoFactory.setInstance(m_filterDao);
+    }
+
+    /**
+     * Returns the DAO that the rule evaluation tests run against.
+     */
+    protected FilterDao createFilterDao(final JdbcFilterDao jdbcFilterDao) throws Exception {
+        return jdbcFilterDao;
     }
 
     @After
@@ -196,13 +207,13 @@ public class JdbcFilterDaoIT implements InitializingBean {
 
         String rule = String.format("(catincIMP_mid) & (catincDEV_AC) & (catincOPS_Online) & (nodeId == '%s') & (ipAddr == '192.168.1.1') & (serviceName == 'ICMP')", m_populator.getNode1().getId().toString()) ;
 
-        assertTrue("Rule match failed: " + rule, m_dao.isRuleMatching(rule));
+        assertTrue("Rule match failed: " + rule, m_filterDao.isRuleMatching(rule));
 
         // node2 doesn't have all the categories but does have 192.168.2.1
 
         String rule2 = String.format("(catincIMP_mid) & (catincDEV_AC) & (catincOPS_Online) & (nodeId == '%s') & (ipAddr == '192.168.2.1') & (serviceName == 'ICMP')", m_populator.getNode2().getId().toString());
 
-        assertFalse("Rule match succeeded unexpectedly: " + rule, m_dao.isRuleMatching(rule2));
+        assertFalse("Rule match succeeded unexpectedly: " + rule, m_filterDao.isRuleMatching(rule2));
     }
 
     @Test
@@ -225,7 +236,7 @@ public class JdbcFilterDaoIT implements InitializingBean {
     @Test
     @Transactional
     public void testGetNodeMap() throws Exception {
-        Map<Integer, String> map = m_dao.getNodeMap("ipaddr == '1.1.1.1'");
+        Map<Integer, String> map = m_filterDao.getNodeMap("ipaddr == '1.1.1.1'");
         assertNotNull("returned map should not be null", map);
         assertEquals("map size", 0, map.size());
     }
@@ -233,7 +244,7 @@ public class JdbcFilterDaoIT implements InitializingBean {
     @Test
     @Transactional
     public void testGetIPAddressServiceMap() throws Exception {
-        Map<InetAddress, Set<String>> map = m_dao.getIPAddressServiceMap("ipaddr == '1.1.1.1'");
+        Map<InetAddress, Set<String>> map = m_filterDao.getIPAddressServiceMap("ipaddr == '1.1.1.1'");
         assertNotNull("returned map should not be null", map);
         assertEquals("map size", 0, map.size());
     }
@@ -241,7 +252,7 @@ public class JdbcFilterDaoIT implements InitializingBean {
     @Test
     @Transactional
     public void testGetIPAddressList() throws Exception {
-        List<InetAddress> list = m_dao.getIPAddressList("ipaddr == '1.1.1.1'");
+        List<InetAddress> list = m_filterDao.getIPAddressList("ipaddr == '1.1.1.1'");
         assertNotNull("returned list should not be null", list);
         assertEquals("list size", 0, list.size());
     }
@@ -272,7 +283,7 @@ public class JdbcFilterDaoIT implements InitializingBean {
         m_transTemplate.execute(new TransactionCallbackWithoutResult() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
-                List<InetAddress> list = m_dao.getActiveIPAddressList("ipaddr == '192.168.1.1'");
+                List<InetAddress> list = m_filterDao.getActiveIPAddressList("ipaddr == '192.168.1.1'");
                 assertNotNull("returned list should not be null", list);
                 assertEquals("no nodes should be returned, since the only one has been deleted", 0, list.size());
             }
@@ -282,13 +293,13 @@ public class JdbcFilterDaoIT implements InitializingBean {
     @Test
     @Transactional
     public void testIsValid() throws Exception {
-        assertFalse("There is nothing in the database, so isValid shouldn't match non-empty rules", m_dao.isValid("1.1.1.1", "ipaddr == '1.1.1.1'"));
+        assertFalse("There is nothing in the database, so isValid shouldn't match non-empty rules", m_filterDao.isValid("1.1.1.1", "ipaddr == '1.1.1.1'"));
     }
 
     @Test
     @Transactional
     public void testIsValidEmptyRule() throws Exception {
-        assertTrue("isValid should return true for non-empty rules", m_dao.isValid("1.1.1.1", ""));
+        assertTrue("isValid should return true for non-empty rules", m_filterDao.isValid("1.1.1.1", ""));
     }
 
     @Test
@@ -314,7 +325,7 @@ public class JdbcFilterDaoIT implements InitializingBean {
             }
         };
         FilterWalker walker = new FilterWalker();
-        walker.setFilterDao(m_dao);
+        walker.setFilterDao(m_filterDao);
         walker.setNodeDao(m_nodeDao);
         walker.setFilter("ipaddr == '10.1.1.1'");
         walker.setVisitor(visitor);
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -47,7 +48,7 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
 
     public static final double NANOS_PER_MILLI = 1000000.0;
 
-    private int m_pingerId;
+    private final int[] m_pingerIds;
     private NativeDatagramSocket m_pingSocket;
     private Thread m_thread;
     protected final AtomicReference<Throwable> m_throwable = new AtomicReference<Throwable>(null);
@@ -70,8 +71,8 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         }
     }
 
-    protected AbstractPinger(int pingerId, NativeDatagramSocket pingSocket) {
-        m_pingerId = pingerId;
+    protected AbstractPinger(int[] pingerIds, NativeDatagramSocket pingSocket) {
+        m_pingerIds = pingerIds.clone();
         m_pingSocket = pingSocket;
     }
 
@@ -82,8 +83,20 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         return m_pingSocket;
     }
     
-    protected int getPingerId() {
-        return m_pingerId;
+    protected int[] getPingerIds() {
+        return m_pingerIds;
+    }
+
+    /**
+     * @return whether the identifier is one of the given ones
+     */
+    protected static boolean isPingerId(final int[] pingerIds, final int identifier) {
+        for (final int pingerId : pingerIds) {
+            if (pingerId == identifier) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean isFinished() {
@@ -91,7 +104,7 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
     }
 
     public void start() {
-        m_thread = new Thread(this, "JNA-ICMP-"+getClass().getSimpleName()+"-"+m_pingerId+"-Socket-Reader");
+        m_thread = new Thread(this, "JNA-ICMP-"+getClass().getSimpleName()+"-"+m_pingerIds[0]+"-Socket-Reader");
         m_thread.setDaemon(true);
         m_thread.start();
     }
@@ -123,6 +136,17 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         }
     }
 
+    /**
+     * Copies the remaining bytes of a buffer so that a packet can be kept
+     * after the buffer it was received into is reused.
+     */
+    protected static ByteBuffer copyOf(final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
     protected void setThrowable(Throwable e) {
         m_throwable.set(e);
     }
@@ -29,6 +29,9 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.IcmpMessengerIOException;
@@ -39,6 +42,16 @@ import org.slf4j.LoggerFactory;
 
 
 /**
+ * Sends and receives ICMP echo packets for a {@link JnaPinger}.
+ *
+ * The messenger opens one IPv4 and one IPv6 socket, each read by a single
+ * thread.  A SOCK_RAW socket receives every ICMP packet that arrives at the
+ * host, so more sockets would only mean more threads parsing the same
+ * replies.  Instead the reader parses each reply once and, when the
+ * messenger is created with several ICMP identifiers, hands the replies to
+ * one handler thread per identifier to match them against the outstanding
+ * requests.
+ *
  * @author brozow
  */
 public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>, PingReplyListener {
@@ -47,37 +60,59 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private static final Logger LOG = LoggerFactory
 			.getLogger(JnaIcmpMessenger.class);
 	
-	private V4Pinger m_v4;
-	private V6Pinger m_v6;
+	private final int[] m_pingerIds;
+	private final V4Pinger m_v4;
+	private final V6Pinger m_v6;
+	private ExecutorService[] m_replyHandlers;
     private ReplyHandler<JnaPingReply> m_callback = null;
 
-	public JnaIcmpMessenger(final int pingerId) throws Exception {
+	public JnaIcmpMessenger(final int... pingerIds) throws Exception {
+	    if (pingerIds.length == 0) {
+	        throw new IllegalArgumentException("At least one pinger ID is required");
+	    }
+	    m_pingerIds = pingerIds.clone();
+
 	    Throwable error = null;
+	    V4Pinger v4 = null;
 	    try {
-	        m_v4 = new V4Pinger(pingerId);
-	        m_v4.addPingReplyListener(this);
+	        v4 = new V4Pinger(pingerIds);
+	        v4.addPingReplyListener(this);
 	    } catch (final Throwable t) {
 	        LOG.debug("Unable to initialize IPv4 Pinger.", t);
 	        error = t;
-	        m_v4 = null;
+	        v4 = null;
 	    }
+	    m_v4 = v4;
 	    
+	    V6Pinger v6 = null;
 	    try {
-	        m_v6 = new V6Pinger(pingerId);
-	        m_v6.addPingReplyListener(this);
+	        v6 = new V6Pinger(pingerIds);
+	        v6.addPingReplyListener(this);
 	    } catch (final Throwable t) {
 	        LOG.debug("Unable to initialize IPv6 Pinger.", t);
 	        if (error == null) error = t;
-	        m_v6 = null;
+	        v6 = null;
 	    }
+	    m_v6 = v6;
 	    
-	    if (m_v4 == null && m_v6 == null) {
+	    if (!isV4Available() && !isV6Available()) {
 	        final IcmpMessengerIOException exception = new IcmpMessengerIOException("IPv4 and IPv6 are not available.", error);
 	        LOG.warn("Unable to initialize JNA ICMP messenger", exception);
 	        throw exception;
 	    }
 	}
-	
+
+    /**
+     * Creates a messenger over pingers that have already been opened.
+     */
+    JnaIcmpMessenger(final int[] pingerIds, final V4Pinger v4, final V6Pinger v6) {
+        m_pingerIds = pingerIds.clone();
+        m_v4 = v4;
+        m_v6 = v6;
+        if (m_v4 != null) m_v4.addPingReplyListener(this);
+        if (m_v6 != null) m_v6.addPingReplyListener(this);
+    }
+
     public boolean isV4Available() {
         if (m_v4 != null) {
             return true;
@@ -92,6 +127,23 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
         return false;
     }
 
+    /**
+     * @return the ICMP identifiers that this messenger sends and receives with
+     */
+    public int[] getPingerIds() {
+        return m_pingerIds.clone();
+    }
+
+    private int indexOf(final int pingerId) {
+        for (int i = 0; i < m_pingerIds.length; i++) {
+            if (m_pingerIds[i] == pingerId) {
+                return i;
+            }
+        }
+        // the readers only hand on replies with one of our IDs, but fall back to the first handler
+        return 0;
+    }
+
         @Override
 	public void sendRequest(final JnaPingRequest request) {
 		request.send(m_v4, m_v6);
@@ -100,13 +152,37 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
         @Override
 	public void start(ReplyHandler<JnaPingReply> callback) {
         m_callback = callback;
+        if (m_pingerIds.length > 1) {
+            m_replyHandlers = new ExecutorService[m_pingerIds.length];
+            for (int i = 0; i < m_pingerIds.length; i++) {
+                final String name = "JNA-ICMP-" + m_pingerIds[i] + "-Reply-Handler";
+                m_replyHandlers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
         if (m_v4 != null) m_v4.start();
         if (m_v6 != null) m_v6.start();
 	}
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
-        m_callback.handleReply(new JnaPingReply(address, packet));
+        final JnaPingReply reply = new JnaPingReply(address, packet);
+        if (m_replyHandlers == null) {
+            m_callback.handleReply(reply);
+            return;
+        }
+        m_replyHandlers[indexOf(packet.getIdentifier())].execute(new Runnable() {
+            @Override
+            public void run() {
+                m_callback.handleReply(reply);
+            }
+        });
 	}
 
 }
@@ -37,6 +37,10 @@ import java.net.InetAddress;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
@@ -57,18 +61,30 @@ import org.slf4j.LoggerFactory;
 public class JnaPinger implements Pinger {
     private static final Logger LOG = LoggerFactory.getLogger(JnaPinger.class);
 
+    /**
+     * The number of ICMP identifiers to spread ping requests over.  The
+     * replies of each identifier are matched against the outstanding
+     * requests on their own thread.
+     */
+    public static final String REPLY_HANDLERS_PROPERTY = "org.opennms.netmgt.icmp.jna.replyHandlers";
+
     private final int m_pingerId = new SecureRandom().nextInt(Short.MAX_VALUE);
+    private int[] m_pingerIds;
 
     private RequestTracker<JnaPingRequest, JnaPingReply> m_pingTracker;
     private JnaIcmpMessenger m_messenger;
 
+    private static ScheduledExecutorService s_parallelPingScheduler;
+
     /**
      * Initializes this singleton
      * @throws Exception 
      */
     private synchronized void initialize() throws Exception {
         if (m_pingTracker != null) return;
-        m_messenger = new JnaIcmpMessenger(m_pingerId);
+        final int[] pingerIds = getPingerIds(m_pingerId, Integer.getInteger(REPLY_HANDLERS_PROPERTY, 1));
+        m_messenger = createMessenger(pingerIds);
+        m_pingerIds = pingerIds;
         m_pingTracker = Logging.withPrefix("icmp", new Callable<RequestTracker<JnaPingRequest,JnaPingReply>>() {
             @Override public RequestTracker<JnaPingRequest, JnaPingReply> call() throws Exception {
                 return new RequestTracker<JnaPingRequest, JnaPingReply>("JNA-ICMP-"+m_pingerId, m_messenger, new IDBasedRequestLocator<JnaPingRequestId, JnaPingRequest, JnaPingReply>());
@@ -77,6 +93,48 @@ public class JnaPinger implements Pinger {
         m_pingTracker.start();
     }
 
+    JnaIcmpMessenger createMessenger(final int[] pingerIds) throws Exception {
+        return new JnaIcmpMessenger(pingerIds);
+    }
+
+    /**
+     * Returns the consecutive ICMP identifiers, one per reply handler, starting at
+     * the given one and wrapping below {@link Short#MAX_VALUE}.
+     */
+    static int[] getPingerIds(final int firstPingerId, final int count) {
+        final int[] pingerIds = new int[Math.max(1, count)];
+        for (int i = 0; i < pingerIds.length; i++) {
+            pingerIds[i] = (firstPingerId + i) % Short.MAX_VALUE;
+        }
+        return pingerIds;
+    }
+
+    /**
+     * Picks the ICMP identifier, and so the reply handler, to ping the given
+     * host with.  All of the requests for a host use the same identifier.
+     */
+    static int getPingerId(final int[] pingerIds, final InetAddress host) {
+        return pingerIds[(host.hashCode() & Integer.MAX_VALUE) % pingerIds.length];
+    }
+
+    private int getPingerId(final InetAddress host) {
+        return getPingerId(m_pingerIds, host);
+    }
+
+    private static synchronized ScheduledExecutorService getParallelPingScheduler() {
+        if (s_parallelPingScheduler == null) {
+            s_parallelPingScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "JNA-ICMP-ParallelPing");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_parallelPingScheduler;
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
@@ -123,7 +181,7 @@ public class JnaPinger implements Pinger {
     @Override
     public void ping(final InetAddress host, final long timeout, final int retries, final int packetsize, final int sequenceId, final PingResponseCallback cb) throws Exception {
         initialize();
-        m_pingTracker.sendRequest(new JnaPingRequest(host, m_pingerId, sequenceId, timeout, retries, packetsize, cb));
+        m_pingTracker.sendRequest(new JnaPingRequest(host, getPingerId(host), sequenceId, timeout, retries, packetsize, cb));
     }
 
     /**
@@ -139,7 +197,7 @@ public class JnaPinger implements Pinger {
     @Override
     public void ping(final InetAddress host, final long timeout, final int retries, final int sequenceId, final PingResponseCallback cb) throws Exception {
         initialize();
-        m_pingTracker.sendRequest(new JnaPingRequest(host, m_pingerId, sequenceId, timeout, retries, DEFAULT_PACKET_SIZE, cb));
+        m_pingTracker.sendRequest(new JnaPingRequest(host, getPingerId(host), sequenceId, timeout, retries, DEFAULT_PACKET_SIZE, cb));
     }
 
 
@@ -218,11 +276,23 @@ public class JnaPinger implements Pinger {
         initialize();
         final ParallelPingResponseCallback cb = new ParallelPingResponseCallback(count);
 
+        // the requests are sent on a timer rather than by sleeping between
+        // them so that the interval does not drift with the cost of each send
+        final ScheduledExecutorService scheduler = getParallelPingScheduler();
+        final int pingerId = getPingerId(host);
         final long threadId = JnaPingRequest.getNextTID();
         for (int seqNum = 0; seqNum < count; seqNum++) {
-            final JnaPingRequest request = new JnaPingRequest(host, m_pingerId, seqNum, threadId, timeout == 0? DEFAULT_TIMEOUT : timeout,0 , DEFAULT_PACKET_SIZE, cb);
-            m_pingTracker.sendRequest(request);
-            Thread.sleep(pingInterval);
+            final JnaPingRequest request = new JnaPingRequest(host, pingerId, seqNum, threadId, timeout == 0? DEFAULT_TIMEOUT : timeout,0 , DEFAULT_PACKET_SIZE, cb);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m_pingTracker.sendRequest(request);
+                    } catch (final Throwable t) {
+                        request.processError(t);
+                    }
+                }
+            }, seqNum * pingInterval, TimeUnit.MILLISECONDS);
         }
 
         cb.waitFor();
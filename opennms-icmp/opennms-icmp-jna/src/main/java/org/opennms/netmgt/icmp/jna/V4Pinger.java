@@ -53,8 +53,8 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
     private static final Logger LOG = LoggerFactory.getLogger(V4Pinger.class);
     
 
-    public V4Pinger(final int pingerId) throws Exception {
-        super(pingerId, NativeDatagramSocket.create(NativeDatagramSocket.PF_INET, getSocketType(), NativeDatagramSocket.IPPROTO_ICMP));
+    public V4Pinger(final int... pingerIds) throws Exception {
+        super(pingerIds, NativeDatagramSocket.create(NativeDatagramSocket.PF_INET, getSocketType(), NativeDatagramSocket.IPPROTO_ICMP));
         
         // Windows requires at least one packet sent before a receive call can be made without error
         // so we send a packet here to make sure...  This one should not match the normal ping requests
@@ -69,20 +69,26 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
         }
     }
     
+    /**
+     * Creates a pinger on a socket that has already been opened.
+     */
+    V4Pinger(final int[] pingerIds, final NativeDatagramSocket pingSocket) {
+        super(pingerIds, pingSocket);
+    }
+
     @Override
     public void run() {
         Logging.putPrefix("icmp");
         try {
-            final int pingerId = getPingerId();
+            final int[] pingerIds = getPingerIds();
+            // the receive buffer is reused, only the replies that are handed on are copied
+            final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
-                final ICMPPacket icmpPacket = new ICMPPacket(getIPPayload(datagram));
-                final V4PingReply echoReply = icmpPacket.getType() == Type.EchoReply ? new V4PingReply(icmpPacket, received) : null;
-            
-                if (echoReply != null && echoReply.getIdentifier() ==  pingerId && echoReply.isValid()) {
+                final V4PingReply echoReply = getEchoReply(getIPPayload(datagram), pingerIds, received);
+                if (echoReply != null) {
                     notifyPingListeners(datagram.getAddress(), echoReply);
                 }
             }
@@ -92,6 +98,24 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
         }
     }
 
+    /**
+     * Returns a copy of the packet if it is a valid echo reply to one of our
+     * requests with one of the given identifiers, otherwise null.  Raw
+     * sockets are handed every ICMP packet that the host receives, so this is
+     * called for the replies of other processes too.
+     */
+    static V4PingReply getEchoReply(final ByteBuffer ipPayload, final int[] pingerIds, final long received) {
+        final ICMPPacket icmpPacket = new ICMPPacket(ipPayload);
+        if (icmpPacket.getType() != Type.EchoReply) {
+            return null;
+        }
+        final V4PingReply echoReply = new V4PingReply(icmpPacket, received);
+        if (!isPingerId(pingerIds, echoReply.getIdentifier()) || !echoReply.isValid()) {
+            return null;
+        }
+        return new V4PingReply(new ICMPPacket(copyOf(ipPayload)), received);
+    }
+
     private ByteBuffer getIPPayload(final NativeDatagramPacket datagram) {
         return new IPPacket(datagram.getContent()).getPayload();
     }
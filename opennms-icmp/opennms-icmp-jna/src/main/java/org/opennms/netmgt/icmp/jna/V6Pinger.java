@@ -53,8 +53,8 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(V6Pinger.class);
 
-    public V6Pinger(final int pingerId) throws Exception {
-        super(pingerId, NativeDatagramSocket.create(NativeDatagramSocket.PF_INET6, getSocketType(), NativeDatagramSocket.IPPROTO_ICMPV6));
+    public V6Pinger(final int... pingerIds) throws Exception {
+        super(pingerIds, NativeDatagramSocket.create(NativeDatagramSocket.PF_INET6, getSocketType(), NativeDatagramSocket.IPPROTO_ICMPV6));
         
         // Windows requires at least one packet sent before a receive call can be made without error
         // so we send a packet here to make sure...  This one should not match the normal ping requests
@@ -82,16 +82,15 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
     public void run() {
         Logging.putPrefix("icmp");
         try {
-            final int pingerId = getPingerId();
+            final int[] pingerIds = getPingerIds();
+            // the receive buffer is reused, only the replies that are handed on are copied
+            final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
-                final ICMPv6Packet icmpPacket = new ICMPv6Packet(getIPPayload(datagram));
-                final V6PingReply echoReply = icmpPacket.getType() == Type.EchoReply ? new V6PingReply(icmpPacket, received) : null;
-            
-                if (echoReply != null && echoReply.getIdentifier() == pingerId && echoReply.isValid()) {
+                final V6PingReply echoReply = getEchoReply(getIPPayload(datagram), pingerIds, received);
+                if (echoReply != null) {
                     notifyPingListeners(datagram.getAddress(), echoReply);
                 }
             }
@@ -101,6 +100,22 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
         }
     }
 
+    /**
+     * Returns a copy of the packet if it is a valid echo reply to one of our
+     * requests with one of the given identifiers, otherwise null.
+     */
+    static V6PingReply getEchoReply(final ByteBuffer icmpPayload, final int[] pingerIds, final long received) {
+        final ICMPv6Packet icmpPacket = new ICMPv6Packet(icmpPayload);
+        if (icmpPacket.getType() != Type.EchoReply) {
+            return null;
+        }
+        final V6PingReply echoReply = new V6PingReply(icmpPacket, received);
+        if (!isPingerId(pingerIds, echoReply.getIdentifier()) || !echoReply.isValid()) {
+            return null;
+        }
+        return new V6PingReply(new ICMPv6Packet(copyOf(icmpPayload)), received);
+    }
+
     private ByteBuffer getIPPayload(final NativeDatagramPacket datagram) {
         return datagram.getContent();
     }
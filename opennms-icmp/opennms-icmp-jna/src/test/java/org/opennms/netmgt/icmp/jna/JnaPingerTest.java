@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.jicmp.ip.ICMPEchoPacket;
+import org.opennms.jicmp.ip.ICMPPacket;
+import org.opennms.jicmp.ip.IPPacket;
+import org.opennms.jicmp.ipv6.ICMPv6Packet;
+import org.opennms.jicmp.jna.NativeDatagramPacket;
+import org.opennms.jicmp.jna.NativeDatagramSocket;
+import org.opennms.protocols.rt.ReplyHandler;
+
+/**
+ * Tests how {@link JnaPinger} spreads requests over several ICMP identifiers,
+ * using a socket that answers every echo request itself.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class JnaPingerTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty(JnaPinger.REPLY_HANDLERS_PROPERTY);
+    }
+
+    @Test
+    public void testPingerIds() {
+        assertArrayEquals(new int[] { 1234 }, JnaPinger.getPingerIds(1234, 1));
+        assertArrayEquals(new int[] { 1234 }, JnaPinger.getPingerIds(1234, 0));
+        assertArrayEquals(new int[] { 1234, 1235, 1236 }, JnaPinger.getPingerIds(1234, 3));
+        // the identifiers wrap below Short.MAX_VALUE
+        assertArrayEquals(new int[] { 32765, 32766, 0, 1 }, JnaPinger.getPingerIds(Short.MAX_VALUE - 2, 4));
+    }
+
+    @Test
+    public void testSingleSocketUsesOneIdentifier() throws Exception {
+        final int[] pingerIds = JnaPinger.getPingerIds(1234, 1);
+        for (final InetAddress host : getHosts()) {
+            assertEquals(1234, JnaPinger.getPingerId(pingerIds, host));
+        }
+    }
+
+    @Test
+    public void testNegativeHashCodes() throws Exception {
+        final int[] pingerIds = JnaPinger.getPingerIds(1234, 3);
+        for (final String address : new String[] { "255.255.255.255", "128.0.0.0", "200.1.2.3", "192.168.1.1" }) {
+            final InetAddress host = InetAddress.getByName(address);
+            assertTrue(address + " should have a negative hash code", host.hashCode() < 0);
+
+            final int pingerId = JnaPinger.getPingerId(pingerIds, host);
+            assertTrue(address + " was mapped to " + pingerId, pingerId >= 1234 && pingerId <= 1236);
+            assertEquals(pingerId, JnaPinger.getPingerId(pingerIds, InetAddress.getByName(address)));
+        }
+    }
+
+    @Test
+    public void testHostsAreSpreadOverAllIdentifiers() throws Exception {
+        final int[] pingerIds = JnaPinger.getPingerIds(1234, 4);
+        final Set<Integer> used = new HashSet<Integer>();
+        for (final InetAddress host : getHosts()) {
+            final int pingerId = JnaPinger.getPingerId(pingerIds, host);
+            // every request for a host uses the same identifier
+            assertEquals(pingerId, JnaPinger.getPingerId(pingerIds, InetAddress.getByAddress(host.getAddress())));
+            used.add(pingerId);
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(1234, 1235, 1236, 1237)), used);
+    }
+
+    @Test
+    public void testV4ReaderOnlyHandsOnOurReplies() throws Exception {
+        final V4PingRequest packet = new V4PingRequest(1235, 7, 42L, 64);
+        packet.setType(ICMPPacket.Type.EchoReply);
+        final ByteBuffer payload = packet.toDatagramPacket(InetAddress.getByName("127.0.0.1")).getContent();
+
+        assertNull(V4Pinger.getEchoReply(payload.duplicate(), new int[] { 1234 }, 0));
+        assertNull(V4Pinger.getEchoReply(payload.duplicate(), new int[] { 1236, 1237 }, 0));
+        assertNotNull(V4Pinger.getEchoReply(payload.duplicate(), new int[] { 1234, 1235, 1236 }, 0));
+
+        final V4PingReply reply = V4Pinger.getEchoReply(payload, new int[] { 1235 }, 0);
+        assertNotNull(reply);
+        assertEquals(1235, reply.getIdentifier());
+        assertEquals(7, reply.getSequenceNumber());
+        assertEquals(42L, reply.getThreadId());
+
+        // the reply is a copy, the receive buffer can be reused
+        payload.put(0, (byte)0);
+        assertTrue(reply.isEchoReply());
+
+        final V4PingRequest request = new V4PingRequest(1235, 7, 42L, 64);
+        assertNull(V4Pinger.getEchoReply(request.toDatagramPacket(InetAddress.getByName("127.0.0.1")).getContent(), new int[] { 1235 }, 0));
+    }
+
+    @Test
+    public void testV6ReaderOnlyHandsOnOurReplies() throws Exception {
+        final V6PingRequest packet = new V6PingRequest(1235, 7, 42L, 64);
+        packet.setType(ICMPv6Packet.Type.EchoReply);
+        final ByteBuffer payload = packet.toDatagramPacket(InetAddress.getByName("::1")).getContent();
+
+        assertNull(V6Pinger.getEchoReply(payload.duplicate(), new int[] { 1234 }, 0));
+        assertNotNull(V6Pinger.getEchoReply(payload.duplicate(), new int[] { 1234, 1235 }, 0));
+
+        final V6PingReply reply = V6Pinger.getEchoReply(payload, new int[] { 1235 }, 0);
+        assertNotNull(reply);
+        assertEquals(1235, reply.getIdentifier());
+        assertEquals(7, reply.getSequenceNumber());
+        assertEquals(42L, reply.getThreadId());
+    }
+
+    @Test
+    public void testRepliesAreHandledOnTheThreadOfTheirIdentifier() throws Exception {
+        System.setProperty(JnaPinger.REPLY_HANDLERS_PROPERTY, "3");
+        final TestPinger pinger = new TestPinger();
+
+        for (final InetAddress host : getHosts().subList(0, 20)) {
+            assertNotNull(pinger.ping(host, 1000, 0));
+        }
+
+        // the one socket parsed every reply once and handed it to the thread of its identifier
+        final TestNetwork network = pinger.getNetwork();
+        assertEquals(1, network.getSockets().size());
+        assertEquals(20, network.getSockets().get(0).getReceivedCount());
+        assertEquals(20, network.getHandledReplies().size());
+        final Set<String> threads = new HashSet<String>();
+        for (final HandledReply handled : network.getHandledReplies()) {
+            assertEquals("JNA-ICMP-" + handled.getIdentifier() + "-Reply-Handler", handled.getThreadName());
+            threads.add(handled.getThreadName());
+        }
+        assertEquals(3, threads.size());
+    }
+
+    @Test
+    public void testSingleIdentifierHandlesRepliesOnTheReader() throws Exception {
+        final TestPinger pinger = new TestPinger();
+        assertNotNull(pinger.ping(InetAddress.getByName("192.0.2.1"), 1000, 0));
+
+        final int pingerId = pinger.getPingerIds()[0];
+        final List<HandledReply> handledReplies = pinger.getNetwork().getHandledReplies();
+        assertEquals(1, handledReplies.size());
+        assertEquals("JNA-ICMP-V4Pinger-" + pingerId + "-Socket-Reader", handledReplies.get(0).getThreadName());
+    }
+
+    @Test
+    public void testRequestsCarryTheIdentifierOfTheirHost() throws Exception {
+        System.setProperty(JnaPinger.REPLY_HANDLERS_PROPERTY, "3");
+        final TestPinger pinger = new TestPinger();
+
+        for (final InetAddress host : getHosts().subList(0, 20)) {
+            assertNotNull(pinger.ping(host, 1000, 0));
+        }
+
+        final int[] pingerIds = pinger.getPingerIds();
+        for (final SentPacket sent : pinger.getNetwork().getSentPackets()) {
+            assertEquals(JnaPinger.getPingerId(pingerIds, sent.getAddress()), sent.getIdentifier());
+        }
+    }
+
+    @Test
+    public void testRepliesOnlyMatchRequestsWithTheirIdentifier() throws Exception {
+        System.setProperty(JnaPinger.REPLY_HANDLERS_PROPERTY, "3");
+        final TestPinger pinger = new TestPinger();
+        final InetAddress host = InetAddress.getByName("192.0.2.1");
+        assertNotNull(pinger.ping(host, 1000, 0));
+
+        // a reply that carries another of our identifiers is handed on to
+        // that identifier's thread, but it does not answer this request
+        pinger.getNetwork().setReplyWithOtherIdentifier(true);
+        assertNull(pinger.ping(host, 200, 0));
+    }
+
+    @Test
+    public void testParallelPing() throws Exception {
+        System.setProperty(JnaPinger.REPLY_HANDLERS_PROPERTY, "2");
+        final TestPinger pinger = new TestPinger();
+        final String[] addresses = new String[] { "192.0.2.1", "192.0.2.2", "192.0.2.3" };
+        final int count = 5;
+
+        // several parallel pings share the one scheduler
+        final ExecutorService callers = Executors.newFixedThreadPool(addresses.length);
+        try {
+            final List<Future<List<Number>>> results = new ArrayList<Future<List<Number>>>();
+            for (final String address : addresses) {
+                final InetAddress host = InetAddress.getByName(address);
+                results.add(callers.submit(new Callable<List<Number>>() {
+                    @Override
+                    public List<Number> call() throws Exception {
+                        return pinger.parallelPing(host, count, 1000, 20);
+                    }
+                }));
+            }
+
+            for (final Future<List<Number>> result : results) {
+                final List<Number> responseTimes = result.get();
+                assertEquals(count, responseTimes.size());
+                for (final Number responseTime : responseTimes) {
+                    assertNotNull(responseTime);
+                    assertTrue(responseTime.doubleValue() >= 0);
+                }
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        final List<SentPacket> sentPackets = pinger.getNetwork().getSentPackets();
+        for (final String address : addresses) {
+            int nextSequenceNumber = 0;
+            for (final SentPacket sent : sentPackets) {
+                if (sent.getAddress().equals(InetAddress.getByName(address))) {
+                    assertEquals(nextSequenceNumber++, sent.getSequenceNumber());
+                }
+            }
+            assertEquals(count, nextSequenceNumber);
+        }
+        for (final SentPacket sent : sentPackets) {
+            assertEquals("JNA-ICMP-ParallelPing", sent.getThreadName());
+        }
+    }
+
+    private static List<InetAddress> getHosts() throws Exception {
+        final List<InetAddress> hosts = new ArrayList<InetAddress>();
+        for (int i = 0; i < 256; i++) {
+            hosts.add(InetAddress.getByAddress(new byte[] { 10, 0, (byte)(i / 16), (byte)i }));
+            hosts.add(InetAddress.getByAddress(new byte[] { (byte)200, 0, 0, (byte)i }));
+        }
+        hosts.add(InetAddress.getByName("::1"));
+        hosts.add(InetAddress.getByName("2001:db8::1"));
+        return hosts;
+    }
+
+    private static class TestPinger extends JnaPinger {
+        private final TestNetwork m_network = new TestNetwork();
+        private int[] m_pingerIds;
+
+        @Override
+        JnaIcmpMessenger createMessenger(final int[] pingerIds) {
+            m_pingerIds = pingerIds;
+            m_network.setPingerIds(pingerIds);
+            return new JnaIcmpMessenger(pingerIds, new V4Pinger(pingerIds, m_network.open()), null) {
+                @Override
+                public void start(final ReplyHandler<JnaPingReply> callback) {
+                    super.start(m_network.getReplyRecorder(callback));
+                }
+            };
+        }
+
+        public int[] getPingerIds() {
+            return m_pingerIds;
+        }
+
+        public TestNetwork getNetwork() {
+            return m_network;
+        }
+    }
+
+    /**
+     * Answers every echo request with an echo reply that, like with SOCK_RAW
+     * sockets, is received by every open socket.
+     */
+    private static class TestNetwork {
+        private final List<TestSocket> m_sockets = new CopyOnWriteArrayList<TestSocket>();
+        private final List<SentPacket> m_sentPackets = Collections.synchronizedList(new ArrayList<SentPacket>());
+        private final List<HandledReply> m_handledReplies = Collections.synchronizedList(new ArrayList<HandledReply>());
+        private volatile int[] m_pingerIds;
+        private volatile boolean m_replyWithOtherIdentifier = false;
+
+        public void setPingerIds(final int[] pingerIds) {
+            m_pingerIds = pingerIds;
+        }
+
+        public TestSocket open() {
+            final TestSocket socket = new TestSocket(this);
+            m_sockets.add(socket);
+            return socket;
+        }
+
+        public ReplyHandler<JnaPingReply> getReplyRecorder(final ReplyHandler<JnaPingReply> callback) {
+            return new ReplyHandler<JnaPingReply>() {
+                @Override
+                public void handleReply(final JnaPingReply reply) {
+                    m_handledReplies.add(new HandledReply(reply.getIdentifier()));
+                    callback.handleReply(reply);
+                }
+            };
+        }
+
+        public void setReplyWithOtherIdentifier(final boolean replyWithOtherIdentifier) {
+            m_replyWithOtherIdentifier = replyWithOtherIdentifier;
+        }
+
+        public List<TestSocket> getSockets() {
+            return m_sockets;
+        }
+
+        public List<SentPacket> getSentPackets() {
+            synchronized (m_sentPackets) {
+                return new ArrayList<SentPacket>(m_sentPackets);
+            }
+        }
+
+        public List<HandledReply> getHandledReplies() {
+            synchronized (m_handledReplies) {
+                return new ArrayList<HandledReply>(m_handledReplies);
+            }
+        }
+
+        public void send(final TestSocket from, final NativeDatagramPacket p) {
+            final ICMPEchoPacket request = new ICMPEchoPacket(new ICMPPacket(p.getContent()));
+            m_sentPackets.add(new SentPacket(from, p.getAddress(), request.getIdentifier(), request.getSequenceNumber()));
+
+            // prepend a minimal IPv4 header and turn the request into a reply
+            final ByteBuffer reply = ByteBuffer.allocate(20 + p.getLength());
+            reply.put(0, (byte)0x45);
+            reply.position(20);
+            reply.put(p.getContent());
+            reply.flip();
+            final ICMPEchoPacket echoReply = new ICMPEchoPacket(new ICMPPacket(new IPPacket(reply).getPayload()));
+            echoReply.setType(ICMPPacket.Type.EchoReply);
+            if (m_replyWithOtherIdentifier) {
+                for (int i = 0; i < m_pingerIds.length; i++) {
+                    if (m_pingerIds[i] == request.getIdentifier()) {
+                        echoReply.setIdentifier(m_pingerIds[(i + 1) % m_pingerIds.length]);
+                    }
+                }
+            }
+
+            for (final TestSocket socket : m_sockets) {
+                socket.deliver(p.getAddress(), reply);
+            }
+        }
+    }
+
+    private static class TestSocket extends NativeDatagramSocket {
+        private final TestNetwork m_network;
+        private final BlockingQueue<NativeDatagramPacket> m_queue = new LinkedBlockingQueue<NativeDatagramPacket>();
+        private final AtomicInteger m_receivedCount = new AtomicInteger();
+
+        public TestSocket(final TestNetwork network) {
+            m_network = network;
+        }
+
+        public int getReceivedCount() {
+            return m_receivedCount.get();
+        }
+
+        public void deliver(final InetAddress address, final ByteBuffer data) {
+            m_queue.add(new NativeDatagramPacket(data.duplicate(), address, 0));
+        }
+
+        @Override
+        public int receive(final NativeDatagramPacket p) {
+            final NativeDatagramPacket received;
+            try {
+                received = m_queue.take();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            m_receivedCount.incrementAndGet();
+
+            final ByteBuffer buf = p.getContent();
+            buf.clear();
+            buf.put(received.getContent());
+            p.setLength(received.getLength());
+            p.setAddress(received.getAddress());
+            return received.getLength();
+        }
+
+        @Override
+        public int send(final NativeDatagramPacket p) {
+            m_network.send(this, p);
+            return p.getLength();
+        }
+
+        @Override
+        public int close() {
+            return 0;
+        }
+    }
+
+    private static class SentPacket {
+        private final TestSocket m_socket;
+        private final InetAddress m_address;
+        private final int m_identifier;
+        private final int m_sequenceNumber;
+        private final String m_threadName = Thread.currentThread().getName();
+
+        public SentPacket(final TestSocket socket, final InetAddress address, final int identifier, final int sequenceNumber) {
+            m_socket = socket;
+            m_address = address;
+            m_identifier = identifier;
+            m_sequenceNumber = sequenceNumber;
+        }
+
+        public TestSocket getSocket() {
+            return m_socket;
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        public int getIdentifier() {
+            return m_identifier;
+        }
+
+        public int getSequenceNumber() {
+            return m_sequenceNumber;
+        }
+
+        public String getThreadName() {
+            return m_threadName;
+        }
+    }
+
+    private static class HandledReply {
+        private final int m_identifier;
+        private final String m_threadName = Thread.currentThread().getName();
+
+        public HandledReply(final int identifier) {
+            m_identifier = identifier;
+        }
+
+        public int getIdentifier() {
+            return m_identifier;
+        }
+
+        public String getThreadName() {
+            return m_threadName;
+        }
+    }
+}
@@ -12,6 +12,19 @@ public class BridgeMacLinkHash {
         bridgeport = maclink.getBridgePort();
         mac = maclink.getMacAddress();
     }
+
+    public Integer getNodeId() {
+        return nodeid;
+    }
+
+    public Integer getBridgePort() {
+        return bridgeport;
+    }
+
+    public String getMacAddress() {
+        return mac;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the updates held by a {@link CoalescingRrdStrategy}.
+ *
+ * The journal is a sequence of fixed size, memory-mapped segment files named
+ * <code>rrd-journal-&lt;id&gt;.log</code>. Each record is written as its
+ * payload length, a CRC32 of the payload, and the payload itself (the rrd
+ * file name, owner and update data). A zero length marks the end of a
+ * segment.
+ *
+ * Every record holds a reference on its segment until the update has been
+ * written to the rrd file. Once a segment has been filled and all of its
+ * references have been released, the segment file is deleted. Since the
+ * segments are mapped, appended records survive a JVM crash or restart
+ * without an explicit sync; they are only at risk if the operating system
+ * itself goes down before flushing its page cache.
+ */
+class CoalescingRrdJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingRrdJournal.class);
+
+    static final String SEGMENT_PREFIX = "rrd-journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Receives the records of the segments found when the journal is opened.
+     */
+    interface Replayer {
+        void replay(String fileName, String owner, String data);
+    }
+
+    /**
+     * A mapped journal file and the number of records in it that have not
+     * been written to their rrd files yet.
+     */
+    static final class Segment {
+        private final long m_id;
+        private final File m_file;
+        private final AtomicInteger m_outstanding = new AtomicInteger();
+        private MappedByteBuffer m_buffer;
+        private volatile boolean m_sealed = false;
+        private boolean m_deleted = false;
+
+        private Segment(final long id, final File file) {
+            m_id = id;
+            m_file = file;
+        }
+
+        long getId() {
+            return m_id;
+        }
+    }
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private Segment m_active;
+    private long m_nextSegmentId = 0;
+    private final AtomicInteger m_liveSegments = new AtomicInteger();
+
+    CoalescingRrdJournal(final File directory, final int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Journal segment size must be at least 1024 bytes: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays and then deletes the segments left behind by a previous run.
+     * The replayer is expected to append the records it receives again, so
+     * this must be called before any other record is appended.
+     *
+     * @return the number of records replayed
+     */
+    synchronized int replay(final Replayer replayer) throws IOException {
+        final File[] files = existingSegments();
+        for (final File file : files) {
+            m_nextSegmentId = Math.max(m_nextSegmentId, segmentId(file) + 1);
+        }
+
+        int replayed = 0;
+        for (final File file : files) {
+            int records = 0;
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "r"); final FileChannel channel = raf.getChannel()) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                String[] record;
+                while ((record = readRecord(buffer)) != null) {
+                    replayer.replay(record[0], record[1], record[2]);
+                    records++;
+                }
+            }
+            LOG.info("Replayed {} pending rrd updates from journal segment {}", records, file);
+            replayed += records;
+        }
+
+        // The replayed records have been appended to new segments by now
+        for (final File file : files) {
+            if (!file.delete()) {
+                LOG.warn("Unable to delete replayed journal segment {}", file);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Appends an update to the journal. The record is encoded before taking
+     * the journal's lock, which is only held to copy it into the segment.
+     *
+     * @return the segment holding the record, to be passed to
+     *         {@link #release(Segment)} once the update has been written
+     */
+    Segment append(final String fileName, final String owner, final String data) throws IOException {
+        final byte[] payload = encode(fileName, owner, data);
+        final int recordSize = RECORD_HEADER_SIZE + payload.length;
+        // Always leave room for the terminating zero length
+        if (recordSize + 4 > m_segmentSize) {
+            throw new IOException("Journal record for " + fileName + " exceeds the segment size of " + m_segmentSize + " bytes");
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        synchronized (this) {
+            if (m_active == null || m_active.m_buffer.remaining() < recordSize + 4) {
+                roll();
+            }
+
+            final MappedByteBuffer buffer = m_active.m_buffer;
+            buffer.putInt(payload.length);
+            buffer.putInt((int)crc.getValue());
+            buffer.put(payload);
+            m_active.m_outstanding.incrementAndGet();
+            return m_active;
+        }
+    }
+
+    /**
+     * Releases a record once its update has been written to the rrd file.
+     */
+    void release(final Segment segment) {
+        if (segment.m_outstanding.decrementAndGet() == 0 && segment.m_sealed) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * <p>getSegmentCount</p>
+     *
+     * @return the number of segment files currently on disk
+     */
+    int getSegmentCount() {
+        return m_liveSegments.get();
+    }
+
+    /**
+     * Closes the journal. Segments that still hold unwritten updates are
+     * left on disk to be replayed the next time the journal is opened.
+     */
+    @Override
+    public synchronized void close() {
+        if (m_active != null) {
+            m_active.m_buffer.force();
+            seal(m_active);
+            m_active = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (m_active != null) {
+            seal(m_active);
+        }
+
+        final long id = m_nextSegmentId++;
+        final Segment segment = new Segment(id, new File(m_directory, String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        try (final RandomAccessFile raf = new RandomAccessFile(segment.m_file, "rw"); final FileChannel channel = raf.getChannel()) {
+            // The mapping remains valid after the channel has been closed
+            segment.m_buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, m_segmentSize);
+        }
+        m_liveSegments.incrementAndGet();
+        m_active = segment;
+        LOG.debug("Opened rrd journal segment {}", segment.m_file);
+    }
+
+    private void seal(final Segment segment) {
+        segment.m_sealed = true;
+        if (segment.m_outstanding.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(final Segment segment) {
+        synchronized (segment) {
+            if (segment.m_deleted) {
+                return;
+            }
+            segment.m_deleted = true;
+        }
+        segment.m_buffer = null;
+        m_liveSegments.decrementAndGet();
+        if (!segment.m_file.delete()) {
+            LOG.warn("Unable to delete rrd journal segment {}", segment.m_file);
+        } else {
+            LOG.debug("Deleted rrd journal segment {}", segment.m_file);
+        }
+    }
+
+    private File[] existingSegments() {
+        final File[] files = m_directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX) && segmentId(file) >= 0;
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                return Long.compare(segmentId(a), segmentId(b));
+            }
+        });
+        return files;
+    }
+
+    private static long segmentId(final File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(final String fileName, final String owner, final String data) {
+        final byte[] file = fileName.getBytes(StandardCharsets.UTF_8);
+        final byte[] own = (owner == null ? "" : owner).getBytes(StandardCharsets.UTF_8);
+        final byte[] dat = data.getBytes(StandardCharsets.UTF_8);
+        final byte[] payload = new byte[12 + file.length + own.length + dat.length];
+        int offset = 0;
+        offset = put(payload, offset, file);
+        offset = put(payload, offset, own);
+        put(payload, offset, dat);
+        return payload;
+    }
+
+    private static int put(final byte[] payload, int offset, final byte[] value) {
+        payload[offset++] = (byte)(value.length >>> 24);
+        payload[offset++] = (byte)(value.length >>> 16);
+        payload[offset++] = (byte)(value.length >>> 8);
+        payload[offset++] = (byte)value.length;
+        System.arraycopy(value, 0, payload, offset, value.length);
+        return offset + value.length;
+    }
+
+    /**
+     * Reads the next record, or returns null at the end of the segment or at
+     * the first record that was only partially written.
+     */
+    private static String[] readRecord(final MappedByteBuffer buffer) {
+        try {
+            if (buffer.remaining() < RECORD_HEADER_SIZE) {
+                return null;
+            }
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return null;
+            }
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if ((int)crc.getValue() != checksum) {
+                LOG.warn("Ignoring corrupt rrd journal record and the remainder of its segment");
+                return null;
+            }
+
+            final String[] record = new String[3];
+            int offset = 0;
+            for (int i = 0; i < record.length; i++) {
+                final int len = ((payload[offset] & 0xff) << 24) | ((payload[offset + 1] & 0xff) << 16) | ((payload[offset + 2] & 0xff) << 8) | (payload[offset + 3] & 0xff);
+                offset += 4;
+                if (len < 0 || offset + len > payload.length) {
+                    return null;
+                }
+                record[i] = new String(payload, offset, len, StandardCharsets.UTF_8);
+                offset += len;
+            }
+            return record;
+        } catch (final BufferUnderflowException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,826 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Write-back RrdStrategy that coalesces the pending updates of each file.
+ *
+ * Like the {@link QueuingRrdStrategy}, this strategy amortizes the cost of
+ * opening a round robin database across all of the updates that accumulate
+ * for that file while the write threads are busy elsewhere. The pending
+ * updates are kept per file in a lock-striped table, so collectors that
+ * update different files never contend on a single monitor, and each file is
+ * listed at most once in the queue of files that are ready to be written.
+ * An update that carries the same timestamp as the last pending update of
+ * its file replaces that update instead of being appended.
+ *
+ * When a journal directory is configured, every update is also appended to
+ * a memory-mapped journal (see {@link CoalescingRrdJournal}) before it is
+ * queued, and the updates that were still pending when OpenNMS stopped are
+ * replayed when the strategy starts again.
+ *
+ * The time spent writing each file and the time the oldest update of each
+ * file spent in the queue are recorded in histograms that are included in
+ * {@link #getStats()}.
+ *
+ * Creates are passed through to the delegate synchronously.
+ *
+ * Configuration properties:
+ *
+ * org.opennms.rrd.queuing.writethreads: (default 2) the number of threads
+ * writing files
+ *
+ * org.opennms.rrd.queuing.queueHighWaterMark: (default 0) the number of
+ * pending updates above which new updates are discarded, zero for no limit
+ *
+ * org.opennms.rrd.queuing.stripes: (default 64) the number of locks guarding
+ * the table of pending updates
+ *
+ * org.opennms.rrd.queuing.journal.directory: (default blank) the directory
+ * holding the journal, blank to disable the journal
+ *
+ * org.opennms.rrd.queuing.journal.segmentSize: (default 64MB) the size of
+ * each journal segment file
+ */
+public class CoalescingRrdStrategy implements RrdStrategy<Object,String>, InitializingBean, DisposableBean {
+
+    private Logger m_log = LoggerFactory.getLogger(CoalescingRrdStrategy.class);
+
+    /** Constant <code>DEFAULT_STRIPES=64</code> */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** Constant <code>DEFAULT_JOURNAL_SEGMENT_SIZE=64 * 1024 * 1024</code> */
+    public static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private long m_maxPendingUpdates = 0;
+
+    private String m_journalDirectory;
+
+    private int m_journalSegmentSize = DEFAULT_JOURNAL_SEGMENT_SIZE;
+
+    private Stripe[] m_stripes;
+
+    private final BlockingDeque<String> m_readyFiles = new LinkedBlockingDeque<String>();
+
+    private CoalescingRrdJournal m_journal;
+
+    private final List<Thread> m_threads = new ArrayList<Thread>();
+
+    private final AtomicBoolean m_started = new AtomicBoolean(false);
+
+    private volatile boolean m_running = true;
+
+    private final AtomicLong m_pendingUpdates = new AtomicLong();
+
+    private final AtomicInteger m_pendingFiles = new AtomicInteger();
+
+    private final AtomicLong m_updatesEnqueued = new AtomicLong();
+
+    private final AtomicLong m_updatesCoalesced = new AtomicLong();
+
+    private final AtomicLong m_updatesDropped = new AtomicLong();
+
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
+
+    private final AtomicLong m_filesWritten = new AtomicLong();
+
+    private final AtomicLong m_promotionCount = new AtomicLong();
+
+    private final AtomicLong m_errors = new AtomicLong();
+
+    private final LatencyHistogram m_writeLatency = new LatencyHistogram("fileWriteLatency");
+
+    private final LatencyHistogram m_queueAge = new LatencyHistogram("queueAge");
+
+    /**
+     * The pending updates of the files that hash to the same lock.
+     */
+    private static final class Stripe {
+        private final Map<String, PendingFile> m_files = new HashMap<String, PendingFile>();
+    }
+
+    /**
+     * The updates waiting to be written to a single file.
+     *
+     * A file is <em>scheduled</em> while it is listed in the ready queue, and
+     * <em>writing</em> while a write thread holds its updates. It is never
+     * both, so at most one thread writes to a given file at a time.
+     */
+    private static final class PendingFile {
+        private List<PendingUpdate> m_updates = new ArrayList<PendingUpdate>(2);
+        private long m_firstQueued;
+        private boolean m_scheduled = false;
+        private boolean m_writing = false;
+    }
+
+    private static final class PendingUpdate {
+        private final String m_owner;
+        private final String m_data;
+        private final CoalescingRrdJournal.Segment m_segment;
+
+        private PendingUpdate(final String owner, final String data, final CoalescingRrdJournal.Segment segment) {
+            m_owner = owner;
+            m_data = data;
+            m_segment = segment;
+        }
+
+        private boolean hasSameTimestamp(final String data) {
+            final int sep = m_data.indexOf(':');
+            // "N" means now, so two of those never describe the same sample
+            return sep > 0 && data.length() > sep && data.charAt(sep) == ':'
+                    && !(sep == 1 && m_data.charAt(0) == 'N')
+                    && m_data.regionMatches(0, data, 0, sep);
+        }
+    }
+
+    /**
+     * <p>Constructor for CoalescingRrdStrategy.</p>
+     *
+     * @param delegate a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public CoalescingRrdStrategy(final RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+        setStripes(DEFAULT_STRIPES);
+    }
+
+    /**
+     * <p>getDelegate</p>
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    /**
+     * <p>getConfigurationProperties</p>
+     *
+     * @return a {@link java.util.Properties} object.
+     */
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    /**
+     * <p>getCategory</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getCategory() {
+        return m_category;
+    }
+
+    /**
+     * <p>setCategory</p>
+     *
+     * @param category a {@link java.lang.String} object.
+     */
+    public void setCategory(final String category) {
+        m_category = category;
+
+        m_log = LoggerFactory.getLogger(m_category);
+    }
+
+    /**
+     * <p>getWriteThreads</p>
+     *
+     * @return a int.
+     */
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    /**
+     * <p>setWriteThreads</p>
+     *
+     * @param writeThreads a int.
+     */
+    public void setWriteThreads(final int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    /**
+     * <p>getMaxPendingUpdates</p>
+     *
+     * @return a long.
+     */
+    public long getMaxPendingUpdates() {
+        return m_maxPendingUpdates;
+    }
+
+    /**
+     * Sets the number of pending updates above which new updates are
+     * discarded. Zero or less means no limit.
+     *
+     * @param maxPendingUpdates a long.
+     */
+    public void setMaxPendingUpdates(final long maxPendingUpdates) {
+        m_maxPendingUpdates = maxPendingUpdates;
+    }
+
+    /**
+     * <p>getStripes</p>
+     *
+     * @return a int.
+     */
+    public int getStripes() {
+        return m_stripes.length;
+    }
+
+    /**
+     * Sets the number of locks guarding the pending updates, rounded up to a
+     * power of two. This must be set before the first update is queued.
+     *
+     * @param stripes a int.
+     */
+    public void setStripes(final int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("The number of stripes must be positive: " + stripes);
+        }
+        final int size = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        final Stripe[] newStripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            newStripes[i] = new Stripe();
+        }
+        m_stripes = newStripes;
+    }
+
+    /**
+     * <p>getJournalDirectory</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getJournalDirectory() {
+        return m_journalDirectory;
+    }
+
+    /**
+     * Sets the directory holding the journal. A blank directory disables the
+     * journal.
+     *
+     * @param journalDirectory a {@link java.lang.String} object.
+     */
+    public void setJournalDirectory(final String journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
+
+    /**
+     * <p>getJournalSegmentSize</p>
+     *
+     * @return a int.
+     */
+    public int getJournalSegmentSize() {
+        return m_journalSegmentSize;
+    }
+
+    /**
+     * <p>setJournalSegmentSize</p>
+     *
+     * @param journalSegmentSize a int.
+     */
+    public void setJournalSegmentSize(final int journalSegmentSize) {
+        m_journalSegmentSize = journalSegmentSize;
+    }
+
+    /**
+     * Opens the journal, if one is configured, and queues the updates found
+     * in it.
+     *
+     * @throws java.io.IOException if the journal cannot be opened
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (m_journalDirectory == null || m_journalDirectory.trim().isEmpty()) {
+            return;
+        }
+        m_journal = new CoalescingRrdJournal(new File(m_journalDirectory.trim()), m_journalSegmentSize);
+        final int replayed = m_journal.replay(new CoalescingRrdJournal.Replayer() {
+            @Override
+            public void replay(final String fileName, final String owner, final String data) {
+                enqueue(fileName, owner, data);
+            }
+        });
+        if (replayed > 0) {
+            m_log.info("Queued {} rrd updates from the journal in {}", replayed, m_journalDirectory);
+        }
+    }
+
+    /**
+     * Stops the write threads once they have written the pending updates or
+     * the shutdown timeout has expired, whichever comes first. Any updates
+     * that remain are kept in the journal.
+     *
+     * @throws java.lang.InterruptedException if interrupted while waiting
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        m_running = false;
+        final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+        synchronized (m_threads) {
+            for (final Thread thread : m_threads) {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            for (final Thread thread : m_threads) {
+                thread.interrupt();
+            }
+            m_threads.clear();
+        }
+        if (m_journal != null) {
+            m_journal.close();
+        }
+        if (m_pendingUpdates.get() > 0) {
+            m_log.warn("Stopped with {} rrd updates still pending{}", m_pendingUpdates.get(), m_journal == null ? "" : "; they will be replayed from the journal on restart");
+        }
+    }
+
+    //
+    // RrdStrategy Implementation
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        return m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createFile(final Object rrdDef, final Map<String, String> attributeMappings) throws Exception {
+        m_delegate.createFile(rrdDef, attributeMappings);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(final String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final String rrdFile, final String owner, final String data) throws Exception {
+        enqueue(rrdFile, owner, data);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(final String rrd) throws Exception {
+        // no need to do anything here
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    /**
+     * Moves the given files to the head of the write queue.
+     *
+     * @param rrdFiles a {@link java.util.Collection} object.
+     */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        for (final String fileName : rrdFiles) {
+            final Stripe stripe = stripeFor(fileName);
+            boolean promote = false;
+            synchronized (stripe) {
+                final PendingFile file = stripe.m_files.get(fileName);
+                promote = file != null && file.m_scheduled;
+            }
+            if (promote) {
+                // The entry further down the queue becomes stale and is
+                // skipped once this one has been written
+                m_readyFiles.offerFirst(fileName);
+                m_promotionCount.incrementAndGet();
+            }
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    private Stripe stripeFor(final String fileName) {
+        final int h = fileName.hashCode();
+        return m_stripes[(h ^ (h >>> 16)) & (m_stripes.length - 1)];
+    }
+
+    private void enqueue(final String fileName, final String owner, final String data) {
+        if (m_maxPendingUpdates > 0 && m_pendingUpdates.get() >= m_maxPendingUpdates) {
+            if (m_updatesDropped.getAndIncrement() % 1000 == 0) {
+                m_log.warn("Discarding rrd update for {}: {} updates are already pending", fileName, m_pendingUpdates.get());
+            }
+            return;
+        }
+
+        // Journal the update before taking the stripe's lock, so that a
+        // stripe is never held while waiting on the journal's lock
+        final CoalescingRrdJournal.Segment segment = journal(fileName, owner, data);
+
+        final Stripe stripe = stripeFor(fileName);
+        boolean schedule = false;
+        CoalescingRrdJournal.Segment replaced = null;
+        synchronized (stripe) {
+            PendingFile file = stripe.m_files.get(fileName);
+            if (file == null) {
+                file = new PendingFile();
+                stripe.m_files.put(fileName, file);
+                m_pendingFiles.incrementAndGet();
+            }
+
+            final List<PendingUpdate> updates = file.m_updates;
+            final PendingUpdate update = new PendingUpdate(owner, data, segment);
+            if (updates.isEmpty()) {
+                file.m_firstQueued = System.nanoTime();
+                updates.add(update);
+                m_pendingUpdates.incrementAndGet();
+            } else if (updates.get(updates.size() - 1).hasSameTimestamp(data)) {
+                replaced = updates.set(updates.size() - 1, update).m_segment;
+                m_updatesCoalesced.incrementAndGet();
+            } else {
+                updates.add(update);
+                m_pendingUpdates.incrementAndGet();
+            }
+
+            if (!file.m_scheduled && !file.m_writing) {
+                file.m_scheduled = true;
+                schedule = true;
+            }
+        }
+        m_updatesEnqueued.incrementAndGet();
+
+        if (replaced != null) {
+            m_journal.release(replaced);
+        }
+        if (schedule) {
+            m_readyFiles.offerLast(fileName);
+        }
+        ensureThreadsStarted();
+    }
+
+    private CoalescingRrdJournal.Segment journal(final String fileName, final String owner, final String data) {
+        if (m_journal == null) {
+            return null;
+        }
+        try {
+            return m_journal.append(fileName, owner, data);
+        } catch (final IOException e) {
+            m_errors.incrementAndGet();
+            m_log.warn("Unable to journal rrd update for {}: {}", fileName, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private void ensureThreadsStarted() {
+        if (m_started.get() || !m_started.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (m_threads) {
+            for (int i = 0; i < Math.max(1, m_writeThreads); i++) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        processReadyFiles();
+                    }
+                }, "CoalescingRrdWriter-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                m_threads.add(thread);
+            }
+        }
+    }
+
+    private void processReadyFiles() {
+        Logging.withPrefix(m_category, new Runnable() {
+            @Override
+            public void run() {
+                while (m_running || !m_readyFiles.isEmpty()) {
+                    try {
+                        final String fileName = m_readyFiles.pollFirst(100, TimeUnit.MILLISECONDS);
+                        if (fileName != null) {
+                            writeFile(fileName);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    private void writeFile(final String fileName) {
+        final Stripe stripe = stripeFor(fileName);
+        final List<PendingUpdate> updates;
+        final long firstQueued;
+        synchronized (stripe) {
+            final PendingFile file = stripe.m_files.get(fileName);
+            if (file == null || !file.m_scheduled) {
+                // A stale entry left behind by promoteEnqueuedFiles
+                return;
+            }
+            file.m_scheduled = false;
+            file.m_writing = true;
+            updates = file.m_updates;
+            firstQueued = file.m_firstQueued;
+            file.m_updates = new ArrayList<PendingUpdate>(2);
+        }
+
+        final long start = System.nanoTime();
+        int completed = 0;
+        Object rrd = null;
+        try {
+            rrd = m_delegate.openFile(fileName);
+            for (final PendingUpdate update : updates) {
+                try {
+                    m_delegate.updateFile(rrd, update.m_owner, update.m_data);
+                    completed++;
+                } catch (final Throwable e) {
+                    m_errors.incrementAndGet();
+                    m_log.debug("Error updating file {} with {}: {}", fileName, update.m_data, e.getMessage(), e);
+                }
+            }
+        } catch (final Throwable e) {
+            m_errors.incrementAndGet();
+            m_log.debug("Error opening file {}: {}", fileName, e.getMessage(), e);
+        } finally {
+            if (rrd != null) {
+                try {
+                    m_delegate.closeFile(rrd);
+                } catch (final Throwable e) {
+                    m_errors.incrementAndGet();
+                    m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+                }
+            }
+        }
+        final long end = System.nanoTime();
+        m_queueAge.record(start - firstQueued, TimeUnit.NANOSECONDS);
+        m_writeLatency.record(end - start, TimeUnit.NANOSECONDS);
+        m_filesWritten.incrementAndGet();
+        m_updatesCompleted.addAndGet(completed);
+
+        // Failed updates are not retried, so release them from the journal too
+        if (m_journal != null) {
+            for (final PendingUpdate update : updates) {
+                if (update.m_segment != null) {
+                    m_journal.release(update.m_segment);
+                }
+            }
+        }
+
+        boolean reschedule = false;
+        synchronized (stripe) {
+            final PendingFile file = stripe.m_files.get(fileName);
+            file.m_writing = false;
+            m_pendingUpdates.addAndGet(-updates.size());
+            if (file.m_updates.isEmpty()) {
+                stripe.m_files.remove(fileName);
+                m_pendingFiles.decrementAndGet();
+            } else {
+                file.m_scheduled = true;
+                reschedule = true;
+            }
+        }
+        if (reschedule) {
+            m_readyFiles.offerLast(fileName);
+        }
+    }
+
+    //
+    // Statistics
+    //
+
+    /**
+     * <p>getPendingUpdates</p>
+     *
+     * @return the number of updates waiting to be written
+     */
+    public long getPendingUpdates() {
+        return m_pendingUpdates.get();
+    }
+
+    /**
+     * <p>getPendingFiles</p>
+     *
+     * @return the number of files with updates waiting to be written
+     */
+    public int getPendingFiles() {
+        return m_pendingFiles.get();
+    }
+
+    /**
+     * <p>getUpdatesEnqueued</p>
+     *
+     * @return a long.
+     */
+    public long getUpdatesEnqueued() {
+        return m_updatesEnqueued.get();
+    }
+
+    /**
+     * <p>getUpdatesCoalesced</p>
+     *
+     * @return the number of updates that replaced a pending update with the
+     *         same timestamp
+     */
+    public long getUpdatesCoalesced() {
+        return m_updatesCoalesced.get();
+    }
+
+    /**
+     * <p>getUpdatesDropped</p>
+     *
+     * @return the number of updates discarded because too many were pending
+     */
+    public long getUpdatesDropped() {
+        return m_updatesDropped.get();
+    }
+
+    /**
+     * <p>getUpdatesCompleted</p>
+     *
+     * @return a long.
+     */
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    /**
+     * <p>getFilesWritten</p>
+     *
+     * @return the number of times a file was opened to write its updates
+     */
+    public long getFilesWritten() {
+        return m_filesWritten.get();
+    }
+
+    /**
+     * <p>getPromotionCount</p>
+     *
+     * @return a long.
+     */
+    public long getPromotionCount() {
+        return m_promotionCount.get();
+    }
+
+    /**
+     * <p>getErrors</p>
+     *
+     * @return a long.
+     */
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    /**
+     * <p>getWriteLatency</p>
+     *
+     * @return the time spent opening, updating and closing each file
+     */
+    public LatencyHistogram getWriteLatency() {
+        return m_writeLatency;
+    }
+
+    /**
+     * <p>getQueueAge</p>
+     *
+     * @return the time the oldest update of each file waited to be written
+     */
+    public LatencyHistogram getQueueAge() {
+        return m_queueAge;
+    }
+
+    /**
+     * Print queue statistics.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getStats() {
+        final long filesWritten = m_filesWritten.get();
+        return "\nCQS:\tpendingUpdates=" + getPendingUpdates() +
+                ", pendingFiles=" + getPendingFiles() +
+                ", readyQueue=" + m_readyFiles.size() +
+                ", journalSegments=" + (m_journal == null ? 0 : m_journal.getSegmentCount())
+                + "\nCQS:\tenqueued=" + getUpdatesEnqueued() +
+                ", coalesced=" + getUpdatesCoalesced() +
+                ", dropped=" + getUpdatesDropped() +
+                ", completed=" + getUpdatesCompleted() +
+                ", filesWritten=" + filesWritten +
+                ", updatesPerFile=" + (filesWritten == 0 ? 0.0 : (double) getUpdatesCompleted() / filesWritten) +
+                ", promotionCount=" + getPromotionCount() +
+                ", errors=" + getErrors()
+                + "\nCQS:\t" + m_writeLatency
+                + "\nCQS:\t" + m_queueAge;
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations using power-of-two microsecond buckets.
+ *
+ * Bucket <code>n</code> holds the samples in the range
+ * [2<sup>n-1</sup>, 2<sup>n</sup>) microseconds, so percentiles are accurate
+ * to within a factor of two, which is plenty to tell a healthy write queue
+ * from one that is falling behind.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final String m_name;
+    private final AtomicLongArray m_buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_totalMicros = new AtomicLong();
+    private final AtomicLong m_maxMicros = new AtomicLong();
+
+    /**
+     * <p>Constructor for LatencyHistogram.</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     */
+    public LatencyHistogram(final String name) {
+        m_name = name;
+    }
+
+    /**
+     * <p>getName</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Records a single sample.
+     *
+     * @param duration the duration
+     * @param unit the unit of <code>duration</code>
+     */
+    public void record(final long duration, final TimeUnit unit) {
+        final long micros = Math.max(0, unit.toMicros(duration));
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        m_buckets.incrementAndGet(bucket);
+        m_count.incrementAndGet();
+        m_totalMicros.addAndGet(micros);
+
+        long max = m_maxMicros.get();
+        while (micros > max && !m_maxMicros.compareAndSet(max, micros)) {
+            max = m_maxMicros.get();
+        }
+    }
+
+    /**
+     * <p>getCount</p>
+     *
+     * @return the number of samples recorded
+     */
+    public long getCount() {
+        return m_count.get();
+    }
+
+    /**
+     * <p>getMean</p>
+     *
+     * @return the mean of all samples in milliseconds
+     */
+    public double getMean() {
+        final long count = m_count.get();
+        return count == 0 ? 0.0 : m_totalMicros.get() / 1000.0 / count;
+    }
+
+    /**
+     * <p>getMax</p>
+     *
+     * @return the largest sample in milliseconds
+     */
+    public double getMax() {
+        return m_maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile.
+     *
+     * @param percentile a value between 0 and 100
+     * @return the percentile in milliseconds
+     */
+    public double getPercentile(final double percentile) {
+        final long count = m_count.get();
+        if (count == 0) {
+            return 0.0;
+        }
+        final long rank = (long)Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += m_buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundMicros(i), m_maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the number of samples in each bucket. Index <code>n</code>
+     * holds samples shorter than 2<sup>n</sup> microseconds.
+     *
+     * @return an array of long.
+     */
+    public long[] getBuckets() {
+        final long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = m_buckets.get(i);
+        }
+        return buckets;
+    }
+
+    private static long upperBoundMicros(final int bucket) {
+        return bucket == 0 ? 0 : 1L << bucket;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms",
+                             m_name, getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+}
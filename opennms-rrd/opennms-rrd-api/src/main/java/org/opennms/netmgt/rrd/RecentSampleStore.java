@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recent samples written to each RRD file in memory so that
+ * consumers of fresh data, like the measurements API, do not have to read
+ * them back from disk.
+ *
+ * Samples are kept per file in a fixed size ring: one <code>long[]</code>
+ * column of timestamps and one <code>double[]</code> column per data
+ * source.  Counter data sources are stored as raw counter values and
+ * converted to per-second rates when they are read, and the heartbeat and
+ * the minimum and maximum of each data source are applied, the same way
+ * JRobin does when it updates a file.
+ *
+ * The store is disabled unless <code>org.opennms.rrd.recentSamples.capacity</code>
+ * is set to the number of samples to keep per file.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class RecentSampleStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecentSampleStore.class);
+
+    /** Constant <code>CAPACITY_PROPERTY="org.opennms.rrd.recentSamples.capacity"</code> */
+    public static final String CAPACITY_PROPERTY = "org.opennms.rrd.recentSamples.capacity";
+
+    private static final double COUNTER32_WRAP = 4294967296.0;
+
+    private static final double COUNTER64_WRAP = 18446744073709551616.0;
+
+    private static final int DEFAULT_HEARTBEAT_STEPS = 2;
+
+    private static RecentSampleStore s_instance = null;
+
+    private final int m_capacity;
+
+    private final ConcurrentMap<String, SampleRing> m_rings = new ConcurrentHashMap<String, SampleRing>();
+
+    /**
+     * Returns the store configured in rrd-configuration.properties.
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RecentSampleStore} object.
+     */
+    public static synchronized RecentSampleStore getInstance() {
+        if (s_instance == null) {
+            int capacity = 0;
+            try {
+                capacity = Integer.parseInt(RrdConfig.getProperties().getProperty(CAPACITY_PROPERTY, "0").trim());
+            } catch (final IOException | NumberFormatException e) {
+                LOG.warn("Unable to read {}, keeping no recent samples in memory", CAPACITY_PROPERTY, e);
+            }
+            s_instance = new RecentSampleStore(capacity);
+        }
+        return s_instance;
+    }
+
+    /**
+     * Replaces the shared store, mainly for tests.
+     *
+     * @param store a {@link org.opennms.netmgt.rrd.RecentSampleStore} object.
+     */
+    public static synchronized void setInstance(final RecentSampleStore store) {
+        s_instance = store;
+    }
+
+    /**
+     * @param capacity
+     *            The number of samples kept per file, 0 or less to disable
+     *            the store.
+     */
+    public RecentSampleStore(final int capacity) {
+        m_capacity = Math.max(0, capacity);
+    }
+
+    public boolean isEnabled() {
+        return m_capacity > 0;
+    }
+
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /**
+     * @return The number of files with samples in the store
+     */
+    public int size() {
+        return m_rings.size();
+    }
+
+    /**
+     * Records a sample that has just been written to an RRD file whose data
+     * sources have a heartbeat of two steps and no minimum or maximum.
+     *
+     * @see #update(String, int, int, String[], boolean[], double[], double[], long, double[])
+     */
+    public void update(final String rrdFile, final int step, final String[] dsNames, final boolean[] counters, final long timestamp, final double[] values) {
+        final double[] unbounded = new double[dsNames.length];
+        Arrays.fill(unbounded, Double.NaN);
+        update(rrdFile, step, step * DEFAULT_HEARTBEAT_STEPS, dsNames, counters, unbounded, unbounded, timestamp, values);
+    }
+
+    /**
+     * Records a sample that has just been written to an RRD file.
+     *
+     * @param rrdFile
+     *            The path of the file.
+     * @param step
+     *            The step of the file in seconds.
+     * @param heartbeat
+     *            The heartbeat of the data sources in seconds.
+     * @param dsNames
+     *            The data source names, in file order.
+     * @param counters
+     *            Which of the data sources are counters.
+     * @param mins
+     *            The minimum of each data source, NaN if there is none.
+     * @param maxs
+     *            The maximum of each data source, NaN if there is none.
+     * @param timestamp
+     *            The time of the sample in milliseconds.
+     * @param values
+     *            The value of each data source, NaN if unknown.
+     */
+    public void update(final String rrdFile, final int step, final int heartbeat, final String[] dsNames, final boolean[] counters,
+            final double[] mins, final double[] maxs, final long timestamp, final double[] values) {
+        if (!isEnabled()) {
+            return;
+        }
+        final String key = toKey(rrdFile);
+        SampleRing ring = m_rings.get(key);
+        if (ring == null || !ring.hasLayout(step, heartbeat, dsNames, counters, mins, maxs)) {
+            // New file, or its data sources changed; start over
+            ring = new SampleRing(m_capacity, step, heartbeat, dsNames, counters, mins, maxs);
+            m_rings.put(key, ring);
+        }
+        ring.add(timestamp, values);
+    }
+
+    /**
+     * Forgets the samples of a file, or of all of the files below a
+     * directory, e.g. when a resource is deleted.
+     *
+     * @param rrdFile a {@link java.lang.String} object.
+     */
+    public void remove(final String rrdFile) {
+        final String key = toKey(rrdFile);
+        m_rings.remove(key);
+        final String prefix = key + File.separator;
+        for (final Iterator<String> it = m_rings.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the samples of one data source of a file, oldest first.
+     *
+     * @param rrdFile
+     *            The path of the file.
+     * @param dsName
+     *            The data source name.
+     * @return the samples, or null if the store has none for the file or the
+     *         file has no such data source
+     */
+    public Samples getSamples(final String rrdFile, final String dsName) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final SampleRing ring = m_rings.get(toKey(rrdFile));
+        return ring == null ? null : ring.getSamples(dsName);
+    }
+
+    private static String toKey(final String rrdFile) {
+        return new File(rrdFile).toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * A snapshot of the recent samples of one data source.
+     */
+    public static final class Samples {
+        private final int m_step;
+        private final int m_heartbeat;
+        private final long[] m_timestamps;
+        private final double[] m_values;
+
+        private Samples(final int step, final int heartbeat, final long[] timestamps, final double[] values) {
+            m_step = step;
+            m_heartbeat = heartbeat;
+            m_timestamps = timestamps;
+            m_values = values;
+        }
+
+        /**
+         * @return The step of the file in seconds
+         */
+        public int getStep() {
+            return m_step;
+        }
+
+        /**
+         * @return The heartbeat of the data source in seconds
+         */
+        public int getHeartbeat() {
+            return m_heartbeat;
+        }
+
+        /**
+         * @return The sample times in milliseconds, oldest first
+         */
+        public long[] getTimestamps() {
+            return m_timestamps;
+        }
+
+        /**
+         * Returns the value of each sample as JRobin applies it to the time
+         * since the previous sample: the rate for counter data sources, and
+         * NaN when the time exceeds the heartbeat or the value is outside
+         * of the data source's bounds.  The first value is always NaN since
+         * the time of the previous sample isn't known.
+         *
+         * @return The sample values
+         */
+        public double[] getValues() {
+            return m_values;
+        }
+
+        public int size() {
+            return m_timestamps.length;
+        }
+
+        /**
+         * @return The time of the oldest sample, or {@link Long#MAX_VALUE} if there is none
+         */
+        public long getOldestTimestamp() {
+            return m_timestamps.length == 0 ? Long.MAX_VALUE : m_timestamps[0];
+        }
+    }
+
+    private static final class SampleRing {
+        private final int m_step;
+        private final int m_heartbeat;
+        private final String[] m_dsNames;
+        private final boolean[] m_counters;
+        private final double[] m_mins;
+        private final double[] m_maxs;
+        private final long[] m_timestamps;
+        private final double[][] m_columns;
+        private int m_next = 0;
+        private int m_size = 0;
+
+        private SampleRing(final int capacity, final int step, final int heartbeat, final String[] dsNames, final boolean[] counters,
+                final double[] mins, final double[] maxs) {
+            m_step = step;
+            m_heartbeat = heartbeat;
+            m_dsNames = dsNames.clone();
+            m_counters = counters.clone();
+            m_mins = mins.clone();
+            m_maxs = maxs.clone();
+            m_timestamps = new long[capacity];
+            m_columns = new double[dsNames.length][capacity];
+        }
+
+        private boolean hasLayout(final int step, final int heartbeat, final String[] dsNames, final boolean[] counters,
+                final double[] mins, final double[] maxs) {
+            return m_step == step && m_heartbeat == heartbeat && Arrays.equals(m_dsNames, dsNames) && Arrays.equals(m_counters, counters)
+                    && Arrays.equals(m_mins, mins) && Arrays.equals(m_maxs, maxs);
+        }
+
+        private synchronized void add(final long timestamp, final double[] values) {
+            if (m_size > 0) {
+                final int last = (m_next + m_timestamps.length - 1) % m_timestamps.length;
+                if (timestamp <= m_timestamps[last]) {
+                    // RRD rejects updates that are not newer than the last one
+                    return;
+                }
+            }
+            m_timestamps[m_next] = timestamp;
+            for (int ds = 0; ds < m_columns.length; ds++) {
+                m_columns[ds][m_next] = ds < values.length ? values[ds] : Double.NaN;
+            }
+            m_next = (m_next + 1) % m_timestamps.length;
+            if (m_size < m_timestamps.length) {
+                m_size++;
+            }
+        }
+
+        private synchronized Samples getSamples(final String dsName) {
+            int ds = -1;
+            for (int i = 0; i < m_dsNames.length; i++) {
+                if (m_dsNames[i].equals(dsName)) {
+                    ds = i;
+                    break;
+                }
+            }
+            if (ds < 0) {
+                return null;
+            }
+
+            final long[] timestamps = new long[m_size];
+            final double[] values = new double[m_size];
+            final int first = (m_next + m_timestamps.length - m_size) % m_timestamps.length;
+            final double[] column = m_columns[ds];
+            for (int i = 0; i < m_size; i++) {
+                final int index = (first + i) % m_timestamps.length;
+                timestamps[i] = m_timestamps[index];
+                values[i] = column[index];
+            }
+            toUpdateValues(timestamps, values, m_counters[ds], m_mins[ds], m_maxs[ds]);
+            return new Samples(m_step, m_heartbeat, timestamps, values);
+        }
+
+        /**
+         * Replaces the values by the ones JRobin applies to the time since
+         * the previous sample, see {@link Samples#getValues()}.
+         */
+        private void toUpdateValues(final long[] timestamps, final double[] values, final boolean counter, final double min, final double max) {
+            double previous = Double.NaN;
+            for (int i = 0; i < values.length; i++) {
+                final double current = values[i];
+                double value = Double.NaN;
+                final long seconds = i > 0 ? (timestamps[i] - timestamps[i - 1]) / 1000L : 0;
+                if (i > 0 && seconds <= m_heartbeat) {
+                    if (!counter) {
+                        value = current;
+                    } else if (!Double.isNaN(previous) && !Double.isNaN(current)) {
+                        double delta = current - previous;
+                        if (delta < 0) {
+                            delta += COUNTER32_WRAP;
+                        }
+                        if (delta < 0) {
+                            delta += COUNTER64_WRAP - COUNTER32_WRAP;
+                        }
+                        if (delta >= 0) {
+                            value = delta / seconds;
+                        }
+                    }
+                    if ((!Double.isNaN(min) && value < min) || (!Double.isNaN(max) && value > max)) {
+                        value = Double.NaN;
+                    }
+                }
+                previous = current;
+                values[i] = value;
+            }
+        }
+    }
+}
@@ -35,7 +35,8 @@ import org.springframework.context.ApplicationContextAware;
  * Constructs the appropriate RRD strategy based on the
  * configured system properties.
  *
- * Optionally wraps the strategy with a queue and/or
+ * Optionally wraps the strategy with a queue (either the
+ * {@link QueuingRrdStrategy} or the {@link CoalescingRrdStrategy}) and/or
  * outputs the metrics to a TCP stream.
  *
  */
@@ -46,8 +47,10 @@ public class RrdStrategyFactory implements ApplicationContextAware {
     private static enum StrategyName {
         basicRrdStrategy,
         queuingRrdStrategy,
+        coalescingRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        tcpAndCoalescingRrdStrategy
     }
 
     @Override
@@ -65,9 +68,16 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        Boolean useCoalescingQueue = m_context.containsBean("useCoalescingQueue") && (Boolean) m_context.getBean("useCoalescingQueue");
 
         if (useQueue) {
-            if (useTcp) {
+            if (useCoalescingQueue) {
+                if (useTcp) {
+                    rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndCoalescingRrdStrategy.toString());
+                } else {
+                    rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.coalescingRrdStrategy.toString());
+                }
+            } else if (useTcp) {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString());
             } else {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.queuingRrdStrategy.toString());
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDbPool;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Keeps up to <code>maxOpenFiles</code> recently used JRobin files open so
+ * that writing a sample or fetching data does not have to open the file and
+ * parse its header every time.</p>
+ *
+ * <p>Handles are obtained from JRobin's {@link RrdDbPool}, which hands out
+ * one {@link RrdDb} per file and keeps it open for as long as it has been
+ * requested more often than released.  This pool holds one extra request on
+ * each cached file and gives it back when the file is evicted, so readers
+ * that use the JRobin pool, like a {@link org.jrobin.data.DataProcessor} or
+ * an {@link org.jrobin.graph.RrdGraphDef} with <code>setPoolUsed(true)</code>,
+ * share the handle the writers keep open.</p>
+ *
+ * <p>{@link #acquire(String)} also takes a per-file lock that is held until
+ * {@link #release(RrdDb)}, so that the updates a writer applies between
+ * <code>openFile</code> and <code>closeFile</code> are not interleaved with
+ * those of another writer.  Unlocked files are evicted in least recently used
+ * order; if every cached file is in use, the pool grows past its limit until
+ * they are released.</p>
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class JRobinRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    /**
+     * Files that can be opened by readers in addition to the cached ones
+     * before {@link RrdDbPool} makes them wait.
+     */
+    private static final int READER_HEADROOM = 200;
+
+    private static JRobinRrdDbPool s_instance;
+
+    private static class Entry {
+        private final String m_path;
+        private final ReentrantLock m_lock = new ReentrantLock();
+        private RrdDb m_rrdDb;
+        private Object m_fileKey;
+        private boolean m_evicted = false;
+
+        private Entry(final String path) {
+            m_path = path;
+        }
+    }
+
+    private final RrdDbPool m_rrdDbPool;
+    private final int m_maxOpenFiles;
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<RrdDb, Entry> m_entriesByHandle = new IdentityHashMap<RrdDb, Entry>();
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * <p>Constructor for JRobinRrdDbPool.</p>
+     *
+     * @param maxOpenFiles the number of files to keep open
+     * @throws RrdException if the default JRobin backend is not file based
+     */
+    public JRobinRrdDbPool(final int maxOpenFiles) throws RrdException {
+        m_maxOpenFiles = maxOpenFiles;
+        m_rrdDbPool = RrdDbPool.getInstance();
+        if (m_rrdDbPool.getCapacity() < maxOpenFiles + READER_HEADROOM) {
+            m_rrdDbPool.setCapacity(maxOpenFiles + READER_HEADROOM);
+        }
+    }
+
+    /**
+     * Returns the pool used by the {@link JRobinRrdStrategy}, or null if
+     * handles are not pooled.
+     */
+    public static synchronized JRobinRrdDbPool getInstance() {
+        return s_instance;
+    }
+
+    public static synchronized void setInstance(final JRobinRrdDbPool instance) {
+        s_instance = instance;
+    }
+
+    /**
+     * Returns the open handle for the file and locks it for the calling
+     * thread until {@link #release(RrdDb)} is called.
+     */
+    public RrdDb acquire(final String fileName) throws IOException, RrdException {
+        final String path = new File(fileName).getAbsolutePath();
+        while (true) {
+            final Entry entry;
+            synchronized (m_entries) {
+                Entry existing = m_entries.get(path);
+                if (existing == null) {
+                    existing = new Entry(path);
+                    m_entries.put(path, existing);
+                }
+                entry = existing;
+            }
+
+            entry.m_lock.lock();
+            if (entry.m_evicted) {
+                entry.m_lock.unlock();
+                continue;
+            }
+            try {
+                if (entry.m_rrdDb != null && !entry.m_rrdDb.isClosed() && isSameFile(entry)) {
+                    m_hits.incrementAndGet();
+                } else {
+                    m_misses.incrementAndGet();
+                    closeEntry(entry);
+                    entry.m_rrdDb = m_rrdDbPool.requestRrdDb(path);
+                    entry.m_fileKey = getFileKey(path);
+                    synchronized (m_entries) {
+                        m_entriesByHandle.put(entry.m_rrdDb, entry);
+                    }
+                }
+                return entry.m_rrdDb;
+            } catch (final IOException e) {
+                remove(entry);
+                entry.m_lock.unlock();
+                throw e;
+            } catch (final RrdException e) {
+                remove(entry);
+                entry.m_lock.unlock();
+                throw e;
+            } catch (final RuntimeException e) {
+                remove(entry);
+                entry.m_lock.unlock();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Unlocks a handle returned by {@link #acquire(String)} and evicts the
+     * least recently used files if the pool is over its limit.
+     */
+    public void release(final RrdDb rrdDb) throws IOException, RrdException {
+        final Entry entry;
+        synchronized (m_entries) {
+            entry = m_entriesByHandle.get(rrdDb);
+        }
+        if (entry == null) {
+            // not one of ours
+            rrdDb.close();
+            return;
+        }
+        if (!entry.m_lock.isHeldByCurrentThread()) {
+            LOG.warn("release: {} was not acquired by this thread", entry.m_path);
+            return;
+        }
+        entry.m_lock.unlock();
+        evict();
+    }
+
+    /**
+     * Requests a shared handle without taking the per-file lock, for
+     * readers.  The handle must be given back with
+     * {@link #releaseShared(RrdDb)}.
+     */
+    public RrdDb requestShared(final String fileName) throws IOException, RrdException {
+        return m_rrdDbPool.requestRrdDb(new File(fileName).getAbsolutePath());
+    }
+
+    public void releaseShared(final RrdDb rrdDb) throws IOException, RrdException {
+        m_rrdDbPool.release(rrdDb);
+    }
+
+    /**
+     * Closes the cached handle of a file, for example before the file is
+     * recreated.
+     */
+    public void invalidate(final String fileName) {
+        final String path = new File(fileName).getAbsolutePath();
+        final Entry entry;
+        synchronized (m_entries) {
+            entry = m_entries.get(path);
+        }
+        if (entry != null) {
+            entry.m_lock.lock();
+            try {
+                remove(entry);
+            } finally {
+                entry.m_lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes all cached handles.
+     */
+    public void clear() {
+        final Entry[] entries;
+        synchronized (m_entries) {
+            entries = m_entries.values().toArray(new Entry[0]);
+        }
+        for (final Entry entry : entries) {
+            entry.m_lock.lock();
+            try {
+                remove(entry);
+            } finally {
+                entry.m_lock.unlock();
+            }
+        }
+    }
+
+    public int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    public int getOpenFiles() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * <p>getStats</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getStats() {
+        return "JRobin handle pool: open=" + getOpenFiles() + "/" + m_maxOpenFiles + " hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions();
+    }
+
+    private void evict() {
+        while (true) {
+            Entry victim = null;
+            synchronized (m_entries) {
+                if (m_entries.size() <= m_maxOpenFiles) {
+                    return;
+                }
+                for (final Iterator<Map.Entry<String, Entry>> it = m_entries.entrySet().iterator(); it.hasNext();) {
+                    final Entry candidate = it.next().getValue();
+                    // tryLock() would succeed on files this thread still holds
+                    if (!candidate.m_lock.isHeldByCurrentThread() && candidate.m_lock.tryLock()) {
+                        it.remove();
+                        candidate.m_evicted = true;
+                        victim = candidate;
+                        break;
+                    }
+                }
+            }
+            if (victim == null) {
+                // everything is in use, try again on the next release
+                return;
+            }
+            try {
+                m_evictions.incrementAndGet();
+                closeEntry(victim);
+            } finally {
+                victim.m_lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Must be called with the entry locked.
+     */
+    private void remove(final Entry entry) {
+        synchronized (m_entries) {
+            if (m_entries.get(entry.m_path) == entry) {
+                m_entries.remove(entry.m_path);
+            }
+            entry.m_evicted = true;
+        }
+        closeEntry(entry);
+    }
+
+    /**
+     * Must be called with the entry locked.
+     */
+    private void closeEntry(final Entry entry) {
+        if (entry.m_rrdDb != null) {
+            synchronized (m_entries) {
+                m_entriesByHandle.remove(entry.m_rrdDb);
+            }
+            try {
+                m_rrdDbPool.release(entry.m_rrdDb);
+            } catch (final Exception e) {
+                LOG.warn("Failed to close JRobin file {}", entry.m_path, e);
+            }
+            entry.m_rrdDb = null;
+            entry.m_fileKey = null;
+        }
+    }
+
+    /**
+     * Detects files that were deleted or replaced while their handle was
+     * cached, so that the update does not go to the old file.
+     */
+    private static boolean isSameFile(final Entry entry) {
+        final Object fileKey = getFileKey(entry.m_path);
+        return fileKey != null && (entry.m_fileKey == null || fileKey.equals(entry.m_fileKey));
+    }
+
+    private static Object getFileKey(final String path) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(new File(path).toPath(), BasicFileAttributes.class);
+            final Object fileKey = attributes.fileKey();
+            // fall back to the creation time where the file system has no file keys
+            return fileKey != null ? fileKey : attributes.creationTime();
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+}
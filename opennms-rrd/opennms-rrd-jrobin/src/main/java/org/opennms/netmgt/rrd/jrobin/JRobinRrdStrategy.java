@@ -73,6 +73,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.poolSize";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -137,6 +138,16 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
             } catch (RrdException e) {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
+
+            final int poolSize = m_configurationProperties == null ? 0 : Integer.parseInt(m_configurationProperties.getProperty(POOL_SIZE_PROPERTY, "0"));
+            if (poolSize > 0) {
+                try {
+                    JRobinRrdDbPool.setInstance(new JRobinRrdDbPool(poolSize));
+                    LOG.info("Keeping up to {} JRobin files open", poolSize);
+                } catch (RrdException e) {
+                    LOG.error("Could not create the JRobin file pool, files will be opened for every operation", e);
+                }
+            }
         }
     }
 
@@ -148,7 +159,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool == null) {
+            rrdFile.close();
+        } else {
+            pool.release(rrdFile);
+        }
     }
 
     /** {@inheritDoc} */
@@ -203,6 +219,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool != null) {
+            pool.invalidate(rrdDef.getPath());
+        }
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
 
@@ -223,7 +244,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool == null) {
+            return new RrdDb(fileName);
+        }
+        return pool.acquire(fileName);
     }
 
     /**
@@ -237,6 +262,27 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * Opens a file for fetching, sharing the handle kept open by the pool
+     * if there is one.
+     */
+    private static RrdDb openForRead(final String fileName) throws IOException, RrdException {
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool == null) {
+            return new RrdDb(fileName, true);
+        }
+        return pool.requestShared(fileName);
+    }
+
+    private static void closeForRead(final RrdDb rrd) throws IOException, RrdException {
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool == null) {
+            rrd.close();
+        } else {
+            pool.releaseShared(rrd);
+        }
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
@@ -266,7 +312,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = openForRead(fileName);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -281,9 +327,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeForRead(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
+                } catch (RrdException e) {
+                    LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
             }
         }
@@ -294,7 +342,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = openForRead(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -323,9 +371,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeForRead(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
+                } catch (RrdException e) {
+                    LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
             }
         }
@@ -416,6 +466,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     protected RrdGraphDef createGraphDef(final File workDir, final String[] inputArray) throws RrdException {
         RrdGraphDef graphDef = new RrdGraphDef();
         graphDef.setImageFormat("PNG");
+        graphDef.setPoolUsed(JRobinRrdDbPool.getInstance() != null);
         long start = 0;
         long end = 0;
         int height = 100;
@@ -877,7 +928,8 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public String getStats() {
-        return "";
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        return pool == null ? "" : pool.getStats();
     }
 
     /*
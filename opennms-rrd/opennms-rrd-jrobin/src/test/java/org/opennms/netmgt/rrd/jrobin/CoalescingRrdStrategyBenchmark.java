@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.opennms.netmgt.rrd.CoalescingRrdStrategy;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how long the {@link QueuingRrdStrategy} and the
+ * {@link CoalescingRrdStrategy} take to write a round of updates to every
+ * file of a large JRobin repository.
+ *
+ * Each invocation queues <code>samples</code> consecutive updates for each
+ * of the <code>files</code> files and waits until all of them have been
+ * written. The files are created once per trial under
+ * <code>java.io.tmpdir</code>; with the default one million files this
+ * takes about 1GB of disk space.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.rrd.jrobin.CoalescingRrdStrategyBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CoalescingRrdStrategyBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int STEP = 300;
+
+    @Param({"1000000"})
+    public int files;
+
+    @Param({"1", "3"})
+    public int samples;
+
+    @Param({"4"})
+    public int writeThreads;
+
+    @Param({"queuing", "coalescing", "coalescingJournaled"})
+    public String strategy;
+
+    private File m_directory;
+    private String[] m_fileNames;
+    private RrdStrategy<Object, String> m_strategy;
+    private long m_timestamp;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        // Selects the default FILE backend, as the Spring context does
+        final JRobinRrdStrategy jrobinStrategy = new JRobinRrdStrategy();
+        jrobinStrategy.setConfigurationProperties(null);
+
+        m_directory = Files.createTempDirectory("rrd-benchmark").toFile();
+        m_fileNames = new String[files];
+        for (int i = 0; i < files; i++) {
+            final File dir = new File(m_directory, Integer.toString(i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0 && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            m_fileNames[i] = new File(dir, i + ".jrb").getAbsolutePath();
+            final RrdDef def = new RrdDef(m_fileNames[i], 1000, STEP);
+            def.addDatasource("value", "GAUGE", STEP * 2, Double.NaN, Double.NaN);
+            def.addArchive("AVERAGE", 0.5, 1, 12);
+            new RrdDb(def).close();
+        }
+        m_timestamp = 1000;
+
+        final RrdStrategy<Object, Object> jrobin = (RrdStrategy<Object, Object>) (RrdStrategy<?, ?>) jrobinStrategy;
+        if ("queuing".equals(strategy)) {
+            final QueuingRrdStrategy queuing = new QueuingRrdStrategy(jrobin);
+            queuing.setWriteThreads(writeThreads);
+            queuing.setModulus(Long.MAX_VALUE);
+            queuing.setWriteThreadSleepTime(50);
+            queuing.setWriteThreadExitDelay(60000);
+            m_strategy = (RrdStrategy<Object, String>) (RrdStrategy<?, ?>) queuing;
+        } else {
+            final CoalescingRrdStrategy coalescing = new CoalescingRrdStrategy(jrobin);
+            coalescing.setWriteThreads(writeThreads);
+            if ("coalescingJournaled".equals(strategy)) {
+                coalescing.setJournalDirectory(new File(m_directory, "journal").getAbsolutePath());
+            }
+            coalescing.afterPropertiesSet();
+            m_strategy = coalescing;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (m_strategy instanceof CoalescingRrdStrategy) {
+            ((CoalescingRrdStrategy)m_strategy).destroy();
+        }
+        FileUtils.deleteQuietly(m_directory);
+    }
+
+    @Benchmark
+    public long writeAllFiles() throws Exception {
+        final long before = getUpdatesCompleted();
+        for (int sample = 0; sample < samples; sample++) {
+            m_timestamp += STEP;
+            final String data = m_timestamp + ":" + (sample + 1);
+            for (final String fileName : m_fileNames) {
+                m_strategy.updateFile(fileName, "benchmark", data);
+            }
+        }
+
+        final long expected = before + (long)files * samples;
+        while (getUpdatesCompleted() < expected) {
+            Thread.sleep(10);
+        }
+        return getUpdatesCompleted();
+    }
+
+    private long getUpdatesCompleted() {
+        if (m_strategy instanceof CoalescingRrdStrategy) {
+            final CoalescingRrdStrategy coalescing = (CoalescingRrdStrategy)m_strategy;
+            return coalescing.getUpdatesCompleted() + coalescing.getErrors();
+        } else {
+            final QueuingRrdStrategy queuing = (QueuingRrdStrategy)(RrdStrategy<?, ?>)m_strategy;
+            return queuing.getUpdatesCompleted() + queuing.getErrors();
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(CoalescingRrdStrategyBenchmark.class.getSimpleName())
+            .warmupIterations(1)
+            .measurementIterations(3)
+            .forks(1)
+            .build()).run();
+    }
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.CoalescingRrdStrategy;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Tests the CoalescingRrdStrategy on top of JRobin.
+ */
+public class CoalescingRrdStrategyTest {
+
+    private FileAnticipator m_fileAnticipator;
+    private GatedJRobinRrdStrategy m_jrobin;
+    private List<CoalescingRrdStrategy> m_strategies = new ArrayList<CoalescingRrdStrategy>();
+    private String m_gateFile;
+    private String m_fooFile;
+
+    /**
+     * Holds up the writes of the "gate" file until the test opens the gate,
+     * so that the test can queue up work behind it.
+     */
+    private static class GatedJRobinRrdStrategy extends JRobinRrdStrategy {
+        private final CountDownLatch m_gate = new CountDownLatch(1);
+
+        public GatedJRobinRrdStrategy() throws Exception {
+            super();
+        }
+
+        @Override
+        public RrdDb openFile(final String fileName) throws Exception {
+            if (fileName.endsWith("gate" + getDefaultFileExtension())) {
+                m_gate.await();
+            }
+            return super.openFile(fileName);
+        }
+
+        public void open() {
+            m_gate.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "DEBUG");
+
+        m_fileAnticipator = new FileAnticipator();
+        m_jrobin = new GatedJRobinRrdStrategy();
+        m_jrobin.setConfigurationProperties(null);
+        m_gateFile = createRrdFile("gate");
+        m_fooFile = createRrdFile("foo");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_jrobin.open();
+        for (final CoalescingRrdStrategy strategy : m_strategies) {
+            strategy.destroy();
+        }
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testCoalescesUpdatesWithSameTimestamp() throws Exception {
+        final CoalescingRrdStrategy strategy = createStrategy(null, 0);
+
+        strategy.updateFile(m_gateFile, "test", "1300:1");
+        strategy.updateFile(m_fooFile, "test", "1300:1");
+        strategy.updateFile(m_fooFile, "test", "1300:2");
+        strategy.updateFile(m_fooFile, "test", "1600:3");
+        assertEquals(3, strategy.getPendingUpdates());
+        assertEquals(2, strategy.getPendingFiles());
+
+        m_jrobin.open();
+        waitForPendingUpdates(strategy);
+
+        assertEquals(1, strategy.getUpdatesCoalesced());
+        assertEquals(3, strategy.getUpdatesCompleted());
+        assertEquals(2, strategy.getFilesWritten());
+        assertEquals(0, strategy.getErrors());
+        assertEquals(2, strategy.getWriteLatency().getCount());
+        assertEquals(2, strategy.getQueueAge().getCount());
+        assertLastUpdate(m_fooFile, 1600, 3.0);
+    }
+
+    @Test
+    public void testPromoteEnqueuedFiles() throws Exception {
+        final CoalescingRrdStrategy strategy = createStrategy(null, 0);
+
+        strategy.updateFile(m_gateFile, "test", "1300:1");
+        strategy.updateFile(m_fooFile, "test", "1300:1");
+        strategy.promoteEnqueuedFiles(java.util.Collections.singleton(m_fooFile));
+        strategy.promoteEnqueuedFiles(java.util.Collections.singleton("not-queued.jrb"));
+        assertEquals(1, strategy.getPromotionCount());
+
+        m_jrobin.open();
+        waitForPendingUpdates(strategy);
+
+        // The stale queue entry left by the promotion must not write the file twice
+        assertEquals(2, strategy.getFilesWritten());
+        assertEquals(2, strategy.getUpdatesCompleted());
+        assertLastUpdate(m_fooFile, 1300, 1.0);
+    }
+
+    @Test
+    public void testMaxPendingUpdates() throws Exception {
+        final CoalescingRrdStrategy strategy = createStrategy(null, 2);
+
+        strategy.updateFile(m_gateFile, "test", "1300:1");
+        strategy.updateFile(m_fooFile, "test", "1300:1");
+        strategy.updateFile(m_fooFile, "test", "1600:2");
+        assertEquals(1, strategy.getUpdatesDropped());
+
+        m_jrobin.open();
+        waitForPendingUpdates(strategy);
+        assertLastUpdate(m_fooFile, 1300, 1.0);
+    }
+
+    @Test
+    public void testJournalReplay() throws Exception {
+        final File journal = m_fileAnticipator.tempDir("journal");
+        final CoalescingRrdStrategy first = createStrategy(journal, 0);
+
+        first.updateFile(m_gateFile, "test", "1300:1");
+        first.updateFile(m_fooFile, "test", "1300:1");
+        first.updateFile(m_fooFile, "test", "1600:2");
+        first.updateFile(m_fooFile, "test", "1900:3");
+        assertEquals(1, journal.list().length);
+
+        // Start a second instance over the journal as if the first one had crashed
+        final GatedJRobinRrdStrategy jrobin = new GatedJRobinRrdStrategy();
+        jrobin.open();
+        final CoalescingRrdStrategy second = new CoalescingRrdStrategy(cast(jrobin));
+        second.setWriteThreads(1);
+        second.setJournalDirectory(journal.getAbsolutePath());
+        second.setJournalSegmentSize(4096);
+        second.afterPropertiesSet();
+        m_strategies.add(second);
+
+        waitForPendingUpdates(second);
+        assertEquals(4, second.getUpdatesCompleted());
+        assertEquals(0, second.getErrors());
+        assertLastUpdate(m_fooFile, 1900, 3.0);
+
+        second.destroy();
+        m_strategies.remove(second);
+        assertEquals(0, journal.list().length);
+    }
+
+    @Test
+    public void testJournalSegmentsAreDeletedOnceWritten() throws Exception {
+        final File journal = m_fileAnticipator.tempDir("journal");
+        final CoalescingRrdStrategy strategy = createStrategy(journal, 0);
+        m_jrobin.open();
+
+        // Enough updates to fill several 4k segments
+        for (int i = 1; i <= 200; i++) {
+            strategy.updateFile(m_fooFile, "test", (1000 + i * 300) + ":" + i);
+        }
+        waitForPendingUpdates(strategy);
+        assertEquals(200, strategy.getUpdatesCompleted());
+        assertLastUpdate(m_fooFile, 1000 + 200 * 300, 200.0);
+
+        // Only the active segment remains
+        assertEquals(1, journal.list().length);
+        strategy.destroy();
+        m_strategies.remove(strategy);
+        assertEquals(0, journal.list().length);
+    }
+
+    private CoalescingRrdStrategy createStrategy(final File journal, final long maxPendingUpdates) throws Exception {
+        final CoalescingRrdStrategy strategy = new CoalescingRrdStrategy(cast(m_jrobin));
+        strategy.setWriteThreads(1);
+        strategy.setMaxPendingUpdates(maxPendingUpdates);
+        if (journal != null) {
+            strategy.setJournalDirectory(journal.getAbsolutePath());
+            strategy.setJournalSegmentSize(4096);
+        }
+        strategy.afterPropertiesSet();
+        m_strategies.add(strategy);
+        return strategy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RrdStrategy<Object, Object> cast(final RrdStrategy<?, ?> strategy) {
+        return (RrdStrategy<Object, Object>) strategy;
+    }
+
+    private String createRrdFile(final String name) throws Exception {
+        final List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>();
+        dataSources.add(new RrdDataSource("bar", "GAUGE", 3000, "U", "U"));
+        final List<String> rraList = new ArrayList<String>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+        final RrdDef def = m_jrobin.createDefinition("test", m_fileAnticipator.getTempDir().getAbsolutePath(), name, 300, dataSources, rraList);
+        m_jrobin.createFile(def, null);
+        return m_fileAnticipator.expecting(name + m_jrobin.getDefaultFileExtension()).getAbsolutePath();
+    }
+
+    private static void waitForPendingUpdates(final CoalescingRrdStrategy strategy) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (strategy.getPendingUpdates() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("pending updates", 0, strategy.getPendingUpdates());
+    }
+
+    private static void assertLastUpdate(final String fileName, final long timestamp, final double value) throws Exception {
+        final RrdDb rrd = new RrdDb(fileName, true);
+        try {
+            assertEquals(timestamp, rrd.getLastUpdateTime());
+            assertTrue(Math.abs(rrd.getDatasource("bar").getLastValue() - value) < 0.0001);
+        } finally {
+            rrd.close();
+        }
+    }
+}
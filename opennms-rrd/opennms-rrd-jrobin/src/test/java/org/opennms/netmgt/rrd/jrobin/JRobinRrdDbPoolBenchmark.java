@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long the {@link JRobinRrdStrategy} takes to write one round
+ * of updates to every file of a JRobin repository and to read the last value
+ * of each file back, with files opened for every operation
+ * (<code>poolSize</code> 0) and with a {@link JRobinRrdDbPool} that keeps
+ * some or all of them open.
+ *
+ * The files are created once per trial under <code>java.io.tmpdir</code>.
+ * With <code>poolSize</code> 100000 every file is kept open, so the limit of
+ * open files of the forked JVM has to be raised accordingly.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opennms.netmgt.rrd.jrobin.JRobinRrdDbPoolBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JRobinRrdDbPoolBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPoolBenchmark.class);
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int STEP = 300;
+
+    @Param({"100000"})
+    public int files;
+
+    @Param({"0", "10000", "100000"})
+    public int poolSize;
+
+    private File m_directory;
+    private String[] m_fileNames;
+    private JRobinRrdStrategy m_strategy;
+    private long m_timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Selects the default FILE backend, as the Spring context does
+        m_strategy = new JRobinRrdStrategy();
+        m_strategy.setConfigurationProperties(null);
+        JRobinRrdDbPool.setInstance(poolSize > 0 ? new JRobinRrdDbPool(poolSize) : null);
+
+        m_directory = Files.createTempDirectory("rrd-benchmark").toFile();
+        m_fileNames = new String[files];
+        for (int i = 0; i < files; i++) {
+            final File dir = new File(m_directory, Integer.toString(i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0 && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            m_fileNames[i] = new File(dir, i + ".jrb").getAbsolutePath();
+            final RrdDef def = new RrdDef(m_fileNames[i], 1000, STEP);
+            def.addDatasource("value", "GAUGE", STEP * 2, Double.NaN, Double.NaN);
+            def.addArchive("AVERAGE", 0.5, 1, 12);
+            new RrdDb(def).close();
+        }
+        m_timestamp = 1000;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        final JRobinRrdDbPool pool = JRobinRrdDbPool.getInstance();
+        if (pool != null) {
+            LOG.info("{}", pool.getStats());
+            pool.clear();
+            JRobinRrdDbPool.setInstance(null);
+        }
+        FileUtils.deleteQuietly(m_directory);
+    }
+
+    @Benchmark
+    public double updateAndFetchAllFiles() throws Exception {
+        m_timestamp += STEP;
+        final String data = m_timestamp + ":1";
+        for (final String fileName : m_fileNames) {
+            final RrdDb rrdDb = m_strategy.openFile(fileName);
+            try {
+                m_strategy.updateFile(rrdDb, "benchmark", data);
+            } finally {
+                m_strategy.closeFile(rrdDb);
+            }
+        }
+
+        double sum = 0;
+        for (final String fileName : m_fileNames) {
+            final Double value = m_strategy.fetchLastValueInRange(fileName, "value", STEP * 1000, STEP * 1000);
+            if (value != null) {
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(JRobinRrdDbPoolBenchmark.class.getSimpleName())
+            .warmupIterations(1)
+            .measurementIterations(3)
+            .forks(1)
+            .build()).run();
+    }
+}
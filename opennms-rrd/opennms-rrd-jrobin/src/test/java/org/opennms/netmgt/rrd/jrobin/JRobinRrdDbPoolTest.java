@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link JRobinRrdDbPool}.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class JRobinRrdDbPoolTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private JRobinRrdDbPool m_pool;
+
+    @Before
+    public void setUp() throws Exception {
+        new JRobinRrdStrategy().setConfigurationProperties(null);
+        m_pool = new JRobinRrdDbPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        m_pool.clear();
+    }
+
+    @Test
+    public void testHandleIsReused() throws Exception {
+        final String file = createFile("a");
+
+        final RrdDb first = m_pool.acquire(file);
+        first.createSample().setAndUpdate("1300:1");
+        m_pool.release(first);
+
+        final RrdDb second = m_pool.acquire(file);
+        assertSame(first, second);
+        assertFalse(second.isClosed());
+        second.createSample().setAndUpdate("1600:2");
+        m_pool.release(second);
+
+        // readers share the cached handle
+        final RrdDb shared = m_pool.requestShared(file);
+        assertSame(first, shared);
+        assertEquals(1600, shared.getLastUpdateTime());
+        m_pool.releaseShared(shared);
+        assertFalse(first.isClosed());
+
+        assertEquals(1, m_pool.getMisses());
+        assertEquals(1, m_pool.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFileIsEvicted() throws Exception {
+        final String a = createFile("a");
+        final String b = createFile("b");
+        final String c = createFile("c");
+
+        final RrdDb rrdA = m_pool.acquire(a);
+        m_pool.release(rrdA);
+        final RrdDb rrdB = m_pool.acquire(b);
+        m_pool.release(rrdB);
+        m_pool.release(m_pool.acquire(a));
+        m_pool.release(m_pool.acquire(c));
+
+        assertEquals(2, m_pool.getOpenFiles());
+        assertEquals(1, m_pool.getEvictions());
+        assertTrue(rrdB.isClosed());
+        assertFalse(rrdA.isClosed());
+    }
+
+    @Test
+    public void testFilesInUseAreNotEvicted() throws Exception {
+        final RrdDb rrdA = m_pool.acquire(createFile("a"));
+        final RrdDb rrdB = m_pool.acquire(createFile("b"));
+        final RrdDb rrdC = m_pool.acquire(createFile("c"));
+        m_pool.release(rrdC);
+
+        assertEquals(2, m_pool.getOpenFiles());
+        assertTrue(rrdC.isClosed());
+        assertFalse(rrdA.isClosed());
+        assertFalse(rrdB.isClosed());
+
+        m_pool.release(rrdA);
+        m_pool.release(rrdB);
+    }
+
+    @Test
+    public void testRecreatedFileIsReopened() throws Exception {
+        final String file = createFile("a");
+        final RrdDb first = m_pool.acquire(file);
+        m_pool.release(first);
+
+        m_pool.invalidate(file);
+        assertTrue(first.isClosed());
+        assertTrue(new File(file).delete());
+        createFile("a");
+
+        final RrdDb second = m_pool.acquire(file);
+        assertNotSame(first, second);
+        assertEquals(1000, second.getLastUpdateTime());
+        m_pool.release(second);
+    }
+
+    @Test(timeout=10000)
+    public void testFileIsLockedUntilReleased() throws Exception {
+        final String file = createFile("a");
+        final RrdDb rrdDb = m_pool.acquire(file);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicReference<RrdDb> other = new AtomicReference<RrdDb>();
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    other.set(m_pool.acquire(file));
+                    acquired.countDown();
+                    m_pool.release(other.get());
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        m_pool.release(rrdDb);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+        assertSame(rrdDb, other.get());
+    }
+
+    private String createFile(final String name) throws Exception {
+        final String fileName = new File(m_folder.getRoot(), name + ".jrb").getAbsolutePath();
+        final RrdDef def = new RrdDef(fileName, 1000, 300);
+        def.addDatasource("value", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 12);
+        new RrdDb(def).close();
+        return fileName;
+    }
+}
@@ -122,6 +122,27 @@ final class CollectableService implements ReadyRunnable {
 
     private final ResourceStorageDao m_resourceStorageDao;
 
+    /**
+     * Runs the collections when collectd is configured with a pool per
+     * collector type, null if they run on the scheduler's threads
+     */
+    private final CollectdExecutor m_executor;
+
+    /**
+     * Hands the collection over to the executor when the scheduler runs it
+     */
+    private final ReadyRunnable m_dispatcher;
+
+    /**
+     * The delay between the time the last collection was due and the time it started
+     */
+    private volatile long m_lastLateness;
+
+    /**
+     * The time the next collection is due, 0 until the first collection has run
+     */
+    private volatile long m_nextCollectionDue = 0L;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -136,6 +157,19 @@ final class CollectableService implements ReadyRunnable {
     protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
             Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
             PersisterFactory persisterFactory, ResourceStorageDao resourceStorageDao) throws CollectionInitializationException {
+        this(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, resourceStorageDao, null);
+    }
+
+    /**
+     * Constructs a new instance of a CollectableService object whose
+     * collections run on the given executor rather than on the scheduler's
+     * threads.
+     *
+     * @param executor the executor that runs the collections, or null to run them on the scheduler's threads
+     */
+    protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
+            Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
+            PersisterFactory persisterFactory, ResourceStorageDao resourceStorageDao, CollectdExecutor executor) throws CollectionInitializationException {
 
         m_agent = DefaultCollectionAgent.create(iface.getId(), ifaceDao, transMgr);
         m_spec = spec;
@@ -145,6 +179,23 @@ final class CollectableService implements ReadyRunnable {
         m_transMgr = transMgr;
         m_persisterFactory = persisterFactory;
         m_resourceStorageDao = resourceStorageDao;
+        m_executor = executor;
+        m_dispatcher = executor == null ? this : new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return CollectableService.this.isReady();
+            }
+
+            @Override
+            public void run() {
+                m_executor.execute(m_spec.getCollectorType(), getHostAddress(), CollectableService.this);
+            }
+
+            @Override
+            public String toString() {
+                return CollectableService.this.toString();
+            }
+        };
 
         m_nodeId = iface.getNode().getId().intValue();
         m_status = ServiceCollector.COLLECTION_SUCCEEDED;
@@ -159,6 +210,10 @@ final class CollectableService implements ReadyRunnable {
         m_repository=m_spec.getRrdRepository(m_params.getCollectionName());
 
         m_thresholdVisitor = ThresholdingVisitor.create(m_nodeId, getHostAddress(), m_spec.getServiceName(), m_repository, m_params, m_resourceStorageDao);
+
+        if (m_executor != null) {
+            m_executor.schedule(getHostAddress());
+        }
     }
     
     /**
@@ -206,6 +261,16 @@ final class CollectableService implements ReadyRunnable {
         return m_spec.getPackageName();
     }
 
+    /**
+     * Returns the delay in milliseconds between the time the last
+     * collection was due and the time it started.
+     *
+     * @return a long.
+     */
+    public long getLastLateness() {
+        return m_lastLateness;
+    }
+
     /**
      * Returns updates object
      *
@@ -322,11 +387,21 @@ final class CollectableService implements ReadyRunnable {
         // Process any outstanding updates.
         if (processUpdates() == ABORT_COLLECTION) {
             LOG.debug("run: Aborting because processUpdates returned ABORT_COLLECTION (probably marked for deletion) for {}", this);
+            if (m_executor != null) {
+                m_executor.unschedule(getHostAddress());
+            }
             return;
         }
 
         // Update last scheduled poll time
-        m_lastScheduledCollectionTime = System.currentTimeMillis();
+        final long now = System.currentTimeMillis();
+        if (m_nextCollectionDue > 0) {
+            m_lastLateness = Math.max(0, now - m_nextCollectionDue);
+            if (m_executor != null) {
+                m_executor.recordLateness(m_spec.getCollectorType(), m_lastLateness);
+            }
+        }
+        m_lastScheduledCollectionTime = now;
 
         /*
          * Check scheduled outages to see if any apply indicating
@@ -352,6 +427,7 @@ final class CollectableService implements ReadyRunnable {
         }
         
     	// Reschedule the service
+        m_nextCollectionDue = System.currentTimeMillis() + m_spec.getInterval();
         m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
     }
 
@@ -585,9 +661,14 @@ final class CollectableService implements ReadyRunnable {
     }
     
     private void reinitialize(OnmsIpInterface newIface) throws CollectionInitializationException {
+        final String oldHostAddress = getHostAddress();
         m_spec.release(m_agent);
         m_agent = DefaultCollectionAgent.create(newIface.getId(), m_ifaceDao,
                                                 m_transMgr);
+        if (m_executor != null && !oldHostAddress.equals(getHostAddress())) {
+            m_executor.schedule(getHostAddress());
+            m_executor.unschedule(oldHostAddress);
+        }
         m_spec.initialize(m_agent);
     }
 
@@ -620,7 +701,7 @@ final class CollectableService implements ReadyRunnable {
      * @return a {@link org.opennms.netmgt.scheduler.ReadyRunnable} object.
      */
     public ReadyRunnable getReadyRunnable() {
-	return this;
+	return m_dispatcher;
     }
 
 }
@@ -74,9 +74,9 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -140,6 +140,12 @@ public class Collectd extends AbstractServiceDaemon implements
      */
     private volatile Scheduler m_scheduler;
 
+    /**
+     * Runs the collections on a pool per collector type, null when they run
+     * on the scheduler's threads
+     */
+    private volatile CollectdExecutor m_executor;
+
     /**
      * Indicates if scheduling of existing interfaces has been completed
      */
@@ -315,7 +321,12 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    final CollectdConfiguration config = m_collectdConfigFactory.getCollectdConfig();
+                    setScheduler(SchedulerFactory.createScheduler(config.getScheduler(), "Collectd", config.getThreads()));
+                    if (config.getThreadsPerCollector() > 0) {
+                        LOG.debug("init: Running collections on {} threads per collector, at most {} per agent", config.getThreadsPerCollector(), config.getMaxConcurrentPerAgent());
+                        setExecutor(new CollectdExecutor(config.getThreadsPerCollector(), config.getMaxConcurrentPerAgent()));
+                    }
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -342,9 +353,13 @@ public class Collectd extends AbstractServiceDaemon implements
     @Override
     protected void onStop() {
         getScheduler().stop();
+        if (m_executor != null) {
+            m_executor.shutdown();
+        }
         deinstallMessageSelectors();
 
         setScheduler(null);
+        setExecutor(null);
     }
 
     /** {@inheritDoc} */
@@ -515,7 +530,8 @@ public class Collectd extends AbstractServiceDaemon implements
                     m_schedulingCompletedFlag,
                     m_transTemplate.getTransactionManager(),
                     m_persisterFactory,
-                    m_resourceStorageDao
+                    m_resourceStorageDao,
+                    m_executor
                 );
 
                 // Add new collectable service to the collectable service list.
@@ -1464,6 +1480,24 @@ public class Collectd extends AbstractServiceDaemon implements
         return m_scheduler;
     }
 
+    /**
+     * <p>setExecutor</p>
+     *
+     * @param executor a {@link org.opennms.netmgt.collectd.CollectdExecutor} object, or null to run collections on the scheduler's threads
+     */
+    public void setExecutor(CollectdExecutor executor) {
+        m_executor = executor;
+    }
+
+    /**
+     * <p>getExecutor</p>
+     *
+     * @return the {@link org.opennms.netmgt.collectd.CollectdExecutor} running the collections, or null if they run on the scheduler's threads
+     */
+    public CollectdExecutor getExecutor() {
+        return m_executor;
+    }
+
     /**
      * <p>setCollectorConfigDao</p>
      *
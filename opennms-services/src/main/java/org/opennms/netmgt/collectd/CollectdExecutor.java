@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs collections outside of the collectd scheduler's thread pool.
+ *
+ * Every collector type gets its own fixed size pool (a "lane") so that a
+ * collector whose agents are slow to answer, such as JMX or HTTP, can only
+ * tie up its own threads while SNMP collections keep running on time.  On
+ * top of that the number of collections in flight against a single agent
+ * can be capped; collections over the cap wait, without holding a thread,
+ * until one of the running collections for that agent completes.  The
+ * state kept for an agent is dropped once no collection is scheduled against
+ * it any more, see {@link #schedule(String)} and {@link #unschedule(String)}.
+ *
+ * The scheduler thread only hands the collection over, so the scheduler
+ * pool is never blocked by a collector.  The lane queues are not bounded
+ * explicitly: a {@link CollectableService} reschedules itself only after its
+ * collection completes, so each service occupies at most one queue slot.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class CollectdExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CollectdExecutor.class);
+
+    /**
+     * Collections starting later than this many milliseconds after they
+     * became due are counted as late.  The legacy scheduler checks its
+     * queues about once per second, so smaller delays are expected.
+     */
+    public static final long LATE_THRESHOLD = 1000;
+
+    private final int m_threadsPerCollector;
+
+    private final int m_maxConcurrentPerAgent;
+
+    private final ConcurrentMap<String, Lane> m_lanes = new ConcurrentHashMap<String, Lane>();
+
+    private final ConcurrentMap<String, AgentSlots> m_agents = new ConcurrentHashMap<String, AgentSlots>();
+
+    private final AtomicLong m_waitingForAgent = new AtomicLong(0);
+
+    private volatile boolean m_shutdown = false;
+
+    /**
+     * @param threadsPerCollector
+     *            The number of threads in the pool of each collector type.
+     * @param maxConcurrentPerAgent
+     *            The maximum number of collections running against a single
+     *            agent address, 0 or less for no limit.
+     */
+    public CollectdExecutor(final int threadsPerCollector, final int maxConcurrentPerAgent) {
+        if (threadsPerCollector < 1) {
+            throw new IllegalArgumentException("threadsPerCollector must be at least 1");
+        }
+        m_threadsPerCollector = threadsPerCollector;
+        m_maxConcurrentPerAgent = maxConcurrentPerAgent;
+    }
+
+    public int getThreadsPerCollector() {
+        return m_threadsPerCollector;
+    }
+
+    public int getMaxConcurrentPerAgent() {
+        return m_maxConcurrentPerAgent;
+    }
+
+    /**
+     * Runs the collection on the pool for the given collector type, once the
+     * agent has a free slot.
+     *
+     * @param collectorType
+     *            The lane to run the collection on, normally the collector
+     *            class name.
+     * @param agentAddress
+     *            The address of the agent the collection talks to.
+     * @param collection
+     *            The collection to run.
+     */
+    public void execute(final String collectorType, final String agentAddress, final Runnable collection) {
+        final Lane lane = getLane(collectorType);
+        if (m_maxConcurrentPerAgent < 1) {
+            lane.execute(collection);
+            return;
+        }
+
+        for (;;) {
+            final AgentSlots slots = getSlots(agentAddress);
+            final PendingCollection pending = new PendingCollection(lane, slots, collection);
+            synchronized (slots) {
+                if (slots.m_removed) {
+                    // The agent was dropped concurrently, look it up again
+                    continue;
+                }
+                if (slots.m_inFlight >= m_maxConcurrentPerAgent) {
+                    LOG.debug("execute: {} collections already running against {}, queueing {}", slots.m_inFlight, agentAddress, collection);
+                    slots.m_waiting.add(pending);
+                    m_waitingForAgent.incrementAndGet();
+                    return;
+                }
+                slots.m_inFlight++;
+            }
+            pending.dispatch();
+            return;
+        }
+    }
+
+    /**
+     * Records that a collection against the given agent has been scheduled.
+     * The per-agent state is kept until every collection scheduled against
+     * the agent has been unscheduled and none is running or waiting.
+     *
+     * @param agentAddress
+     *            The address of the agent the collection talks to.
+     */
+    public void schedule(final String agentAddress) {
+        if (m_maxConcurrentPerAgent < 1) {
+            return;
+        }
+        for (;;) {
+            final AgentSlots slots = getSlots(agentAddress);
+            synchronized (slots) {
+                if (!slots.m_removed) {
+                    slots.m_scheduled++;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a collection against the given agent has been
+     * unscheduled, and drops the per-agent state once it was the last one.
+     *
+     * @param agentAddress
+     *            The address of the agent the collection talks to.
+     */
+    public void unschedule(final String agentAddress) {
+        if (m_maxConcurrentPerAgent < 1) {
+            return;
+        }
+        final AgentSlots slots = m_agents.get(agentAddress);
+        if (slots == null) {
+            return;
+        }
+        synchronized (slots) {
+            if (slots.m_scheduled > 0) {
+                slots.m_scheduled--;
+            }
+            removeIfIdle(slots);
+        }
+    }
+
+    /**
+     * Records how late a collection of the given collector type started.
+     *
+     * @param collectorType
+     *            The lane the collection ran on.
+     * @param lateness
+     *            The delay in milliseconds between the time the collection
+     *            was due and the time it started.
+     */
+    public void recordLateness(final String collectorType, final long lateness) {
+        getLane(collectorType).recordLateness(lateness);
+    }
+
+    /**
+     * Stops all lanes.  Running collections are allowed to complete, queued
+     * collections are dropped.
+     */
+    public void shutdown() {
+        m_shutdown = true;
+        for (final Lane lane : m_lanes.values()) {
+            lane.m_executor.shutdownNow();
+        }
+        for (final AgentSlots slots : m_agents.values()) {
+            synchronized (slots) {
+                m_waitingForAgent.addAndGet(-slots.m_waiting.size());
+                slots.m_waiting.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of collections waiting because their agent already
+     *         has the maximum number of collections running
+     */
+    public long getCollectionsWaitingForAgent() {
+        return m_waitingForAgent.get();
+    }
+
+    /**
+     * @return The cumulative number of late collections over all lanes
+     */
+    public long getLateCollections() {
+        long late = 0;
+        for (final Lane lane : m_lanes.values()) {
+            late += lane.m_lateCollections.get();
+        }
+        return late;
+    }
+
+    /**
+     * @return The largest lateness in milliseconds seen on any lane
+     */
+    public long getMaxLateness() {
+        long max = 0;
+        for (final Lane lane : m_lanes.values()) {
+            max = Math.max(max, lane.m_maxLateness.get());
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of late collections per collector type.
+     *
+     * @return a map of collector type to late collection count
+     */
+    public Map<String, Long> getLateCollectionsByCollector() {
+        final Map<String, Long> late = new TreeMap<String, Long>();
+        for (final Map.Entry<String, Lane> entry : m_lanes.entrySet()) {
+            late.put(entry.getKey(), entry.getValue().m_lateCollections.get());
+        }
+        return Collections.unmodifiableMap(late);
+    }
+
+    /**
+     * Returns the number of collections queued per collector type.
+     *
+     * @return a map of collector type to queue length
+     */
+    public Map<String, Integer> getQueuedCollectionsByCollector() {
+        final Map<String, Integer> queued = new TreeMap<String, Integer>();
+        for (final Map.Entry<String, Lane> entry : m_lanes.entrySet()) {
+            queued.put(entry.getKey(), entry.getValue().m_executor.getQueue().size());
+        }
+        return Collections.unmodifiableMap(queued);
+    }
+
+    private Lane getLane(final String collectorType) {
+        Lane lane = m_lanes.get(collectorType);
+        if (lane == null) {
+            final Lane newLane = new Lane(collectorType);
+            lane = m_lanes.putIfAbsent(collectorType, newLane);
+            if (lane == null) {
+                lane = newLane;
+                LOG.debug("getLane: created a pool of {} threads for collector {}", m_threadsPerCollector, collectorType);
+            } else {
+                newLane.m_executor.shutdown();
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * @return The number of agents the executor currently keeps state for
+     */
+    int getAgentCount() {
+        return m_agents.size();
+    }
+
+    private AgentSlots getSlots(final String agentAddress) {
+        AgentSlots slots = m_agents.get(agentAddress);
+        if (slots == null) {
+            final AgentSlots newSlots = new AgentSlots(agentAddress);
+            slots = m_agents.putIfAbsent(agentAddress, newSlots);
+            if (slots == null) {
+                slots = newSlots;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Must be called while holding the lock on the slots.
+     */
+    private void removeIfIdle(final AgentSlots slots) {
+        if (slots.m_scheduled == 0 && slots.m_inFlight == 0 && slots.m_waiting.isEmpty() && !slots.m_removed) {
+            slots.m_removed = true;
+            m_agents.remove(slots.m_agentAddress, slots);
+        }
+    }
+
+    private static String getLaneName(final String collectorType) {
+        final int dot = collectorType.lastIndexOf('.');
+        return "Collectd-" + (dot < 0 ? collectorType : collectorType.substring(dot + 1));
+    }
+
+    private void release(final AgentSlots slots) {
+        final PendingCollection next;
+        synchronized (slots) {
+            next = slots.m_waiting.poll();
+            if (next == null) {
+                slots.m_inFlight--;
+                removeIfIdle(slots);
+            } else {
+                m_waitingForAgent.decrementAndGet();
+            }
+        }
+        // The slot is handed straight to the next waiting collection
+        if (next != null) {
+            next.dispatch();
+        }
+    }
+
+    private final class Lane {
+        private final ThreadPoolExecutor m_executor;
+        private final AtomicLong m_lateCollections = new AtomicLong(0);
+        private final AtomicLong m_maxLateness = new AtomicLong(0);
+
+        private Lane(final String collectorType) {
+            m_executor = new ThreadPoolExecutor(m_threadsPerCollector, m_threadsPerCollector,
+                    0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new LogPreservingThreadFactory(getLaneName(collectorType), m_threadsPerCollector));
+        }
+
+        private void execute(final Runnable collection) {
+            if (m_shutdown) {
+                LOG.debug("execute: executor is shut down, dropping {}", collection);
+                return;
+            }
+            m_executor.execute(collection);
+        }
+
+        private void recordLateness(final long lateness) {
+            if (lateness > LATE_THRESHOLD) {
+                m_lateCollections.incrementAndGet();
+            }
+            long max;
+            while (lateness > (max = m_maxLateness.get())) {
+                if (m_maxLateness.compareAndSet(max, lateness)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static final class AgentSlots {
+        private final String m_agentAddress;
+        private int m_scheduled = 0;
+        private int m_inFlight = 0;
+        private boolean m_removed = false;
+        private final Queue<PendingCollection> m_waiting = new ArrayDeque<PendingCollection>();
+
+        private AgentSlots(final String agentAddress) {
+            m_agentAddress = agentAddress;
+        }
+    }
+
+    private final class PendingCollection implements Runnable {
+        private final Lane m_lane;
+        private final AgentSlots m_slots;
+        private final Runnable m_collection;
+
+        private PendingCollection(final Lane lane, final AgentSlots slots, final Runnable collection) {
+            m_lane = lane;
+            m_slots = slots;
+            m_collection = collection;
+        }
+
+        private void dispatch() {
+            try {
+                m_lane.execute(this);
+            } catch (final RejectedExecutionException e) {
+                LOG.warn("dispatch: unable to run {}", m_collection, e);
+                release(m_slots);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                m_collection.run();
+            } finally {
+                release(m_slots);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_collection.toString();
+        }
+    }
+}
@@ -153,6 +153,16 @@ public class CollectionSpecification {
         return m_collector;
     }
 
+    /**
+     * Returns the class name of the collector used by this service, which
+     * identifies the pool its collections run on.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getCollectorType() {
+        return getCollector().getClass().getName();
+    }
+
     private Map<String, Object> getPropertyMap() {
         return m_parameters;
     }
@@ -29,9 +29,13 @@
 package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 
+import org.opennms.netmgt.collectd.CollectdExecutor;
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
+import org.opennms.netmgt.threshd.CounterStateCache;
+import org.opennms.netmgt.threshd.ThresholdExpressionCache;
 
 /**
  * <p>Collectd class.</p>
@@ -126,11 +130,98 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         return getDaemon().getCollectableServiceCount();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public long getTasksPending() {
+        return SchedulerFactory.getScheduled(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLateTasks() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getNumLateTasks();
+        } else {
+            return 0L;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMaxTaskLateness() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getMaxLateness();
+        } else {
+            return 0L;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getAverageTaskLateness() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getAverageLateness();
+        } else {
+            return 0.0;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLateCollections() {
+        final CollectdExecutor executor = getDaemon().getExecutor();
+        return executor == null ? 0L : executor.getLateCollections();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMaxCollectionLateness() {
+        final CollectdExecutor executor = getDaemon().getExecutor();
+        return executor == null ? 0L : executor.getMaxLateness();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCollectionsWaitingForAgent() {
+        final CollectdExecutor executor = getDaemon().getExecutor();
+        return executor == null ? 0L : executor.getCollectionsWaitingForAgent();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getThresholdExpressionCacheHits() {
+        return ThresholdExpressionCache.getInstance().getHits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getThresholdExpressionCacheMisses() {
+        return ThresholdExpressionCache.getInstance().getMisses();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getThresholdExpressionCacheSize() {
+        return ThresholdExpressionCache.getInstance().getSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getThresholdCounterCacheSize() {
+        return CounterStateCache.getInstance().size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getThresholdCounterCacheEvictions() {
+        return CounterStateCache.getInstance().getEvictions();
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) SchedulerFactory.getRunner(getDaemon().getScheduler());
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (SchedulerFactory.getRunner(getDaemon().getScheduler()) instanceof ThreadPoolExecutor);
     }
 }
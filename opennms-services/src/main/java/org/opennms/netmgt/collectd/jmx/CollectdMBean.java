@@ -76,4 +76,64 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of collectable services currently seen by Collectd
      */
     public long getCollectableServiceCount();
+
+    /**
+     * @return The number of collection tasks currently waiting in the scheduler
+     */
+    public long getTasksPending();
+
+    /**
+     * @return The cumulative number of collection tasks dispatched later than their scheduled time
+     */
+    public long getLateTasks();
+
+    /**
+     * @return The largest delay in milliseconds between a collection task's scheduled time and its dispatch
+     */
+    public long getMaxTaskLateness();
+
+    /**
+     * @return The average delay in milliseconds between a collection task's scheduled time and its dispatch
+     */
+    public double getAverageTaskLateness();
+
+    /**
+     * @return The cumulative number of collections that started late on the per-collector pools
+     */
+    public long getLateCollections();
+
+    /**
+     * @return The largest delay in milliseconds between a collection's due time and its start on the per-collector pools
+     */
+    public long getMaxCollectionLateness();
+
+    /**
+     * @return The number of collections waiting because their agent already has the maximum number of collections running
+     */
+    public long getCollectionsWaitingForAgent();
+
+    /**
+     * @return The number of threshold expression lookups served by the compiled expression cache
+     */
+    public long getThresholdExpressionCacheHits();
+
+    /**
+     * @return The number of threshold expressions that had to be parsed
+     */
+    public long getThresholdExpressionCacheMisses();
+
+    /**
+     * @return The number of compiled threshold expressions currently cached
+     */
+    public long getThresholdExpressionCacheSize();
+
+    /**
+     * @return The number of counter values kept to compute the rates used by thresholds
+     */
+    public long getThresholdCounterCacheSize();
+
+    /**
+     * @return The number of counter values dropped because their resource was no longer collected
+     */
+    public long getThresholdCounterCacheEvictions();
 }
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opennms.netmgt.model.BridgeMacLink;
+
+/**
+ * Compact, immutable view of a bridge forwarding table.
+ *
+ * MAC addresses are packed into the low 48 bits of a <code>long</code> and
+ * kept sorted together with the bridge port and forwarding status of each
+ * entry. Comparing two tables (the common mac test used to place a bridge
+ * on a broadcast domain, or the check whether a bridge reported the same
+ * table it did on the previous poll) is then a linear merge over primitive
+ * arrays rather than hashing {@link BridgeMacLink} objects and mac strings.
+ */
+public final class BridgeForwardingTable {
+
+    public static final long INVALID_MAC = -1L;
+
+    private static final long[] EMPTY = new long[0];
+
+    private final long[] m_macs;
+    private final int[] m_ports;
+    private final int[] m_status;
+    private final long[] m_distinctMacs;
+
+    private BridgeForwardingTable(long[] macs, int[] ports, int[] status) {
+        m_macs = macs;
+        m_ports = ports;
+        m_status = status;
+        m_distinctMacs = distinct(macs.clone(), macs.length);
+    }
+
+    public static BridgeForwardingTable create(List<BridgeMacLink> bft) {
+        if (bft == null || bft.isEmpty()) {
+            return new BridgeForwardingTable(EMPTY, new int[0], new int[0]);
+        }
+        final long[] keys = new long[bft.size()];
+        final Integer[] order = new Integer[bft.size()];
+        int size = 0;
+        for (int i = 0; i < bft.size(); i++) {
+            keys[i] = toMacKey(bft.get(i).getMacAddress());
+            if (keys[i] != INVALID_MAC) {
+                order[size++] = i;
+            }
+        }
+        Arrays.sort(order, 0, size, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(keys[a], keys[b]);
+                if (c == 0) {
+                    c = Integer.compare(port(bft.get(a)), port(bft.get(b)));
+                }
+                if (c == 0) {
+                    c = Integer.compare(status(bft.get(a)), status(bft.get(b)));
+                }
+                return c;
+            }
+        });
+
+        final long[] macs = new long[size];
+        final int[] ports = new int[size];
+        final int[] status = new int[size];
+        for (int i = 0; i < size; i++) {
+            final BridgeMacLink link = bft.get(order[i]);
+            macs[i] = keys[order[i]];
+            ports[i] = port(link);
+            status[i] = status(link);
+        }
+        return new BridgeForwardingTable(macs, ports, status);
+    }
+
+    /**
+     * Packs a mac address as stored on {@link BridgeMacLink} (12 hex digits)
+     * into a long, or returns {@link #INVALID_MAC} if it cannot be parsed.
+     */
+    public static long toMacKey(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return INVALID_MAC;
+        }
+        long key = 0;
+        for (int i = 0; i < 12; i++) {
+            final int digit = Character.digit(mac.charAt(i), 16);
+            if (digit < 0) {
+                return INVALID_MAC;
+            }
+            key = (key << 4) | digit;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the sorted, distinct mac keys of the given mac addresses.
+     */
+    public static long[] toMacKeys(Collection<String> macs) {
+        final long[] keys = new long[macs.size()];
+        int size = 0;
+        for (String mac : macs) {
+            final long key = toMacKey(mac);
+            if (key != INVALID_MAC) {
+                keys[size++] = key;
+            }
+        }
+        Arrays.sort(keys, 0, size);
+        return distinct(keys, size);
+    }
+
+    /**
+     * Counts the macs found in both sorted, distinct key arrays.
+     */
+    public static int countCommonMacs(long[] a, long[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    public int countCommonMacs(BridgeForwardingTable other) {
+        return countCommonMacs(m_distinctMacs, other.m_distinctMacs);
+    }
+
+    public int countCommonMacs(long[] macs) {
+        return countCommonMacs(m_distinctMacs, macs);
+    }
+
+    /**
+     * Returns the sorted, distinct mac keys of this table.
+     */
+    public long[] getMacs() {
+        return m_distinctMacs.clone();
+    }
+
+    public int getMacCount() {
+        return m_distinctMacs.length;
+    }
+
+    public int size() {
+        return m_macs.length;
+    }
+
+    public boolean isEmpty() {
+        return m_macs.length == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(m_macs);
+        result = 31 * result + Arrays.hashCode(m_ports);
+        return 31 * result + Arrays.hashCode(m_status);
+    }
+
+    /**
+     * Two tables are equal when they hold the same mac, port and status
+     * entries, regardless of the order the links were reported in.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BridgeForwardingTable)) {
+            return false;
+        }
+        final BridgeForwardingTable other = (BridgeForwardingTable) obj;
+        return Arrays.equals(m_macs, other.m_macs)
+                && Arrays.equals(m_ports, other.m_ports)
+                && Arrays.equals(m_status, other.m_status);
+    }
+
+    private static long[] distinct(long[] sorted, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        int size = 1;
+        for (int i = 1; i < length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    private static int port(BridgeMacLink link) {
+        return link.getBridgePort() == null ? -1 : link.getBridgePort().intValue();
+    }
+
+    private static int status(BridgeMacLink link) {
+        return link.getBridgeDot1qTpFdbStatus() == null ? -1 : link.getBridgeDot1qTpFdbStatus().getValue().intValue();
+    }
+}
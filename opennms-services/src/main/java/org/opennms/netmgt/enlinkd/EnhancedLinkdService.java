@@ -127,6 +127,8 @@ public interface EnhancedLinkdService {
     
     Map<Integer, List<BridgeMacLink>> getUpdateBftMap();
 
+    Map<Integer, BridgeForwardingTable> getUpdateBftTableMap();
+
     void save(int rootId, List<BridgeMacLink> rootBFT);
     
     BroadcastDomain getBridgeTopologyBroadcastDomain(int nodeId);
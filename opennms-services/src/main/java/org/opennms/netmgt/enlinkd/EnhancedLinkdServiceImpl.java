@@ -19,11 +19,15 @@ package org.opennms.netmgt.enlinkd;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.core.criteria.Alias;
 import org.opennms.core.criteria.Criteria;
@@ -64,12 +68,16 @@ import org.opennms.netmgt.model.PrimaryType;
 import org.opennms.netmgt.model.topology.BridgeMacLinkHash;
 import org.opennms.netmgt.model.topology.BroadcastDomain;
 import org.opennms.netmgt.model.topology.SharedSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 
 public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(EnhancedLinkdServiceImpl.class);
+
     @Autowired
     private PlatformTransactionManager m_transactionManager;
 
@@ -103,9 +111,44 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 
     private BridgeTopologyDao m_bridgeTopologyDao;
 
-    volatile Map<Integer, List<BridgeMacLink>> m_nodetoBroadcastDomainMap= new HashMap<Integer, List<BridgeMacLink>>();
+    final Map<Integer, List<BridgeMacLink>> m_nodetoBroadcastDomainMap= new ConcurrentHashMap<Integer, List<BridgeMacLink>>();
+
+    final Map<Integer, BridgeForwardingTable> m_nodeToUpdateBftTableMap = new ConcurrentHashMap<Integer, BridgeForwardingTable>();
+
+    // last bft of each bridge that was handed to the topology calculation
+    final Map<Integer, BridgeForwardingTable> m_nodeToParsedBftTableMap = new ConcurrentHashMap<Integer, BridgeForwardingTable>();
+
+    final Map<Integer, List<BridgeMacLink>> m_broadcastDomainToRootBFTMap= new ConcurrentHashMap<Integer, List<BridgeMacLink>>();
+
+    // links of each broadcast domain as they were last written to the database
+    final Map<BroadcastDomain, StoredTopology> m_storedTopologyMap = Collections.synchronizedMap(new WeakHashMap<BroadcastDomain, StoredTopology>());
+
+    /**
+     * Keys of the bridge-to-bridge and bridge-to-mac links of a broadcast
+     * domain. Used to write only the links that changed since the last time
+     * the domain was stored.
+     */
+    private static class StoredTopology {
+        // node id and bridge port -> designated node id and designated port
+        final Map<Long, Long> m_bridgeLinks = new HashMap<Long, Long>();
+        final Set<BridgeMacLinkHash> m_macLinks = new HashSet<BridgeMacLinkHash>();
 
-    volatile Map<Integer, List<BridgeMacLink>> m_broadcastDomainToRootBFTMap= new HashMap<Integer, List<BridgeMacLink>>();
+        StoredTopology(BroadcastDomain domain) {
+            for (SharedSegment segment : domain.getTopology()) {
+                for (BridgeBridgeLink link : segment.getBridgeBridgeLinks()) {
+                    m_bridgeLinks.put(key(link.getNode().getId(), link.getBridgePort()),
+                                      key(link.getDesignatedNode().getId(), link.getDesignatedPort()));
+                }
+                for (BridgeMacLink link : segment.getBridgeMacLinks()) {
+                    m_macLinks.add(new BridgeMacLinkHash(link));
+                }
+            }
+        }
+
+        static Long key(Integer nodeid, Integer bridgePort) {
+            return ((long) nodeid.intValue() << 32) | (bridgePort == null ? 0xffffffffL : bridgePort.intValue() & 0xffffffffL);
+        }
+    }
 
     @Override
     public List<Node> getSnmpNodeList() {
@@ -606,12 +649,32 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
             link.setNode(node);
             effectiveBFT.put(new BridgeMacLinkHash(link), link);
         }
-        m_nodetoBroadcastDomainMap.put(nodeId, new ArrayList<BridgeMacLink>(effectiveBFT.values()));
+        List<BridgeMacLink> effectiveLinks = new ArrayList<BridgeMacLink>(effectiveBFT.values());
+        BridgeForwardingTable table = BridgeForwardingTable.create(effectiveLinks);
+        if (table.equals(m_nodeToParsedBftTableMap.get(nodeId)) && isOnCalculatedBroadcastDomain(nodeId)) {
+            LOG.debug("store: node: {}, bft unchanged since last topology calculation, size: {}", nodeId, table.size());
+            return;
+        }
+        synchronized (this) {
+            m_nodeToUpdateBftTableMap.put(nodeId, table);
+            m_nodetoBroadcastDomainMap.put(nodeId, effectiveLinks);
+        }
+    }
+
+    private boolean isOnCalculatedBroadcastDomain(int nodeId) {
+        BroadcastDomain domain = m_bridgeTopologyDao.get(nodeId);
+        return domain != null && !domain.getTopology().isEmpty()
+                && m_broadcastDomainToRootBFTMap.containsKey(domain.getRootBridgeId());
     }
 
     public Map<Integer,List<BridgeMacLink>> getUpdateBftMap() {
         return m_nodetoBroadcastDomainMap;
     }
+
+    @Override
+    public Map<Integer, BridgeForwardingTable> getUpdateBftTableMap() {
+        return m_nodeToUpdateBftTableMap;
+    }
     
     @Override
     public void reconcileBridge(int nodeId, Date now) {
@@ -649,6 +712,9 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
     
     @Override
     public synchronized List<BridgeMacLink> useBridgeTopologyUpdateBFT(int nodeid) {
+        BridgeForwardingTable table = m_nodeToUpdateBftTableMap.remove(nodeid);
+        if (table != null)
+            m_nodeToParsedBftTableMap.put(nodeid, table);
         return m_nodetoBroadcastDomainMap.remove(nodeid);
     }
 
@@ -659,10 +725,76 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 
     @Override
     public void save(int rootid, List<BridgeMacLink> rootBFT) {
-        m_broadcastDomainToRootBFTMap.put(rootid, rootBFT);
+        if (rootBFT == null)
+            m_broadcastDomainToRootBFTMap.remove(rootid);
+        else
+            m_broadcastDomainToRootBFTMap.put(rootid, rootBFT);
     }
+
     @Override
     public void store(BroadcastDomain domain, Date now) {
+        StoredTopology current = new StoredTopology(domain);
+        StoredTopology previous = m_storedTopologyMap.get(domain);
+        if (previous == null) {
+            storeAll(domain, now);
+            // remember the links only once they are in the database, so a
+            // failed write is retried on the next store
+            m_storedTopologyMap.put(domain, current);
+            return;
+        }
+
+        int saved = 0;
+        int deleted = 0;
+        for (SharedSegment segment : domain.getTopology()) {
+            for (BridgeBridgeLink link : segment.getBridgeBridgeLinks()) {
+                Long key = StoredTopology.key(link.getNode().getId(), link.getBridgePort());
+                if (current.m_bridgeLinks.get(key).equals(previous.m_bridgeLinks.get(key)))
+                    continue;
+                link.setBridgeBridgeLinkLastPollTime(new Date());
+                saveBridgeBridgeLink(link);
+                saved++;
+            }
+            for (BridgeMacLink link : segment.getBridgeMacLinks()) {
+                if (previous.m_macLinks.contains(new BridgeMacLinkHash(link)))
+                    continue;
+                link.setBridgeMacLinkLastPollTime(new Date());
+                saveBridgeMacLink(link);
+                saved++;
+            }
+        }
+
+        for (Long key : previous.m_bridgeLinks.keySet()) {
+            if (current.m_bridgeLinks.containsKey(key))
+                continue;
+            BridgeBridgeLink link = m_bridgeBridgeLinkDao.getByNodeIdBridgePort((int) (key >>> 32), (int) key.longValue());
+            if (link != null) {
+                m_bridgeBridgeLinkDao.delete(link);
+                deleted++;
+            }
+        }
+        for (BridgeMacLinkHash key : previous.m_macLinks) {
+            if (current.m_macLinks.contains(key))
+                continue;
+            BridgeMacLink link = m_bridgeMacLinkDao.getByNodeIdBridgePortMac(key.getNodeId(), key.getBridgePort(), key.getMacAddress());
+            if (link != null) {
+                m_bridgeMacLinkDao.delete(link);
+                deleted++;
+            }
+        }
+        m_bridgeBridgeLinkDao.flush();
+        m_bridgeMacLinkDao.flush();
+
+        // unchanged links are not rewritten, refresh their poll time with
+        // one update per bridge
+        for (Integer nodeid: domain.getBridgeNodesOnDomain()) {
+            m_bridgeMacLinkDao.updateLastPollTimeByNodeId(nodeid, now);
+            m_bridgeBridgeLinkDao.updateLastPollTimeByNodeId(nodeid, now);
+        }
+        m_storedTopologyMap.put(domain, current);
+        LOG.debug("store: broadcast domain {}: saved {} changed links, deleted {} links", domain.getBridgeNodesOnDomain(), saved, deleted);
+    }
+
+    private void storeAll(BroadcastDomain domain, Date now) {
         for (SharedSegment segment : domain.getTopology()) {
             for (BridgeBridgeLink link : segment.getBridgeBridgeLinks()) {
                 link.setBridgeBridgeLinkLastPollTime(new Date());
@@ -501,47 +501,43 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         
         Date now = new Date();
                 
-        Set<String> incomingSet = new HashSet<String>();
-        for (BridgeMacLink link : m_linkd.getQueryManager().getBridgeTopologyUpdateBFT(getNodeId())) {
-            incomingSet.add(link.getMacAddress());
+        Map<Integer,BridgeForwardingTable> nodeBftTableMap = m_linkd.getQueryManager().getUpdateBftTableMap();
+        BridgeForwardingTable incoming = nodeBftTableMap.get(getNodeId());
+        if (incoming == null) {
+            LOG.info("run: node: {}, updated bft already used. Rescheduling", getNodeId());
+            reschedule();
+            return;
         }
-        LOG.debug("run: node: {}. macs found: {}", getNodeId(), incomingSet);
+        LOG.debug("run: node: {}. macs found: {}", getNodeId(), incoming.getMacCount());
 
         Set<Integer> nodeswithupdatedbftonbroadcastdomain= new HashSet<Integer>();
         nodeswithupdatedbftonbroadcastdomain.add(getNodeId());
 
         Map<Integer,List<BridgeMacLink>> nodeBftMap = m_linkd.getQueryManager().getUpdateBftMap();
         LOG.info("run: node: {}, getting nodes with updated bft on broadcast domain. Start", getNodeId());
-        for (Integer curNodeId: nodeBftMap.keySet()) {
+        for (Integer curNodeId: nodeBftTableMap.keySet()) {
             if (curNodeId.intValue() == getNodeId())
                 continue;
-            Set<String>retainedSet = new HashSet<String>();
-            for (BridgeMacLink link: nodeBftMap.get(curNodeId)) {
-                retainedSet.add(link.getMacAddress());
-            }
-            LOG.debug("run: node: {}, parsing updated bft node: {}, macs {}", getNodeId(), curNodeId,retainedSet);
-            retainedSet.retainAll(incomingSet);
-            LOG.debug("run: node: {}, node: {} - common mac address set: {}", getNodeId(), curNodeId, retainedSet);
-            if (retainedSet.size() > 10
-                    || retainedSet.size() >= incomingSet.size() * 0.1) {
+            BridgeForwardingTable curTable = nodeBftTableMap.get(curNodeId);
+            if (curTable == null)
+                continue;
+            int common = incoming.countCommonMacs(curTable);
+            LOG.debug("run: node: {}, node: {} - macs: {}, common macs: {}", getNodeId(), curNodeId, curTable.getMacCount(), common);
+            if (isOnSameBroadcastDomain(common, incoming.getMacCount())) {
                 nodeswithupdatedbftonbroadcastdomain.add(curNodeId);
                 LOG.info("run: node: {}, node: {} - put on same broadcast domain, common macs: {} ", getNodeId(), 
                          curNodeId,
-                         retainedSet);
+                         common);
             }
         }
         LOG.info("run: node: {}, getting nodes with updated bft on broadcast domain. End", getNodeId());
 
         LOG.info("run: node: {}, getting broadcast domain. Start", getNodeId());
         for (BroadcastDomain domain : m_linkd.getQueryManager().getAllBroadcastDomains()) {
-            LOG.debug("run: node: {}, parsing domain with nodes: {}, macs: {}", getNodeId(), domain.getBridgeNodesOnDomain(),domain.getMacsOnDomain());
-            Set<String>retainedSet = new HashSet<String>(
-                                                          domain.getMacsOnDomain());
-            retainedSet.retainAll(incomingSet);
-            LOG.debug("run: node: {}, retained: {}", getNodeId(), retainedSet);
+            int common = incoming.countCommonMacs(BridgeForwardingTable.toMacKeys(domain.getMacsOnDomain()));
+            LOG.debug("run: node: {}, parsing domain with nodes: {}, common macs: {}", getNodeId(), domain.getBridgeNodesOnDomain(),common);
             // should contain at list 10 or 10% of the all size
-            if (retainedSet.size() > 10
-                    || retainedSet.size() >= incomingSet.size() * 0.1) {
+            if (isOnSameBroadcastDomain(common, incoming.getMacCount())) {
                 m_domain = domain;
                 LOG.debug("run: node: {}, domain found!",getNodeId());
                 continue;
@@ -655,6 +651,10 @@ public class NodeDiscoveryBridgeTopology extends NodeDiscovery {
         reschedule();        
     }
             
+    static boolean isOnSameBroadcastDomain(int commonMacs, int macs) {
+        return commonMacs > 10 || commonMacs >= macs * 0.1;
+    }
+
     @Override
     protected void runCollection() {
     }
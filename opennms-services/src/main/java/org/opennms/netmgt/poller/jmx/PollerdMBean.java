@@ -74,4 +74,24 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The maximum number of threads allowed in the poller's thread pool
      */
     public long getMaxPoolThreads();
+
+    /**
+     * @return The number of polling tasks currently waiting in the scheduler
+     */
+    public long getTasksPending();
+
+    /**
+     * @return The cumulative number of polling tasks dispatched later than their scheduled time
+     */
+    public long getLateTasks();
+
+    /**
+     * @return The largest delay in milliseconds between a polling task's scheduled time and its dispatch
+     */
+    public long getMaxTaskLateness();
+
+    /**
+     * @return The average delay in milliseconds between a polling task's scheduled time and its dispatch
+     */
+    public double getAverageTaskLateness();
 }
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc;
+
+import java.net.InetAddress;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.RTCConfigFactory;
+import org.opennms.netmgt.events.api.AnnotationBasedEventListenerAdapter;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.events.api.annotations.EventHandler;
+import org.opennms.netmgt.events.api.annotations.EventListener;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.rtc.datablock.RTCCategory;
+import org.opennms.netmgt.rtc.datablock.RTCNodeAvailability;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.rtc.Category;
+import org.opennms.netmgt.xml.rtc.EuiLevel;
+import org.opennms.netmgt.xml.rtc.Header;
+import org.opennms.netmgt.xml.rtc.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * This implementation of the {@link AvailabilityService} keeps the managed
+ * services and their outages within the rolling window in memory.
+ *
+ * The model is seeded from the database once on startup and is then kept up
+ * to date from the outageCreated/outageResolved events sent by the poller.
+ * Events that change the services or the category membership of a node cause
+ * that single node to be reloaded. {@link #getEuiLevel(RTCCategory)} does not
+ * touch the database and only walks the nodes in the category.
+ *
+ * The numbers match those of {@link AvailabilityServiceHibernateImpl}.
+ */
+@EventListener(name="RTC:IncrementalAvailabilityService", logPrefix="rtc")
+public class IncrementalAvailabilityService implements AvailabilityService, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalAvailabilityService.class);
+
+    private static final String MANAGED_SERVICES_AND_OUTAGES =
+            "select " +
+            "       ipif.nodeid as nodeid, " +
+            "       ipif.ipaddr as ipaddr, " +
+            "       s.servicename as servicename, " +
+            "       o.ifLostService as ifLostService, " +
+            "       o.ifRegainedService as ifRegainedService " +
+            "  from ifservices ifsvc " +
+            "  join ipinterface ipif on (ifsvc.ipinterfaceid = ipif.id) " +
+            "  join service s on (ifsvc.serviceid = s.serviceid) " +
+            "left outer join outages o on " +
+            "       (o.ifserviceid = ifsvc.id and (o.ifRegainedService is null or o.ifRegainedService > ?)) " +
+            " where ipif.ismanaged = 'M' ";
+
+    private static final String ORDER_BY = " order by ipif.nodeid, ifsvc.id, o.ifLostService";
+
+    @Autowired
+    private FilterDao m_filterDao;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Autowired
+    private RTCConfigFactory m_configFactory;
+
+    @Autowired
+    private EventSubscriptionService m_eventSubscriptionService;
+
+    private AnnotationBasedEventListenerAdapter m_eventListener;
+
+    private long m_rollingWindow;
+
+    /**
+     * The RTC categories, keyed by label
+     */
+    private Map<String, RTCCategory> m_categories;
+
+    /**
+     * The sorted node IDs of each category, keyed by label
+     */
+    private final Map<String, Set<Integer>> m_categoryNodes = new HashMap<String, Set<Integer>>();
+
+    private final Map<Integer, RTCNodeAvailability> m_nodes = new HashMap<Integer, RTCNodeAvailability>();
+
+    private class NodeAvailabilityProcessor implements RowCallbackHandler {
+        private final Map<Integer, RTCNodeAvailability> m_loaded = new HashMap<Integer, RTCNodeAvailability>();
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            final int nodeid = rs.getInt("nodeid");
+            RTCNodeAvailability node = m_loaded.get(nodeid);
+            if (node == null) {
+                node = new RTCNodeAvailability(nodeid, m_rollingWindow);
+                m_loaded.put(nodeid, node);
+            }
+
+            final InetAddress ip = InetAddressUtils.addr(rs.getString("ipaddr"));
+            final String svcName = rs.getString("servicename");
+            final Timestamp lostTime = rs.getTimestamp("ifLostService");
+            final Timestamp regainedTime = rs.getTimestamp("ifRegainedService");
+            if (lostTime == null) {
+                node.addService(ip, svcName);
+            } else {
+                node.addSvcTime(ip, svcName, lostTime.getTime(), regainedTime == null ? -1 : regainedTime.getTime());
+            }
+        }
+
+        public Map<Integer, RTCNodeAvailability> getNodes() {
+            return m_loaded;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        m_rollingWindow = m_configFactory.getRollingWindow();
+
+        m_categories = RTCUtils.createCategoriesMap();
+        for (final RTCCategory cat : m_categories.values()) {
+            m_categoryNodes.put(cat.getLabel(), new TreeSet<Integer>(RTCUtils.getNodeIdsForCategory(m_filterDao, cat)));
+        }
+
+        final NodeAvailabilityProcessor processor = new NodeAvailabilityProcessor();
+        m_jdbcTemplate.query(MANAGED_SERVICES_AND_OUTAGES + ORDER_BY, processor, getWindowStart());
+        m_nodes.putAll(processor.getNodes());
+
+        LOG.info("Loaded {} categories and the services of {} nodes.", m_categories.size(), m_nodes.size());
+
+        m_eventListener = new AnnotationBasedEventListenerAdapter(this, m_eventSubscriptionService);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (m_eventListener != null) {
+            m_eventListener.close();
+        }
+    }
+
+    @Override
+    public synchronized Map<String, RTCCategory> getCategories() {
+        return m_categories;
+    }
+
+    @Override
+    public synchronized EuiLevel getEuiLevel(RTCCategory category) {
+        final Header header = new Header();
+        header.setVer("1.9a");
+        header.setMstation("");
+
+        final Date curDate = new Date();
+        final long curTime = curDate.getTime();
+
+        final EuiLevel level = new EuiLevel();
+        header.setCreated(EventConstants.formatToString(curDate));
+        level.setHeader(header);
+
+        final Category levelCat = new Category();
+        levelCat.setCatlabel(category.getLabel());
+
+        long outageTimeInCategory = 0;
+        int numServicesInCategory = 0;
+
+        for (final int nodeId : getNodes(category)) {
+            final RTCNodeAvailability node = m_nodes.get(nodeId);
+
+            long outageTime = 0;
+            int numServices = 0;
+            int numServicesDown = 0;
+            if (node != null) {
+                // bound the downtime by the length of the window, as AvailabilityServiceHibernateImpl does
+                outageTime = Math.min(node.getDownTime(category, curTime, m_rollingWindow), m_rollingWindow);
+                numServices = node.getServiceCount(category);
+                numServicesDown = node.getServiceDownCount(category);
+            }
+
+            final Node levelNode = new Node();
+            levelNode.setNodeid(nodeId);
+            levelNode.setNodevalue(RTCUtils.getOutagePercentage(outageTime, m_rollingWindow, numServices));
+            levelNode.setNodesvccount(numServices);
+            levelNode.setNodesvcdowncount(numServicesDown);
+            levelCat.addNode(levelNode);
+
+            numServicesInCategory += numServices;
+            outageTimeInCategory += outageTime;
+        }
+
+        levelCat.setCatvalue(RTCUtils.getOutagePercentage(outageTimeInCategory, m_rollingWindow, numServicesInCategory));
+        level.addCategory(levelCat);
+
+        LOG.debug("Done calculating availability statistics for {} with {} services.", category.getLabel(), numServicesInCategory);
+
+        return level;
+    }
+
+    private Collection<Integer> getNodes(RTCCategory category) {
+        final Set<Integer> nodeIds = m_categoryNodes.get(category.getLabel());
+        if (nodeIds != null) {
+            return nodeIds;
+        }
+        // not one of ours, refresh the category from its rule as AvailabilityServiceHibernateImpl does
+        category.clearNodes();
+        category.addAllNodes(RTCUtils.getNodeIdsForCategory(m_filterDao, category));
+        return category.getNodes();
+    }
+
+    @EventHandler(uei=EventConstants.OUTAGE_CREATED_EVENT_UEI)
+    public void handleOutageCreated(Event event) {
+        if (!event.hasNodeid() || event.getInterfaceAddress() == null || event.getService() == null || event.getTime() == null) {
+            LOG.warn("{} ignored - info incomplete - nodeid/ip/svc/eventtime: {}/{}/{}/{}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+            return;
+        }
+
+        synchronized (this) {
+            final int nodeid = event.getNodeid().intValue();
+            RTCNodeAvailability node = m_nodes.get(nodeid);
+            if (node == null) {
+                node = new RTCNodeAvailability(nodeid, m_rollingWindow);
+                m_nodes.put(nodeid, node);
+            }
+            node.serviceLost(event.getInterfaceAddress(), event.getService(), event.getTime().getTime());
+        }
+    }
+
+    @EventHandler(uei=EventConstants.OUTAGE_RESOLVED_EVENT_UEI)
+    public void handleOutageResolved(Event event) {
+        if (!event.hasNodeid() || event.getInterfaceAddress() == null || event.getService() == null || event.getTime() == null) {
+            LOG.warn("{} ignored - info incomplete - nodeid/ip/svc/eventtime: {}/{}/{}/{}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+            return;
+        }
+
+        synchronized (this) {
+            final RTCNodeAvailability node = m_nodes.get(event.getNodeid().intValue());
+            if (node == null) {
+                LOG.info("Received a {} event for an unknown node: {}", event.getUei(), event.getNodeid());
+                return;
+            }
+            node.serviceRegained(event.getInterfaceAddress(), event.getService(), event.getTime().getTime());
+        }
+    }
+
+    @EventHandler(ueis={
+        EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+        EventConstants.SERVICE_DELETED_EVENT_UEI,
+        EventConstants.SERVICE_UNMANAGED_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI
+    })
+    public void handleNodeChanged(Event event) {
+        if (!event.hasNodeid()) {
+            LOG.warn("{} ignored - no nodeid", event.getUei());
+            return;
+        }
+        reloadNode(event.getNodeid().intValue());
+    }
+
+    @EventHandler(uei=EventConstants.INTERFACE_REPARENTED_EVENT_UEI)
+    public void handleInterfaceReparented(Event event) {
+        final int oldNodeId = getNodeIdParm(event, EventConstants.PARM_OLD_NODEID);
+        final int newNodeId = getNodeIdParm(event, EventConstants.PARM_NEW_NODEID);
+        if (oldNodeId == -1 || newNodeId == -1) {
+            LOG.warn("{} did not have all required information for {} Values contained old nodeid: {} new nodeid: {}", event.getUei(), event.getInterface(), oldNodeId, newNodeId);
+            return;
+        }
+        reloadNode(oldNodeId);
+        reloadNode(newNodeId);
+    }
+
+    @EventHandler(uei=EventConstants.NODE_DELETED_EVENT_UEI)
+    public void handleNodeDeleted(Event event) {
+        if (!event.hasNodeid()) {
+            LOG.warn("{} ignored - no nodeid", event.getUei());
+            return;
+        }
+
+        final Integer nodeid = event.getNodeid().intValue();
+        synchronized (this) {
+            m_nodes.remove(nodeid);
+            for (final Set<Integer> nodeIds : m_categoryNodes.values()) {
+                nodeIds.remove(nodeid);
+            }
+        }
+    }
+
+    /**
+     * Reloads the services, outages and category membership of a single node.
+     * The database is queried before taking the lock so that
+     * {@link #getEuiLevel(RTCCategory)} is not held up.
+     */
+    private void reloadNode(final int nodeid) {
+        final NodeAvailabilityProcessor processor = new NodeAvailabilityProcessor();
+        m_jdbcTemplate.query(MANAGED_SERVICES_AND_OUTAGES + " and ipif.nodeid = ? " + ORDER_BY, processor, getWindowStart(), nodeid);
+
+        final Map<String, Boolean> membership = new HashMap<String, Boolean>();
+        for (final RTCCategory cat : getCategories().values()) {
+            membership.put(cat.getLabel(), isNodeInCategory(nodeid, cat));
+        }
+
+        synchronized (this) {
+            final RTCNodeAvailability node = processor.getNodes().get(nodeid);
+            if (node == null) {
+                m_nodes.remove(nodeid);
+            } else {
+                m_nodes.put(nodeid, node);
+            }
+
+            for (final Map.Entry<String, Boolean> entry : membership.entrySet()) {
+                final Set<Integer> nodeIds = m_categoryNodes.get(entry.getKey());
+                if (nodeIds == null) {
+                    continue;
+                } else if (entry.getValue()) {
+                    nodeIds.add(nodeid);
+                } else {
+                    nodeIds.remove(nodeid);
+                }
+            }
+        }
+
+        LOG.debug("Reloaded node {}", nodeid);
+    }
+
+    private boolean isNodeInCategory(final int nodeid, final RTCCategory cat) {
+        final String rule = "(" + cat.getEffectiveRule() + ") & (nodeid == " + nodeid + ")";
+        try {
+            return m_filterDao.getNodeMap(rule).containsKey(nodeid);
+        } catch (FilterParseException e) {
+            LOG.error("Unable to parse filter rule {} ignoring category {}", rule, cat.getLabel(), e);
+            return false;
+        }
+    }
+
+    private Timestamp getWindowStart() {
+        return new Timestamp(System.currentTimeMillis() - m_rollingWindow);
+    }
+
+    private static int getNodeIdParm(final Event event, final String name) {
+        final Parm parm = event.getParm(name);
+        if (parm == null || parm.getValue() == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(parm.getValue().getContent());
+        } catch (NumberFormatException e) {
+            LOG.warn("Parameter {} cannot be non-numeric", name, e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The managed services of a single node together with the lost/regained
+ * service times of each of them that fall within the rolling window.
+ * <p>
+ * This is the per-node unit of the
+ * {@link org.opennms.netmgt.rtc.IncrementalAvailabilityService}. It is not
+ * thread safe, callers are expected to guard it with their own lock.
+ * </p>
+ *
+ * @see org.opennms.netmgt.rtc.datablock.RTCNodeSvcTimesList
+ */
+public class RTCNodeAvailability {
+
+    private final int m_nodeID;
+
+    private final long m_rollingWindow;
+
+    /**
+     * The outage times of each managed service on the node, keyed by
+     * node ID/IP address/service name.
+     */
+    private final Map<RTCNodeKey, RTCNodeSvcTimesList> m_services = new HashMap<RTCNodeKey, RTCNodeSvcTimesList>();
+
+    public RTCNodeAvailability(int nodeid, long rollingWindow) {
+        m_nodeID = nodeid;
+        m_rollingWindow = rollingWindow;
+    }
+
+    public int getNodeID() {
+        return m_nodeID;
+    }
+
+    /**
+     * Adds a managed service to the node if it is not already known.
+     */
+    public RTCNodeSvcTimesList addService(InetAddress ip, String svcName) {
+        final RTCNodeKey key = new RTCNodeKey(m_nodeID, ip, svcName);
+        RTCNodeSvcTimesList svcTimes = m_services.get(key);
+        if (svcTimes == null) {
+            svcTimes = new RTCNodeSvcTimesList(m_rollingWindow);
+            m_services.put(key, svcTimes);
+        }
+        return svcTimes;
+    }
+
+    public void removeService(InetAddress ip, String svcName) {
+        m_services.remove(new RTCNodeKey(m_nodeID, ip, svcName));
+    }
+
+    /**
+     * Adds an outage read from the database, a regained time of -1 means
+     * the outage is still open. Outages must be added in order of lost time.
+     */
+    public void addSvcTime(InetAddress ip, String svcName, long lostTime, long regainedTime) {
+        addService(ip, svcName).addSvcTime(lostTime, regainedTime);
+    }
+
+    /**
+     * Opens an outage for the service unless the last one is still open.
+     */
+    public void serviceLost(InetAddress ip, String svcName, long t) {
+        final RTCNodeSvcTimesList svcTimes = addService(ip, svcName);
+        if (!svcTimes.isEmpty() && svcTimes.getLast().getRegainedTime() == -1) {
+            return;
+        }
+        svcTimes.addSvcTime(t);
+    }
+
+    /**
+     * Closes the last outage of the service if it is still open.
+     */
+    public void serviceRegained(InetAddress ip, String svcName, long t) {
+        final RTCNodeSvcTimesList svcTimes = m_services.get(new RTCNodeKey(m_nodeID, ip, svcName));
+        if (svcTimes == null || svcTimes.isEmpty() || svcTimes.getLast().getRegainedTime() != -1) {
+            return;
+        }
+        svcTimes.getLast().setRegainedTime(Math.max(t, svcTimes.getLast().getLostTime()));
+    }
+
+    /**
+     * @return the number of managed services on the node that are part of the category
+     */
+    public int getServiceCount(RTCCategory cat) {
+        int count = 0;
+        for (RTCNodeKey key : m_services.keySet()) {
+            if (cat.containsService(key.getSvcName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of services in the category that currently have an open outage
+     */
+    public int getServiceDownCount(RTCCategory cat) {
+        int count = 0;
+        for (Map.Entry<RTCNodeKey, RTCNodeSvcTimesList> entry : m_services.entrySet()) {
+            final RTCNodeSvcTimesList svcTimes = entry.getValue();
+            if (!svcTimes.isEmpty() && svcTimes.getLast().getRegainedTime() == -1 && cat.containsService(entry.getKey().getSvcName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the total outage time of the services in the category in the
+     *         <code>rollingWindow</code> milliseconds before <code>curTime</code>
+     */
+    public long getDownTime(RTCCategory cat, long curTime, long rollingWindow) {
+        long downTime = 0;
+        for (Map.Entry<RTCNodeKey, RTCNodeSvcTimesList> entry : m_services.entrySet()) {
+            if (cat.containsService(entry.getKey().getSvcName())) {
+                downTime += entry.getValue().getDownTime(curTime, rollingWindow);
+            }
+        }
+        return downTime;
+    }
+
+    public boolean isEmpty() {
+        return m_services.isEmpty();
+    }
+}
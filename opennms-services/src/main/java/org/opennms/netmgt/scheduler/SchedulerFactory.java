@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link Scheduler} implementation selected by the
+ * <code>scheduler</code> attribute of a daemon's configuration.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public final class SchedulerFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerFactory.class);
+
+    /** Constant <code>LEGACY="legacy"</code> */
+    public static final String LEGACY = "legacy";
+
+    /** Constant <code>TIMING_WHEEL="timing-wheel"</code> */
+    public static final String TIMING_WHEEL = "timing-wheel";
+
+    private SchedulerFactory() {
+    }
+
+    /**
+     * Creates a new scheduler of the given type.
+     *
+     * @param type
+     *            The scheduler type, {@link #LEGACY} or {@link #TIMING_WHEEL}.
+     *            A null or unknown type falls back to {@link #LEGACY}.
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a {@link org.opennms.netmgt.scheduler.Scheduler} object.
+     */
+    public static Scheduler createScheduler(final String type, final String parent, final int maxSize) {
+        if (TIMING_WHEEL.equalsIgnoreCase(type)) {
+            LOG.debug("createScheduler: using timing wheel scheduler for {}", parent);
+            return new TimingWheelScheduler(parent, maxSize);
+        }
+        if (type != null && !LEGACY.equalsIgnoreCase(type)) {
+            LOG.warn("createScheduler: unknown scheduler type '{}' for {}, using '{}'", type, parent, LEGACY);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    /**
+     * Returns the thread pool used by the given scheduler, or null if the
+     * scheduler does not expose one.
+     *
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
+     * @return a {@link java.util.concurrent.ExecutorService} object.
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getRunner();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getRunner();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of runnables waiting in the given scheduler, or 0
+     * if the scheduler does not track it.
+     *
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
+     * @return the number of scheduled runnables
+     */
+    public static int getScheduled(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getScheduled();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getScheduled();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,524 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * Unlike the {@link LegacyScheduler}, callers never take a lock to schedule
+ * work: new entries are appended to a lock-free pending queue and the wheel
+ * thread moves them into their bucket on its next tick. Each tick only visits
+ * the entries that actually expire during that tick, so the cost of dispatch
+ * does not depend on the total number of scheduled runnables.
+ *
+ * Entries whose {@link ReadyRunnable#isReady()} returns false when they expire
+ * are re-checked after {@link #NOT_READY_RETRY_DELAY} milliseconds, which
+ * matches the rate at which the legacy scheduler re-scans its queues when
+ * idle.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default resolution of the wheel, in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    /**
+     * The default number of buckets in each level of the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * How long to wait before checking an expired runnable that was not
+     * ready again.
+     */
+    public static final long NOT_READY_RETRY_DELAY = 1000;
+
+    /**
+     * Number of levels in the wheel.  With the defaults this covers more
+     * than two hundred years, anything further out is parked in the last
+     * level and re-cascaded.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * A single scheduled entry. Entries are chained together inside of a
+     * bucket so that no additional allocation is needed to file them.
+     */
+    private static final class Timeout {
+        private final ReadyRunnable m_runnable;
+        private final long m_deadline;
+        private long m_deadlineTick;
+        private Timeout m_next;
+
+        private Timeout(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+    }
+
+    /**
+     * Entries that have been scheduled but not yet filed into the wheel.
+     */
+    private final Queue<Timeout> m_pending = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * The wheel itself, indexed by level and then by bucket. Only accessed
+     * from the worker thread.
+     */
+    private final Timeout[][] m_wheel;
+
+    private final int m_wheelSize;
+
+    private final long m_tickDuration;
+
+    /**
+     * The time at which tick zero starts.
+     */
+    private final long m_startTime;
+
+    /**
+     * The last tick that has been processed. Only accessed from the worker
+     * thread.
+     */
+    private long m_tick = 0;
+
+    /**
+     * The total number of elements currently scheduled, including entries
+     * which have not been filed yet.
+     */
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+    private final AtomicLong m_totalLateness = new AtomicLong(0);
+    private final AtomicLong m_maxLateness = new AtomicLong(0);
+    private final AtomicLong m_numLateTasks = new AtomicLong(0);
+
+    /**
+     * Constructs a new instance of the scheduler with the default tick
+     * duration and wheel size.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickDuration
+     *            The resolution of the wheel in milliseconds.
+     * @param wheelSize
+     *            The number of buckets in each level of the wheel.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickDuration, final int wheelSize) {
+        Assert.isTrue(tickDuration > 0, "tickDuration must be positive");
+        Assert.isTrue(wheelSize > 1, "wheelSize must be greater than one");
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickDuration = tickDuration;
+        m_wheelSize = wheelSize;
+        m_wheel = new Timeout[LEVELS][wheelSize];
+        m_startTime = getCurrentTime();
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_pending.offer(new Timeout(runnable, getCurrentTime() + Math.max(0, interval)));
+        m_scheduled.incrementAndGet();
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of runnables waiting in the wheel
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns the number of tasks which were handed to the thread pool more
+     * than one tick after they were due.
+     *
+     * @return the number of late tasks
+     */
+    public long getNumLateTasks() {
+        return m_numLateTasks.get();
+    }
+
+    /**
+     * Returns the largest delay, in milliseconds, between the time a task was
+     * due and the time it was handed to the thread pool.
+     *
+     * @return the maximum lateness in milliseconds
+     */
+    public long getMaxLateness() {
+        return m_maxLateness.get();
+    }
+
+    /**
+     * Returns the average delay, in milliseconds, between the time a task was
+     * due and the time it was handed to the thread pool.
+     *
+     * @return the average lateness in milliseconds
+     */
+    public double getAverageLateness() {
+        final long executed = m_numTasksExecuted.get();
+        return executed == 0 ? 0.0 : (double)m_totalLateness.get() / (double)executed;
+    }
+
+    /**
+     * The main method of the scheduler. Each tick the pending entries are
+     * filed into the wheel, the higher levels are cascaded when the level
+     * below wraps around and the expired bucket is dispatched to the thread
+     * pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+                }
+
+                final long now = getCurrentTime();
+                final long currentTick = toTick(now);
+
+                fileScheduled(now);
+                while (m_tick < currentTick) {
+                    m_tick++;
+                    cascade();
+                    expire(now);
+                }
+
+                final long sleep = m_startTime + (m_tick + 1) * m_tickDuration - getCurrentTime();
+                if (sleep > 0) {
+                    synchronized (this) {
+                        if (m_status == RUNNING) {
+                            wait(sleep);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private long toTick(final long time) {
+        return Math.max(0, time - m_startTime) / m_tickDuration;
+    }
+
+    /**
+     * Moves everything in the pending queue into the wheel.
+     */
+    private void fileScheduled(final long now) {
+        Timeout timeout;
+        while ((timeout = m_pending.poll()) != null) {
+            // round up so that nothing runs before it is due, anything
+            // already due goes into the next bucket to be expired
+            final long deadlineTick = (Math.max(0, timeout.m_deadline - m_startTime) + m_tickDuration - 1) / m_tickDuration;
+            timeout.m_deadlineTick = Math.max(deadlineTick, m_tick + 1);
+            file(timeout);
+        }
+    }
+
+    /**
+     * Places a timeout in the lowest level whose span covers its deadline.
+     * The deadline must not be earlier than the tick being processed.
+     */
+    private void file(final Timeout timeout) {
+        final long deadlineTick = timeout.m_deadlineTick;
+
+        long delta = deadlineTick - m_tick;
+        long span = 1;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= m_wheelSize) {
+            delta /= m_wheelSize;
+            span *= m_wheelSize;
+            level++;
+        }
+
+        final int bucket = (int)((deadlineTick / span) % m_wheelSize);
+        timeout.m_next = m_wheel[level][bucket];
+        m_wheel[level][bucket] = timeout;
+    }
+
+    /**
+     * When a level wraps around, the matching bucket of the level above it
+     * is redistributed into the lower levels.
+     */
+    private void cascade() {
+        long span = m_wheelSize;
+        for (int level = 1; level < LEVELS && m_tick % span == 0; level++) {
+            final int bucket = (int)((m_tick / span) % m_wheelSize);
+            Timeout timeout = m_wheel[level][bucket];
+            m_wheel[level][bucket] = null;
+            while (timeout != null) {
+                final Timeout next = timeout.m_next;
+                file(timeout);
+                timeout = next;
+            }
+            span *= m_wheelSize;
+        }
+    }
+
+    /**
+     * Dispatches the bucket for the current tick.
+     */
+    private void expire(final long now) {
+        final int bucket = (int)(m_tick % m_wheelSize);
+        Timeout timeout = m_wheel[0][bucket];
+        m_wheel[0][bucket] = null;
+
+        while (timeout != null) {
+            final Timeout next = timeout.m_next;
+            timeout.m_next = null;
+
+            if (timeout.m_deadlineTick > m_tick) {
+                // parked in the last level, not due yet
+                file(timeout);
+            } else if (timeout.m_runnable.isReady()) {
+                LOG.debug("run: found ready runnable {}", timeout.m_runnable);
+                try {
+                    m_runner.execute(timeout.m_runnable);
+                } catch (RejectedExecutionException e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+                m_scheduled.decrementAndGet();
+                m_numTasksExecuted.incrementAndGet();
+                recordLateness(Math.max(0, now - timeout.m_deadline));
+            } else {
+                timeout.m_deadlineTick = m_tick + Math.max(1, NOT_READY_RETRY_DELAY / m_tickDuration);
+                file(timeout);
+            }
+
+            timeout = next;
+        }
+    }
+
+    private void recordLateness(final long lateness) {
+        m_totalLateness.addAndGet(lateness);
+        if (lateness > m_tickDuration) {
+            m_numLateTasks.incrementAndGet();
+        }
+        long max;
+        while (lateness > (max = m_maxLateness.get())) {
+            if (m_maxLateness.compareAndSet(max, lateness)) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precompiled form of the arithmetic-only threshold expressions, which make
+ * up the bulk of the expressions found in <code>thresholds.xml</code>
+ * (e.g. <code>ifInOctets * 8 / ifSpeed * 100</code>).
+ *
+ * <p>Only the operators <code>+ - * / %</code>, unary minus, parentheses,
+ * datasource names and plain numeric literals are supported. {@link #parse(String)}
+ * returns <code>null</code> for anything else, in which case the expression
+ * must be evaluated by JEXL. The results are the same as the ones produced by
+ * JEXL's lenient arithmetic: a division or modulo by zero yields 0.0 and
+ * decimal literals are read as floats.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ */
+final class ArithmeticExpression {
+
+    private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(
+        "and", "or", "not", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod",
+        "empty", "size", "new", "true", "false", "null", "if", "else", "for",
+        "foreach", "while", "var", "return", "function", "in",
+        "math", "datasources"
+    ));
+
+    private final Node m_root;
+    private final String[] m_variables;
+
+    private ArithmeticExpression(Node root, String[] variables) {
+        m_root = root;
+        m_variables = variables;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression the threshold expression
+     * @return the compiled expression, or <code>null</code> if the expression
+     *         uses anything besides plain arithmetic
+     */
+    static ArithmeticExpression parse(String expression) {
+        if (expression == null) {
+            return null;
+        }
+        final Parser parser = new Parser(expression);
+        final Node root = parser.parseExpression();
+        if (root == null || !parser.atEnd()) {
+            return null;
+        }
+        return new ArithmeticExpression(root, parser.m_variables.toArray(new String[parser.m_variables.size()]));
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values the datasource values
+     * @return the result, or <code>null</code> if one of the datasources
+     *         referenced by the expression has no value
+     */
+    Double evaluate(Map<String, Double> values) {
+        final double[] slots = new double[m_variables.length];
+        for (int i = 0; i < m_variables.length; i++) {
+            final Double value = values.get(m_variables[i]);
+            if (value == null) {
+                return null;
+            }
+            slots[i] = value.doubleValue();
+        }
+        return Double.valueOf(m_root.evaluate(slots));
+    }
+
+    private static abstract class Node {
+        abstract double evaluate(double[] slots);
+
+        boolean isConstant() {
+            return false;
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final double m_value;
+
+        Constant(double value) {
+            m_value = value;
+        }
+
+        @Override
+        double evaluate(double[] slots) {
+            return m_value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int m_slot;
+
+        Variable(int slot) {
+            m_slot = slot;
+        }
+
+        @Override
+        double evaluate(double[] slots) {
+            return slots[m_slot];
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        Negate(Node operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] slots) {
+            return -m_operand.evaluate(slots);
+        }
+
+        @Override
+        boolean isConstant() {
+            return m_operand.isConstant();
+        }
+    }
+
+    private static final class Binary extends Node {
+        private final char m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        Binary(char operator, Node left, Node right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double evaluate(double[] slots) {
+            final double left = m_left.evaluate(slots);
+            final double right = m_right.evaluate(slots);
+            switch (m_operator) {
+            case '+': return left + right;
+            case '-': return left - right;
+            case '*': return left * right;
+            case '/': return right == 0.0 ? 0.0 : left / right;
+            case '%': return right == 0.0 ? 0.0 : left % right;
+            default: throw new IllegalStateException("Unknown operator " + m_operator);
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the JEXL grammar.
+     * Every method returns <code>null</code> as soon as something outside of
+     * that subset is found.
+     */
+    private static final class Parser {
+        private final String m_text;
+        private final List<String> m_variables = new ArrayList<String>();
+        private int m_pos = 0;
+
+        Parser(String text) {
+            m_text = text;
+        }
+
+        boolean atEnd() {
+            skipWhitespace();
+            return m_pos == m_text.length();
+        }
+
+        Node parseExpression() {
+            Node left = parseTerm();
+            while (left != null) {
+                final char op = peek();
+                if (op != '+' && op != '-') {
+                    break;
+                }
+                m_pos++;
+                left = binary(op, left, parseTerm());
+            }
+            return left;
+        }
+
+        private Node parseTerm() {
+            Node left = parseFactor();
+            while (left != null) {
+                final char op = peek();
+                if (op != '*' && op != '/' && op != '%') {
+                    break;
+                }
+                m_pos++;
+                left = binary(op, left, parseFactor());
+            }
+            return left;
+        }
+
+        private Node parseFactor() {
+            final char c = peek();
+            if (c == '-') {
+                m_pos++;
+                final Node operand = parseFactor();
+                return operand == null ? null : new Negate(operand);
+            } else if (c == '(') {
+                m_pos++;
+                final Node inner = parseExpression();
+                if (inner == null || peek() != ')') {
+                    return null;
+                }
+                m_pos++;
+                return inner;
+            } else if (c >= '0' && c <= '9') {
+                return parseNumber();
+            } else if (isIdentifierStart(c)) {
+                return parseIdentifier();
+            }
+            return null;
+        }
+
+        private Node parseNumber() {
+            final int start = m_pos;
+            while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+            boolean decimal = false;
+            if (m_pos < m_text.length() && m_text.charAt(m_pos) == '.') {
+                decimal = true;
+                m_pos++;
+                final int fractionStart = m_pos;
+                while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos))) {
+                    m_pos++;
+                }
+                if (m_pos == fractionStart) {
+                    return null;
+                }
+            }
+            // Suffixes, exponents and hexadecimal literals are left to JEXL
+            if (m_pos < m_text.length() && Character.isLetterOrDigit(m_text.charAt(m_pos))) {
+                return null;
+            }
+            final String literal = m_text.substring(start, m_pos);
+            if (decimal) {
+                // JEXL reads decimal literals as floats and widens them through their string representation
+                return new Constant(Double.parseDouble(Float.toString(Float.parseFloat(literal))));
+            }
+            // JEXL reads a leading zero as an octal literal
+            if (literal.length() > 1 && literal.charAt(0) == '0') {
+                return null;
+            }
+            try {
+                return new Constant(Integer.parseInt(literal));
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private Node parseIdentifier() {
+            final int start = m_pos;
+            while (m_pos < m_text.length() && isIdentifierPart(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+            final String name = m_text.substring(start, m_pos);
+            if (RESERVED.contains(name) || (m_pos < m_text.length() && !isDelimiter(m_text.charAt(m_pos)))) {
+                return null;
+            }
+            int slot = m_variables.indexOf(name);
+            if (slot < 0) {
+                slot = m_variables.size();
+                m_variables.add(name);
+            }
+            return new Variable(slot);
+        }
+
+        private static Node binary(char op, Node left, Node right) {
+            // JEXL folds operations between two literals using integer
+            // arithmetic, so leave those expressions to it.
+            if (right == null || (left.isConstant() && right.isConstant())) {
+                return null;
+            }
+            return new Binary(op, left, right);
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return m_pos < m_text.length() ? m_text.charAt(m_pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (m_pos < m_text.length() && Character.isWhitespace(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return isIdentifierStart(c) || (c >= '0' && c <= '9');
+        }
+
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == '+' || c == '-' || c == '*' || c == '/' || c == '%' || c == ')';
+        }
+    }
+}
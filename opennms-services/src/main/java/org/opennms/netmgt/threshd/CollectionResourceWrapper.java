@@ -34,7 +34,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collectd.IfInfo;
@@ -108,7 +107,7 @@ public class CollectionResourceWrapper {
     /*
      * Holds last values for counter attributes (in order to calculate delta)
      */
-    static final ConcurrentHashMap<String, CacheEntry> s_cache = new ConcurrentHashMap<String,CacheEntry>();
+    static final CounterStateCache s_cache = CounterStateCache.getInstance();
     
     /*
      * To avoid update static cache on every call of getAttributeValue.
@@ -417,7 +416,7 @@ public class CollectionResourceWrapper {
         if (m_localCache.containsKey(id) == false) {
             // Atomically replace the CacheEntry with the new value
             // If the sysUpTime was changed, the "last" value must be null (to force update the cache).
-            CacheEntry last = m_counterReset ? null : s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
+            CacheEntry last = m_counterReset ? null : s_cache.put(id, m_collectionTimestamp, current, getStep());
             LOG.debug("getCounterValue: id={}, last={}, current={}", id, (last==null ? last : last.m_value +"@"+ last.m_timestamp), current);
             if (last == null) {
                 m_localCache.put(id, Double.NaN);
@@ -450,7 +449,7 @@ public class CollectionResourceWrapper {
                     LOG.info("getCounterValue: invalid zero-length rate interval for {}, returning rate of zero", id);
                     m_localCache.put(id, 0.0);
                     // Restore the original value inside the static cache
-                    s_cache.put(id, last);
+                    s_cache.put(id, last.m_timestamp, last.m_value, getStep());
                 }
             }
         }
@@ -467,6 +466,13 @@ public class CollectionResourceWrapper {
         }
     }
 
+    /*
+     * Returns the collection interval in milliseconds, used to expire unused counter values.
+     */
+    private long getStep() {
+        return m_repository == null ? 0 : m_repository.getStep() * 1000L;
+    }
+
     /**
      * <p>getFieldValue</p>
      *
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.threshd.CollectionResourceWrapper.CacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the last value and timestamp of every counter attribute used by a
+ * threshold, so that {@link CollectionResourceWrapper} can turn counters into
+ * rates (see NMS-4244).
+ *
+ * <p>The entries are kept in open-addressing tables of primitive arrays keyed
+ * by a 64-bit hash of the attribute id, instead of a map of strings to
+ * objects. The id itself is kept next to the hash and compared on every
+ * lookup, so that two ids with the same hash never share a sample. The store is split in independently locked shards so that the
+ * collectd threads do not contend with each other.</p>
+ *
+ * <p>Each entry expires after it has not been updated for a number of
+ * collection intervals (5 by default, see the
+ * <code>org.opennms.threshd.counterCache.expirationIntervals</code> system
+ * property), so that the counters of resources that no longer exist are
+ * eventually dropped. Expired entries are removed by each shard while
+ * updating it, at most once per {@link #SWEEP_INTERVAL} milliseconds.</p>
+ */
+public class CounterStateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterStateCache.class);
+
+    public static final String SHARDS_PROPERTY = "org.opennms.threshd.counterCache.shards";
+    public static final String EXPIRATION_INTERVALS_PROPERTY = "org.opennms.threshd.counterCache.expirationIntervals";
+
+    public static final int DEFAULT_EXPIRATION_INTERVALS = 5;
+    public static final long DEFAULT_STEP = 300000L;
+    public static final long SWEEP_INTERVAL = 60000L;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final CounterStateCache s_instance = new CounterStateCache(
+        Integer.getInteger(SHARDS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors()),
+        Integer.getInteger(EXPIRATION_INTERVALS_PROPERTY, DEFAULT_EXPIRATION_INTERVALS)
+    );
+
+    private final Shard[] m_shards;
+    private final int m_shardShift;
+    private final int m_expirationIntervals;
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the store shared by all of the thresholding sets
+     */
+    public static CounterStateCache getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * <p>Constructor for CounterStateCache.</p>
+     *
+     * @param shards the number of shards, rounded up to a power of 2
+     * @param expirationIntervals the number of collection intervals an entry is kept without being updated
+     */
+    public CounterStateCache(final int shards, final int expirationIntervals) {
+        int count = 1;
+        while (count < shards && count < (1 << 16)) {
+            count <<= 1;
+        }
+        m_shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            m_shards[i] = new Shard();
+        }
+        m_shardShift = 64 - Integer.numberOfTrailingZeros(count);
+        m_expirationIntervals = Math.max(1, expirationIntervals);
+    }
+
+    /**
+     * Stores the given sample, and returns the previous one.
+     *
+     * @param id the unique id of the node/resource/metric combination
+     * @param timestamp the time the sample was collected
+     * @param value the collected value
+     * @param step the collection interval in milliseconds, or 0 if unknown
+     * @return the previous sample, or null if there was none
+     */
+    public CacheEntry put(final String id, final Date timestamp, final double value, final long step) {
+        final long expiresAt = timestamp.getTime() + m_expirationIntervals * (step > 0 ? step : DEFAULT_STEP);
+        final long key = hash(id);
+        return shardFor(key).put(key, id, timestamp.getTime(), value, expiresAt, System.currentTimeMillis());
+    }
+
+    /**
+     * <p>get</p>
+     *
+     * @param id the unique id of the node/resource/metric combination
+     * @return the last sample, or null if there is none
+     */
+    public CacheEntry get(final String id) {
+        final long key = hash(id);
+        return shardFor(key).get(key, id);
+    }
+
+    /**
+     * <p>containsKey</p>
+     *
+     * @param id the unique id of the node/resource/metric combination
+     * @return true if there is a sample for the given id
+     */
+    public boolean containsKey(final String id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Removes every sample.
+     */
+    public void clear() {
+        for (final Shard shard : m_shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Removes the samples that have expired, on every shard.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void expire(final long now) {
+        for (final Shard shard : m_shards) {
+            shard.expire(now);
+        }
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of samples currently stored
+     */
+    public long size() {
+        long size = 0;
+        for (final Shard shard : m_shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * <p>getEvictions</p>
+     *
+     * @return the number of samples removed because they expired
+     */
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * <p>getShardCount</p>
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return m_shards.length;
+    }
+
+    private Shard shardFor(final long key) {
+        return m_shardShift == 64 ? m_shards[0] : m_shards[(int) (key >>> m_shardShift)];
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the id, with the final mix of MurmurHash3 so that
+     * both the high bits (used to pick the shard) and the low bits (used to
+     * pick the slot) are well distributed. Zero marks empty slots, so it is
+     * never returned.
+     */
+    long hash(final String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Linear probing table stored in parallel arrays. All of the methods are
+     * synchronized on the shard.
+     */
+    private final class Shard {
+        private long[] m_keys;
+        private String[] m_ids;
+        private long[] m_timestamps;
+        private double[] m_values;
+        private long[] m_expiresAt;
+        private int m_size;
+        private long m_nextSweep;
+
+        Shard() {
+            allocate(MIN_CAPACITY);
+        }
+
+        private void allocate(final int capacity) {
+            m_keys = new long[capacity];
+            m_ids = new String[capacity];
+            m_timestamps = new long[capacity];
+            m_values = new double[capacity];
+            m_expiresAt = new long[capacity];
+            m_size = 0;
+        }
+
+        synchronized CacheEntry put(final long key, final String id, final long timestamp, final double value, final long expiresAt, final long now) {
+            if (now >= m_nextSweep) {
+                m_nextSweep = now + SWEEP_INTERVAL;
+                expireLocked(now);
+            }
+
+            int slot = indexOf(key, id);
+            CacheEntry previous = null;
+            if (m_keys[slot] != 0) {
+                previous = new CacheEntry(new Date(m_timestamps[slot]), m_values[slot]);
+            } else {
+                if ((m_size + 1) * 4 > m_keys.length * 3) {
+                    rehash(m_keys.length * 2, Long.MIN_VALUE);
+                    slot = indexOf(key, id);
+                }
+                m_keys[slot] = key;
+                m_ids[slot] = id;
+                m_size++;
+            }
+            m_timestamps[slot] = timestamp;
+            m_values[slot] = value;
+            m_expiresAt[slot] = expiresAt;
+            return previous;
+        }
+
+        synchronized CacheEntry get(final long key, final String id) {
+            final int slot = indexOf(key, id);
+            return m_keys[slot] != 0 ? new CacheEntry(new Date(m_timestamps[slot]), m_values[slot]) : null;
+        }
+
+        synchronized void clear() {
+            allocate(MIN_CAPACITY);
+        }
+
+        synchronized int size() {
+            return m_size;
+        }
+
+        synchronized void expire(final long now) {
+            expireLocked(now);
+        }
+
+        private void expireLocked(final long now) {
+            int live = 0;
+            for (int i = 0; i < m_keys.length; i++) {
+                if (m_keys[i] != 0 && m_expiresAt[i] > now) {
+                    live++;
+                }
+            }
+            final int expired = m_size - live;
+            if (expired == 0) {
+                return;
+            }
+            int capacity = MIN_CAPACITY;
+            while (live * 2 > capacity) {
+                capacity <<= 1;
+            }
+            rehash(capacity, now);
+            m_evictions.addAndGet(expired);
+            LOG.debug("expire: removed {} counter values, {} left", expired, live);
+        }
+
+        /**
+         * Moves the entries that expire after the given time into new arrays of the given capacity.
+         */
+        private void rehash(final int capacity, final long now) {
+            final long[] keys = m_keys;
+            final String[] ids = m_ids;
+            final long[] timestamps = m_timestamps;
+            final double[] values = m_values;
+            final long[] expiresAt = m_expiresAt;
+            allocate(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && expiresAt[i] > now) {
+                    final int slot = indexOf(keys[i], ids[i]);
+                    m_keys[slot] = keys[i];
+                    m_ids[slot] = ids[i];
+                    m_timestamps[slot] = timestamps[i];
+                    m_values[slot] = values[i];
+                    m_expiresAt[slot] = expiresAt[i];
+                    m_size++;
+                }
+            }
+        }
+
+        /**
+         * @return the slot holding the id, or the empty slot where it belongs;
+         *         slots holding another id with the same hash are skipped
+         */
+        private int indexOf(final long key, final String id) {
+            final int mask = m_keys.length - 1;
+            int slot = (int) key & mask;
+            while (m_keys[slot] != 0 && (m_keys[slot] != key || !id.equals(m_ids[slot]))) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
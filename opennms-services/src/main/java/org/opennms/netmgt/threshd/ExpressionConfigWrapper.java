@@ -30,14 +30,11 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.jexl2.ExpressionImpl;
-import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
+import org.opennms.netmgt.threshd.ThresholdExpressionCache.CompiledExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,16 +49,17 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final CompiledExpression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
-            LOG.trace("List of Variables on the Expression: {}", e.getVariables());
-            for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
+            m_compiledExpression = ThresholdExpressionCache.getInstance().getExpression(m_expression.getExpression());
+            LOG.trace("List of Variables on the Expression: {}", m_compiledExpression.getVariables());
+            for (List<String> list : m_compiledExpression.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
                     continue;
                 }
@@ -142,15 +140,10 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            // The expression was parsed once by the shared cache, see ThresholdExpressionCache
+            Object resultObject = m_compiledExpression.evaluate(values);
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
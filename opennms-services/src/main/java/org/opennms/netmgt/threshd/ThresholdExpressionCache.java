@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.netmgt.threshd.ExpressionConfigWrapper.MathBinding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared cache of compiled threshold expressions, keyed by the expression text.
+ *
+ * <p>The same expression is usually configured once and applied to every
+ * resource of every node in a package, so parsing it only once saves a lot of
+ * work on large installations. The cache is bounded and evicts the least
+ * recently used expressions first. Its size can be changed with the
+ * <code>org.opennms.threshd.expression.cacheSize</code> system property, and the
+ * arithmetic fast path (see {@link ArithmeticExpression}) can be turned off by
+ * setting <code>org.opennms.threshd.expression.fastPath</code> to <code>false</code>.</p>
+ */
+public class ThresholdExpressionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdExpressionCache.class);
+
+    public static final String CACHE_SIZE_PROPERTY = "org.opennms.threshd.expression.cacheSize";
+    public static final String FAST_PATH_PROPERTY = "org.opennms.threshd.expression.fastPath";
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final MathBinding MATH = new MathBinding();
+
+    private static final ThresholdExpressionCache s_instance = new ThresholdExpressionCache(
+        Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE),
+        Boolean.parseBoolean(System.getProperty(FAST_PATH_PROPERTY, "true"))
+    );
+
+    private final JexlEngine m_engine = new JexlEngine();
+    private final Map<String, CompiledExpression> m_expressions;
+    private final boolean m_fastPathEnabled;
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the cache shared by all of the threshold expressions
+     */
+    public static ThresholdExpressionCache getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * <p>Constructor for ThresholdExpressionCache.</p>
+     *
+     * @param maxSize the maximum number of expressions to keep
+     * @param fastPathEnabled whether arithmetic-only expressions are evaluated without JEXL
+     */
+    public ThresholdExpressionCache(final int maxSize, final boolean fastPathEnabled) {
+        final int capacity = Math.max(1, maxSize);
+        m_fastPathEnabled = fastPathEnabled;
+        m_expressions = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                if (size() > capacity) {
+                    m_evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of the given expression, parsing it if it has
+     * not been seen before.
+     *
+     * @param expression the expression text
+     * @return the compiled expression
+     * @throws org.apache.commons.jexl2.JexlException if the expression cannot be parsed
+     */
+    public CompiledExpression getExpression(final String expression) {
+        synchronized (m_expressions) {
+            final CompiledExpression compiled = m_expressions.get(expression);
+            if (compiled != null) {
+                m_hits.incrementAndGet();
+                return compiled;
+            }
+        }
+        m_misses.incrementAndGet();
+
+        // Parse outside of the lock; if two threads race on the same text the first one wins
+        final CompiledExpression compiled = compile(expression);
+        synchronized (m_expressions) {
+            final CompiledExpression existing = m_expressions.get(expression);
+            if (existing != null) {
+                return existing;
+            }
+            m_expressions.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    private CompiledExpression compile(final String expression) {
+        final ExpressionImpl jexlExpression = (ExpressionImpl) m_engine.createExpression(expression);
+        final ArithmeticExpression fastPath = m_fastPathEnabled ? ArithmeticExpression.parse(expression) : null;
+        LOG.debug("Compiled threshold expression {} (fast path: {})", expression, fastPath != null);
+        return new CompiledExpression(expression, jexlExpression, fastPath);
+    }
+
+    /**
+     * <p>clear</p>
+     */
+    public void clear() {
+        synchronized (m_expressions) {
+            m_expressions.clear();
+        }
+    }
+
+    /**
+     * <p>getSize</p>
+     *
+     * @return the number of expressions currently cached
+     */
+    public int getSize() {
+        synchronized (m_expressions) {
+            return m_expressions.size();
+        }
+    }
+
+    /**
+     * <p>getHits</p>
+     *
+     * @return the number of lookups that found an already compiled expression
+     */
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    /**
+     * <p>getMisses</p>
+     *
+     * @return the number of lookups that had to parse the expression
+     */
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    /**
+     * <p>getEvictions</p>
+     *
+     * @return the number of expressions dropped to keep the cache within its bounds
+     */
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * A parsed threshold expression. Instances are immutable and safe to
+     * evaluate from several threads at once.
+     */
+    public static class CompiledExpression {
+        private final String m_text;
+        private final ExpressionImpl m_expression;
+        private final ArithmeticExpression m_fastPath;
+
+        private CompiledExpression(final String text, final ExpressionImpl expression, final ArithmeticExpression fastPath) {
+            m_text = text;
+            m_expression = expression;
+            m_fastPath = fastPath;
+        }
+
+        public String getText() {
+            return m_text;
+        }
+
+        /**
+         * @return the variables referenced by the expression, as returned by {@link ExpressionImpl#getVariables()}
+         */
+        public Set<List<String>> getVariables() {
+            return m_expression.getVariables();
+        }
+
+        /**
+         * @return true if the expression is evaluated without going through JEXL
+         */
+        public boolean isFastPath() {
+            return m_fastPath != null;
+        }
+
+        /**
+         * Evaluates the expression against the given datasource values.
+         *
+         * @param values the datasource values
+         * @return the result of the expression
+         */
+        public Object evaluate(final Map<String, Double> values) {
+            if (m_fastPath != null) {
+                final Double result = m_fastPath.evaluate(values);
+                if (result != null) {
+                    return result;
+                }
+                // Missing datasources are handled by JEXL, to keep its behavior
+            }
+
+            // Add all of the variable values to the script context
+            final Map<String,Object> context = new HashMap<String,Object>(values);
+            context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
+            context.put("math", MATH);
+            return m_expression.evaluate(new MapContext(context));
+        }
+    }
+}
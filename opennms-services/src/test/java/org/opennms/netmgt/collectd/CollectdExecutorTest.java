@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CollectdExecutorTest {
+
+    private CollectdExecutor m_executor;
+
+    @After
+    public void tearDown() {
+        if (m_executor != null) {
+            m_executor.shutdown();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testSlowCollectorDoesNotBlockOthers() throws Exception {
+        m_executor = new CollectdExecutor(1, 0);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch jmxStarted = new CountDownLatch(1);
+        m_executor.execute("JMXCollector", "10.0.0.1", new Runnable() {
+            @Override
+            public void run() {
+                jmxStarted.countDown();
+                await(release);
+            }
+        });
+        assertTrue(jmxStarted.await(5, TimeUnit.SECONDS));
+
+        // The JMX lane is busy, but SNMP has its own thread
+        final CountDownLatch snmpDone = new CountDownLatch(1);
+        m_executor.execute("SnmpCollector", "10.0.0.2", new Runnable() {
+            @Override
+            public void run() {
+                snmpDone.countDown();
+            }
+        });
+        assertTrue(snmpDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(0), m_executor.getQueuedCollectionsByCollector().get("SnmpCollector"));
+
+        release.countDown();
+    }
+
+    @Test(timeout=10000)
+    public void testMaxConcurrentPerAgent() throws Exception {
+        m_executor = new CollectdExecutor(4, 1);
+
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable collection = new Runnable() {
+            @Override
+            public void run() {
+                final int now = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), now));
+                await(release);
+                running.decrementAndGet();
+                done.countDown();
+            }
+        };
+
+        m_executor.execute("SnmpCollector", "10.0.0.1", collection);
+        m_executor.execute("JMXCollector", "10.0.0.1", collection);
+        m_executor.execute("HttpCollector", "10.0.0.1", collection);
+
+        // Two collections are waiting for the agent, without holding a thread
+        assertEquals(2, m_executor.getCollectionsWaitingForAgent());
+
+        // Another agent is not affected
+        final CountDownLatch otherAgent = new CountDownLatch(1);
+        m_executor.execute("SnmpCollector", "10.0.0.2", new Runnable() {
+            @Override
+            public void run() {
+                otherAgent.countDown();
+            }
+        });
+        assertTrue(otherAgent.await(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        assertEquals(0, m_executor.getCollectionsWaitingForAgent());
+    }
+
+    @Test
+    public void testLateness() {
+        m_executor = new CollectdExecutor(1, 0);
+
+        m_executor.recordLateness("SnmpCollector", 10);
+        m_executor.recordLateness("JMXCollector", CollectdExecutor.LATE_THRESHOLD + 1);
+        m_executor.recordLateness("JMXCollector", 30000);
+
+        assertEquals(2, m_executor.getLateCollections());
+        assertEquals(30000, m_executor.getMaxLateness());
+        assertEquals(Long.valueOf(0), m_executor.getLateCollectionsByCollector().get("SnmpCollector"));
+        assertEquals(Long.valueOf(2), m_executor.getLateCollectionsByCollector().get("JMXCollector"));
+        assertFalse(m_executor.getLateCollectionsByCollector().containsKey("HttpCollector"));
+    }
+
+    @Test(timeout=10000)
+    public void testAgentIsDroppedWhenUnscheduled() throws Exception {
+        m_executor = new CollectdExecutor(1, 1);
+
+        // Two services are scheduled against the same agent
+        m_executor.schedule("10.0.0.1");
+        m_executor.schedule("10.0.0.1");
+        assertEquals(1, m_executor.getAgentCount());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        m_executor.execute("SnmpCollector", "10.0.0.1", new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The agent is kept while a service is still scheduled against it
+        m_executor.unschedule("10.0.0.1");
+        assertEquals(1, m_executor.getAgentCount());
+
+        // ... and while its last collection is still running
+        m_executor.unschedule("10.0.0.1");
+        assertEquals(1, m_executor.getAgentCount());
+
+        release.countDown();
+        waitForAgentCount(0);
+
+        // A new service for the agent starts from scratch
+        m_executor.schedule("10.0.0.1");
+        assertEquals(1, m_executor.getAgentCount());
+        m_executor.unschedule("10.0.0.1");
+        assertEquals(0, m_executor.getAgentCount());
+    }
+
+    @Test
+    public void testUnknownAgentIsIgnored() {
+        m_executor = new CollectdExecutor(1, 1);
+
+        m_executor.unschedule("10.0.0.1");
+        assertEquals(0, m_executor.getAgentCount());
+    }
+
+    private void waitForAgentCount(final int expected) throws InterruptedException {
+        while (m_executor.getAgentCount() != expected) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
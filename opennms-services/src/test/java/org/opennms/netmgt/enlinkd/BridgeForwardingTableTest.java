@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.BridgeMacLink.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.model.OnmsNode;
+
+public class BridgeForwardingTableTest {
+
+    private static BridgeMacLink link(int nodeid, int port, String mac) {
+        OnmsNode node = new OnmsNode();
+        node.setId(nodeid);
+        BridgeMacLink link = new BridgeMacLink();
+        link.setNode(node);
+        link.setBridgePort(port);
+        link.setMacAddress(mac);
+        link.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+        return link;
+    }
+
+    @Test
+    public void testMacKey() {
+        assertEquals(0x001122aabbccL, BridgeForwardingTable.toMacKey("001122aabbcc"));
+        assertEquals(0xffffffffffffL, BridgeForwardingTable.toMacKey("ffffffffffff"));
+        assertEquals(BridgeForwardingTable.INVALID_MAC, BridgeForwardingTable.toMacKey(null));
+        assertEquals(BridgeForwardingTable.INVALID_MAC, BridgeForwardingTable.toMacKey("00112233"));
+        assertEquals(BridgeForwardingTable.INVALID_MAC, BridgeForwardingTable.toMacKey("00112233445z"));
+    }
+
+    @Test
+    public void testMacKeysAreSortedAndDistinct() {
+        long[] keys = BridgeForwardingTable.toMacKeys(Arrays.asList("000000000003", "000000000001", "000000000003", "bogus"));
+        assertArrayEquals(new long[] { 1L, 3L }, keys);
+    }
+
+    @Test
+    public void testEqualsIgnoresOrder() {
+        List<BridgeMacLink> bft = new ArrayList<BridgeMacLink>();
+        bft.add(link(1, 1, "000000000001"));
+        bft.add(link(1, 2, "000000000002"));
+        bft.add(link(1, 2, "000000000003"));
+        BridgeForwardingTable table = BridgeForwardingTable.create(bft);
+
+        List<BridgeMacLink> reversed = new ArrayList<BridgeMacLink>(bft);
+        Collections.reverse(reversed);
+        assertEquals(table, BridgeForwardingTable.create(reversed));
+        assertEquals(table.hashCode(), BridgeForwardingTable.create(reversed).hashCode());
+
+        // a mac moving to another port is a change
+        List<BridgeMacLink> moved = new ArrayList<BridgeMacLink>(bft);
+        moved.set(2, link(1, 1, "000000000003"));
+        assertFalse(table.equals(BridgeForwardingTable.create(moved)));
+
+        // as is a mac leaving the table
+        assertFalse(table.equals(BridgeForwardingTable.create(bft.subList(0, 2))));
+    }
+
+    @Test
+    public void testCommonMacs() {
+        List<BridgeMacLink> x = new ArrayList<BridgeMacLink>();
+        List<BridgeMacLink> y = new ArrayList<BridgeMacLink>();
+        for (int i = 0; i < 20; i++) {
+            x.add(link(1, i % 4, String.format("%012x", i)));
+            y.add(link(2, 1, String.format("%012x", i + 15)));
+        }
+        // the same mac on two ports counts once
+        x.add(link(1, 5, String.format("%012x", 19)));
+
+        BridgeForwardingTable xt = BridgeForwardingTable.create(x);
+        BridgeForwardingTable yt = BridgeForwardingTable.create(y);
+        assertEquals(21, xt.size());
+        assertEquals(20, xt.getMacCount());
+        assertEquals(5, xt.countCommonMacs(yt));
+        assertEquals(5, yt.countCommonMacs(xt));
+        assertEquals(5, xt.countCommonMacs(yt.getMacs()));
+        assertEquals(0, xt.countCommonMacs(BridgeForwardingTable.create(null)));
+
+        assertTrue(NodeDiscoveryBridgeTopology.isOnSameBroadcastDomain(5, xt.getMacCount()));
+        assertFalse(NodeDiscoveryBridgeTopology.isOnSameBroadcastDomain(1, 200));
+        assertTrue(NodeDiscoveryBridgeTopology.isOnSameBroadcastDomain(11, 200));
+    }
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.BridgeTopologyDaoInMemory;
+import org.opennms.netmgt.dao.api.BridgeBridgeLinkDao;
+import org.opennms.netmgt.dao.api.BridgeMacLinkDao;
+import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.BridgeMacLink.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.topology.Bridge;
+import org.opennms.netmgt.model.topology.BroadcastDomain;
+import org.opennms.netmgt.model.topology.SharedSegment;
+
+public class EnhancedLinkdServiceImplTest {
+
+    private static final int ROOT_ID = 1;
+    private static final int BRIDGE_ID = 2;
+
+    private final List<String> m_calls = new ArrayList<String>();
+    private final List<String> m_saved = new ArrayList<String>();
+    private boolean m_failNextSave;
+
+    private EnhancedLinkdServiceImpl m_service;
+
+    @Before
+    public void setUp() {
+        m_service = new EnhancedLinkdServiceImpl() {
+            @Override
+            protected void saveBridgeMacLink(BridgeMacLink saveMe) {
+                record("mac " + saveMe.getNode().getId() + ":" + saveMe.getBridgePort() + ":" + saveMe.getMacAddress());
+            }
+
+            @Override
+            protected void saveBridgeBridgeLink(BridgeBridgeLink saveMe) {
+                record("bridge " + saveMe.getNode().getId() + ":" + saveMe.getBridgePort());
+            }
+        };
+        m_service.setBridgeMacLinkDao(recorder(BridgeMacLinkDao.class));
+        m_service.setBridgeBridgeLinkDao(recorder(BridgeBridgeLinkDao.class));
+        m_service.setBridgeTopologyDao(new BridgeTopologyDaoInMemory());
+    }
+
+    @Test
+    public void testFirstStoreWritesEveryLink() {
+        final Date now = new Date();
+        m_service.store(domain(macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 1, "000daaaa0002")), now);
+
+        assertEquals(Arrays.asList("bridge 2:24", "mac 1:1:000daaaa0001", "mac 1:1:000daaaa0002"), m_saved);
+        assertTrue(m_calls.contains("BridgeMacLinkDao.deleteByNodeIdOlderThen " + ROOT_ID));
+        assertTrue(m_calls.contains("BridgeBridgeLinkDao.deleteByDesignatedNodeIdOlderThen " + BRIDGE_ID));
+    }
+
+    @Test
+    public void testSecondStoreWritesOnlyChangedLinks() {
+        final BroadcastDomain domain = domain(macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 1, "000daaaa0002"));
+        m_service.store(domain, new Date());
+        m_saved.clear();
+        m_calls.clear();
+
+        // mac 2 moved away, mac 3 showed up
+        replaceMacLinks(domain, macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 1, "000daaaa0003"));
+        m_service.store(domain, new Date());
+
+        assertEquals(Arrays.asList("mac 1:1:000daaaa0003"), m_saved);
+        assertTrue(m_calls.contains("BridgeMacLinkDao.getByNodeIdBridgePortMac " + ROOT_ID));
+        assertTrue(m_calls.contains("BridgeMacLinkDao.delete"));
+        assertFalse(m_calls.contains("BridgeBridgeLinkDao.delete"));
+        assertFalse(m_calls.contains("BridgeMacLinkDao.deleteByNodeIdOlderThen " + ROOT_ID));
+
+        // the poll time of the links that were not rewritten is refreshed per bridge
+        for (int nodeid : new int[] { ROOT_ID, BRIDGE_ID }) {
+            assertTrue(m_calls.contains("BridgeMacLinkDao.updateLastPollTimeByNodeId " + nodeid));
+            assertTrue(m_calls.contains("BridgeBridgeLinkDao.updateLastPollTimeByNodeId " + nodeid));
+        }
+    }
+
+    @Test
+    public void testUnchangedTopologyOnlyRefreshesPollTime() {
+        final BroadcastDomain domain = domain(macLink(ROOT_ID, 1, "000daaaa0001"));
+        m_service.store(domain, new Date());
+        m_saved.clear();
+        m_calls.clear();
+
+        m_service.store(domain, new Date());
+
+        assertTrue(m_saved.isEmpty());
+        assertEquals(4, m_calls.size());
+    }
+
+    @Test
+    public void testFailedWriteIsRetriedOnNextStore() {
+        final BroadcastDomain domain = domain(macLink(ROOT_ID, 1, "000daaaa0001"));
+        m_failNextSave = true;
+        try {
+            m_service.store(domain, new Date());
+            fail("the first write should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        m_saved.clear();
+
+        m_service.store(domain, new Date());
+        assertEquals(Arrays.asList("bridge 2:24", "mac 1:1:000daaaa0001"), m_saved);
+        m_saved.clear();
+
+        replaceMacLinks(domain, macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 1, "000daaaa0002"));
+        m_failNextSave = true;
+        try {
+            m_service.store(domain, new Date());
+            fail("the delta write should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        m_service.store(domain, new Date());
+        assertEquals(Arrays.asList("mac 1:1:000daaaa0002"), m_saved);
+    }
+
+    @Test
+    public void testUnchangedBftOnCalculatedDomainIsSkipped() {
+        final List<BridgeMacLink> bft = Arrays.asList(macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 2, "000daaaa0002"));
+
+        m_service.store(ROOT_ID, bft);
+        assertTrue(m_service.hasUpdatedBft(ROOT_ID));
+
+        // the topology calculation consumes the table and stores the domain
+        m_service.useBridgeTopologyUpdateBFT(ROOT_ID);
+        m_service.save(domain(bft.get(0)));
+        m_service.save(ROOT_ID, bft);
+        assertFalse(m_service.hasUpdatedBft(ROOT_ID));
+
+        m_service.store(ROOT_ID, Arrays.asList(macLink(ROOT_ID, 2, "000daaaa0002"), macLink(ROOT_ID, 1, "000daaaa0001")));
+        assertFalse(m_service.hasUpdatedBft(ROOT_ID));
+
+        m_service.store(ROOT_ID, Arrays.asList(macLink(ROOT_ID, 1, "000daaaa0001"), macLink(ROOT_ID, 3, "000daaaa0002")));
+        assertTrue(m_service.hasUpdatedBft(ROOT_ID));
+    }
+
+    @Test
+    public void testUnchangedBftIsQueuedUntilDomainIsCalculated() {
+        final List<BridgeMacLink> bft = Arrays.asList(macLink(ROOT_ID, 1, "000daaaa0001"));
+
+        m_service.store(ROOT_ID, bft);
+        m_service.useBridgeTopologyUpdateBFT(ROOT_ID);
+
+        m_service.store(ROOT_ID, Arrays.asList(macLink(ROOT_ID, 1, "000daaaa0001")));
+        assertTrue(m_service.hasUpdatedBft(ROOT_ID));
+    }
+
+    private void record(String link) {
+        if (m_failNextSave) {
+            m_failNextSave = false;
+            throw new IllegalStateException("cannot save " + link);
+        }
+        m_saved.add(link);
+    }
+
+    private static BridgeMacLink macLink(int nodeid, int port, String mac) {
+        OnmsNode node = new OnmsNode();
+        node.setId(nodeid);
+        BridgeMacLink link = new BridgeMacLink();
+        link.setNode(node);
+        link.setBridgePort(port);
+        link.setMacAddress(mac);
+        link.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+        return link;
+    }
+
+    // root bridge port 16 is connected to bridge port 24, macs are on root bridge port 1
+    private static BroadcastDomain domain(BridgeMacLink... macLinks) {
+        BroadcastDomain domain = new BroadcastDomain();
+        Bridge root = new Bridge(ROOT_ID);
+        root.setRootBridge(true);
+        domain.addBridge(root);
+        domain.addBridge(new Bridge(BRIDGE_ID));
+
+        OnmsNode rootNode = new OnmsNode();
+        rootNode.setId(ROOT_ID);
+        OnmsNode bridgeNode = new OnmsNode();
+        bridgeNode.setId(BRIDGE_ID);
+        BridgeBridgeLink blink = new BridgeBridgeLink();
+        blink.setNode(bridgeNode);
+        blink.setBridgePort(24);
+        blink.setDesignatedNode(rootNode);
+        blink.setDesignatedPort(16);
+        SharedSegment backbone = new SharedSegment(domain, blink);
+        backbone.setDesignatedBridge(ROOT_ID);
+        domain.add(backbone);
+
+        SharedSegment segment = new SharedSegment(domain, macLinks[0]);
+        for (int i = 1; i < macLinks.length; i++) {
+            segment.add(macLinks[i]);
+        }
+        domain.add(segment);
+        return domain;
+    }
+
+    private static void replaceMacLinks(BroadcastDomain domain, BridgeMacLink... macLinks) {
+        List<BridgeMacLink> links = domain.getTopology().get(1).getBridgeMacLinks();
+        links.clear();
+        links.addAll(Arrays.asList(macLinks));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T recorder(final Class<T> clazz) {
+        return (T)Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("flush".equals(method.getName())) {
+                    return null;
+                }
+                m_calls.add(clazz.getSimpleName() + "." + method.getName() + (args != null && args[0] instanceof Integer ? " " + args[0] : ""));
+                if ("getByNodeIdBridgePortMac".equals(method.getName())) {
+                    return new BridgeMacLink();
+                } else if ("getByNodeIdBridgePort".equals(method.getName())) {
+                    return new BridgeBridgeLink();
+                }
+                return null;
+            }
+        });
+    }
+}
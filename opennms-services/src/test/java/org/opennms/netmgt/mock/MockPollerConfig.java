@@ -335,6 +335,11 @@ public class MockPollerConfig extends PollOutagesConfigManager implements Poller
         return m_threads;
     }
 
+    @Override
+    public String getScheduler() {
+        return "legacy";
+    }
+
     /**
      * @param svcName
      * @return
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import org.junit.After;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.OnmsOutage;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Runs the {@link AvailabilityServiceIT} tests against the
+ * {@link IncrementalAvailabilityService}.
+ *
+ * The service loads its model when it is created, so a new instance is
+ * created once the test has populated the database. Outages are fed to it
+ * using the events the poller sends when they are opened and closed.
+ */
+public class IncrementalAvailabilityServiceIT extends AvailabilityServiceIT {
+
+    @Autowired
+    private ApplicationContext m_applicationContext;
+
+    private IncrementalAvailabilityService m_incrementalAvailabilityService;
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_incrementalAvailabilityService != null) {
+            m_incrementalAvailabilityService.destroy();
+        }
+    }
+
+    @Override
+    protected AvailabilityService getAvailabilityService() {
+        if (m_incrementalAvailabilityService == null) {
+            m_incrementalAvailabilityService = m_applicationContext.getAutowireCapableBeanFactory().createBean(IncrementalAvailabilityService.class);
+        }
+        return m_incrementalAvailabilityService;
+    }
+
+    @Override
+    protected void outageSaved(OnmsOutage outage) {
+        m_incrementalAvailabilityService.handleOutageCreated(new EventBuilder(EventConstants.OUTAGE_CREATED_EVENT_UEI, "Test", outage.getIfLostService())
+            .setMonitoredService(outage.getMonitoredService())
+            .getEvent());
+        if (outage.getIfRegainedService() != null) {
+            m_incrementalAvailabilityService.handleOutageResolved(new EventBuilder(EventConstants.OUTAGE_RESOLVED_EVENT_UEI, "Test", outage.getIfRegainedService())
+                .setMonitoredService(outage.getMonitoredService())
+                .getEvent());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.categories.Category;
+
+public class RTCNodeAvailabilityTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private static final long WINDOW = 24L * HOUR;
+
+    private final InetAddress m_ip = InetAddressUtils.addr("192.168.1.1");
+
+    private RTCCategory m_allServices;
+
+    private RTCCategory m_icmpOnly;
+
+    private RTCNodeAvailability m_node;
+
+    @Before
+    public void setUp() {
+        m_allServices = createCategory("All");
+        m_icmpOnly = createCategory("ICMP Only", "ICMP");
+
+        m_node = new RTCNodeAvailability(1, WINDOW);
+        m_node.addService(m_ip, "ICMP");
+        m_node.addService(m_ip, "SNMP");
+    }
+
+    @Test
+    public void countsServicesInCategory() {
+        assertEquals(2, m_node.getServiceCount(m_allServices));
+        assertEquals(1, m_node.getServiceCount(m_icmpOnly));
+
+        m_node.addService(m_ip, "ICMP");
+        assertEquals(2, m_node.getServiceCount(m_allServices));
+
+        m_node.removeService(m_ip, "SNMP");
+        assertEquals(1, m_node.getServiceCount(m_allServices));
+    }
+
+    @Test
+    public void tracksOpenAndClosedOutages() {
+        final long now = System.currentTimeMillis();
+
+        m_node.serviceLost(m_ip, "SNMP", now - 2 * HOUR);
+        // a second lost event for an open outage is ignored
+        m_node.serviceLost(m_ip, "SNMP", now - HOUR);
+        assertEquals(1, m_node.getServiceDownCount(m_allServices));
+        assertEquals(0, m_node.getServiceDownCount(m_icmpOnly));
+        assertEquals(2 * HOUR, m_node.getDownTime(m_allServices, now, WINDOW));
+
+        m_node.serviceRegained(m_ip, "SNMP", now - HOUR);
+        assertEquals(0, m_node.getServiceDownCount(m_allServices));
+        assertEquals(HOUR, m_node.getDownTime(m_allServices, now, WINDOW));
+        assertEquals(0, m_node.getDownTime(m_icmpOnly, now, WINDOW));
+
+        // outages that started before the window only count from the start of it
+        m_node.addSvcTime(m_ip, "ICMP", now - 2 * WINDOW, now - WINDOW + HOUR);
+        assertEquals(HOUR, m_node.getDownTime(m_icmpOnly, now, WINDOW));
+        assertEquals(2 * HOUR, m_node.getDownTime(m_allServices, now, WINDOW));
+    }
+
+    @Test
+    public void ignoresRegainedWithoutLost() {
+        final long now = System.currentTimeMillis();
+
+        m_node.serviceRegained(m_ip, "ICMP", now);
+        m_node.serviceRegained(m_ip, "HTTP", now);
+        assertEquals(0, m_node.getServiceDownCount(m_allServices));
+        assertEquals(0, m_node.getDownTime(m_allServices, now, WINDOW));
+        assertEquals(2, m_node.getServiceCount(m_allServices));
+    }
+
+    private static RTCCategory createCategory(String label, String... services) {
+        final Category cat = new Category();
+        cat.setLabel(label);
+        cat.setRule("IPADDR != '0.0.0.0'");
+        cat.setNormal(99.99);
+        cat.setWarning(97.0);
+        for (String service : services) {
+            cat.addService(service);
+        }
+        return new RTCCategory(cat, "IPADDR != '0.0.0.0'");
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        // a small wheel so that the higher levels get cascaded during the test
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 10, 4);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    private class TimedRunnable implements ReadyRunnable {
+        private final long m_due;
+        private final CountDownLatch m_latch;
+        private volatile long m_ranAt = -1;
+
+        public TimedRunnable(long interval, CountDownLatch latch) {
+            m_due = System.currentTimeMillis() + interval;
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_ranAt = System.currentTimeMillis();
+            m_latch.countDown();
+        }
+    }
+
+    @Test
+    public void testRunsEachRunnableOnceWhenDue() throws Exception {
+        final long[] intervals = new long[] { 0, 5, 25, 90, 170, 400, 700, 1300 };
+        final CountDownLatch latch = new CountDownLatch(intervals.length);
+        final TimedRunnable[] runnables = new TimedRunnable[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            runnables[i] = new TimedRunnable(intervals[i], latch);
+            m_scheduler.schedule(intervals[i], runnables[i]);
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (final TimedRunnable runnable : runnables) {
+            assertTrue("ran " + (runnable.m_due - runnable.m_ranAt) + "ms early", runnable.m_ranAt >= runnable.m_due);
+        }
+        assertEquals(intervals.length, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(Fiber.RUNNING, m_scheduler.getStatus());
+    }
+
+    @Test
+    public void testRetriesRunnableThatIsNotReady() throws Exception {
+        final AtomicInteger checks = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return checks.incrementAndGet() > 1;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(TimingWheelScheduler.NOT_READY_RETRY_DELAY * 5, TimeUnit.MILLISECONDS));
+        assertEquals(2, checks.get());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+}
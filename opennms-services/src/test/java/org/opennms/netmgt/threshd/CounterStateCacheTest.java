@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.netmgt.threshd.CollectionResourceWrapper.CacheEntry;
+
+public class CounterStateCacheTest {
+
+    private static final long STEP = 300000L;
+
+    @Test
+    public void testPutReturnsPreviousValue() {
+        final CounterStateCache cache = new CounterStateCache(4, 5);
+        final Date first = new Date(1000000L);
+        final Date second = new Date(first.getTime() + STEP);
+
+        assertNull(cache.put("node[1].metric[ifInOctets]", first, 100.0, STEP));
+        final CacheEntry previous = cache.put("node[1].metric[ifInOctets]", second, 200.0, STEP);
+        assertEquals(first, previous.getTimestamp());
+        assertEquals(Double.valueOf(100.0), previous.getValue());
+        assertEquals(Double.valueOf(200.0), cache.get("node[1].metric[ifInOctets]").getValue());
+        assertFalse(cache.containsKey("node[1].metric[ifOutOctets]"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testGrowAndClear() {
+        final CounterStateCache cache = new CounterStateCache(3, 5);
+        assertEquals(4, cache.getShardCount());
+        final Date now = new Date();
+        for (int i = 0; i < 10000; i++) {
+            cache.put("node[" + i + "].metric[ifInOctets]", now, i, STEP);
+        }
+        assertEquals(10000, cache.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Double.valueOf(i), cache.get("node[" + i + "].metric[ifInOctets]").getValue());
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testHashCollision() {
+        // every id has the same hash, so only the stored id tells them apart
+        final CounterStateCache cache = new CounterStateCache(1, 5) {
+            @Override
+            long hash(final String id) {
+                return 42L;
+            }
+        };
+        final Date now = new Date(1000000L);
+
+        assertNull(cache.put("node[1].metric[ifInOctets]", now, 100.0, STEP));
+        assertNull(cache.put("node[2].metric[ifInOctets]", now, 200.0, STEP));
+        assertNull(cache.get("node[3].metric[ifInOctets]"));
+        assertEquals(Double.valueOf(100.0), cache.get("node[1].metric[ifInOctets]").getValue());
+        assertEquals(Double.valueOf(200.0), cache.get("node[2].metric[ifInOctets]").getValue());
+        assertEquals(2, cache.size());
+
+        // the ids are kept apart when the table grows
+        for (int i = 3; i < 40; i++) {
+            assertNull(cache.put("node[" + i + "].metric[ifInOctets]", now, i * 100.0, STEP));
+        }
+        assertEquals(Double.valueOf(100.0), cache.put("node[1].metric[ifInOctets]", now, 101.0, STEP).getValue());
+        for (int i = 2; i < 40; i++) {
+            assertEquals(Double.valueOf(i * 100.0), cache.get("node[" + i + "].metric[ifInOctets]").getValue());
+        }
+        assertEquals(39, cache.size());
+    }
+
+    @Test
+    public void testExpiration() {
+        final CounterStateCache cache = new CounterStateCache(2, 3);
+        final long start = 1000000L;
+        cache.put("stale", new Date(start), 1.0, STEP);
+        cache.put("fresh", new Date(start + 2 * STEP), 2.0, STEP);
+
+        cache.expire(start + 3 * STEP - 1);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        cache.expire(start + 3 * STEP);
+        assertFalse(cache.containsKey("stale"));
+        assertTrue(cache.containsKey("fresh"));
+        assertEquals(1, cache.getEvictions());
+    }
+}
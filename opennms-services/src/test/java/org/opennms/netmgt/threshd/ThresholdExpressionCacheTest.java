@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.threshd.ThresholdExpressionCache.CompiledExpression;
+
+public class ThresholdExpressionCacheTest {
+
+    private static final String[] ARITHMETIC = new String[] {
+        "a",
+        "-a",
+        "a + b",
+        "a - b - c",
+        "a * 8 / b * 100",
+        "(a * 8 / b) * 100",
+        "a / 0",
+        "a % 0",
+        "a % 3",
+        "a * 0.123456789",
+        "a / 4",
+        "-(a - b) * -2",
+        "a-b",
+        "ns-dskTotal - ns-dskUsed",
+        "((a + b) * (c - a)) / (b + 0.5)",
+        "7"
+    };
+
+    private static final String[] NOT_ARITHMETIC = new String[] {
+        "math.max(a, b)",
+        "datasources['a'] - datasources['b']",
+        "a > 0 ? a : b",
+        "a + 10 / 4",
+        "a * 1.5f",
+        "a * 0x10",
+        "a * 010",
+        "a * 10L",
+        "a.b",
+        "a div b",
+        "a == b"
+    };
+
+    @Test
+    public void testFastPathMatchesJexl() throws Exception {
+        final ThresholdExpressionCache fast = new ThresholdExpressionCache(100, true);
+        final ThresholdExpressionCache jexl = new ThresholdExpressionCache(100, false);
+
+        final Map<String, Double> values = new HashMap<String, Double>();
+        values.put("a", 3.0);
+        values.put("b", 7.5);
+        values.put("c", -11.0);
+        values.put("ns", 100.0);
+        values.put("dskTotal", 40.0);
+        values.put("dskUsed", 2.0);
+
+        for (final String expression : ARITHMETIC) {
+            final CompiledExpression compiled = fast.getExpression(expression);
+            assertTrue(expression, compiled.isFastPath());
+            assertEquals(expression, toDouble(jexl.getExpression(expression).evaluate(values)), toDouble(compiled.evaluate(values)), 0.0);
+        }
+        for (final String expression : NOT_ARITHMETIC) {
+            assertFalse(expression, fast.getExpression(expression).isFastPath());
+        }
+    }
+
+    @Test
+    public void testMissingDatasourceFallsBackToJexl() throws Exception {
+        final CompiledExpression compiled = new ThresholdExpressionCache(10, true).getExpression("a + b");
+        assertTrue(compiled.isFastPath());
+
+        final Map<String, Double> values = new HashMap<String, Double>();
+        values.put("a", 3.0);
+        assertEquals(3.0, toDouble(compiled.evaluate(values)), 0.0);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        final ThresholdExpressionCache cache = new ThresholdExpressionCache(2, true);
+        final CompiledExpression first = cache.getExpression("a + 1");
+        assertSame(first, cache.getExpression("a + 1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.getExpression("b + 1");
+        cache.getExpression("c + 1");
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getMisses());
+    }
+
+    private static double toDouble(final Object result) {
+        return Double.parseDouble(result.toString());
+    }
+}